@@ -8,6 +8,9 @@
 import io.dropwizard.jetty.setup.ServletEnvironment;
 import io.dropwizard.web.WebBundle;
 import io.dropwizard.web.conf.WebConfiguration;
+import io.jitter.core.cache.ResultCache;
+import io.jitter.core.search.BatchSearchFactory;
+import io.jitter.core.search.RequestExecutor;
 import io.jitter.core.search.SearchManager;
 import io.jitter.core.selection.SelectionManager;
 import io.jitter.core.shards.ShardsManager;
@@ -74,22 +77,31 @@ public void run(JitterSearchConfiguration configuration,
                 new TwitterManagerHealthCheck(twitterManager);
         environment.healthChecks().register("twitter-manager", twitterManagerHealthCheck);
 
+        final ResultCache resultCache = configuration.getResultCacheFactory().build(environment);
+        environment.admin().addTask(new ResultCacheClearTask(resultCache));
+
         final SearchManager searchManager = configuration.getSearchManagerFactory().build(environment, configuration.isLive());
         final SearchManagerHealthCheck searchManagerHealthCheck =
                 new SearchManagerHealthCheck(searchManager);
         environment.healthChecks().register("search-manager", searchManagerHealthCheck);
         environment.admin().addTask(new SearchManagerIndexTask(searchManager));
         environment.admin().addTask(new SearchManagerForceMergeTask(searchManager));
+        environment.admin().addTask(new SearchManagerMigrateColumnsTask(searchManager));
 
-        final SearchResource searchResource = new SearchResource(searchManager);
+        final SearchResource searchResource = new SearchResource(searchManager, resultCache);
         environment.jersey().register(searchResource);
 
         final TopTermsResource topTermsResource = new TopTermsResource(searchManager);
         environment.jersey().register(topTermsResource);
 
-        final FeedbackResource feedbackResource = new FeedbackResource(searchManager);
+        final FeedbackResource feedbackResource = new FeedbackResource(searchManager, resultCache);
         environment.jersey().register(feedbackResource);
 
+        final BatchSearchFactory batchSearchFactory = configuration.getBatchSearchFactory();
+        final BatchSearchResource batchSearchResource = new BatchSearchResource(searchManager, batchSearchFactory.build(environment),
+                batchSearchFactory.getMaxTopics(), environment.getObjectMapper());
+        environment.jersey().register(batchSearchResource);
+
         final WikipediaManager wikipediaManager = configuration.getWikipediaManagerFactory().build(environment);
         final WikipediaManagerHealthCheck wikipediaManagerHealthCheck =
                 new WikipediaManagerHealthCheck(wikipediaManager);
@@ -119,6 +131,7 @@ public void run(JitterSearchConfiguration configuration,
         environment.healthChecks().register("shards", shardsManagerHealthCheck);
         environment.admin().addTask(new ShardsManagerIndexTask(shardsManager));
         environment.admin().addTask(new ShardsManagerForceMergeTask(shardsManager));
+        environment.admin().addTask(new ShardsManagerMigrateColumnsTask(shardsManager));
         environment.admin().addTask(new ShardsManagerStatsTask(shardsManager));
         
         final SelectionManager selectionManager = configuration.getSelectionManagerFactory().build(environment, configuration.isLive());
@@ -135,7 +148,9 @@ public void run(JitterSearchConfiguration configuration,
 
         final TailyResource tailyResource = new TailyResource(tailyManager);
         environment.jersey().register(tailyResource);
+        environment.jersey().register(new TailyUnavailableExceptionMapper());
         environment.admin().addTask(new TailyManagerIndexTask(tailyManager));
+        environment.admin().addTask(new TailyManagerMigrateStoresTask(tailyManager));
         
         final SelectionStatsResource selectionStatsResource = new SelectionStatsResource(selectionManager);
         environment.jersey().register(selectionStatsResource);
@@ -152,13 +167,15 @@ public void run(JitterSearchConfiguration configuration,
         final SelectionResource selectionResource = new SelectionResource(selectionManager, tailyManager);
         environment.jersey().register(selectionResource);
 
-        final SelectSearchResource selectSearchResource = new SelectSearchResource(selectionManager, shardsManager, tailyManager);
+        final RequestExecutor requestExecutor = configuration.getRequestExecutorFactory().build(environment);
+
+        final SelectSearchResource selectSearchResource = new SelectSearchResource(selectionManager, shardsManager, tailyManager, requestExecutor);
         environment.jersey().register(selectSearchResource);
 
-        final MultiFeedbackResource multiFeedbackResource = new MultiFeedbackResource(searchManager, selectionManager, shardsManager, tailyManager);
+        final MultiFeedbackResource multiFeedbackResource = new MultiFeedbackResource(searchManager, selectionManager, shardsManager, tailyManager, resultCache, requestExecutor);
         environment.jersey().register(multiFeedbackResource);
 
-        final RMTSResource RMTSResource = new RMTSResource(searchManager, selectionManager, shardsManager, tailyManager);
+        final RMTSResource RMTSResource = new RMTSResource(searchManager, selectionManager, shardsManager, tailyManager, resultCache, requestExecutor);
         environment.jersey().register(RMTSResource);
 
 
@@ -175,7 +192,7 @@ public void run(JitterSearchConfiguration configuration,
         final TrecShardsFeedbackResource trecShardsFeedbackResource = new TrecShardsFeedbackResource(trecMicroblogAPIWrapper, shardsManager);
         environment.jersey().register(trecShardsFeedbackResource);
 
-        final TrecMultiFeedbackResource trecMultiFeedbackResource = new TrecMultiFeedbackResource(trecMicroblogAPIWrapper, selectionManager, shardsManager, tailyManager);
+        final TrecMultiFeedbackResource trecMultiFeedbackResource = new TrecMultiFeedbackResource(trecMicroblogAPIWrapper, selectionManager, shardsManager, tailyManager, requestExecutor);
         environment.jersey().register(trecMultiFeedbackResource);
 
         final TrecRMTSResource trecRMTSResource = new TrecRMTSResource(trecMicroblogAPIWrapper, selectionManager, shardsManager, tailyManager);
@@ -198,7 +215,9 @@ public void run(JitterSearchConfiguration configuration,
 
             UserStream userStream;
             if (configuration.isIndexing()) {
-                final LiveStreamIndexer userStreamIndexer = new LiveStreamIndexer(shardsManager.getIndexPath(), 10);
+                final LiveStreamIndexer userStreamIndexer = new LiveStreamIndexer(shardsManager.getIndexPath(), 10, shardsManager.isTimeSorted(), shardsManager.isShardIndexes());
+                userStreamIndexer.setShardStatsCounter(shardsManager.getShardStatsCounter());
+                userStreamIndexer.setTailyUpdater(tailyManager.getUpdater());
                 userStream = new UserStream(oAuth1,
                         Lists.newArrayList(timelineSseResource, userStreamIndexer),
                         Lists.newArrayList(timelineSseResource, userRawStreamLogger));
@@ -220,7 +239,7 @@ public void run(JitterSearchConfiguration configuration,
 
             SampleStream statusStream;
             if (configuration.isIndexing()) {
-                final LiveStreamIndexer statusStreamIndexer = new LiveStreamIndexer(searchManager.getIndexPath(), 10000);
+                final LiveStreamIndexer statusStreamIndexer = new LiveStreamIndexer(searchManager.getIndexPath(), 10000, searchManager.isTimeSorted(), searchManager.getPartitioning());
                 statusStream = new SampleStream(oAuth2BearerToken,
                         Lists.newArrayList(sampleSseResource, statusStreamIndexer),
                         Lists.newArrayList(sampleSseResource, statusRawStreamLogger));
@@ -3,6 +3,9 @@
 import com.fasterxml.jackson.annotation.JsonProperty;
 import io.dropwizard.core.Configuration;
 import io.dropwizard.web.conf.WebConfiguration;
+import io.jitter.core.cache.ResultCacheFactory;
+import io.jitter.core.search.BatchSearchFactory;
+import io.jitter.core.search.RequestExecutorFactory;
 import io.jitter.core.search.SearchManagerFactory;
 import io.jitter.core.selection.SelectionManagerFactory;
 import io.jitter.core.shards.ShardsManagerFactory;
@@ -68,6 +71,18 @@ public class JitterSearchConfiguration extends Configuration {
     @NotNull
     private WikipediaManagerFactory wikipediaManagerFactory = new WikipediaManagerFactory();
 
+    @Valid
+    @NotNull
+    private ResultCacheFactory resultCacheFactory = new ResultCacheFactory();
+
+    @Valid
+    @NotNull
+    private BatchSearchFactory batchSearchFactory = new BatchSearchFactory();
+
+    @Valid
+    @NotNull
+    private RequestExecutorFactory requestExecutorFactory = new RequestExecutorFactory();
+
     @JsonProperty("apidocs")
     public ApiDocsFactory getApiDocsFactory() {
         return apiDocsFactory;
@@ -197,4 +212,34 @@ public WikipediaManagerFactory getWikipediaManagerFactory() {
     public void setWikipediaManagerFactory(WikipediaManagerFactory wikipediaManagerFactory) {
         this.wikipediaManagerFactory = wikipediaManagerFactory;
     }
+
+    @JsonProperty("cache")
+    public ResultCacheFactory getResultCacheFactory() {
+        return resultCacheFactory;
+    }
+
+    @JsonProperty("cache")
+    public void setResultCacheFactory(ResultCacheFactory resultCacheFactory) {
+        this.resultCacheFactory = resultCacheFactory;
+    }
+
+    @JsonProperty("batch")
+    public BatchSearchFactory getBatchSearchFactory() {
+        return batchSearchFactory;
+    }
+
+    @JsonProperty("batch")
+    public void setBatchSearchFactory(BatchSearchFactory batchSearchFactory) {
+        this.batchSearchFactory = batchSearchFactory;
+    }
+
+    @JsonProperty("requests")
+    public RequestExecutorFactory getRequestExecutorFactory() {
+        return requestExecutorFactory;
+    }
+
+    @JsonProperty("requests")
+    public void setRequestExecutorFactory(RequestExecutorFactory requestExecutorFactory) {
+        this.requestExecutorFactory = requestExecutorFactory;
+    }
 }
@@ -0,0 +1,50 @@
+package io.jitter.api.collectionstatistics;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the term statistics looked up from another {@link CollectionStats}. Only valid as long as the
+ * statistics it wraps do not change, e.g. those of one reader.
+ */
+public class CachingCollectionStats implements CollectionStats {
+
+    private final CollectionStats collectionStats;
+    private final Map<String, Integer> docFreqs = new ConcurrentHashMap<>();
+    private final Map<String, Long> totalTermFreqs = new ConcurrentHashMap<>();
+
+    public CachingCollectionStats(CollectionStats collectionStats) {
+        this.collectionStats = collectionStats;
+    }
+
+    @Override
+    public int docFreq(String term) {
+        return docFreqs.computeIfAbsent(term, collectionStats::docFreq);
+    }
+
+    @Override
+    public long totalTermFreq(String term) {
+        return totalTermFreqs.computeIfAbsent(term, collectionStats::totalTermFreq);
+    }
+
+    @Override
+    public int numDocs() {
+        return collectionStats.numDocs();
+    }
+
+    @Override
+    public long getSumDocFreq() {
+        return collectionStats.getSumDocFreq();
+    }
+
+    @Override
+    public long getSumTotalTermFreq() {
+        return collectionStats.getSumTotalTermFreq();
+    }
+
+    @Override
+    public int numTerms() throws IOException {
+        return collectionStats.numTerms();
+    }
+}
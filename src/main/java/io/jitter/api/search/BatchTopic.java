@@ -0,0 +1,166 @@
+package io.jitter.api.search;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Pattern;
+
+/**
+ * A topic of a batch search request, with the parameters of the {@code /search} or {@code /fb} request it stands for.
+ */
+public class BatchTopic {
+
+    @NotBlank
+    private String id;
+
+    @NotBlank
+    private String q;
+
+    private String fq = "";
+
+    private Long maxId;
+
+    private String epoch;
+
+    @Min(1)
+    @Max(10000)
+    private int limit = 1000;
+
+    private boolean retweets = false;
+
+    @Pattern(regexp = "search|fb")
+    private String mode = "search";
+
+    private boolean sRetweets = true;
+
+    @Min(1)
+    @Max(1000)
+    private int fbDocs = 50;
+
+    @Min(1)
+    @Max(1000)
+    private int fbTerms = 20;
+
+    private double fbWeight = 0.5;
+
+    @JsonProperty
+    public String getId() {
+        return id;
+    }
+
+    @JsonProperty
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    @JsonProperty
+    public String getQ() {
+        return q;
+    }
+
+    @JsonProperty
+    public void setQ(String q) {
+        this.q = q;
+    }
+
+    @JsonProperty
+    public String getFq() {
+        return fq;
+    }
+
+    @JsonProperty
+    public void setFq(String fq) {
+        this.fq = fq;
+    }
+
+    @JsonProperty
+    public Long getMaxId() {
+        return maxId;
+    }
+
+    @JsonProperty
+    public void setMaxId(Long maxId) {
+        this.maxId = maxId;
+    }
+
+    @JsonProperty
+    public String getEpoch() {
+        return epoch;
+    }
+
+    @JsonProperty
+    public void setEpoch(String epoch) {
+        this.epoch = epoch;
+    }
+
+    @JsonProperty
+    public int getLimit() {
+        return limit;
+    }
+
+    @JsonProperty
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    @JsonProperty
+    public boolean isRetweets() {
+        return retweets;
+    }
+
+    @JsonProperty
+    public void setRetweets(boolean retweets) {
+        this.retweets = retweets;
+    }
+
+    @JsonProperty
+    public String getMode() {
+        return mode;
+    }
+
+    @JsonProperty
+    public void setMode(String mode) {
+        this.mode = mode;
+    }
+
+    @JsonProperty("sRetweets")
+    public boolean isSRetweets() {
+        return sRetweets;
+    }
+
+    @JsonProperty("sRetweets")
+    public void setSRetweets(boolean sRetweets) {
+        this.sRetweets = sRetweets;
+    }
+
+    @JsonProperty
+    public int getFbDocs() {
+        return fbDocs;
+    }
+
+    @JsonProperty
+    public void setFbDocs(int fbDocs) {
+        this.fbDocs = fbDocs;
+    }
+
+    @JsonProperty
+    public int getFbTerms() {
+        return fbTerms;
+    }
+
+    @JsonProperty
+    public void setFbTerms(int fbTerms) {
+        this.fbTerms = fbTerms;
+    }
+
+    @JsonProperty
+    public double getFbWeight() {
+        return fbWeight;
+    }
+
+    @JsonProperty
+    public void setFbWeight(double fbWeight) {
+        this.fbWeight = fbWeight;
+    }
+}
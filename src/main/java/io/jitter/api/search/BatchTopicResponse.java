@@ -0,0 +1,54 @@
+package io.jitter.api.search;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+@JsonPropertyOrder({"topic", "status", "qtime", "error", "response"})
+public class BatchTopicResponse {
+
+    private String topic;
+    private int status;
+    private long QTime;
+    private String error;
+    private DocumentsResponse response;
+
+    public BatchTopicResponse() {
+        // Jackson deserialization
+    }
+
+    public BatchTopicResponse(String topic, int status, long QTime, String error, DocumentsResponse response) {
+        this.topic = topic;
+        this.status = status;
+        this.QTime = QTime;
+        this.error = error;
+        this.response = response;
+    }
+
+    @JsonProperty
+    public String getTopic() {
+        return topic;
+    }
+
+    @JsonProperty
+    public int getStatus() {
+        return status;
+    }
+
+    @JsonProperty
+    public long getQTime() {
+        return QTime;
+    }
+
+    @JsonProperty
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String getError() {
+        return error;
+    }
+
+    @JsonProperty
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public DocumentsResponse getResponse() {
+        return response;
+    }
+}
@@ -1,5 +1,6 @@
 package io.jitter.api.search;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import io.jitter.core.search.TopDocuments;
@@ -7,12 +8,13 @@
 
 import java.util.List;
 
-@JsonPropertyOrder({"numFound", "start", "docs"})
+@JsonPropertyOrder({"numFound", "start", "nextCursor", "docs"})
 public class DocumentsResponse {
 
     private int numFound;
     private int start;
     private List<?> docs;
+    private String nextCursor;
 
     public DocumentsResponse() {
         // Jackson deserialization
@@ -28,6 +30,7 @@ public DocumentsResponse(int numFound, int start, TopDocuments topDocuments) {
         this.numFound = numFound;
         this.start = start;
         this.docs = topDocuments.scoreDocs;
+        this.nextCursor = topDocuments.nextCursor;
     }
 
     public DocumentsResponse(int numFound, int start, WikipediaTopDocuments topDocuments) {
@@ -50,4 +53,10 @@ public int getStart() {
     public List<?> getDocs() {
         return docs;
     }
+
+    @JsonProperty
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String getNextCursor() {
+        return nextCursor;
+    }
 }
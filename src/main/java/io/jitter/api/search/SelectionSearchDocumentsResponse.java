@@ -1,5 +1,6 @@
 package io.jitter.api.search;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import io.jitter.core.selection.SelectionTopDocuments;
@@ -8,7 +9,7 @@
 import java.util.Map;
 import java.util.Set;
 
-@JsonPropertyOrder({"method", "c_sel", "c_r", "collections", "numFound", "start", "selectDocs", "docs"})
+@JsonPropertyOrder({"method", "c_sel", "c_r", "collections", "numFound", "start", "nextCursor", "selectDocs", "docs"})
 public class SelectionSearchDocumentsResponse {
 
     private Set<Map.Entry<String, Double>> collections;
@@ -19,6 +20,7 @@ public class SelectionSearchDocumentsResponse {
     private int start;
     private List<?> selectDocs;
     private List<?> shardDocs;
+    private String nextCursor;
 
     public SelectionSearchDocumentsResponse() {
         // Jackson deserialization
@@ -44,6 +46,7 @@ public SelectionSearchDocumentsResponse(Set<Map.Entry<String, Double>> collectio
             this.numFound = shardTopDocuments.totalHits;
             this.shardDocs = shardTopDocuments.scoreDocs;
             this.c_r = shardTopDocuments.getC_r();
+            this.nextCursor = shardTopDocuments.nextCursor;
         }
         this.start = start;
     }
@@ -57,6 +60,7 @@ public SelectionSearchDocumentsResponse(Set<Map.Entry<String, Double>> collectio
             this.numFound = shardTopDocuments.totalHits;
             this.shardDocs = shardTopDocuments.scoreDocs;
             this.c_r = shardTopDocuments.getC_r();
+            this.nextCursor = shardTopDocuments.nextCursor;
         }
         this.start = start;
     }
@@ -100,4 +104,10 @@ public int getC_sel() {
     public int getC_r() {
         return c_r;
     }
+
+    @JsonProperty
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String getNextCursor() {
+        return nextCursor;
+    }
 }
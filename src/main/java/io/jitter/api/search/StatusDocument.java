@@ -60,7 +60,7 @@ public StatusDocument(TResult other) {
     }
 
     public StatusDocument(org.apache.lucene.document.Document hit) {
-        if (hit.get(IndexStatuses.StatusField.SCREEN_NAME.name) != null) {
+        if (hit.get(IndexStatuses.StatusField.ID.name) != null) {
             this.id = (Long) hit.getField(IndexStatuses.StatusField.ID.name).numericValue();
         }
 
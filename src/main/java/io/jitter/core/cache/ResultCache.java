@@ -0,0 +1,193 @@
+package io.jitter.core.cache;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.jitter.core.search.SearchSnapshot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded cache of endpoint responses keyed by the request parameters.
+ * <p>
+ * Every entry records the reader versions of the indexes it was computed from, see {@link Generation}. A lookup made
+ * after any of those readers was refreshed drops the entry instead of returning it, so cached responses never outlive
+ * the index state they were computed on. Entries are weighed by their number of documents and also expire after
+ * a fixed time, since rankings relative to the current time (e.g. recency) change without a refresh.
+ */
+public class ResultCache {
+
+    private static final Set<String> QUERY_PARAMS = Set.of("q", "fq");
+
+    private final boolean enabled;
+    private final Cache<Key, Entry> cache;
+    // stale entries dropped count as misses, though the cache found them
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stale = new AtomicLong();
+
+    public ResultCache(boolean enabled, long maxDocuments, long expireAfterWriteMillis) {
+        this.enabled = enabled;
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxDocuments)
+                .weigher((Key key, Entry entry) -> entry.weight)
+                .expireAfterWrite(expireAfterWriteMillis, TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the key of a request to {@code endpoint}, with whitespace in the queries normalized
+     */
+    public Key key(String endpoint, Map<String, List<String>> params) {
+        TreeMap<String, List<String>> normalized = new TreeMap<>();
+        for (Map.Entry<String, List<String>> param : params.entrySet()) {
+            List<String> values = param.getValue();
+            if (QUERY_PARAMS.contains(param.getKey())) {
+                values = new ArrayList<>(values.size());
+                for (String value : param.getValue()) {
+                    values.add(value.trim().replaceAll("\\s+", " "));
+                }
+            }
+            normalized.put(param.getKey(), List.copyOf(values));
+        }
+        return new Key(endpoint, normalized);
+    }
+
+    /**
+     * @param snapshot the reader the response is computed on
+     * @param others   versions of the other indexes or stores the response is computed from, which it acquires
+     *                 readers of on its own
+     * @return the versions the response depends on
+     */
+    public Generation generation(SearchSnapshot snapshot, LongSupplier... others) {
+        return new Generation(snapshot, others);
+    }
+
+    /**
+     * @return the cached response, or null if there is none for the given reader versions
+     */
+    public <T> T get(Key key, Generation generation, Class<T> type) {
+        if (!enabled) {
+            return null;
+        }
+        Entry entry = cache.getIfPresent(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (!Arrays.equals(entry.generation, generation.versions)) {
+            cache.asMap().remove(key, entry);
+            stale.incrementAndGet();
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return type.cast(entry.value);
+    }
+
+    /**
+     * Caches a response, unless one of the other indexes of its generation was refreshed while it was computed.
+     */
+    public void put(Key key, Generation generation, Object value, int numDocs) {
+        if (enabled && generation.isCurrent()) {
+            cache.put(key, new Entry(generation.versions, value, numDocs + 1));
+        }
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    public void registerMetrics(MetricRegistry metrics, Class<?> klass) {
+        metrics.register(MetricRegistry.name(klass, "hits"), (Gauge<Long>) hits::get);
+        metrics.register(MetricRegistry.name(klass, "misses"), (Gauge<Long>) misses::get);
+        metrics.register(MetricRegistry.name(klass, "evictions"), (Gauge<Long>) () -> cache.stats().evictionCount());
+        metrics.register(MetricRegistry.name(klass, "stale"), (Gauge<Long>) stale::get);
+        metrics.register(MetricRegistry.name(klass, "entries"), (Gauge<Long>) cache::estimatedSize);
+    }
+
+    /**
+     * The reader versions a response depends on: that of the snapshot it is computed on, and those of the other
+     * indexes when it starts. The readers of those are acquired later on, so the response is only cached if their
+     * versions are the same once it is computed.
+     */
+    public static final class Generation {
+        private final long[] versions;
+        private final LongSupplier[] others;
+
+        private Generation(SearchSnapshot snapshot, LongSupplier[] others) {
+            this.others = others;
+            this.versions = new long[1 + others.length];
+            versions[0] = snapshot.getVersion();
+            for (int i = 0; i < others.length; i++) {
+                versions[1 + i] = others[i].getAsLong();
+            }
+        }
+
+        private boolean isCurrent() {
+            for (int i = 0; i < others.length; i++) {
+                if (others[i].getAsLong() != versions[1 + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    public static final class Key {
+        private final String endpoint;
+        private final Map<String, List<String>> params;
+        private final int hashCode;
+
+        private Key(String endpoint, Map<String, List<String>> params) {
+            this.endpoint = endpoint;
+            this.params = params;
+            this.hashCode = Objects.hash(endpoint, params);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return endpoint.equals(key.endpoint) && params.equals(key.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public String toString() {
+            return endpoint + params;
+        }
+    }
+
+    private static final class Entry {
+        private final long[] generation;
+        private final Object value;
+        private final int weight;
+
+        private Entry(long[] generation, Object value, int weight) {
+            this.generation = generation;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package io.jitter.core.cache;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.core.setup.Environment;
+import io.dropwizard.util.Duration;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+
+public class ResultCacheFactory {
+
+    private boolean enabled = true;
+
+    @Min(0)
+    private long maxDocuments = 1_000_000;
+
+    @NotNull
+    private Duration expireAfterWrite = Duration.hours(1);
+
+    @JsonProperty
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @JsonProperty
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @JsonProperty
+    public long getMaxDocuments() {
+        return maxDocuments;
+    }
+
+    @JsonProperty
+    public void setMaxDocuments(long maxDocuments) {
+        this.maxDocuments = maxDocuments;
+    }
+
+    @JsonProperty
+    public Duration getExpireAfterWrite() {
+        return expireAfterWrite;
+    }
+
+    @JsonProperty
+    public void setExpireAfterWrite(Duration expireAfterWrite) {
+        this.expireAfterWrite = expireAfterWrite;
+    }
+
+    public ResultCache build(Environment environment) {
+        final ResultCache resultCache = new ResultCache(enabled, maxDocuments, expireAfterWrite.toMilliseconds());
+        resultCache.registerMetrics(environment.metrics(), ResultCache.class);
+        return resultCache;
+    }
+}
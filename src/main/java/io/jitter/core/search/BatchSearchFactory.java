@@ -0,0 +1,46 @@
+package io.jitter.core.search;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.core.setup.Environment;
+import jakarta.validation.constraints.Min;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Thread pool that runs the topics of batch search requests.
+ */
+public class BatchSearchFactory {
+
+    @Min(1)
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    @Min(1)
+    private int maxTopics = 1000;
+
+    @JsonProperty
+    public int getThreads() {
+        return threads;
+    }
+
+    @JsonProperty
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    @JsonProperty
+    public int getMaxTopics() {
+        return maxTopics;
+    }
+
+    @JsonProperty
+    public void setMaxTopics(int maxTopics) {
+        this.maxTopics = maxTopics;
+    }
+
+    public ExecutorService build(Environment environment) {
+        return environment.lifecycle().executorService("batch-%d")
+                .minThreads(threads)
+                .maxThreads(threads)
+                .build();
+    }
+}
@@ -0,0 +1,43 @@
+package io.jitter.core.search;
+
+import org.apache.lucene.index.QueryTimeout;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time by which a request has to be answered. As a {@link QueryTimeout} it stops searches that run past
+ * it, which then return the hits collected so far.
+ */
+public final class Deadline implements QueryTimeout {
+
+    private final long endNanos;
+
+    private Deadline(long endNanos) {
+        this.endNanos = endNanos;
+    }
+
+    public static Deadline after(long timeoutMillis) {
+        return new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+    }
+
+    /**
+     * @return the deadline of a stage that may take at most {@code budgetMillis}, and has to end by this deadline
+     */
+    public Deadline stage(long budgetMillis) {
+        long stageEndNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        return stageEndNanos - endNanos < 0 ? new Deadline(stageEndNanos) : this;
+    }
+
+    public boolean isExpired() {
+        return System.nanoTime() - endNanos >= 0;
+    }
+
+    public long remainingMillis() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(endNanos - System.nanoTime()));
+    }
+
+    @Override
+    public boolean shouldExit() {
+        return isExpired();
+    }
+}
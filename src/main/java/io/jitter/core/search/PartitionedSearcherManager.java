@@ -0,0 +1,344 @@
+package io.jitter.core.search;
+
+import cc.twittertools.index.IndexStatuses.StatusField;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexReaderContext;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.PointValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermStatistics;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.FilterDirectory;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Searcher manager over the {@link TimePartitioning time partitions} of an index, or over its
+ * {@link #shards(Path) shard indexes}, searched as one {@link MultiReader} with a sub-reader per partition.
+ * <p>
+ * A refresh opens partitions created since the last one and reopens the {@link TimePartitioning#WRITABLE_PARTITIONS
+ * newest ones}, or every shard index. Older time partitions are read-only: they are opened once, memory mapped, and
+ * dropped from the searcher (their files stay on disk) once more than {@code maxOpenPartitions} newer ones exist.
+ */
+public class PartitionedSearcherManager extends ReferenceManager<IndexSearcher> {
+
+    private final Path indexPath;
+    private final SearcherFactory searcherFactory;
+    private final int maxOpenPartitions;
+    private final boolean shards;
+
+    // one reference of ours to the current reader of each open partition
+    private final TreeMap<String, Partition> partitions = new TreeMap<>();
+
+    /**
+     * @param maxOpenPartitions number of newest partitions to search, or 0 to search all of them
+     */
+    public PartitionedSearcherManager(Path indexPath, SearcherFactory searcherFactory, int maxOpenPartitions) throws IOException {
+        this(indexPath, searcherFactory, maxOpenPartitions, false);
+    }
+
+    /**
+     * @param shards search the shard indexes of {@code indexPath} instead of its time partitions
+     */
+    public PartitionedSearcherManager(Path indexPath, SearcherFactory searcherFactory, int maxOpenPartitions, boolean shards) throws IOException {
+        this.indexPath = indexPath;
+        this.searcherFactory = searcherFactory;
+        this.maxOpenPartitions = maxOpenPartitions;
+        this.shards = shards;
+        refreshPartitions();
+        current = newSearcher();
+    }
+
+    @Override
+    protected void decRef(IndexSearcher reference) throws IOException {
+        reference.getIndexReader().decRef();
+    }
+
+    @Override
+    protected IndexSearcher refreshIfNeeded(IndexSearcher referenceToRefresh) throws IOException {
+        return refreshPartitions() ? newSearcher() : null;
+    }
+
+    @Override
+    protected boolean tryIncRef(IndexSearcher reference) {
+        return reference.getIndexReader().tryIncRef();
+    }
+
+    @Override
+    protected int getRefCount(IndexSearcher reference) {
+        return reference.getIndexReader().getRefCount();
+    }
+
+    @Override
+    protected synchronized void afterClose() throws IOException {
+        for (Partition partition : partitions.values()) {
+            partition.close();
+        }
+        partitions.clear();
+    }
+
+    private synchronized boolean refreshPartitions() throws IOException {
+        List<Path> paths = shards ? shards(indexPath) : TimePartitioning.partitions(indexPath);
+        if (maxOpenPartitions > 0 && paths.size() > maxOpenPartitions) {
+            paths = paths.subList(paths.size() - maxOpenPartitions, paths.size());
+        }
+
+        boolean changed = false;
+        Set<String> names = new HashSet<>();
+        for (Path path : paths) {
+            names.add(path.getFileName().toString());
+        }
+        Iterator<Map.Entry<String, Partition>> it = partitions.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Partition> entry = it.next();
+            if (!names.contains(entry.getKey())) {
+                entry.getValue().close();
+                it.remove();
+                changed = true;
+            }
+        }
+
+        for (int i = 0; i < paths.size(); i++) {
+            String name = paths.get(i).getFileName().toString();
+            Partition partition = partitions.get(name);
+            if (partition == null) {
+                partitions.put(name, Partition.open(paths.get(i)));
+                changed = true;
+            } else if (shards || i >= paths.size() - TimePartitioning.WRITABLE_PARTITIONS) {
+                changed |= partition.reopen();
+            }
+        }
+        return changed;
+    }
+
+    private synchronized IndexSearcher newSearcher() throws IOException {
+        IndexReader[] readers = new IndexReader[partitions.size()];
+        int i = 0;
+        for (Partition partition : partitions.values()) {
+            readers[i++] = partition.reader;
+        }
+        // the multi reader holds its own reference to each partition reader and releases them when closed
+        return SearcherManager.getSearcher(searcherFactory, new PartitionsReader(readers), null);
+    }
+
+    /**
+     * @return the shard indexes under {@code indexPath}, one per source in a subdirectory named by its lowercased
+     * screen name
+     */
+    public static List<Path> shards(Path indexPath) throws IOException {
+        return indexes(indexPath, "[a-z0-9_]+");
+    }
+
+    /**
+     * @return the subdirectories of {@code indexPath} with a name matching {@code pattern} that hold an index,
+     * sorted by name
+     */
+    static List<Path> indexes(Path indexPath, String pattern) throws IOException {
+        List<Path> indexes = new ArrayList<>();
+        if (!Files.isDirectory(indexPath)) {
+            return indexes;
+        }
+        List<Path> candidates;
+        try (Stream<Path> paths = Files.list(indexPath)) {
+            candidates = paths.filter(path -> Files.isDirectory(path) && path.getFileName().toString().matches(pattern))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        for (Path path : candidates) {
+            try (Directory dir = FSDirectory.open(path)) {
+                if (DirectoryReader.indexExists(dir)) {
+                    indexes.add(path);
+                }
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * @return a version of a partitioned reader, which changes whenever any of its partitions does
+     */
+    public static long getVersion(IndexReader reader) {
+        long version = 0;
+        for (IndexReaderContext child : reader.getContext().children()) {
+            version = 31 * version + ((DirectoryReader) child.reader()).getVersion();
+        }
+        return version;
+    }
+
+    /**
+     * Narrows a searcher over all partitions down to those with statuses between {@code firstEpoch} and
+     * {@code lastEpoch}, keeping the collection statistics of all partitions so scores do not depend on the
+     * partitions searched. The returned searcher has to be passed to {@link #release(IndexSearcher, IndexSearcher)}.
+     *
+     * @param executor the executor {@code searcher} searches its segments on, or null
+     */
+    public static IndexSearcher acquire(IndexSearcher searcher, Executor executor, long firstEpoch, long lastEpoch) throws IOException {
+        IndexReader reader = searcher.getIndexReader();
+        if (!(reader instanceof MultiReader)) {
+            return searcher;
+        }
+        List<IndexReaderContext> children = reader.getContext().children();
+        List<IndexReader> selected = new ArrayList<>(children.size());
+        for (IndexReaderContext child : children) {
+            IndexReader partition = child.reader();
+            byte[] min = PointValues.getMinPackedValue(partition, StatusField.EPOCH.name);
+            byte[] max = PointValues.getMaxPackedValue(partition, StatusField.EPOCH.name);
+            if (min == null || LongPoint.decodeDimension(max, 0) < firstEpoch || LongPoint.decodeDimension(min, 0) > lastEpoch) {
+                continue;
+            }
+            selected.add(partition);
+        }
+        if (selected.size() == children.size()) {
+            return searcher;
+        }
+        return new PartitionsSearcher(new MultiReader(selected.toArray(new IndexReader[0]), false), searcher, executor);
+    }
+
+    /**
+     * Narrows a searcher over all partitions down to the ones named in {@code names}, e.g. the selected shard
+     * indexes, keeping the collection statistics of all partitions so scores do not depend on the partitions
+     * searched. The returned searcher has to be passed to {@link #release(IndexSearcher, IndexSearcher)}.
+     *
+     * @param executor the executor {@code searcher} searches its segments on, or null
+     */
+    public static IndexSearcher acquire(IndexSearcher searcher, Executor executor, Set<String> names) throws IOException {
+        IndexReader reader = searcher.getIndexReader();
+        if (!(reader instanceof MultiReader)) {
+            return searcher;
+        }
+        List<IndexReaderContext> children = reader.getContext().children();
+        List<IndexReader> selected = new ArrayList<>(names.size());
+        for (IndexReaderContext child : children) {
+            IndexReader partition = child.reader();
+            if (names.contains(name(partition))) {
+                selected.add(partition);
+            }
+        }
+        if (selected.size() == children.size()) {
+            return searcher;
+        }
+        return new PartitionsSearcher(new MultiReader(selected.toArray(new IndexReader[0]), false), searcher, executor);
+    }
+
+    private static String name(IndexReader partition) {
+        Directory dir = FilterDirectory.unwrap(((DirectoryReader) partition).directory());
+        return dir instanceof FSDirectory ? ((FSDirectory) dir).getDirectory().getFileName().toString() : null;
+    }
+
+    public static void release(IndexSearcher searcher, IndexSearcher partitionsSearcher) throws IOException {
+        if (partitionsSearcher != searcher) {
+            partitionsSearcher.getIndexReader().close();
+        }
+    }
+
+    /**
+     * Reader over the partitions. Multi readers have no cache helper to register closed listeners on, so this one
+     * runs its own.
+     */
+    public static class PartitionsReader extends MultiReader {
+        private final List<Runnable> closedListeners = new CopyOnWriteArrayList<>();
+
+        PartitionsReader(IndexReader[] partitions) throws IOException {
+            super(partitions, false);
+        }
+
+        public void addClosedListener(Runnable listener) {
+            closedListeners.add(listener);
+        }
+
+        @Override
+        protected synchronized void doClose() throws IOException {
+            try {
+                super.doClose();
+            } finally {
+                for (Runnable listener : closedListeners) {
+                    listener.run();
+                }
+            }
+        }
+    }
+
+    private static class Partition {
+        private final Directory directory;
+        private DirectoryReader reader;
+
+        private Partition(Directory directory, DirectoryReader reader) {
+            this.directory = directory;
+            this.reader = reader;
+        }
+
+        static Partition open(Path path) throws IOException {
+            Directory dir = FSDirectory.open(path);
+            try {
+                return new Partition(dir, DirectoryReader.open(dir));
+            } catch (IOException e) {
+                dir.close();
+                throw e;
+            }
+        }
+
+        boolean reopen() throws IOException {
+            DirectoryReader newReader = DirectoryReader.openIfChanged(reader);
+            if (newReader == null) {
+                return false;
+            }
+            reader.decRef();
+            reader = newReader;
+            return true;
+        }
+
+        void close() throws IOException {
+            // searchers still in use keep the reader open, the directory goes with it
+            reader.getReaderCacheHelper().addClosedListener(key -> IOUtils.close(directory));
+            reader.decRef();
+        }
+    }
+
+    private static class PartitionsSearcher extends IndexSearcher {
+        private final IndexSearcher searcher;
+
+        PartitionsSearcher(IndexReader reader, IndexSearcher searcher, Executor executor) {
+            super(reader, executor);
+            this.searcher = searcher;
+            setSimilarity(searcher.getSimilarity());
+            setTimeout(searcher.getTimeout());
+        }
+
+        @Override
+        public CollectionStatistics collectionStatistics(String field) throws IOException {
+            return searcher.collectionStatistics(field);
+        }
+
+        @Override
+        public TermStatistics termStatistics(Term term, int docFreq, long totalTermFreq) throws IOException {
+            IndexReader reader = searcher.getIndexReader();
+            int globalDocFreq = reader.docFreq(term);
+            if (globalDocFreq == 0) {
+                return null;
+            }
+            return new TermStatistics(term.bytes(), globalDocFreq, reader.totalTermFreq(term));
+        }
+    }
+}
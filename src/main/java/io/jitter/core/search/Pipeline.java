@@ -0,0 +1,151 @@
+package io.jitter.core.search;
+
+import com.codahale.metrics.MetricRegistry;
+import org.apache.lucene.queryparser.classic.ParseException;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The stages of one request, e.g. selection, shard search and search. Each stage runs on the stage pool as soon as
+ * the stage it depends on is done, so stages that do not depend on each other run concurrently and a request takes
+ * about as long as its slowest chain of stages. Stages are timed, in the {@code <name>.<stage>} timers of the
+ * metric registry and in {@link #getTimings()}.
+ */
+public class Pipeline {
+
+    private final Executor executor;
+    private final MetricRegistry metrics;
+    private final String name;
+    private final Map<String, Long> timings = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    public Pipeline(Executor executor, MetricRegistry metrics, String name) {
+        this.executor = executor;
+        this.metrics = metrics;
+        this.name = name;
+    }
+
+    /**
+     * A stage that needs the result of another one.
+     */
+    @FunctionalInterface
+    public interface Step<T, R> {
+        R apply(T input) throws Exception;
+    }
+
+    /**
+     * @throws RejectedExecutionException if the stage pool and its queue are full
+     */
+    public <T> CompletableFuture<T> stage(String stage, Callable<T> callable) {
+        return CompletableFuture.supplyAsync(() -> run(stage, callable), executor);
+    }
+
+    /**
+     * @return the stage, which fails with a {@link RejectedExecutionException} if the stage pool and its queue are
+     * full once {@code after} is done
+     */
+    public <T, R> CompletableFuture<R> stage(String stage, CompletableFuture<T> after, Step<T, R> step) {
+        // not thenApplyAsync, which leaves the stage incomplete if the pool rejects it
+        CompletableFuture<R> result = new CompletableFuture<>();
+        after.whenComplete((input, failure) -> {
+            if (failure != null) {
+                result.completeExceptionally(failure);
+                return;
+            }
+            try {
+                executor.execute(() -> {
+                    if (result.isDone()) {
+                        return;
+                    }
+                    try {
+                        result.complete(run(stage, () -> step.apply(input)));
+                    } catch (Throwable t) {
+                        result.completeExceptionally(t);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    private <T> T run(String stage, Callable<T> callable) {
+        long start = System.nanoTime();
+        try {
+            return callable.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            metrics.timer(MetricRegistry.name(name, stage)).update(elapsed, TimeUnit.NANOSECONDS);
+            timings.put(stage, TimeUnit.NANOSECONDS.toMillis(elapsed));
+        }
+    }
+
+    /**
+     * Runs a stage in the calling thread, timed as the others, e.g. that of a request whose stages all depend on
+     * each other. Throws what the stage threw, as {@link #await(CompletableFuture)} does.
+     */
+    public <T> T call(String stage, Callable<T> callable) throws IOException, ParseException {
+        try {
+            return run(stage, callable);
+        } catch (CompletionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * Waits for a stage and returns its result, throwing what the stage threw. Other checked exceptions than
+     * {@link IOException} and {@link ParseException} are thrown wrapped in an {@link IOException}.
+     */
+    public static <T> T await(CompletableFuture<T> future) throws IOException, ParseException {
+        try {
+            return future.join();
+        } catch (CompletionException | CancellationException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static IOException unwrap(RuntimeException e) throws IOException, ParseException {
+        Throwable cause = e;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        } else if (cause instanceof ParseException) {
+            throw (ParseException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        return new IOException(cause);
+    }
+
+    /**
+     * @return the milliseconds taken by each stage done so far
+     */
+    public Map<String, Long> getTimings() {
+        synchronized (timings) {
+            return new LinkedHashMap<>(timings);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getTimings().toString();
+    }
+}
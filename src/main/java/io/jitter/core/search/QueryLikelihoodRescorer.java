@@ -0,0 +1,223 @@
+package io.jitter.core.search;
+
+import cc.twittertools.util.QueryLikelihoodModel;
+import io.jitter.api.collectionstatistics.CollectionStats;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.TermVectors;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.SmallFloat;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dirichlet query likelihood rescoring of a top-k candidate list straight from the postings.
+ * <p>
+ * Query term frequencies are read by advancing one {@link PostingsEnum} per query term through the candidates
+ * of each segment in doc id order, and document lengths come from the norms, so no per-hit term maps are built.
+ * Norms encode lengths of {@value #EXACT_NORM_LENGTH} terms or more lossily, those are read from the term vector
+ * statistics. Scores are identical to {@link QueryLikelihoodModel#computeQLScore}: query terms are
+ * summed in the same order and with the same float/double conversions.
+ */
+public class QueryLikelihoodRescorer {
+
+    // lengths below this one round trip through SmallFloat#intToByte4, the norms encoding of the index similarities
+    static final int EXACT_NORM_LENGTH = 40;
+
+    private final String field;
+    private final float mu;
+    private final QueryLikelihoodModel qlModel;
+
+    public QueryLikelihoodRescorer(String field, float mu) {
+        this.field = field;
+        this.mu = mu;
+        this.qlModel = new QueryLikelihoodModel(mu);
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public float getMu() {
+        return mu;
+    }
+
+    /**
+     * @param docIds top-level doc ids of the candidates
+     * @param texts  stored text of the candidates, analyzed for documents indexed without term vectors
+     * @return the query likelihood of each candidate, or {@link Double#NaN} when it could not be computed
+     */
+    public double[] rescore(IndexReader indexReader, Analyzer analyzer, CollectionStats collectionStats, String query,
+                            int[] docIds, String[] texts) throws IOException {
+        int numDocs = docIds.length;
+        double[] scores = new double[numDocs];
+        if (numDocs == 0) {
+            return scores;
+        }
+
+        // keep the iteration order of the weights map so the sum is computed in the same order as computeQLScore
+        Map<String, Float> weights = qlModel.parseQuery(analyzer, query);
+        int numTerms = weights.size();
+        String[] terms = new String[numTerms];
+        BytesRef[] termBytes = new BytesRef[numTerms];
+        float[] termWeights = new float[numTerms];
+        long[] ctfs = new long[numTerms];
+        int t = 0;
+        for (Map.Entry<String, Float> entry : weights.entrySet()) {
+            terms[t] = entry.getKey();
+            termBytes[t] = new BytesRef(entry.getKey());
+            termWeights[t] = entry.getValue();
+            ctfs[t] = collectionStats.totalTermFreq(entry.getKey());
+            t++;
+        }
+        long sumTotalTermFreq = collectionStats.getSumTotalTermFreq();
+
+        // visit the candidates in doc id order, one segment at a time
+        int[] order = sortByDocId(docIds);
+
+        int[] tfs = new int[numDocs * numTerms];
+        int[] docLengths = new int[numDocs];
+        PostingsEnum[] postings = new PostingsEnum[numTerms];
+        List<LeafReaderContext> leaves = indexReader.leaves();
+        int start = 0;
+        while (start < numDocs) {
+            LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docIds[order[start]], leaves));
+            int end = start;
+            while (end < numDocs && docIds[order[end]] < leaf.docBase + leaf.reader().maxDoc()) {
+                end++;
+            }
+            readLeaf(leaf, termBytes, docIds, order, start, end, postings, tfs, docLengths, numTerms);
+            start = end;
+        }
+
+        for (int i = 0; i < numDocs; i++) {
+            if (docLengths[i] < 0) {
+                if (texts == null || texts[i] == null) {
+                    scores[i] = Double.NaN;
+                    continue;
+                }
+                Arrays.fill(tfs, i * numTerms, (i + 1) * numTerms, 0);
+                docLengths[i] = analyze(analyzer, texts[i], terms, tfs, i * numTerms);
+            }
+            double score = 0;
+            for (int j = 0; j < numTerms; j++) {
+                if (ctfs[j] == 0) {
+                    continue;
+                }
+                score += (double) termWeights[j] * Math.log(((double) tfs[i * numTerms + j] + (double) mu * ((double) ctfs[j] / (double) sumTotalTermFreq))
+                        / (double) ((float) docLengths[i] + mu));
+            }
+            scores[i] = score;
+        }
+        return scores;
+    }
+
+    private void readLeaf(LeafReaderContext leaf, BytesRef[] termBytes, int[] docIds, int[] order, int start, int end,
+                          PostingsEnum[] postings, int[] tfs, int[] docLengths, int numTerms) throws IOException {
+        LeafReader reader = leaf.reader();
+        Terms fieldTerms = reader.terms(field);
+        TermsEnum termsEnum = fieldTerms != null ? fieldTerms.iterator() : null;
+        for (int j = 0; j < numTerms; j++) {
+            if (termsEnum != null && termsEnum.seekExact(termBytes[j])) {
+                postings[j] = termsEnum.postings(postings[j], PostingsEnum.FREQS);
+            } else {
+                postings[j] = null;
+            }
+        }
+
+        NumericDocValues norms = reader.getNormValues(field);
+        TermVectors termVectors = null;
+        for (int k = start; k < end; k++) {
+            int i = order[k];
+            int doc = docIds[i] - leaf.docBase;
+            for (int j = 0; j < numTerms; j++) {
+                PostingsEnum postingsEnum = postings[j];
+                if (postingsEnum == null) {
+                    continue;
+                }
+                int current = postingsEnum.docID();
+                if (current < doc) {
+                    current = postingsEnum.advance(doc);
+                }
+                if (current == DocIdSetIterator.NO_MORE_DOCS) {
+                    postings[j] = null;
+                } else if (current == doc) {
+                    tfs[i * numTerms + j] = postingsEnum.freq();
+                }
+            }
+            if (norms != null && norms.advanceExact(doc)) {
+                int length = SmallFloat.byte4ToInt((byte) norms.longValue());
+                if (length < EXACT_NORM_LENGTH) {
+                    docLengths[i] = length;
+                    continue;
+                }
+            }
+            if (termVectors == null) {
+                termVectors = reader.termVectors();
+            }
+            Terms termVector = termVectors.get(doc, field);
+            docLengths[i] = termVector != null ? (int) termVector.getSumTotalTermFreq() : -1;
+        }
+    }
+
+    static int[] sortByDocId(int[] docIds) {
+        long[] packed = new long[docIds.length];
+        for (int i = 0; i < docIds.length; i++) {
+            packed[i] = ((long) docIds[i] << 32) | i;
+        }
+        Arrays.sort(packed);
+        int[] order = new int[docIds.length];
+        for (int i = 0; i < packed.length; i++) {
+            order[i] = (int) packed[i];
+        }
+        return order;
+    }
+
+    private static int analyze(Analyzer analyzer, String text, String[] terms, int[] tfs, int offset) throws IOException {
+        int length = 0;
+        try (TokenStream tokenStream = analyzer.tokenStream(null, text)) {
+            CharTermAttribute termAttribute = tokenStream.addAttribute(CharTermAttribute.class);
+            tokenStream.reset();
+            while (tokenStream.incrementToken()) {
+                if (termAttribute.length() == 0) {
+                    continue;
+                }
+                length++;
+                for (int j = 0; j < terms.length; j++) {
+                    if (contentEquals(termAttribute, terms[j])) {
+                        tfs[offset + j]++;
+                    }
+                }
+            }
+            tokenStream.end();
+        }
+        return length;
+    }
+
+    private static boolean contentEquals(CharTermAttribute termAttribute, String term) {
+        int length = termAttribute.length();
+        if (length != term.length()) {
+            return false;
+        }
+        char[] buffer = termAttribute.buffer();
+        for (int i = 0; i < length; i++) {
+            if (buffer[i] != term.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
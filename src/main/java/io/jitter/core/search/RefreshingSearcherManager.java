@@ -0,0 +1,387 @@
+package io.jitter.core.search;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import io.jitter.api.collectionstatistics.CollectionStats;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexNotFoundException;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.QueryTimeout;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reference-counted searcher lifecycle shared by the index managers.
+ * <p>
+ * Request threads {@link #acquire()} a searcher and {@link #release(IndexSearcher)} it when done, so a reader
+ * is only closed once the last request using it finishes. When live, a background thread reopens the reader
+ * at most {@code maxStalenessMillis} after the index changes instead of every request checking it inline.
+ */
+public class RefreshingSearcherManager implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(RefreshingSearcherManager.class);
+
+    private final Path indexPath;
+    private final Similarity similarity;
+    private final boolean live;
+    private final long maxStalenessMillis;
+
+    private final AtomicInteger openReaders = new AtomicInteger();
+    private volatile long lastRefreshTime = -1;
+    private volatile boolean closed;
+
+    private volatile Executor executor;
+    private volatile int maxDocsPerSlice;
+    private volatile int maxSegmentsPerSlice;
+
+    private boolean partitioned;
+    private int maxOpenPartitions;
+    private boolean sharded;
+
+    // readers of score ranked cursor pages by version, kept open until their lease expires
+    private final Map<Long, Lease> leases = new ConcurrentHashMap<>();
+    private volatile long cursorLeaseMillis;
+
+    private volatile ReferenceManager<IndexSearcher> searcherManager;
+    private Directory directory;
+    private ScheduledExecutorService scheduler;
+
+    public RefreshingSearcherManager(Path indexPath, Similarity similarity, boolean live, long maxStalenessMillis) {
+        this.indexPath = indexPath;
+        this.similarity = similarity;
+        this.live = live;
+        this.maxStalenessMillis = maxStalenessMillis;
+    }
+
+    /**
+     * Searches the segments of each query in parallel on {@code executor}, grouped into slices of at most
+     * {@code maxDocsPerSlice} documents or {@code maxSegmentsPerSlice} segments. Applies to searchers opened
+     * from then on.
+     */
+    public void setExecutor(Executor executor, int maxDocsPerSlice, int maxSegmentsPerSlice) {
+        this.maxDocsPerSlice = maxDocsPerSlice;
+        this.maxSegmentsPerSlice = maxSegmentsPerSlice;
+        this.executor = executor;
+    }
+
+    /**
+     * @return the executor the segments of the searchers are searched on, or null if they are searched sequentially
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Searches the {@link TimePartitioning time partitions} in the subdirectories of the index path instead of
+     * the index path itself, at most the {@code maxOpenPartitions} newest ones (0 for all). Has to be set before
+     * the searcher is first opened.
+     */
+    public synchronized void setPartitioned(int maxOpenPartitions) {
+        this.partitioned = true;
+        this.maxOpenPartitions = maxOpenPartitions;
+    }
+
+    public boolean isPartitioned() {
+        return partitioned;
+    }
+
+    /**
+     * Searches the {@link PartitionedSearcherManager#shards(Path) shard indexes} in the subdirectories of the index
+     * path instead of the index path itself. Has to be set before the searcher is first opened.
+     */
+    public synchronized void setSharded() {
+        this.sharded = true;
+    }
+
+    public boolean isSharded() {
+        return sharded;
+    }
+
+    /**
+     * Keeps the reader of a score ranked cursor page open for {@code cursorLeaseMillis} after the page was last
+     * read, so that the next pages are collected from it even after a refresh. 0 disables the leases, then the next
+     * page of a score ranked search fails once the reader is refreshed.
+     */
+    public void setCursorLease(long cursorLeaseMillis) {
+        this.cursorLeaseMillis = cursorLeaseMillis;
+    }
+
+    public synchronized void start() {
+        refresh();
+        if (live && scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "searcher-refresh-" + indexPath.getFileName());
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::refresh, maxStalenessMillis, maxStalenessMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        try {
+            releaseLeases(Long.MAX_VALUE);
+            if (searcherManager != null) {
+                searcherManager.close();
+                searcherManager = null;
+            }
+        } finally {
+            if (directory != null) {
+                directory.close();
+                directory = null;
+            }
+        }
+    }
+
+    public IndexSearcher acquire() throws IOException {
+        return getSearcherManager().acquire();
+    }
+
+    /**
+     * @return the searcher of the reader the next page of {@code cursor} has to be collected from if it is still
+     * leased, or else the current searcher, on which a score ranked cursor is stale
+     */
+    public IndexSearcher acquire(SearchCursor cursor) throws IOException {
+        long generation = cursor != null ? cursor.getGeneration() : -1;
+        if (generation != -1) {
+            Lease lease = leases.get(generation);
+            if (lease != null && lease.searcher.getIndexReader().tryIncRef()) {
+                lease.expires = System.currentTimeMillis() + cursorLeaseMillis;
+                return lease.searcher;
+            }
+        }
+        return acquire();
+    }
+
+    /**
+     * Leases the reader of {@code searcher}, which has to be acquired, for the next page of a score ranked cursor.
+     */
+    public void lease(IndexSearcher searcher) {
+        long leaseMillis = cursorLeaseMillis;
+        if (leaseMillis <= 0 || closed) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        leases.compute(getVersion(searcher.getIndexReader()), (version, lease) -> {
+            if (lease == null) {
+                // held until the lease expires, released as an acquired searcher
+                searcher.getIndexReader().incRef();
+                lease = new Lease(searcher);
+            }
+            lease.expires = now + leaseMillis;
+            return lease;
+        });
+        releaseLeases(now);
+    }
+
+    private void releaseLeases(long now) {
+        for (Map.Entry<Long, Lease> entry : leases.entrySet()) {
+            Lease lease = entry.getValue();
+            if (lease.expires <= now && leases.remove(entry.getKey(), lease)) {
+                try {
+                    release(lease.searcher);
+                } catch (IOException e) {
+                    logger.warn("{}: {}", indexPath, e.getMessage());
+                }
+            }
+        }
+    }
+
+    public int getLeasedReaders() {
+        return leases.size();
+    }
+
+    /**
+     * @return a searcher over the reader of {@code searcher} that stops collecting hits once {@code timeout} is
+     * reached, see {@link IndexSearcher#timedOut()}. It has to be released as {@code searcher}.
+     */
+    public IndexSearcher withTimeout(IndexSearcher searcher, QueryTimeout timeout) {
+        Executor searchExecutor = executor;
+        IndexSearcher timeoutSearcher;
+        if (searchExecutor != null) {
+            timeoutSearcher = new SlicedIndexSearcher(searcher.getIndexReader(), searchExecutor, maxDocsPerSlice, maxSegmentsPerSlice);
+        } else {
+            timeoutSearcher = new IndexSearcher(searcher.getIndexReader());
+        }
+        timeoutSearcher.setSimilarity(searcher.getSimilarity());
+        timeoutSearcher.setTimeout(timeout);
+        return timeoutSearcher;
+    }
+
+    public void release(IndexSearcher searcher) throws IOException {
+        ReferenceManager<IndexSearcher> manager = searcherManager;
+        if (searcher != null && manager != null) {
+            manager.release(searcher);
+        }
+    }
+
+    public void refresh() {
+        releaseLeases(System.currentTimeMillis());
+        try {
+            ReferenceManager<IndexSearcher> manager = searcherManager;
+            if (manager == null) {
+                getSearcherManager();
+            } else {
+                manager.maybeRefresh();
+            }
+            lastRefreshTime = System.currentTimeMillis();
+        } catch (IndexNotFoundException | AlreadyClosedException e) {
+            logger.debug("{}: {}", indexPath, e.getMessage());
+        } catch (IOException e) {
+            logger.error("{}: {}", indexPath, e.getMessage());
+        }
+    }
+
+    /**
+     * @return milliseconds since the searcher was last known to reflect the index on disk, or -1 if not opened yet
+     */
+    public long getRefreshLag() {
+        long time = lastRefreshTime;
+        return time < 0 ? -1 : System.currentTimeMillis() - time;
+    }
+
+    /**
+     * @return the version of the current reader, which changes whenever a refresh opens a new one, or -1 if
+     * no reader could be opened
+     */
+    public long getVersion() {
+        try {
+            IndexSearcher searcher = acquire();
+            try {
+                return getVersion(searcher.getIndexReader());
+            } finally {
+                release(searcher);
+            }
+        } catch (IOException | AlreadyClosedException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the version of a reader acquired from a searcher manager
+     */
+    public static long getVersion(IndexReader reader) {
+        if (reader instanceof DirectoryReader) {
+            return ((DirectoryReader) reader).getVersion();
+        }
+        return PartitionedSearcherManager.getVersion(reader);
+    }
+
+    public int getOpenReaders() {
+        return openReaders.get();
+    }
+
+    public CollectionStats getCollectionStats(String field) {
+        return new SearcherCollectionStats(this, field);
+    }
+
+    public void registerMetrics(MetricRegistry metrics, Class<?> klass) {
+        metrics.register(MetricRegistry.name(klass, "refresh-lag"), (Gauge<Long>) this::getRefreshLag);
+        metrics.register(MetricRegistry.name(klass, "open-readers"), (Gauge<Integer>) this::getOpenReaders);
+        metrics.register(MetricRegistry.name(klass, "leased-readers"), (Gauge<Integer>) this::getLeasedReaders);
+    }
+
+    private ReferenceManager<IndexSearcher> getSearcherManager() throws IOException {
+        ReferenceManager<IndexSearcher> manager = searcherManager;
+        if (manager == null) {
+            synchronized (this) {
+                manager = searcherManager;
+                if (manager == null) {
+                    if (closed) {
+                        throw new AlreadyClosedException(indexPath + " searcher manager is closed");
+                    }
+                    if (sharded) {
+                        manager = new PartitionedSearcherManager(indexPath, new ManagedSearcherFactory(), 0, true);
+                    } else if (partitioned) {
+                        manager = new PartitionedSearcherManager(indexPath, new ManagedSearcherFactory(), maxOpenPartitions);
+                    } else {
+                        Directory dir = FSDirectory.open(indexPath);
+                        try {
+                            manager = new SearcherManager(dir, new ManagedSearcherFactory());
+                        } catch (IOException e) {
+                            dir.close();
+                            throw e;
+                        }
+                        directory = dir;
+                    }
+                    lastRefreshTime = System.currentTimeMillis();
+                    searcherManager = manager;
+                }
+            }
+        }
+        return manager;
+    }
+
+    private class ManagedSearcherFactory extends SearcherFactory {
+        @Override
+        public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) {
+            Executor searchExecutor = executor;
+            IndexSearcher searcher;
+            if (searchExecutor != null) {
+                searcher = new SlicedIndexSearcher(reader, searchExecutor, maxDocsPerSlice, maxSegmentsPerSlice);
+            } else {
+                searcher = new IndexSearcher(reader);
+            }
+            searcher.setSimilarity(similarity);
+            openReaders.incrementAndGet();
+            if (reader instanceof PartitionedSearcherManager.PartitionsReader) {
+                ((PartitionedSearcherManager.PartitionsReader) reader).addClosedListener(openReaders::decrementAndGet);
+            } else {
+                reader.getReaderCacheHelper().addClosedListener(key -> openReaders.decrementAndGet());
+            }
+            return searcher;
+        }
+    }
+
+    private static class Lease {
+        final IndexSearcher searcher;
+        volatile long expires;
+
+        Lease(IndexSearcher searcher) {
+            this.searcher = searcher;
+        }
+    }
+
+    private static class SlicedIndexSearcher extends IndexSearcher {
+        private final int maxDocsPerSlice;
+        private final int maxSegmentsPerSlice;
+
+        SlicedIndexSearcher(IndexReader reader, Executor executor, int maxDocsPerSlice, int maxSegmentsPerSlice) {
+            super(reader, executor);
+            this.maxDocsPerSlice = maxDocsPerSlice;
+            this.maxSegmentsPerSlice = maxSegmentsPerSlice;
+        }
+
+        @Override
+        protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+            return slices(leaves, maxDocsPerSlice, maxSegmentsPerSlice);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package io.jitter.core.search;
+
+import com.codahale.metrics.MetricRegistry;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Bounded pool that runs the multi-stage requests (selection, shard search, feedback, search and reranking), with a
+ * deadline for the whole request and a time budget for each of its stages.
+ */
+public class RequestExecutor {
+
+    private final ExecutorService executor;
+    private final ExecutorService stageExecutor;
+    private final MetricRegistry metrics;
+    private final long timeoutMillis;
+    private final long graceMillis;
+    private final long selectionTimeoutMillis;
+    private final long feedbackTimeoutMillis;
+    private final long searchTimeoutMillis;
+
+    /**
+     * @param stageExecutor runs the {@link Pipeline stages} of the requests. It has to be another pool than
+     *                      {@code executor}, whose requests wait for their stages.
+     * @param graceMillis   time a request has past its deadline to answer with the results of the stages that did
+     *                      complete, before it is given up on
+     */
+    public RequestExecutor(ExecutorService executor, ExecutorService stageExecutor, MetricRegistry metrics, long timeoutMillis, long graceMillis, long selectionTimeoutMillis,
+                           long feedbackTimeoutMillis, long searchTimeoutMillis) {
+        this.executor = executor;
+        this.stageExecutor = stageExecutor;
+        this.metrics = metrics;
+        this.timeoutMillis = timeoutMillis;
+        this.graceMillis = graceMillis;
+        this.selectionTimeoutMillis = selectionTimeoutMillis;
+        this.feedbackTimeoutMillis = feedbackTimeoutMillis;
+        this.searchTimeoutMillis = searchTimeoutMillis;
+    }
+
+    /**
+     * @throws java.util.concurrent.RejectedExecutionException if the pool and its queue are full
+     */
+    public Future<?> submit(Runnable request) {
+        return executor.submit(request);
+    }
+
+    /**
+     * @return the stages of a new request, timed as {@code <name>.<stage>}
+     */
+    public Pipeline pipeline(String name) {
+        return new Pipeline(stageExecutor, metrics, name);
+    }
+
+    /**
+     * @return the deadline of a request starting now
+     */
+    public Deadline deadline() {
+        return Deadline.after(timeoutMillis);
+    }
+
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * @return the time after which a request that did not answer is given up on, its deadline and grace
+     */
+    public long getHardTimeoutMillis() {
+        return timeoutMillis + graceMillis;
+    }
+
+    public long getSelectionTimeoutMillis() {
+        return selectionTimeoutMillis;
+    }
+
+    public long getFeedbackTimeoutMillis() {
+        return feedbackTimeoutMillis;
+    }
+
+    public long getSearchTimeoutMillis() {
+        return searchTimeoutMillis;
+    }
+}
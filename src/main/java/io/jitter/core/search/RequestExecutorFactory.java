@@ -0,0 +1,147 @@
+package io.jitter.core.search;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.core.setup.Environment;
+import io.dropwizard.util.Duration;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+
+public class RequestExecutorFactory {
+
+    @Min(1)
+    private int threads = 2 * Runtime.getRuntime().availableProcessors();
+
+    @Min(1)
+    private int queueSize = 100;
+
+    @Min(1)
+    private int stageThreads = 4 * Runtime.getRuntime().availableProcessors();
+
+    @Min(1)
+    private int stageQueueSize = 1000;
+
+    @NotNull
+    private Duration timeout = Duration.seconds(10);
+
+    @NotNull
+    private Duration grace = Duration.seconds(1);
+
+    @NotNull
+    private Duration selectionTimeout = Duration.seconds(2);
+
+    @NotNull
+    private Duration feedbackTimeout = Duration.seconds(2);
+
+    @NotNull
+    private Duration searchTimeout = Duration.seconds(5);
+
+    @JsonProperty
+    public int getThreads() {
+        return threads;
+    }
+
+    @JsonProperty
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    @JsonProperty
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    @JsonProperty
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    @JsonProperty
+    public int getStageThreads() {
+        return stageThreads;
+    }
+
+    @JsonProperty
+    public void setStageThreads(int stageThreads) {
+        this.stageThreads = stageThreads;
+    }
+
+    @JsonProperty
+    public int getStageQueueSize() {
+        return stageQueueSize;
+    }
+
+    @JsonProperty
+    public void setStageQueueSize(int stageQueueSize) {
+        this.stageQueueSize = stageQueueSize;
+    }
+
+    @JsonProperty
+    public Duration getTimeout() {
+        return timeout;
+    }
+
+    @JsonProperty
+    public void setTimeout(Duration timeout) {
+        this.timeout = timeout;
+    }
+
+    @JsonProperty
+    public Duration getGrace() {
+        return grace;
+    }
+
+    @JsonProperty
+    public void setGrace(Duration grace) {
+        this.grace = grace;
+    }
+
+    @JsonProperty
+    public Duration getSelectionTimeout() {
+        return selectionTimeout;
+    }
+
+    @JsonProperty
+    public void setSelectionTimeout(Duration selectionTimeout) {
+        this.selectionTimeout = selectionTimeout;
+    }
+
+    @JsonProperty
+    public Duration getFeedbackTimeout() {
+        return feedbackTimeout;
+    }
+
+    @JsonProperty
+    public void setFeedbackTimeout(Duration feedbackTimeout) {
+        this.feedbackTimeout = feedbackTimeout;
+    }
+
+    @JsonProperty
+    public Duration getSearchTimeout() {
+        return searchTimeout;
+    }
+
+    @JsonProperty
+    public void setSearchTimeout(Duration searchTimeout) {
+        this.searchTimeout = searchTimeout;
+    }
+
+    public RequestExecutor build(Environment environment) {
+        ExecutorService executor = environment.lifecycle().executorService("request-%d")
+                .minThreads(threads)
+                .maxThreads(threads)
+                .workQueue(new ArrayBlockingQueue<>(queueSize))
+                .build();
+        // requests given up on leave their stages behind, so the stage queue is bounded too: a stage it rejects
+        // fails its request with a 503
+        ExecutorService stageExecutor = environment.lifecycle().executorService("stage-%d")
+                .minThreads(stageThreads)
+                .maxThreads(stageThreads)
+                .workQueue(new ArrayBlockingQueue<>(stageQueueSize))
+                .build();
+        return new RequestExecutor(executor, stageExecutor, environment.metrics(), timeout.toMilliseconds(), grace.toMilliseconds(), selectionTimeout.toMilliseconds(),
+                feedbackTimeout.toMilliseconds(), searchTimeout.toMilliseconds());
+    }
+}
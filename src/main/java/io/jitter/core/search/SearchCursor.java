@@ -0,0 +1,133 @@
+package io.jitter.core.search;
+
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Sort;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Stateless cursor over the pages of a search, resumed with {@code searchAfter}.
+ * <p>
+ * A cursor records the last hit of a page (its score or sort values and its doc) and the version of the reader
+ * it was collected from. Pages of a score ranked search can only be resumed on that same reader, since doc ids and
+ * scores change when it is refreshed, so the searcher manager leases it to the cursor for a while, see
+ * {@link RefreshingSearcherManager#setCursorLease(long)}. Pages sorted by {@link StatusColumns#TIME_SORT} end with a
+ * unique status id, so they resume on any reader.
+ */
+public final class SearchCursor {
+
+    /** The cursor of the first page. */
+    public static final String START = "*";
+
+    private final long generation;
+    private final ScoreDoc after;
+
+    private SearchCursor(long generation, ScoreDoc after) {
+        this.generation = generation;
+        this.after = after;
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code cursor} was not returned by {@link #next(long, ScoreDoc)}
+     */
+    public static SearchCursor parse(String cursor) {
+        if (START.equals(cursor)) {
+            return new SearchCursor(-1, null);
+        }
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+            if (parts.length != 3 && parts.length != 4) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            long generation = Long.parseLong(parts[0]);
+            int doc = Integer.parseInt(parts[1]);
+            float score = Float.intBitsToFloat(Integer.parseInt(parts[2]));
+            if (parts.length == 3) {
+                return new SearchCursor(generation, new ScoreDoc(doc, score));
+            }
+            String[] values = parts[3].split(",");
+            Object[] fields = new Object[values.length];
+            for (int i = 0; i < values.length; i++) {
+                fields[i] = Long.parseLong(values[i]);
+            }
+            return new SearchCursor(generation, new FieldDoc(doc, score, fields));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+    }
+
+    /**
+     * @param sort the sort of the search the cursor is for, or null if it is ranked by score
+     * @throws IllegalArgumentException if {@code cursor} was not returned by {@link #next(long, ScoreDoc)} or by a
+     *                                  search with {@code sort}
+     */
+    public static SearchCursor parse(String cursor, Sort sort) {
+        SearchCursor searchCursor = parse(cursor);
+        if (searchCursor.after != null) {
+            searchCursor.checkSort(sort);
+        }
+        return searchCursor;
+    }
+
+    /**
+     * @return the cursor of the page after {@code last}, a hit collected from the reader with version
+     * {@code generation}
+     */
+    public static String next(long generation, ScoreDoc last) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(generation).append(':').append(last.doc).append(':').append(Float.floatToIntBits(last.score));
+        if (last instanceof FieldDoc) {
+            sb.append(':');
+            Object[] fields = ((FieldDoc) last).fields;
+            for (int i = 0; i < fields.length; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                // TIME_SORT values
+                sb.append(((Number) fields[i]).longValue());
+            }
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the version of the reader the next page has to be collected from, or -1 if any reader will do
+     */
+    public long getGeneration() {
+        return after == null || after instanceof FieldDoc ? -1 : generation;
+    }
+
+    /**
+     * @param sort the sort of the search, or null if it is ranked by score
+     * @return the hit to search after on the reader with version {@code generation}, or null on the first page
+     * @throws IllegalArgumentException if the cursor was returned by a search with another sort
+     * @throws StaleCursorException     if a score ranked page is resumed on another reader, once its lease expired
+     */
+    public ScoreDoc after(long generation, Sort sort) {
+        if (after == null) {
+            return null;
+        }
+        checkSort(sort);
+        if (!(after instanceof FieldDoc) && this.generation != generation) {
+            throw new StaleCursorException();
+        }
+        return after;
+    }
+
+    private void checkSort(Sort sort) {
+        boolean sorted = after instanceof FieldDoc;
+        if (sorted != (sort != null) || (sorted && ((FieldDoc) after).fields.length != sort.getSort().length)) {
+            throw new IllegalArgumentException("Cursor of another sort");
+        }
+    }
+
+    public static class StaleCursorException extends IllegalStateException {
+        private static final long serialVersionUID = 1L;
+
+        public StaleCursorException() {
+            super("The index changed since the cursor was returned, start over");
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package io.jitter.core.search;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.core.setup.Environment;
+import io.dropwizard.lifecycle.ExecutorServiceManager;
+import io.dropwizard.util.Duration;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Thread pool used by an {@link org.apache.lucene.search.IndexSearcher} to search the segments of a single
+ * query in parallel.
+ */
+public class SearchExecutorFactory {
+
+    private static final Logger logger = LoggerFactory.getLogger(SearchExecutorFactory.class);
+
+    public enum Type {
+        NONE, FIXED, VIRTUAL
+    }
+
+    @NotNull
+    private Type type = Type.NONE;
+
+    @Min(1)
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    @Min(1)
+    private int maxDocsPerSlice = 250_000;
+
+    @Min(1)
+    private int maxSegmentsPerSlice = 5;
+
+    @JsonProperty
+    public Type getType() {
+        return type;
+    }
+
+    @JsonProperty
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    @JsonProperty
+    public int getThreads() {
+        return threads;
+    }
+
+    @JsonProperty
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    @JsonProperty
+    public int getMaxDocsPerSlice() {
+        return maxDocsPerSlice;
+    }
+
+    @JsonProperty
+    public void setMaxDocsPerSlice(int maxDocsPerSlice) {
+        this.maxDocsPerSlice = maxDocsPerSlice;
+    }
+
+    @JsonProperty
+    public int getMaxSegmentsPerSlice() {
+        return maxSegmentsPerSlice;
+    }
+
+    @JsonProperty
+    public void setMaxSegmentsPerSlice(int maxSegmentsPerSlice) {
+        this.maxSegmentsPerSlice = maxSegmentsPerSlice;
+    }
+
+    /**
+     * @return the search executor, or null when segments should be searched on the request thread
+     */
+    public ExecutorService build(Environment environment, String name) {
+        switch (type) {
+            case VIRTUAL:
+                ExecutorService executor = newVirtualThreadPerTaskExecutor();
+                if (executor != null) {
+                    environment.lifecycle().manage(new ExecutorServiceManager(executor, Duration.seconds(5), name + "-search"));
+                    return executor;
+                }
+                logger.warn("{}: virtual threads are not supported by this JVM, using {} platform threads", name, threads);
+                // fall through
+            case FIXED:
+                return environment.lifecycle().executorService(name + "-search-%d")
+                        .minThreads(threads)
+                        .maxThreads(threads)
+                        .build();
+            default:
+                return null;
+        }
+    }
+
+    public void configure(RefreshingSearcherManager searcherManager, Environment environment, String name) {
+        ExecutorService executor = build(environment, name);
+        if (executor != null) {
+            searcherManager.setExecutor(executor, maxDocsPerSlice, maxSegmentsPerSlice);
+        }
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        // looked up reflectively so the application still builds for and runs on pre-21 JVMs
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -1,10 +1,8 @@
 package io.jitter.core.search;
 
 import cc.twittertools.index.IndexStatuses;
-import cc.twittertools.util.QueryLikelihoodModel;
 import io.dropwizard.lifecycle.Managed;
 import io.jitter.api.collectionstatistics.CollectionStats;
-import io.jitter.api.collectionstatistics.IndexCollectionStats;
 import io.jitter.api.search.StatusDocument;
 import io.jitter.core.analysis.TweetAnalyzer;
 import io.jitter.core.utils.SearchUtils;
@@ -13,10 +11,9 @@
 import org.apache.lucene.analysis.CharArraySet;
 import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
 import org.apache.lucene.document.LongPoint;
-import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexNotFoundException;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.QueryTimeout;
 import org.apache.lucene.misc.HighFreqTerms;
 import org.apache.lucene.misc.TermStats;
 import org.apache.lucene.queryparser.classic.ParseException;
@@ -44,23 +41,26 @@ public class SearchManager implements Managed {
 
     private final Analyzer analyzer;
     private final LMDirichletSimilarity similarity;
-    private final QueryLikelihoodModel qlModel;
+    private final QueryLikelihoodRescorer qlRescorer;
 
     private final String indexPath;
     private Stopper stopper;
     private final float mu;
     private final boolean live;
+    private boolean timeSorted;
+    private boolean exactTotalHits;
+    private TimePartitioning partitioning = TimePartitioning.NONE;
 
-    private DirectoryReader indexReader;
-    private IndexSearcher searcher;
+    private final RefreshingSearcherManager searcherManager;
 
-    public SearchManager(String indexPath, String stopwords, float mu, boolean live) {
+    public SearchManager(String indexPath, String stopwords, float mu, boolean live, long maxStalenessMillis) {
         this.indexPath = indexPath;
         this.mu = mu;
         this.live = live;
 
         similarity = new LMDirichletSimilarity(mu);
-        qlModel = new QueryLikelihoodModel(mu);
+        qlRescorer = new QueryLikelihoodRescorer(IndexStatuses.StatusField.TEXT.name, mu);
+        searcherManager = new RefreshingSearcherManager(Paths.get(indexPath), similarity, live, maxStalenessMillis);
 
         if (!stopwords.isEmpty()) {
             stopper = new Stopper(stopwords);
@@ -75,18 +75,12 @@ public SearchManager(String indexPath, String stopwords, float mu, boolean live)
 
     @Override
     public void start() throws Exception {
-        try {
-            searcher = getIndexSearcher();
-        } catch (Exception e) {
-            logger.error(e.getMessage());
-        }
+        searcherManager.start();
     }
 
     @Override
     public void stop() throws Exception {
-        if (indexReader != null) {
-            indexReader.close();
-        }
+        searcherManager.close();
     }
 
     public String getIndexPath() {
@@ -105,50 +99,181 @@ public float getMu() {
         return mu;
     }
 
+    public boolean isTimeSorted() {
+        return timeSorted;
+    }
+
+    public void setTimeSorted(boolean timeSorted) {
+        this.timeSorted = timeSorted;
+    }
+
+    public boolean isExactTotalHits() {
+        return exactTotalHits;
+    }
+
+    /**
+     * Counts every matching status. By default counting stops after the collected hits, which lets the
+     * collector skip blocks of postings that cannot make the top hits.
+     */
+    public void setExactTotalHits(boolean exactTotalHits) {
+        this.exactTotalHits = exactTotalHits;
+    }
+
+    private int totalHitsThreshold(int len) {
+        return exactTotalHits ? Integer.MAX_VALUE : len;
+    }
+
+    public TimePartitioning getPartitioning() {
+        return partitioning;
+    }
+
+    /**
+     * Searches the partitions of the index, at most the {@code maxOpenPartitions} newest ones (0 for all).
+     */
+    public void setPartitioning(TimePartitioning partitioning, int maxOpenPartitions) {
+        this.partitioning = partitioning;
+        if (partitioning.isPartitioned()) {
+            searcherManager.setPartitioned(maxOpenPartitions);
+        }
+    }
+
+    public RefreshingSearcherManager getSearcherManager() {
+        return searcherManager;
+    }
+
+    /**
+     * @return the current reader, for searches that should all see the same one
+     */
+    public SearchSnapshot snapshot() throws IOException {
+        return snapshot((QueryTimeout) null);
+    }
+
+    /**
+     * @param timeout stops the searches on the snapshot once reached, which then return the hits collected so far
+     */
+    public SearchSnapshot snapshot(QueryTimeout timeout) throws IOException {
+        return new SearchSnapshot(searcherManager, IndexStatuses.StatusField.TEXT.name, timeout);
+    }
+
+    /**
+     * @return the reader the next page of {@code cursor} has to be collected from while it is leased, or else the
+     * current reader
+     */
+    public SearchSnapshot snapshot(SearchCursor cursor) throws IOException {
+        return new SearchSnapshot(searcherManager, IndexStatuses.StatusField.TEXT.name, null, cursor);
+    }
+
     public TopDocuments isearch(String query, String filterQuery, Query filter, int n, boolean filterRT) throws IOException, ParseException {
+        return isearch(query, filterQuery, filter, n, filterRT, null);
+    }
+
+    /**
+     * @param sort order of the results, or null to rank them by score
+     */
+    public TopDocuments isearch(String query, String filterQuery, Query filter, int n, boolean filterRT, Sort sort) throws IOException, ParseException {
+        return isearch(query, filterQuery, filter, n, filterRT, sort, null);
+    }
+
+    /**
+     * @param cursor page through the results, {@code n} hits at a time, or null to return the top {@code n}; a page
+     *               holds fewer than {@code n} statuses when some of its hits are duplicates
+     */
+    public TopDocuments isearch(String query, String filterQuery, Query filter, int n, boolean filterRT, Sort sort, SearchCursor cursor) throws IOException, ParseException {
+        try (SearchSnapshot snapshot = snapshot(cursor)) {
+            return isearch(snapshot, query, filterQuery, filter, n, filterRT, sort, cursor);
+        }
+    }
+
+    /**
+     * Searches the reader of {@code snapshot}, see {@link #snapshot()}.
+     */
+    public TopDocuments isearch(SearchSnapshot snapshot, String query, String filterQuery, Query filter, int n, boolean filterRT, Sort sort, SearchCursor cursor) throws IOException, ParseException {
         int len = Math.min(MAX_RESULTS, 3 * n);
         int nDocsReturned;
         int totalHits;
         int[] ids;
         float[] scores;
 
-        IndexSearcher indexSearcher = getIndexSearcher();
-        CollectionStats collectionStats = getCollectionStats();
-        Query q = new QueryParser(IndexStatuses.StatusField.TEXT.name, analyzer).parse(query);
+        IndexSearcher indexSearcher = snapshot.getIndexSearcher();
+        IndexSearcher partitionsSearcher = indexSearcher;
+        try {
+            // statistics of all partitions, whichever are searched
+            CollectionStats collectionStats = snapshot.getCollectionStats();
+            Query q = new QueryParser(IndexStatuses.StatusField.TEXT.name, analyzer).parse(query);
 
-        BooleanQuery.Builder b = new BooleanQuery.Builder();
-        b.add(q, BooleanClause.Occur.MUST);
+            long[] epochRange = TimePartitioning.epochRange(filter);
+            if (epochRange != null) {
+                partitionsSearcher = PartitionedSearcherManager.acquire(indexSearcher, searcherManager.getExecutor(), epochRange[0], epochRange[1]);
+            }
 
-        if (!filterQuery.isEmpty()) {
-            Query fq = new QueryParser(IndexStatuses.StatusField.TEXT.name, new WhitespaceAnalyzer()).parse(filterQuery);
-            b.add(fq, BooleanClause.Occur.FILTER);
-        }
+            BooleanQuery.Builder b = new BooleanQuery.Builder();
+            b.add(q, BooleanClause.Occur.MUST);
 
-        if (filter != null) {
-            b.add(filter, BooleanClause.Occur.FILTER);
-        }
+            if (!filterQuery.isEmpty()) {
+                Query fq = new QueryParser(IndexStatuses.StatusField.TEXT.name, new WhitespaceAnalyzer()).parse(filterQuery);
+                b.add(fq, BooleanClause.Occur.FILTER);
+            }
 
-        Query bQuery = b.build();
+            if (filter != null) {
+                b.add(filter, BooleanClause.Occur.FILTER);
+            }
 
-        final TopDocsCollector hitsCollector = TopScoreDocCollector.create(len, len);
-        indexSearcher.search(bQuery, hitsCollector);
+            if (filterRT) {
+                b.add(StatusColumns.retweets(), BooleanClause.Occur.MUST_NOT);
+            }
 
-        totalHits = hitsCollector.getTotalHits();
-        TopDocs topDocs = hitsCollector.topDocs(0, len);
+            Query bQuery = b.build();
 
-        nDocsReturned = topDocs.scoreDocs.length;
-        ids = new int[nDocsReturned];
-        scores = new float[nDocsReturned];
-        for (int i = 0; i < nDocsReturned; i++) {
-            ScoreDoc scoreDoc = topDocs.scoreDocs[i];
-            ids[i] = scoreDoc.doc;
-            scores[i] = scoreDoc.score;
-        }
+            // the 3n headroom covers the duplicate statuses dropped by getDocs, and the retweets of segments without the flag
+            int numHits = len;
+
+            // a page holds the next n hits, whatever is filtered out of them, so that it ends at the cursor
+            long generation = snapshot.getVersion();
+            ScoreDoc after = null;
+            if (cursor != null) {
+                numHits = Math.min(MAX_RESULTS, n);
+                after = cursor.after(generation, sort);
+            }
+
+            // a collector manager lets the searcher collect slices of segments in parallel
+            TopDocs topDocs;
+            if (sort == null) {
+                topDocs = partitionsSearcher.search(bQuery, new TopScoreDocCollectorManager(numHits, after, totalHitsThreshold(len)));
+            } else {
+                // segments sorted by the same sort stop collecting as soon as they have enough hits
+                topDocs = partitionsSearcher.search(bQuery, new TopFieldCollectorManager(sort, numHits, (FieldDoc) after, totalHitsThreshold(len)));
+                // the sort does not score the hits
+                TopFieldCollector.populateScores(topDocs.scoreDocs, partitionsSearcher, bQuery);
+            }
+            totalHits = (int) topDocs.totalHits.value;
+            if (partitionsSearcher.timedOut()) {
+                logger.warn("Search timed out, partial results: {}", query);
+            }
 
-        // Compute real QL scores even when live to build termVectors
-        List<StatusDocument> docs = SearchUtils.getDocs(indexSearcher, analyzer, collectionStats, qlModel, topDocs, query, n, filterRT, true);
+            nDocsReturned = topDocs.scoreDocs.length;
+            ids = new int[nDocsReturned];
+            scores = new float[nDocsReturned];
+            for (int i = 0; i < nDocsReturned; i++) {
+                ScoreDoc scoreDoc = topDocs.scoreDocs[i];
+                ids[i] = scoreDoc.doc;
+                scores[i] = scoreDoc.score;
+            }
 
-        return new TopDocuments(totalHits, docs);
+            // Rerankers downstream need the term vectors of the results, sorted hits and cursor pages keep the order
+            // they were collected in, so that a page ends with its cursor
+            List<StatusDocument> docs = SearchUtils.getDocs(partitionsSearcher, analyzer, collectionStats, qlRescorer, topDocs, query, n, filterRT, true, sort == null && cursor == null);
+
+            TopDocuments topDocuments = new TopDocuments(totalHits, docs);
+            if (cursor != null && nDocsReturned == numHits) {
+                topDocuments.nextCursor = SearchCursor.next(generation, topDocs.scoreDocs[nDocsReturned - 1]);
+                if (sort == null) {
+                    snapshot.lease();
+                }
+            }
+            return topDocuments;
+        } finally {
+            PartitionedSearcherManager.release(indexSearcher, partitionsSearcher);
+        }
     }
 
     public TopDocuments isearch(String query, String filterQuery, int n, boolean filterRT) throws IOException, ParseException {
@@ -178,12 +303,22 @@ public TopDocuments search(String query, String filterQuery, int n) throws IOExc
     }
 
     public void forceMerge() throws IOException {
+        for (Path indexPath : indexPaths()) {
+            forceMerge(indexPath);
+        }
+    }
+
+    private void forceMerge(Path indexPath) throws IOException {
         logger.info("Merging started!");
         long startTime = System.currentTimeMillis();
-        Path indexPath = Paths.get(this.indexPath);
         Directory dir = FSDirectory.open(indexPath);
         IndexWriterConfig config = new IndexWriterConfig(analyzer);
         config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        // merging without the sort of a time sorted index would unsort it
+        Sort indexSort = StatusColumns.indexSort(dir);
+        if (indexSort != null) {
+            config.setIndexSort(indexSort);
+        }
         
         try (IndexWriter writer = new IndexWriter(dir, config)) {
             writer.forceMerge(1);
@@ -197,50 +332,61 @@ public void forceMerge() throws IOException {
         }
     }
 
-    public TermStats[] getHighFreqTerms(int n) throws Exception {
-        int numResults = n > MAX_TERMS_RESULTS ? MAX_TERMS_RESULTS : n;
-        return HighFreqTerms.getHighFreqTerms(indexReader, numResults, IndexStatuses.StatusField.TEXT.name, new HighFreqTerms.DocFreqComparator());
+    public void migrateColumns() throws IOException {
+        for (Path indexPath : indexPaths()) {
+            // the live index is written by LiveStreamIndexer with the default analyzer
+            StatusColumnsMigration.migrate(indexPath, new TweetAnalyzer());
+        }
+        searcherManager.refresh();
     }
 
-    private IndexSearcher getIndexSearcher() throws IOException {
+    private List<Path> indexPaths() throws IOException {
+        if (partitioning.isPartitioned()) {
+            return TimePartitioning.partitions(Paths.get(indexPath));
+        }
+        return List.of(Paths.get(indexPath));
+    }
+
+    public TermStats[] getHighFreqTerms(int n) throws Exception {
+        int numResults = n > MAX_TERMS_RESULTS ? MAX_TERMS_RESULTS : n;
+        IndexSearcher indexSearcher = searcherManager.acquire();
         try {
-            if (indexReader == null) {
-                indexReader = DirectoryReader.open(FSDirectory.open(Paths.get(indexPath)));
-                searcher = new IndexSearcher(indexReader);
-                searcher.setSimilarity(similarity);
-            } else if (live && !indexReader.isCurrent()) {
-                DirectoryReader newReader = DirectoryReader.openIfChanged(indexReader);
-                if (newReader != null) {
-                    indexReader.close();
-                    indexReader = newReader;
-                    searcher = new IndexSearcher(indexReader);
-                    searcher.setSimilarity(similarity);
-                }
-            }
-        } catch (IndexNotFoundException e) {
-            logger.error(e.getMessage());
+            return HighFreqTerms.getHighFreqTerms(indexSearcher.getIndexReader(), numResults, IndexStatuses.StatusField.TEXT.name, new HighFreqTerms.DocFreqComparator());
+        } finally {
+            searcherManager.release(indexSearcher);
         }
-        return searcher;
     }
 
     public CollectionStats getCollectionStats() {
-        return new IndexCollectionStats(indexReader, IndexStatuses.StatusField.TEXT.name);
+        return searcherManager.getCollectionStats(IndexStatuses.StatusField.TEXT.name);
     }
 
-    public TopDocuments search(String query, String filterQuery, Optional<Long> maxId, int limit, boolean retweets, long[] epochs, boolean future) throws IOException, ParseException {
-        TopDocuments results;
-        if (!future) {
-            if (maxId.isPresent()) {
-                results = search(query, filterQuery, limit, !retweets, maxId.get());
-            } else if (epochs[0] > 0 || epochs[1] > 0) {
-                results = search(query, filterQuery, limit, !retweets, epochs[0], epochs[1]);
-            } else {
-                results = search(query, filterQuery, limit, !retweets);
-            }
-        } else {
-            results = search(query, filterQuery, limit, !retweets, Long.MAX_VALUE);
+    public TopDocuments search(String query, String filterQuery, Optional<Long> maxId, int limit, boolean retweets, long[] epochs, boolean future, boolean latest) throws IOException, ParseException {
+        return search(query, filterQuery, maxId, limit, retweets, epochs, future, latest, null);
+    }
+
+    public TopDocuments search(String query, String filterQuery, Optional<Long> maxId, int limit, boolean retweets, long[] epochs, boolean future, boolean latest, SearchCursor cursor) throws IOException, ParseException {
+        try (SearchSnapshot snapshot = snapshot(cursor)) {
+            return search(snapshot, query, filterQuery, maxId, limit, retweets, epochs, future, latest, cursor);
+        }
+    }
+
+    public TopDocuments search(SearchSnapshot snapshot, String query, String filterQuery, Optional<Long> maxId, int limit, boolean retweets, long[] epochs, boolean future, boolean latest, SearchCursor cursor) throws IOException, ParseException {
+        Query filter = null;
+        if (future) {
+            filter = LongPoint.newRangeQuery(IndexStatuses.StatusField.ID.name, 0L, Long.MAX_VALUE);
+        } else if (maxId.isPresent()) {
+            filter = LongPoint.newRangeQuery(IndexStatuses.StatusField.ID.name, 0L, maxId.get());
+        } else if (epochs[0] > 0 || epochs[1] > 0) {
+            filter = LongPoint.newRangeQuery(IndexStatuses.StatusField.EPOCH.name, epochs[0], epochs[1]);
         }
-        return results;
+        // latest matches first instead of the best scoring ones
+        Sort sort = latest ? StatusColumns.TIME_SORT : null;
+        return isearch(snapshot, query, filterQuery, filter, limit, !retweets, sort, cursor);
+    }
+
+    public TopDocuments search(String query, String filterQuery, Optional<Long> maxId, int limit, boolean retweets, long[] epochs, boolean future) throws IOException, ParseException {
+        return search(query, filterQuery, maxId, limit, retweets, epochs, future, false);
     }
 
     public TopDocuments search(String query, String filterQuery, Optional<Long> maxId, int limit, boolean retweets, long[] epochs) throws IOException, ParseException {
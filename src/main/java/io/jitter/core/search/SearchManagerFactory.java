@@ -2,9 +2,12 @@
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import io.dropwizard.core.setup.Environment;
+import io.dropwizard.util.Duration;
+import jakarta.validation.Valid;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
 
 public class SearchManagerFactory {
 
@@ -18,6 +21,26 @@ public class SearchManagerFactory {
     @Max(5000)
     private float mu;
 
+    @NotNull
+    private Duration maxStaleness = Duration.seconds(1);
+
+    @NotNull
+    private Duration cursorLease = Duration.minutes(1);
+
+    private boolean timeSorted = false;
+
+    private boolean exactTotalHits = false;
+
+    @NotNull
+    private TimePartitioning partitioning = TimePartitioning.NONE;
+
+    @Min(0)
+    private int maxOpenPartitions = 0;
+
+    @Valid
+    @NotNull
+    private SearchExecutorFactory searchExecutor = new SearchExecutorFactory();
+
     @JsonProperty
     public String getIndex() {
         return index;
@@ -48,9 +71,85 @@ public void setMu(float mu) {
         this.mu = mu;
     }
 
+    @JsonProperty
+    public Duration getMaxStaleness() {
+        return maxStaleness;
+    }
+
+    @JsonProperty
+    public void setMaxStaleness(Duration maxStaleness) {
+        this.maxStaleness = maxStaleness;
+    }
+
+    @JsonProperty
+    public Duration getCursorLease() {
+        return cursorLease;
+    }
+
+    @JsonProperty
+    public void setCursorLease(Duration cursorLease) {
+        this.cursorLease = cursorLease;
+    }
+
+    @JsonProperty
+    public boolean isTimeSorted() {
+        return timeSorted;
+    }
+
+    @JsonProperty
+    public void setTimeSorted(boolean timeSorted) {
+        this.timeSorted = timeSorted;
+    }
+
+    @JsonProperty
+    public boolean isExactTotalHits() {
+        return exactTotalHits;
+    }
+
+    @JsonProperty
+    public void setExactTotalHits(boolean exactTotalHits) {
+        this.exactTotalHits = exactTotalHits;
+    }
+
+    @JsonProperty
+    public TimePartitioning getPartitioning() {
+        return partitioning;
+    }
+
+    @JsonProperty
+    public void setPartitioning(TimePartitioning partitioning) {
+        this.partitioning = partitioning;
+    }
+
+    @JsonProperty
+    public int getMaxOpenPartitions() {
+        return maxOpenPartitions;
+    }
+
+    @JsonProperty
+    public void setMaxOpenPartitions(int maxOpenPartitions) {
+        this.maxOpenPartitions = maxOpenPartitions;
+    }
+
+    @JsonProperty
+    public SearchExecutorFactory getSearchExecutor() {
+        return searchExecutor;
+    }
+
+    @JsonProperty
+    public void setSearchExecutor(SearchExecutorFactory searchExecutor) {
+        this.searchExecutor = searchExecutor;
+    }
+
     public SearchManager build(Environment environment, boolean live) {
-        final SearchManager searchManager = new SearchManager(index, stopwords, mu, live);
+        final SearchManager searchManager = new SearchManager(index, stopwords, mu, live, maxStaleness.toMilliseconds());
+        searchManager.setTimeSorted(timeSorted);
+        searchManager.getSearcherManager().setCursorLease(cursorLease.toMilliseconds());
+        searchManager.setExactTotalHits(exactTotalHits);
+        searchManager.setPartitioning(partitioning, maxOpenPartitions);
         environment.lifecycle().manage(searchManager);
+        searchExecutor.configure(searchManager.getSearcherManager(), environment, "search");
+        searchManager.getSearcherManager().registerMetrics(environment.metrics(), SearchManager.class);
         return searchManager;
     }
 }
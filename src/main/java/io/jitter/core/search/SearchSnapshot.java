@@ -0,0 +1,89 @@
+package io.jitter.core.search;
+
+import io.jitter.api.collectionstatistics.CachingCollectionStats;
+import io.jitter.api.collectionstatistics.CollectionStats;
+import io.jitter.api.collectionstatistics.IndexCollectionStats;
+import org.apache.lucene.index.QueryTimeout;
+import org.apache.lucene.search.IndexSearcher;
+
+import java.io.IOException;
+
+/**
+ * A searcher acquired from a {@link RefreshingSearcherManager}, shared by several searches so they all see the same
+ * reader, along with a cache of its term statistics. Has to be closed to release the searcher.
+ */
+public class SearchSnapshot implements AutoCloseable {
+
+    private final RefreshingSearcherManager searcherManager;
+    private final IndexSearcher acquired;
+    private final IndexSearcher indexSearcher;
+    private final CollectionStats collectionStats;
+    // views of a snapshot leave releasing the searcher to it
+    private final boolean owner;
+
+    public SearchSnapshot(RefreshingSearcherManager searcherManager, String field) throws IOException {
+        this(searcherManager, field, null);
+    }
+
+    /**
+     * @param timeout stops the searches of this snapshot once reached, or null to let them run to completion
+     */
+    public SearchSnapshot(RefreshingSearcherManager searcherManager, String field, QueryTimeout timeout) throws IOException {
+        this(searcherManager, field, timeout, null);
+    }
+
+    /**
+     * @param cursor the next page of a score ranked cursor is collected from the reader of its previous page while
+     *               that is leased, see {@link RefreshingSearcherManager#acquire(SearchCursor)}, or null
+     */
+    public SearchSnapshot(RefreshingSearcherManager searcherManager, String field, QueryTimeout timeout, SearchCursor cursor) throws IOException {
+        this.searcherManager = searcherManager;
+        this.acquired = searcherManager.acquire(cursor);
+        this.indexSearcher = timeout != null ? searcherManager.withTimeout(acquired, timeout) : acquired;
+        this.collectionStats = new CachingCollectionStats(new IndexCollectionStats(acquired.getIndexReader(), field));
+        this.owner = true;
+    }
+
+    private SearchSnapshot(SearchSnapshot snapshot, QueryTimeout timeout) {
+        this.searcherManager = snapshot.searcherManager;
+        this.acquired = snapshot.acquired;
+        this.indexSearcher = searcherManager.withTimeout(acquired, timeout);
+        this.collectionStats = snapshot.collectionStats;
+        this.owner = false;
+    }
+
+    /**
+     * @return the same reader and statistics, with searches that stop once {@code timeout} is reached. It is
+     * released along with this snapshot, so a request can bound each of its stages and still score all of them
+     * with the statistics of one reader.
+     */
+    public SearchSnapshot withTimeout(QueryTimeout timeout) {
+        return new SearchSnapshot(this, timeout);
+    }
+
+    public IndexSearcher getIndexSearcher() {
+        return indexSearcher;
+    }
+
+    public CollectionStats getCollectionStats() {
+        return collectionStats;
+    }
+
+    public long getVersion() {
+        return RefreshingSearcherManager.getVersion(indexSearcher.getIndexReader());
+    }
+
+    /**
+     * Leases the reader to the cursor of a score ranked page, see {@link RefreshingSearcherManager#lease(IndexSearcher)}.
+     */
+    public void lease() {
+        searcherManager.lease(acquired);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (owner) {
+            searcherManager.release(acquired);
+        }
+    }
+}
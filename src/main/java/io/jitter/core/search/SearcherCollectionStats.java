@@ -0,0 +1,78 @@
+package io.jitter.core.search;
+
+import io.jitter.api.collectionstatistics.CollectionStats;
+import io.jitter.api.collectionstatistics.IndexCollectionStats;
+import org.apache.lucene.search.IndexSearcher;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Collection statistics that acquire the current searcher for every lookup, so callers holding on to them
+ * outside of a search never read from a reader that has already been closed. Lookups may see different readers,
+ * so scoring the hits of a search should use the statistics of its {@link SearchSnapshot} instead. Errors reading
+ * the index are thrown as {@link UncheckedIOException}.
+ */
+public class SearcherCollectionStats implements CollectionStats {
+
+    private final RefreshingSearcherManager searcherManager;
+    private final String field;
+
+    public SearcherCollectionStats(RefreshingSearcherManager searcherManager, String field) {
+        this.searcherManager = searcherManager;
+        this.field = field;
+    }
+
+    @Override
+    public int docFreq(String term) {
+        return readUnchecked(searcher -> new IndexCollectionStats(searcher.getIndexReader(), field).docFreq(term));
+    }
+
+    @Override
+    public long totalTermFreq(String term) {
+        return readUnchecked(searcher -> new IndexCollectionStats(searcher.getIndexReader(), field).totalTermFreq(term));
+    }
+
+    @Override
+    public int numDocs() {
+        return readUnchecked(searcher -> searcher.getIndexReader().numDocs());
+    }
+
+    @Override
+    public long getSumDocFreq() {
+        return readUnchecked(searcher -> new IndexCollectionStats(searcher.getIndexReader(), field).getSumDocFreq());
+    }
+
+    @Override
+    public long getSumTotalTermFreq() {
+        return readUnchecked(searcher -> new IndexCollectionStats(searcher.getIndexReader(), field).getSumTotalTermFreq());
+    }
+
+    @Override
+    public int numTerms() throws IOException {
+        return read(searcher -> new IndexCollectionStats(searcher.getIndexReader(), field).numTerms());
+    }
+
+    @FunctionalInterface
+    private interface Lookup<T> {
+        T apply(IndexSearcher searcher) throws IOException;
+    }
+
+    // looks up a statistic on the current searcher
+    private <T> T read(Lookup<T> lookup) throws IOException {
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            return lookup.apply(searcher);
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    private <T> T readUnchecked(Lookup<T> lookup) {
+        try {
+            return read(lookup);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package io.jitter.core.search;
+
+import cc.twittertools.index.IndexStatuses.StatusField;
+import io.jitter.api.search.StatusDocument;
+import org.apache.commons.lang3.Strings;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Numeric status metadata stored as doc values, so hits can be filtered, deduplicated and reranked without
+ * loading their stored fields.
+ * <p>
+ * The columns use their own field names because an existing field cannot gain doc values in an index that
+ * already has documents without them. Documents indexed before the columns existed have no values and are
+ * reported as missing, callers then fall back to the stored fields.
+ */
+public class StatusColumns {
+
+    public static final String SUFFIX = "_dv";
+
+    /**
+     * Indexed flag of retweets, so they can be excluded by the query instead of after collection.
+     */
+    public static final String RETWEET_FLAG = "is_retweet";
+
+    private static final StatusField[] FIELDS = {
+            StatusField.ID,
+            StatusField.EPOCH,
+            StatusField.FRIENDS_COUNT,
+            StatusField.FOLLOWERS_COUNT,
+            StatusField.STATUSES_COUNT,
+            StatusField.IN_REPLY_TO_STATUS_ID,
+            StatusField.IN_REPLY_TO_USER_ID,
+            StatusField.RETWEETED_STATUS_ID,
+            StatusField.RETWEETED_USER_ID,
+            StatusField.RETWEET_COUNT
+    };
+
+    /**
+     * Latest statuses first. An index sorted this way lets searches with the same sort stop collecting a segment
+     * as soon as it has filled the requested number of hits.
+     */
+    public static final Sort TIME_SORT = new Sort(
+            new SortField(name(StatusField.EPOCH), SortField.Type.LONG, true),
+            new SortField(name(StatusField.ID), SortField.Type.LONG, true));
+
+    /**
+     * @return the sort of the index in {@code dir}, or null if it is unsorted or has no segments yet. Segments
+     * cannot be sorted once written, so writers appending to an index have to keep the sort it already has.
+     */
+    public static Sort indexSort(Directory dir) throws IOException {
+        if (!DirectoryReader.indexExists(dir)) {
+            return null;
+        }
+        SegmentInfos segmentInfos = SegmentInfos.readLatestCommit(dir);
+        return segmentInfos.size() > 0 ? segmentInfos.info(0).info.getIndexSort() : null;
+    }
+
+    private static final int[] COLUMNS = new int[StatusField.values().length];
+
+    static {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            COLUMNS[i] = -1;
+        }
+        for (int i = 0; i < FIELDS.length; i++) {
+            COLUMNS[FIELDS[i].ordinal()] = i;
+        }
+    }
+
+    /**
+     * Stored fields that are still needed to return a document once its columns are known.
+     */
+    public static final Set<String> STORED_FIELDS = Set.of(
+            StatusField.SCREEN_NAME.name, StatusField.TEXT.name, StatusField.LANG.name);
+
+    private final long[][] values;
+    private final boolean[] present;
+
+    private StatusColumns(int numDocs) {
+        values = new long[FIELDS.length][numDocs];
+        present = new boolean[numDocs];
+    }
+
+    public static String name(StatusField field) {
+        return field.name + SUFFIX;
+    }
+
+    /**
+     * Adds a doc values column for every numeric status field stored in {@code doc}, and the retweet flag.
+     */
+    public static void addColumns(Document doc) {
+        for (StatusField field : FIELDS) {
+            IndexableField stored = doc.getField(field.name);
+            if (stored != null && stored.numericValue() != null) {
+                doc.add(new NumericDocValuesField(name(field), stored.numericValue().longValue()));
+            }
+        }
+        // same test as the retweet post-filter of SearchUtils.getDocs
+        boolean retweet = doc.getField(StatusField.RETWEETED_STATUS_ID.name) != null
+                || Strings.CI.startsWith(doc.get(StatusField.TEXT.name), "RT ");
+        doc.add(new StringField(RETWEET_FLAG, Boolean.toString(retweet), Field.Store.NO));
+    }
+
+    public static boolean hasColumns(LeafReader reader) {
+        return reader.getFieldInfos().fieldInfo(name(StatusField.ID)) != null;
+    }
+
+    public static boolean hasRetweetFlag(LeafReader reader) {
+        return reader.getFieldInfos().fieldInfo(RETWEET_FLAG) != null;
+    }
+
+    /**
+     * @return a query matching the flagged retweets, to be excluded with {@code MUST_NOT}
+     */
+    public static Query retweets() {
+        return new TermQuery(new Term(RETWEET_FLAG, Boolean.toString(true)));
+    }
+
+    /**
+     * Reads the columns of {@code docIds}, given as top-level doc ids in any order.
+     */
+    public static StatusColumns read(IndexReader indexReader, int[] docIds) throws IOException {
+        int numDocs = docIds.length;
+        StatusColumns columns = new StatusColumns(numDocs);
+        int[] order = QueryLikelihoodRescorer.sortByDocId(docIds);
+        List<LeafReaderContext> leaves = indexReader.leaves();
+        int start = 0;
+        while (start < numDocs) {
+            LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docIds[order[start]], leaves));
+            int end = start;
+            while (end < numDocs && docIds[order[end]] < leaf.docBase + leaf.reader().maxDoc()) {
+                end++;
+            }
+            if (hasColumns(leaf.reader())) {
+                columns.readLeaf(leaf, docIds, order, start, end);
+            }
+            start = end;
+        }
+        return columns;
+    }
+
+    private void readLeaf(LeafReaderContext leaf, int[] docIds, int[] order, int start, int end) throws IOException {
+        for (int c = 0; c < FIELDS.length; c++) {
+            NumericDocValues docValues = leaf.reader().getNumericDocValues(name(FIELDS[c]));
+            if (docValues == null) {
+                continue;
+            }
+            for (int k = start; k < end; k++) {
+                int i = order[k];
+                if (docValues.advanceExact(docIds[i] - leaf.docBase)) {
+                    values[c][i] = docValues.longValue();
+                    if (c == 0) {
+                        present[i] = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return false when the i-th document was indexed without columns
+     */
+    public boolean has(int i) {
+        return present[i];
+    }
+
+    /**
+     * @return the value of {@code field} for the i-th document, or 0 if it has none
+     */
+    public long get(StatusField field, int i) {
+        int c = COLUMNS[field.ordinal()];
+        if (c < 0) {
+            throw new IllegalArgumentException(field.name + " is not a column");
+        }
+        return values[c][i];
+    }
+
+    public void copyTo(int i, StatusDocument doc) {
+        doc.id = get(StatusField.ID, i);
+        doc.setEpoch(get(StatusField.EPOCH, i));
+        doc.setFollowers_count((int) get(StatusField.FOLLOWERS_COUNT, i));
+        doc.setStatuses_count((int) get(StatusField.STATUSES_COUNT, i));
+        doc.setIn_reply_to_status_id(get(StatusField.IN_REPLY_TO_STATUS_ID, i));
+        doc.setIn_reply_to_user_id(get(StatusField.IN_REPLY_TO_USER_ID, i));
+        doc.setRetweeted_status_id(get(StatusField.RETWEETED_STATUS_ID, i));
+        doc.setRetweeted_user_id(get(StatusField.RETWEETED_USER_ID, i));
+        doc.setRetweeted_count((int) get(StatusField.RETWEET_COUNT, i));
+    }
+}
@@ -0,0 +1,138 @@
+package io.jitter.core.search;
+
+import cc.twittertools.index.IndexStatuses.StatusField;
+import io.jitter.core.analysis.LowercaseKeywordAnalyzer;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfos;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Adds the {@link StatusColumns} to an index written before they existed.
+ * <p>
+ * Every document of a segment without columns or without the retweet flag is rebuilt from its stored fields,
+ * using the options each field was indexed with, added again and deleted from the old segment, which is dropped
+ * once it has no live documents left. Runs in place on the writer lock of the index, so live indexing into it
+ * has to be stopped first.
+ */
+public class StatusColumnsMigration {
+
+    private static final Logger logger = LoggerFactory.getLogger(StatusColumnsMigration.class);
+
+    /**
+     * @param analyzer the analyzer the index was written with
+     * @return the number of documents migrated
+     */
+    public static int migrate(Path indexPath, Analyzer analyzer) throws IOException {
+        long startTime = System.currentTimeMillis();
+
+        Map<String, Analyzer> fieldAnalyzers = new HashMap<>();
+        fieldAnalyzers.put(StatusField.SCREEN_NAME.name, new LowercaseKeywordAnalyzer());
+        IndexWriterConfig config = new IndexWriterConfig(new PerFieldAnalyzerWrapper(analyzer, fieldAnalyzers));
+        config.setOpenMode(IndexWriterConfig.OpenMode.APPEND);
+        // keep the old segments in place so the reader doc ids stay valid for deletion
+        config.setMergePolicy(NoMergePolicy.INSTANCE);
+
+        int migrated;
+        try (Directory dir = FSDirectory.open(indexPath)) {
+            Sort indexSort = StatusColumns.indexSort(dir);
+            if (indexSort != null) {
+                config.setIndexSort(indexSort);
+            }
+            migrated = migrate(dir, config);
+        }
+
+        long endTime = System.currentTimeMillis();
+        logger.info(String.format(Locale.ENGLISH, "%s: migrated %d documents to doc values columns in %4dms",
+                indexPath, migrated, (endTime - startTime)));
+        return migrated;
+    }
+
+    private static int migrate(Directory dir, IndexWriterConfig config) throws IOException {
+        int migrated = 0;
+        try (IndexWriter writer = new IndexWriter(dir, config);
+             DirectoryReader reader = DirectoryReader.open(writer)) {
+            for (LeafReaderContext leaf : reader.leaves()) {
+                LeafReader leafReader = leaf.reader();
+                if (StatusColumns.hasColumns(leafReader) && StatusColumns.hasRetweetFlag(leafReader)) {
+                    continue;
+                }
+                StoredFields storedFields = leafReader.storedFields();
+                Bits liveDocs = leafReader.getLiveDocs();
+                for (int doc = 0; doc < leafReader.maxDoc(); doc++) {
+                    if (liveDocs != null && !liveDocs.get(doc)) {
+                        continue;
+                    }
+                    writer.addDocument(rebuild(storedFields.document(doc), leafReader.getFieldInfos()));
+                    if (writer.tryDeleteDocument(reader, leaf.docBase + doc) == -1) {
+                        throw new IOException("Could not delete migrated document " + (leaf.docBase + doc));
+                    }
+                    migrated++;
+                }
+                writer.commit();
+            }
+            writer.commit();
+        }
+        return migrated;
+    }
+
+    private static Document rebuild(Document stored, FieldInfos fieldInfos) {
+        Document doc = new Document();
+        for (IndexableField field : stored.getFields()) {
+            String name = field.name();
+            Number number = field.numericValue();
+            FieldInfo fieldInfo = fieldInfos.fieldInfo(name);
+            boolean indexed = fieldInfo != null && fieldInfo.getPointDimensionCount() > 0;
+            if (number instanceof Long) {
+                if (indexed) {
+                    doc.add(new LongPoint(name, number.longValue()));
+                }
+                doc.add(new StoredField(name, number.longValue()));
+            } else if (number instanceof Integer) {
+                if (indexed) {
+                    doc.add(new IntPoint(name, number.intValue()));
+                }
+                doc.add(new StoredField(name, number.intValue()));
+            } else if (field.stringValue() != null && fieldInfo != null) {
+                // same options as the field was indexed with, so the rebuilt segments keep the schema
+                FieldType fieldType = new FieldType();
+                fieldType.setIndexOptions(fieldInfo.getIndexOptions());
+                fieldType.setStoreTermVectors(fieldInfo.hasVectors());
+                fieldType.setOmitNorms(fieldInfo.omitsNorms());
+                fieldType.setTokenized(true);
+                fieldType.setStored(true);
+                doc.add(new Field(name, field.stringValue(), fieldType));
+            } else {
+                doc.add(field);
+            }
+        }
+        StatusColumns.addColumns(doc);
+        return doc;
+    }
+}
@@ -0,0 +1,72 @@
+package io.jitter.core.search;
+
+import cc.twittertools.index.IndexStatuses.StatusField;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.search.PointRangeQuery;
+import org.apache.lucene.search.Query;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Splits a status index into sub-indexes by creation time, one per UTC day or hour, named so that they sort
+ * from oldest to newest (e.g. {@code 20131231} or {@code 2013123123}).
+ */
+public enum TimePartitioning {
+    NONE(null),
+    DAILY("yyyyMMdd"),
+    HOURLY("yyyyMMddHH");
+
+    /**
+     * Number of newest partitions the live indexer keeps open for writing, so statuses that arrive late still go
+     * to their own partition. Older partitions never change and are opened once.
+     */
+    public static final int WRITABLE_PARTITIONS = 2;
+
+    private final DateTimeFormatter formatter;
+
+    TimePartitioning(String pattern) {
+        this.formatter = pattern != null ? DateTimeFormatter.ofPattern(pattern).withZone(ZoneOffset.UTC) : null;
+    }
+
+    public boolean isPartitioned() {
+        return formatter != null;
+    }
+
+    /**
+     * @return the name of the partition of a status created at {@code epoch} seconds
+     */
+    public String partition(long epoch) {
+        return isPartitioned() ? formatter.format(Instant.ofEpochSecond(epoch)) : "";
+    }
+
+    public Path path(Path indexPath, String partition) {
+        return isPartitioned() ? indexPath.resolve(partition) : indexPath;
+    }
+
+    /**
+     * @return the partitions under {@code indexPath} that hold an index, oldest first
+     */
+    public static List<Path> partitions(Path indexPath) throws IOException {
+        return PartitionedSearcherManager.indexes(indexPath, "\\d+");
+    }
+
+    /**
+     * @return the epoch range of an epoch range filter, or null if {@code filter} is not one
+     */
+    public static long[] epochRange(Query filter) {
+        if (filter instanceof PointRangeQuery) {
+            PointRangeQuery rangeQuery = (PointRangeQuery) filter;
+            if (StatusField.EPOCH.name.equals(rangeQuery.getField()) && rangeQuery.getNumDims() == 1
+                    && rangeQuery.getBytesPerDim() == Long.BYTES) {
+                return new long[]{LongPoint.decodeDimension(rangeQuery.getLowerPoint(), 0),
+                        LongPoint.decodeDimension(rangeQuery.getUpperPoint(), 0)};
+            }
+        }
+        return null;
+    }
+}
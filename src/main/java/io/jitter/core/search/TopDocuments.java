@@ -13,6 +13,9 @@ public class TopDocuments {
     /** The top hits for the query. */
     public List<? extends AbstractDocument> scoreDocs;
 
+    /** The cursor of the next page of a paged search, or null if this is the last page. */
+    public String nextCursor;
+
     /** Constructs a TopDocuments taking the size from the input */
     public TopDocuments(List<? extends AbstractDocument> scoreDocs) {
     this(scoreDocs.size(), scoreDocs);
@@ -1,13 +1,16 @@
 package io.jitter.core.selection;
 
 import cc.twittertools.index.IndexStatuses;
-import cc.twittertools.util.QueryLikelihoodModel;
 import com.google.common.collect.ImmutableSortedSet;
 import io.dropwizard.lifecycle.Managed;
 import io.jitter.api.collectionstatistics.CollectionStats;
 import io.jitter.api.collectionstatistics.IndexCollectionStats;
 import io.jitter.api.search.StatusDocument;
 import io.jitter.core.analysis.TweetAnalyzer;
+import io.jitter.core.search.QueryLikelihoodRescorer;
+import io.jitter.core.search.RefreshingSearcherManager;
+import io.jitter.core.search.StatusColumns;
+import io.jitter.core.selection.methods.DocShards;
 import io.jitter.core.selection.methods.RankS;
 import io.jitter.core.selection.methods.SelectionMethod;
 import io.jitter.core.selection.methods.SelectionMethodFactory;
@@ -17,6 +20,7 @@
 import io.jitter.core.twitter.manager.TwitterManager;
 import io.jitter.core.utils.SearchUtils;
 import io.jitter.core.utils.Stopper;
+import io.jitter.core.utils.TopScores;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.CharArraySet;
 import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
@@ -48,10 +52,9 @@ public class SelectionManager implements Managed {
 
     private final Analyzer analyzer;
     private final LMDirichletSimilarity similarity;
-    private final QueryLikelihoodModel qlModel;
+    private final QueryLikelihoodRescorer qlRescorer;
 
-    private DirectoryReader indexReader;
-    private IndexSearcher searcher;
+    private final RefreshingSearcherManager searcherManager;
 
     private final String collection;
     private final String indexPath;
@@ -59,6 +62,8 @@ public class SelectionManager implements Managed {
     private final float mu;
     private final String method;
     private final boolean live;
+    private boolean timeSorted;
+    private boolean exactTotalHits;
 
     private Map<String, ImmutableSortedSet<String>> topics;
 
@@ -71,7 +76,7 @@ public class SelectionManager implements Managed {
     private TwitterManager twitterManager;
     private boolean indexing;
 
-    public SelectionManager(String collection, String indexPath, String stopwords, float mu, String method, boolean live, Map<String, Set<String>> topics) {
+    public SelectionManager(String collection, String indexPath, String stopwords, float mu, String method, boolean live, long maxStalenessMillis, Map<String, Set<String>> topics) {
         this.collection = collection;
         this.indexPath = indexPath;
         this.mu = mu;
@@ -85,7 +90,8 @@ public SelectionManager(String collection, String indexPath, String stopwords, f
         this.topics = treeMap;
 
         similarity = new LMDirichletSimilarity(mu);
-        qlModel = new QueryLikelihoodModel(mu);
+        qlRescorer = new QueryLikelihoodRescorer(IndexStatuses.StatusField.TEXT.name, mu);
+        searcherManager = new RefreshingSearcherManager(Paths.get(indexPath), similarity, live, maxStalenessMillis);
 
         if (!stopwords.isEmpty()) {
             stopper = new Stopper(stopwords);
@@ -100,9 +106,9 @@ public SelectionManager(String collection, String indexPath, String stopwords, f
 
     @Override
     public void start() throws Exception {
+        searcherManager.start();
         try {
-            searcher = getIndexSearcher();
-            shardStatsBuilder = new ShardStatsBuilder(indexReader, topics);
+            shardStatsBuilder = new ShardStatsBuilder(topics);
             reverseTopicMap = shardStatsBuilder.getReverseTopicMap();
             collectStats();
         } catch (Exception e) {
@@ -111,16 +117,19 @@ public void start() throws Exception {
     }
 
     public void collectStats() throws IOException {
-        shardStatsBuilder.collectStats();
+        IndexSearcher indexSearcher = searcherManager.acquire();
+        try {
+            shardStatsBuilder.collectStats(indexSearcher.getIndexReader());
+        } finally {
+            searcherManager.release(indexSearcher);
+        }
         csiStats = shardStatsBuilder.getCollectionsShardStats();
         shardStats = shardStatsBuilder.getTopicsShardStats();
     }
 
     @Override
     public void stop() throws Exception {
-        if (indexReader != null) {
-            indexReader.close();
-        }
+        searcherManager.close();
     }
 
     public String getMethod() {
@@ -139,6 +148,34 @@ public float getMu() {
         return mu;
     }
 
+    public boolean isTimeSorted() {
+        return timeSorted;
+    }
+
+    public void setTimeSorted(boolean timeSorted) {
+        this.timeSorted = timeSorted;
+    }
+
+    public boolean isExactTotalHits() {
+        return exactTotalHits;
+    }
+
+    /**
+     * Counts every matching status. By default counting stops after the collected hits, which lets the
+     * collector skip blocks of postings that cannot make the top hits.
+     */
+    public void setExactTotalHits(boolean exactTotalHits) {
+        this.exactTotalHits = exactTotalHits;
+    }
+
+    private int totalHitsThreshold(int len) {
+        return exactTotalHits ? Integer.MAX_VALUE : len;
+    }
+
+    public RefreshingSearcherManager getSearcherManager() {
+        return searcherManager;
+    }
+
     public Map<String, ImmutableSortedSet<String>> getTopics() {
         return topics;
     }
@@ -179,142 +216,147 @@ public void setTwitterManager(TwitterManager twitterManager) {
         this.twitterManager = twitterManager;
     }
 
-    public Map<String, Double> select(SelectionTopDocuments selectionTopDocuments, int limit, SelectionMethod selectionMethod, int maxCol, double minRanks, boolean normalize) {
+    public Map<String, Double> select(SelectionTopDocuments selectionTopDocuments, int limit, SelectionMethod<StatusDocument> selectionMethod, int maxCol, double minRanks, boolean normalize) {
         List<StatusDocument> topDocs = (List<StatusDocument>) selectionTopDocuments.scoreDocs.subList(0, Math.min(limit, selectionTopDocuments.scoreDocs.size()));
-        for (StatusDocument topDoc : topDocs) {
-            topDoc.setShardIds(new String[]{topDoc.getScreen_name()});
+        DocShards shards = new DocShards(csiStats, topDocs.size());
+        for (int i = 0; i < topDocs.size(); i++) {
+            StatusDocument topDoc = topDocs.get(i);
+            topDoc.setShardIds(shards.set(i, topDoc.getScreen_name()));
         }
-        Map<String, Double> rankedCollections = selectionMethod.rank(topDocs, csiStats);
-        SortedMap<String, Double> ranking;
-        if (normalize && shardsManager.getCollectionsShardStats() != null) {
-            Map<String, Double> map = selectionMethod.normalize(rankedCollections, csiStats, shardsManager.getCollectionsShardStats());
-            ranking = getSortedMap(map);
+        Map<String, Double> rankedCollections = selectionMethod.rank(topDocs, shards);
+        Map<String, Double> ranking;
+        // one snapshot of the counted sizes for the request
+        ShardStats counted = shardsManager.getCollectionsShardStats();
+        if (normalize && counted != null) {
+            ranking = selectionMethod.normalize(rankedCollections, csiStats, counted);
         } else {
-            ranking = getSortedMap(rankedCollections);
+            ranking = rankedCollections;
         }
 
         return limit(selectionMethod, ranking, maxCol, minRanks);
     }
 
-    public Map<String, Double> selectTopics(SelectionTopDocuments selectionTopDocuments, int limit, SelectionMethod selectionMethod, int maxCol, double minRanks, boolean normalize) {
+    public Map<String, Double> selectTopics(SelectionTopDocuments selectionTopDocuments, int limit, SelectionMethod<StatusDocument> selectionMethod, int maxCol, double minRanks, boolean normalize) {
         List<StatusDocument> topDocs = (List<StatusDocument>) selectionTopDocuments.scoreDocs.subList(0, Math.min(limit, selectionTopDocuments.scoreDocs.size()));
-        for (StatusDocument topDoc : topDocs) {
-            if (reverseTopicMap.containsKey(topDoc.getScreen_name().toLowerCase(Locale.ROOT))) {
-                String topic = reverseTopicMap.get(topDoc.getScreen_name().toLowerCase(Locale.ROOT)).toLowerCase(Locale.ROOT);
-                topDoc.setShardIds(new String[]{topic});
+        DocShards shards = new DocShards(shardStats, topDocs.size());
+        for (int i = 0; i < topDocs.size(); i++) {
+            StatusDocument topDoc = topDocs.get(i);
+            String topic = reverseTopicMap.get(topDoc.getScreen_name().toLowerCase(Locale.ROOT));
+            if (topic != null) {
+                topDoc.setShardIds(shards.set(i, topic.toLowerCase(Locale.ROOT)));
             } else {
                 logger.error("{} not mapped to a topic!", topDoc.getScreen_name());
             }
         }
-        Map<String, Double> rankedTopics = selectionMethod.rank(topDocs, shardStats);
-        SortedMap<String, Double> ranking;
-        if (normalize && shardsManager.getTopicsShardStats() != null) {
-            Map<String, Double> map = selectionMethod.normalize(rankedTopics, shardStats, shardsManager.getTopicsShardStats());
-            ranking = getSortedMap(map);
+        Map<String, Double> rankedTopics = selectionMethod.rank(topDocs, shards);
+        Map<String, Double> ranking;
+        ShardStats counted = shardsManager.getTopicsShardStats();
+        if (normalize && counted != null) {
+            ranking = selectionMethod.normalize(rankedTopics, shardStats, counted);
         } else {
-            ranking = getSortedMap(rankedTopics);
+            ranking = rankedTopics;
         }
 
         return limit(selectionMethod, ranking, maxCol, minRanks);
     }
 
-    private SortedMap<String, Double> getSortedMap(Map<String, Double> map) {
-        SelectionComparator comparator = new SelectionComparator(map);
-        TreeMap<String, Double> sortedMap = new TreeMap<>(comparator);
-        sortedMap.putAll(map);
-        return sortedMap;
-    }
-
-    private Map<String,Double> limit(SelectionMethod selectionMethod, SortedMap<String, Double> ranking, int maxCol, double minRanks) {
+    private Map<String, Double> limit(SelectionMethod<StatusDocument> selectionMethod, Map<String, Double> ranking, int maxCol, double minRanks) {
         String methodName = selectionMethod.getClass().getSimpleName();
-        Map<String, Double> map = new LinkedHashMap<>();
         // rankS has its own limit mechanism
         if (RankS.class.getSimpleName().equals(methodName)) {
-            for (Map.Entry<String, Double> entry : ranking.entrySet()) {
-                if (entry.getValue() < minRanks)
-                    break;
-                map.put(entry.getKey(), entry.getValue());
-            }
+            return TopScores.atLeast(ranking, minRanks);
         } else { // hard limit
-            int i = 0;
-            for (Map.Entry<String, Double> entry : ranking.entrySet()) {
-                i++;
-                if (i > maxCol)
-                    break;
-                map.put(entry.getKey(), entry.getValue());
-            }
+            return TopScores.top(ranking, maxCol);
         }
-        return map;
     }
 
     public SelectionTopDocuments isearch(String query, String filterQuery, Query filter, int n, boolean filterRT) throws IOException, ParseException {
+        return isearch(query, filterQuery, filter, n, filterRT, null);
+    }
+
+    /**
+     * @param timeout stops the search once reached, which then returns the hits collected so far, or null
+     */
+    public SelectionTopDocuments isearch(String query, String filterQuery, Query filter, int n, boolean filterRT, QueryTimeout timeout) throws IOException, ParseException {
         int len = Math.min(MAX_RESULTS, 3 * n);
         int nDocsReturned;
         int totalHits;
         int[] ids;
         float[] scores;
 
-        IndexSearcher indexSearcher = getIndexSearcher();
-        CollectionStats collectionStats = getCollectionStats();
-        Query q = new QueryParser(IndexStatuses.StatusField.TEXT.name, analyzer).parse(query);
+        IndexSearcher acquired = searcherManager.acquire();
+        IndexSearcher indexSearcher = timeout != null ? searcherManager.withTimeout(acquired, timeout) : acquired;
+        try {
+            IndexReader indexReader = indexSearcher.getIndexReader();
+            CollectionStats collectionStats = new IndexCollectionStats(indexReader, IndexStatuses.StatusField.TEXT.name);
+            Query q = new QueryParser(IndexStatuses.StatusField.TEXT.name, analyzer).parse(query);
 
-        BooleanQuery.Builder b = new BooleanQuery.Builder();
-        b.add(q, BooleanClause.Occur.MUST);
+            BooleanQuery.Builder b = new BooleanQuery.Builder();
+            b.add(q, BooleanClause.Occur.MUST);
 
-        if (!filterQuery.isEmpty()) {
-            Query fq = new QueryParser(IndexStatuses.StatusField.TEXT.name, new WhitespaceAnalyzer()).parse(filterQuery);
-            b.add(fq, BooleanClause.Occur.FILTER);
-        }
+            if (!filterQuery.isEmpty()) {
+                Query fq = new QueryParser(IndexStatuses.StatusField.TEXT.name, new WhitespaceAnalyzer()).parse(filterQuery);
+                b.add(fq, BooleanClause.Occur.FILTER);
+            }
 
-        if (filter != null) {
-            b.add(filter, BooleanClause.Occur.FILTER);
-        }
+            if (filter != null) {
+                b.add(filter, BooleanClause.Occur.FILTER);
+            }
 
-        Query bQuery = b.build();
+            if (filterRT) {
+                b.add(StatusColumns.retweets(), BooleanClause.Occur.MUST_NOT);
+            }
 
-        final TopDocsCollector hitsCollector = TopScoreDocCollector.create(len, len);
-        indexSearcher.search(bQuery, hitsCollector);
+            Query bQuery = b.build();
 
-        totalHits = hitsCollector.getTotalHits();
-        TopDocs topDocs = hitsCollector.topDocs(0, len);
+            // the 3n headroom covers the duplicate statuses dropped by getDocs, and the retweets of segments without the flag
+            // a collector manager lets the searcher collect slices of segments in parallel
+            TopDocs topDocs = indexSearcher.search(bQuery, new TopScoreDocCollectorManager(len, totalHitsThreshold(len)));
+            totalHits = (int) topDocs.totalHits.value;
+            if (indexSearcher.timedOut()) {
+                logger.warn("Search timed out, partial results: {}", query);
+            }
 
-        nDocsReturned = topDocs.scoreDocs.length;
-        ids = new int[nDocsReturned];
-        scores = new float[nDocsReturned];
-        for (int i = 0; i < nDocsReturned; i++) {
-            ScoreDoc scoreDoc = topDocs.scoreDocs[i];
-            ids[i] = scoreDoc.doc;
-            scores[i] = scoreDoc.score;
-        }
+            nDocsReturned = topDocs.scoreDocs.length;
+            ids = new int[nDocsReturned];
+            scores = new float[nDocsReturned];
+            for (int i = 0; i < nDocsReturned; i++) {
+                ScoreDoc scoreDoc = topDocs.scoreDocs[i];
+                ids[i] = scoreDoc.doc;
+                scores[i] = scoreDoc.score;
+            }
 
-        List<StatusDocument> docs = SearchUtils.getDocs(indexSearcher, analyzer, collectionStats, qlModel, topDocs, query, n, filterRT);
+            List<StatusDocument> docs = SearchUtils.getDocs(indexSearcher, analyzer, collectionStats, qlRescorer, topDocs, query, n, filterRT);
 
-        int c_sel;
-        if (live) {
-            c_sel = totalHits;
-        } else {
-            Terms terms = MultiTerms.getTerms(indexReader, IndexStatuses.StatusField.TEXT.name);
-            TermsEnum termEnum = terms.iterator();
-            final BytesRefBuilder bytes = new BytesRefBuilder();
-
-            int totalDF = 0;
-            Set<Term> queryTerms = new TreeSet<>();
-            QueryVisitor termCollector = QueryVisitor.termCollector(queryTerms);
-            q.visit(termCollector);
-            for (Term term : queryTerms) {
-                String text = term.text();
-                if (text.isEmpty())
-                    continue;
-                bytes.copyChars(text);
-                termEnum.seekExact(bytes.toBytesRef());
-                totalDF += termEnum.docFreq();
+            int c_sel;
+            if (live) {
+                c_sel = totalHits;
+            } else {
+                Terms terms = MultiTerms.getTerms(indexReader, IndexStatuses.StatusField.TEXT.name);
+                TermsEnum termEnum = terms.iterator();
+                final BytesRefBuilder bytes = new BytesRefBuilder();
+
+                int totalDF = 0;
+                Set<Term> queryTerms = new TreeSet<>();
+                QueryVisitor termCollector = QueryVisitor.termCollector(queryTerms);
+                q.visit(termCollector);
+                for (Term term : queryTerms) {
+                    String text = term.text();
+                    if (text.isEmpty())
+                        continue;
+                    bytes.copyChars(text);
+                    termEnum.seekExact(bytes.toBytesRef());
+                    totalDF += termEnum.docFreq();
+                }
+                c_sel = totalDF;
             }
-            c_sel = totalDF;
-        }
 
-        SelectionTopDocuments selectionTopDocuments = new SelectionTopDocuments(totalHits, docs);
-        selectionTopDocuments.setC_sel(c_sel);
-        return selectionTopDocuments;
+            SelectionTopDocuments selectionTopDocuments = new SelectionTopDocuments(totalHits, docs);
+            selectionTopDocuments.setC_sel(c_sel);
+            return selectionTopDocuments;
+        } finally {
+            searcherManager.release(acquired);
+        }
     }
 
     public SelectionTopDocuments isearch(String query, String filterQuery, int n, boolean filterRT) throws IOException, ParseException {
@@ -350,7 +392,7 @@ public void index() throws IOException {
         try {
             logger.info("selection indexing");
             indexing = true;
-            twitterManager.index(collection, indexPath, analyzer);
+            twitterManager.index(collection, indexPath, analyzer, timeSorted);
         } catch (IOException e) {
             throw e;
         } finally {
@@ -368,6 +410,11 @@ public void forceMerge() throws IOException {
         Directory dir = FSDirectory.open(indexPath);
         IndexWriterConfig config = new IndexWriterConfig(analyzer);
         config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        // merging without the sort of a time sorted index would unsort it
+        Sort indexSort = StatusColumns.indexSort(dir);
+        if (indexSort != null) {
+            config.setIndexSort(indexSort);
+        }
 
         try (IndexWriter writer = new IndexWriter(dir, config)) {
             indexing = true;
@@ -384,52 +431,43 @@ public void forceMerge() throws IOException {
 
     public TermStats[] getHighFreqTerms(int n) throws Exception {
         int numResults = n > MAX_TERMS_RESULTS ? MAX_TERMS_RESULTS : n;
-        return HighFreqTerms.getHighFreqTerms(indexReader, numResults, IndexStatuses.StatusField.TEXT.name, new HighFreqTerms.DocFreqComparator());
-    }
-
-    private IndexSearcher getIndexSearcher() throws IOException {
+        IndexSearcher indexSearcher = searcherManager.acquire();
         try {
-            if (indexReader == null) {
-                indexReader = DirectoryReader.open(FSDirectory.open(Paths.get(indexPath)));
-                searcher = new IndexSearcher(indexReader);
-                searcher.setSimilarity(similarity);
-            } else if (live && !indexReader.isCurrent()) {
-                DirectoryReader newReader = DirectoryReader.openIfChanged(indexReader);
-                if (newReader != null) {
-                    indexReader.close();
-                    indexReader = newReader;
-                    searcher = new IndexSearcher(indexReader);
-                    searcher.setSimilarity(similarity);
-                }
-            }
-        } catch (IndexNotFoundException e) {
-            logger.error(e.getMessage());
+            return HighFreqTerms.getHighFreqTerms(indexSearcher.getIndexReader(), numResults, IndexStatuses.StatusField.TEXT.name, new HighFreqTerms.DocFreqComparator());
+        } finally {
+            searcherManager.release(indexSearcher);
         }
-        return searcher;
     }
 
     public CollectionStats getCollectionStats() {
-        return new IndexCollectionStats(indexReader, IndexStatuses.StatusField.TEXT.name);
+        return searcherManager.getCollectionStats(IndexStatuses.StatusField.TEXT.name);
     }
 
-    public SelectionTopDocuments search(String query, String filterQuery, Optional<Long> maxId, int limit, boolean retweets, long[] epochs, boolean future) throws IOException, ParseException {
-        SelectionTopDocuments selectResults;
+    public SelectionTopDocuments search(String query, String filterQuery, Optional<Long> maxId, int limit, boolean retweets, long[] epochs, boolean future, QueryTimeout timeout) throws IOException, ParseException {
+        Query filter = null;
         if (!future) {
             if (maxId.isPresent()) {
-                selectResults = search(query, filterQuery, limit, !retweets, maxId.get());
+                filter = LongPoint.newRangeQuery(IndexStatuses.StatusField.ID.name, 0L, maxId.get());
             } else if (epochs[0] > 0 || epochs[1] > 0) {
-                selectResults = search(query, filterQuery, limit, !retweets, epochs[0], epochs[1]);
-            } else {
-                selectResults = search(query, filterQuery, limit, !retweets);
+                filter = LongPoint.newRangeQuery(IndexStatuses.StatusField.EPOCH.name, epochs[0], epochs[1]);
             }
-        } else {
-            selectResults = search(query, filterQuery, limit, !retweets);
         }
-        return selectResults;
+        return isearch(query, filterQuery, filter, limit, !retweets, timeout);
+    }
+
+    public SelectionTopDocuments search(String query, String filterQuery, Optional<Long> maxId, int limit, boolean retweets, long[] epochs, boolean future) throws IOException, ParseException {
+        return search(query, filterQuery, maxId, limit, retweets, epochs, future, null);
     }
 
     public CsiSelection selection(String query, String filterQuery, Optional<Long> maxId, long[] epochs, int limit, boolean retweets, boolean future, String method, int maxCol, Double minRanks, boolean normalize, boolean topics) throws IOException, ParseException {
-        return new CsiSelection(query, filterQuery, maxId, epochs, limit, retweets, future, method, maxCol, minRanks, normalize, topics).invoke();
+        return selection(query, filterQuery, maxId, epochs, limit, retweets, future, method, maxCol, minRanks, normalize, topics, null);
+    }
+
+    /**
+     * @param timeout stops the search once reached, selecting from the hits collected so far, or null
+     */
+    public CsiSelection selection(String query, String filterQuery, Optional<Long> maxId, long[] epochs, int limit, boolean retweets, boolean future, String method, int maxCol, Double minRanks, boolean normalize, boolean topics, QueryTimeout timeout) throws IOException, ParseException {
+        return new CsiSelection(query, filterQuery, maxId, epochs, limit, retweets, future, method, maxCol, minRanks, normalize, topics, timeout).invoke();
     }
 
     public boolean isIndexing() {
@@ -449,12 +487,19 @@ public class CsiSelection implements Selection {
         private final int maxCol;
         private final double minRanks;
         private final boolean normalize;
+        private final QueryTimeout timeout;
         private SelectionTopDocuments results;
         private Map<String, Double> collections;
 
         public CsiSelection(String query, String filterQuery, Optional<Long> maxId, long[] epochs, int limit,
                             boolean retweets, boolean future,
                             String method, int maxCol, double minRanks, boolean normalize, boolean topics) {
+            this(query, filterQuery, maxId, epochs, limit, retweets, future, method, maxCol, minRanks, normalize, topics, null);
+        }
+
+        public CsiSelection(String query, String filterQuery, Optional<Long> maxId, long[] epochs, int limit,
+                            boolean retweets, boolean future,
+                            String method, int maxCol, double minRanks, boolean normalize, boolean topics, QueryTimeout timeout) {
             this.query = query;
             this.filterQuery = filterQuery;
             this.maxId = maxId;
@@ -467,6 +512,7 @@ public CsiSelection(String query, String filterQuery, Optional<Long> maxId, long
             this.normalize = normalize;
             this.epochs = epochs;
             this.topics = topics;
+            this.timeout = timeout;
         }
 
         @Override
@@ -480,8 +526,8 @@ public Map<String, Double> getCollections() {
         }
 
         public CsiSelection invoke() throws IOException, ParseException {
-            results = search(query, filterQuery, maxId, limit, retweets, epochs, future);
-            SelectionMethod selectionMethod = SelectionMethodFactory.getMethod(method);
+            results = search(query, filterQuery, maxId, limit, retweets, epochs, future, timeout);
+            SelectionMethod<StatusDocument> selectionMethod = SelectionMethodFactory.getMethod(method);
             if (topics) {
                 collections = selectTopics(results, limit, selectionMethod, maxCol, minRanks, normalize);
             } else {
@@ -2,9 +2,13 @@
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import io.dropwizard.core.setup.Environment;
+import io.dropwizard.util.Duration;
+import io.jitter.core.search.SearchExecutorFactory;
+import jakarta.validation.Valid;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
 
 import java.util.Map;
 import java.util.Set;
@@ -26,6 +30,17 @@ public class SelectionManagerFactory {
     @NotBlank
     private String method;
 
+    @NotNull
+    private Duration maxStaleness = Duration.seconds(1);
+
+    private boolean timeSorted = false;
+
+    private boolean exactTotalHits = false;
+
+    @Valid
+    @NotNull
+    private SearchExecutorFactory searchExecutor = new SearchExecutorFactory();
+
     private Map<String, Set<String>> topics;
 
     @JsonProperty
@@ -78,6 +93,46 @@ public void setMethod(String method) {
         this.method = method;
     }
 
+    @JsonProperty
+    public Duration getMaxStaleness() {
+        return maxStaleness;
+    }
+
+    @JsonProperty
+    public void setMaxStaleness(Duration maxStaleness) {
+        this.maxStaleness = maxStaleness;
+    }
+
+    @JsonProperty
+    public boolean isTimeSorted() {
+        return timeSorted;
+    }
+
+    @JsonProperty
+    public void setTimeSorted(boolean timeSorted) {
+        this.timeSorted = timeSorted;
+    }
+
+    @JsonProperty
+    public boolean isExactTotalHits() {
+        return exactTotalHits;
+    }
+
+    @JsonProperty
+    public void setExactTotalHits(boolean exactTotalHits) {
+        this.exactTotalHits = exactTotalHits;
+    }
+
+    @JsonProperty
+    public SearchExecutorFactory getSearchExecutor() {
+        return searchExecutor;
+    }
+
+    @JsonProperty
+    public void setSearchExecutor(SearchExecutorFactory searchExecutor) {
+        this.searchExecutor = searchExecutor;
+    }
+
     @JsonProperty
     public Map<String, Set<String>> getTopics() {
         return topics;
@@ -89,8 +144,12 @@ public void setTopics(Map<String, Set<String>> topics) {
     }
 
     public SelectionManager build(Environment environment, boolean live) {
-        final SelectionManager selectionManager = new SelectionManager(collection, index, stopwords, mu, method, live, topics);
+        final SelectionManager selectionManager = new SelectionManager(collection, index, stopwords, mu, method, live, maxStaleness.toMilliseconds(), topics);
+        selectionManager.setTimeSorted(timeSorted);
+        selectionManager.setExactTotalHits(exactTotalHits);
         environment.lifecycle().manage(selectionManager);
+        searchExecutor.configure(selectionManager.getSearcherManager(), environment, "selection");
+        selectionManager.getSearcherManager().registerMetrics(environment.metrics(), SelectionManager.class);
         return selectionManager;
     }
 
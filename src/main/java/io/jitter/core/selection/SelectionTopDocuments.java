@@ -13,6 +13,9 @@ public class SelectionTopDocuments {
     /** The top hits for the query. */
     public List<? extends AbstractDocument> scoreDocs;
 
+    /** The cursor of the next page of a paged search, or null if this is the last page. */
+    public String nextCursor;
+
     /** The cost of selection for the query. */
     public int c_sel;
 
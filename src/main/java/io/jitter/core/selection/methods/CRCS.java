@@ -2,31 +2,20 @@
 
 import io.jitter.api.search.ShardedDocument;
 
-import java.util.HashMap;
-import java.util.List;
-
 abstract class CRCS<E extends ShardedDocument> extends SelectionMethod<E> {
 
     CRCS() {
     }
 
-    HashMap<String, Double> getScores(List<E> results) {
-        HashMap<String, Double> scores = new HashMap<>();
-        int j = 1;
-        for (E result : results) {
-            double r = weight(j, results.size());
-            String[] shardIds = result.getShardIds();
-            if (shardIds != null) {
-                for (String shardId : shardIds) {
-                    if (!scores.containsKey(shardId)) {
-                        scores.put(shardId, r);
-                    } else {
-                        double cur = scores.get(shardId);
-                        scores.put(shardId, cur + r);
-                    }
-                }
+    ShardScores getScores(DocShards shards) {
+        ShardScores scores = new ShardScores(shards.numShards());
+        int size = shards.numDocs();
+        for (int i = 0; i < size; i++) {
+            double r = weight(i + 1, size);
+            int shard = shards.shard(i);
+            if (shard >= 0) {
+                scores.add(shard, r);
             }
-            j++;
         }
         return scores;
     }
@@ -1,9 +1,8 @@
 package io.jitter.core.selection.methods;
 
 import io.jitter.api.search.ShardedDocument;
-import io.jitter.core.shards.ShardStats;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -13,16 +12,18 @@
     }
 
     @Override
-    public Map<String, Double> rank(List<E> results, ShardStats csiStats) {
-        HashMap<String, Double> scores = getScores(results);
-        Map<String, Double> counts = getCounts(results);
+    public Map<String, Double> rank(List<E> results, DocShards shards) {
+        ShardScores scores = getScores(shards);
+        ShardScores counts = getCounts(shards);
 
         // log multiplication
-        for (Map.Entry<String, Double> entry : scores.entrySet()) {
-            double count = counts.get(entry.getKey());
-            scores.put(entry.getKey(), Math.log(1.0 + count) * entry.getValue());
+        IntArrayList scored = scores.shards();
+        for (int i = 0; i < scored.size(); i++) {
+            int shard = scored.getInt(i);
+            double count = counts.get(shard);
+            scores.set(shard, Math.log(1.0 + count) * scores.get(shard));
         }
-        return scores;
+        return scores.toMap(shards);
     }
 
 }
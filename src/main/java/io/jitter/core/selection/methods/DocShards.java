@@ -0,0 +1,81 @@
+package io.jitter.core.selection.methods;
+
+import io.jitter.core.shards.ShardStats;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The shard of each of the top documents of a selection search, as an ordinal of a {@link ShardStats}. Shards
+ * without stats, e.g. sources indexed since the stats were collected, get ordinals past those of the stats.
+ */
+public final class DocShards {
+
+    private final ShardStats stats;
+    private final int numStatsShards;
+    private final int[] docShards;
+    private List<String> otherShards;
+    private Object2IntMap<String> otherOrdinals;
+
+    /**
+     * @param stats the stats of the shards, or null if none were collected
+     */
+    public DocShards(ShardStats stats, int numDocs) {
+        this.stats = stats;
+        this.numStatsShards = stats != null ? stats.numShards() : 0;
+        this.docShards = new int[numDocs];
+        Arrays.fill(docShards, -1);
+    }
+
+    /**
+     * Sets the shard of the document ranked {@code doc}.
+     *
+     * @return the shard ids of the document
+     */
+    public String[] set(int doc, String shard) {
+        int ordinal = stats != null ? stats.ordinal(shard) : -1;
+        if (ordinal >= 0) {
+            docShards[doc] = ordinal;
+            return stats.shardIds(ordinal);
+        }
+        if (otherOrdinals == null) {
+            otherShards = new ArrayList<>();
+            otherOrdinals = new Object2IntOpenHashMap<>();
+            otherOrdinals.defaultReturnValue(-1);
+        }
+        ordinal = otherOrdinals.getInt(shard);
+        if (ordinal < 0) {
+            ordinal = numStatsShards + otherShards.size();
+            otherShards.add(shard);
+            otherOrdinals.put(shard, ordinal);
+        }
+        docShards[doc] = ordinal;
+        return new String[]{shard};
+    }
+
+    /**
+     * @return the shard of the document ranked {@code doc}, or -1 if it has none
+     */
+    public int shard(int doc) {
+        return docShards[doc];
+    }
+
+    public int numDocs() {
+        return docShards.length;
+    }
+
+    public int numShards() {
+        return numStatsShards + (otherShards != null ? otherShards.size() : 0);
+    }
+
+    public String name(int ordinal) {
+        return ordinal < numStatsShards ? stats.shard(ordinal) : otherShards.get(ordinal - numStatsShards);
+    }
+
+    public ShardStats getStats() {
+        return stats;
+    }
+}
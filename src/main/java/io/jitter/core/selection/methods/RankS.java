@@ -22,23 +22,18 @@ protected RankS(boolean useScores) {
     }
 
     @Override
-    public Map<String, Double> rank(List<E> results, ShardStats csiStats) {
-        Map<String, Double> counts = getCounts(results);
+    public Map<String, Double> rank(List<E> results, DocShards shards) {
+        ShardScores counts = getCounts(shards);
 
         double minRsv = 0;
         if (useScores) {
             minRsv = getMinRsv(results);
         }
 
-        HashMap<String, Double> map = new HashMap<>();
+        ShardScores scores = new ShardScores(shards.numShards());
         int j = 1;
         int step = 1;
-        String[] topShards = null;
         for (ShardedDocument result : results) {
-            if (j == 1) {
-                topShards = result.getShardIds();
-            }
-
             double r = getStepFactor(step);
             if (useScores) {
                 if (minRsv < 0) {
@@ -48,16 +43,9 @@ public Map<String, Double> rank(List<E> results, ShardStats csiStats) {
                 }
             }
 
-            String[] shardIds = result.getShardIds();
-            if (shardIds != null) {
-                for (String shardId : shardIds) {
-                    if (!map.containsKey(shardId)) {
-                        map.put(shardId, r);
-                    } else {
-                        double cur = map.get(shardId);
-                        map.put(shardId, cur + r);
-                    }
-                }
+            int shard = shards.shard(j - 1);
+            if (shard >= 0) {
+                scores.add(shard, r);
             }
 
             if (j > 1) {
@@ -66,16 +54,13 @@ public Map<String, Double> rank(List<E> results, ShardStats csiStats) {
             j++;
         }
 
-        if (topShards != null) {
-            for (String topShard : topShards) {
-                if (counts.containsKey(topShard)) {
-                    if (counts.get(topShard) == 1) {
-                        map.remove(topShard);
-                    }
-                }
+        Map<String, Double> map = scores.toMap(shards);
+        if (!results.isEmpty()) {
+            int topShard = shards.shard(0);
+            if (topShard >= 0 && counts.get(topShard) == 1) {
+                map.remove(shards.name(topShard));
             }
         }
-
         return map;
     }
 
@@ -98,9 +83,12 @@ public Map<String, Double> normalize(Map<String, Double> rank, ShardStats csiSta
         HashMap<String, Double> map = new HashMap<>();
         for (Map.Entry<String, Double> shardScoreEntry : rank.entrySet()) {
             String shardId = shardScoreEntry.getKey();
-            if (shardStats.getSizes().containsKey(shardId)) {
-                double c_i = shardStats.getSizes().get(shardId);
-                double s_i = csiStats.getSizes().get(shardId);
+            int shard = shardStats.ordinal(shardId);
+            // a shard counted live may not be in the stats of the selection index yet
+            int csi = csiStats.ordinal(shardId);
+            if (shard >= 0 && csi >= 0) {
+                double c_i = shardStats.size(shard);
+                double s_i = csiStats.size(csi);
                 double norm = c_i / s_i;
                 double origScore = shardScoreEntry.getValue();
                 double newScore = norm * origScore;
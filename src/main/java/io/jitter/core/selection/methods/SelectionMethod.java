@@ -18,32 +18,30 @@
     SelectionMethod() {
     }
 
-    Map<String, Double> getCounts(List<E> results) {
-        Map<String, Double> counts = new HashMap<>();
-        for (ShardedDocument result : results) {
-            String[] shardIds = result.getShardIds();
-            if (shardIds != null) {
-                for (String shardId : shardIds) {
-                    if (!counts.containsKey(shardId)) {
-                        counts.put(shardId, 1d);
-                    } else {
-                        double cur = counts.get(shardId);
-                        counts.put(shardId, cur + 1d);
-                    }
-                }
+    ShardScores getCounts(DocShards shards) {
+        ShardScores counts = new ShardScores(shards.numShards());
+        for (int i = 0; i < shards.numDocs(); i++) {
+            int shard = shards.shard(i);
+            if (shard >= 0) {
+                counts.add(shard, 1d);
             }
         }
         return counts;
     }
 
-    public abstract Map<String, Double> rank(List<E> results, ShardStats csiStats);
+    /**
+     * @param results the top documents of a selection search
+     * @param shards  the shard of each of {@code results}
+     */
+    public abstract Map<String, Double> rank(List<E> results, DocShards shards);
 
     public Map<String, Double> normalize(Map<String, Double> rank, ShardStats csiStats, ShardStats shardStats) {
         double c_max = 1;
         Set<String> shardIds = rank.keySet();
         for (String shardId : shardIds) {
-            if (shardStats.getSizes().containsKey(shardId)) {
-                int sz = shardStats.getSizes().get(shardId);
+            int shard = shardStats.ordinal(shardId);
+            if (shard >= 0) {
+                int sz = shardStats.size(shard);
                 if (sz > c_max)
                     c_max = sz;
             }
@@ -52,9 +50,12 @@ public Map<String, Double> normalize(Map<String, Double> rank, ShardStats csiSta
         HashMap<String, Double> map = new HashMap<>();
         for (Map.Entry<String, Double> shardScoreEntry : rank.entrySet()) {
             String shardId = shardScoreEntry.getKey();
-            if (shardStats.getSizes().containsKey(shardId)) {
-                double c_i = shardStats.getSizes().get(shardId);
-                double s_i = csiStats.getSizes().get(shardId);
+            int shard = shardStats.ordinal(shardId);
+            // a shard counted live may not be in the stats of the selection index yet
+            int csi = csiStats.ordinal(shardId);
+            if (shard >= 0 && csi >= 0) {
+                double c_i = shardStats.size(shard);
+                double s_i = csiStats.size(csi);
                 double norm = (1.0 / c_max) * (c_i / s_i);
                 double origScore = shardScoreEntry.getValue();
                 double newScore = norm * origScore;
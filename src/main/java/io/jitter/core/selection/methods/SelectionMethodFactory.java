@@ -1,23 +1,25 @@
 package io.jitter.core.selection.methods;
 
+import io.jitter.api.search.ShardedDocument;
+
 public class SelectionMethodFactory {
 
-    public static SelectionMethod getMethod(String method) {
+    public static <E extends ShardedDocument> SelectionMethod<E> getMethod(String method) {
         if ("Votes".equalsIgnoreCase(method)) {
-            return new Votes();
+            return new Votes<>();
         } else if ("Sizes".equalsIgnoreCase(method)) {
-            return new Sizes();
+            return new Sizes<>();
         } else if ("CRCSLIN".equalsIgnoreCase(method)) {
-            return new CRCSLIN();
+            return new CRCSLIN<>();
         } else if ("CRCSEXP".equalsIgnoreCase(method)) {
-            return new CRCSEXP();
+            return new CRCSEXP<>();
         } else if ("CRCSLOGEXP".equalsIgnoreCase(method)) {
-            return new CRCSLOGEXP();
+            return new CRCSLOGEXP<>();
         } else if ("RankS".equalsIgnoreCase(method)) {
-            return new RankS(true);
+            return new RankS<>(true);
         }
         // default
-        return new Votes();
+        return new Votes<>();
     }
 
 }
@@ -0,0 +1,59 @@
+package io.jitter.core.selection.methods;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Scores of shards by ordinal, remembering the order they were first scored in.
+ */
+final class ShardScores {
+
+    private final double[] scores;
+    private final boolean[] scored;
+    private final IntArrayList order = new IntArrayList();
+
+    ShardScores(int numShards) {
+        scores = new double[numShards];
+        scored = new boolean[numShards];
+    }
+
+    void add(int shard, double score) {
+        if (scored[shard]) {
+            scores[shard] += score;
+        } else {
+            scored[shard] = true;
+            scores[shard] = score;
+            order.add(shard);
+        }
+    }
+
+    double get(int shard) {
+        return scores[shard];
+    }
+
+    void set(int shard, double score) {
+        scores[shard] = score;
+    }
+
+    /**
+     * @return the shards scored, in the order they were first scored in
+     */
+    IntArrayList shards() {
+        return order;
+    }
+
+    /**
+     * @return the scores by shard id, added in the order the shards were first scored in so that the map iterates
+     * as one built a score at a time
+     */
+    Map<String, Double> toMap(DocShards shards) {
+        Map<String, Double> map = new HashMap<>();
+        for (int i = 0; i < order.size(); i++) {
+            int shard = order.getInt(i);
+            map.put(shards.name(shard), scores[shard]);
+        }
+        return map;
+    }
+}
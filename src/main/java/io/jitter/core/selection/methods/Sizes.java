@@ -1,7 +1,6 @@
 package io.jitter.core.selection.methods;
 
 import io.jitter.api.search.ShardedDocument;
-import io.jitter.core.shards.ShardStats;
 
 import java.util.HashMap;
 import java.util.List;
@@ -13,9 +12,9 @@
     }
 
     @Override
-    public Map<String, Double> rank(List<E> results, ShardStats csiStats) {
+    public Map<String, Double> rank(List<E> results, DocShards shards) {
         Map<String, Double> sizes = new HashMap<>();
-        for (Map.Entry<String, Integer> entry : csiStats.getSizes().entrySet()) {
+        for (Map.Entry<String, Integer> entry : shards.getStats().getSizes().entrySet()) {
             sizes.put(entry.getKey(), (double)entry.getValue());
         }
         return sizes;
@@ -1,7 +1,6 @@
 package io.jitter.core.selection.methods;
 
 import io.jitter.api.search.ShardedDocument;
-import io.jitter.core.shards.ShardStats;
 
 import java.util.List;
 import java.util.Map;
@@ -12,7 +11,7 @@
     }
 
     @Override
-    public Map<String, Double> rank(List<E> results, ShardStats csiStats) {
-        return getCounts(results);
+    public Map<String, Double> rank(List<E> results, DocShards shards) {
+        return getCounts(shards).toMap(shards);
     }
 }
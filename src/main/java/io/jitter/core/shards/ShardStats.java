@@ -2,11 +2,14 @@
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import io.jitter.core.utils.TopScores;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
 
 @JsonPropertyOrder({"totalDocs", "maxSize", "sizes"})
 public class ShardStats {
@@ -15,6 +18,12 @@ public class ShardStats {
     private int maxSize;
     private int totalDocs;
 
+    // shards interned to ordinals, in the order of their ids
+    private String[] shards;
+    private int[] shardSizes;
+    private String[][] shardIds;
+    private Object2IntMap<String> ordinals;
+
     public ShardStats(Map<String, Integer> sizes) {
         this.sizes = sizes;
         maxSize = Collections.max(sizes.values());
@@ -23,10 +32,8 @@ public ShardStats(Map<String, Integer> sizes) {
             totalDocs += sz;
         }
 
-        ShardSizeComparator comparator = new ShardSizeComparator(sizes);
-        TreeMap<String, Integer> sortedMap = new TreeMap<>(comparator);
-        sortedMap.putAll(sizes);
-        sortedSizes = sortedMap.entrySet();
+        sortedSizes = TopScores.sorted(sizes).entrySet();
+        intern();
     }
 
     public ShardStats(Map<String, Integer> sizes, int totalDocs) {
@@ -34,10 +41,8 @@ public ShardStats(Map<String, Integer> sizes, int totalDocs) {
         maxSize = Collections.max(sizes.values());
         this.totalDocs = totalDocs;
 
-        ShardSizeComparator comparator = new ShardSizeComparator(sizes);
-        TreeMap<String, Integer> sortedMap = new TreeMap<>(comparator);
-        sortedMap.putAll(sizes);
-        sortedSizes = sortedMap.entrySet();
+        sortedSizes = TopScores.sorted(sizes).entrySet();
+        intern();
     }
 
     @JsonProperty("sizes")
@@ -56,6 +61,7 @@ public Map<String, Integer> getSizes() {
 
     public void setSizes(Map<String, Integer> sizes) {
         this.sizes = sizes;
+        intern();
     }
 
     public int getMaxSize() {
@@ -73,4 +79,44 @@ public int getTotalDocs() {
     public void setTotalDocs(int totalDocs) {
         this.totalDocs = totalDocs;
     }
-}
\ No newline at end of file
+
+    private void intern() {
+        shards = sizes.keySet().toArray(new String[0]);
+        Arrays.sort(shards);
+        shardSizes = new int[shards.length];
+        shardIds = new String[shards.length][];
+        ordinals = new Object2IntOpenHashMap<>(shards.length);
+        ordinals.defaultReturnValue(-1);
+        for (int i = 0; i < shards.length; i++) {
+            shardSizes[i] = sizes.get(shards[i]);
+            shardIds[i] = new String[]{shards[i]};
+            ordinals.put(shards[i], i);
+        }
+    }
+
+    public int numShards() {
+        return shards.length;
+    }
+
+    /**
+     * @return the ordinal of a shard, or -1 if it has no stats
+     */
+    public int ordinal(String shard) {
+        return ordinals.getInt(shard);
+    }
+
+    public String shard(int ordinal) {
+        return shards[ordinal];
+    }
+
+    public int size(int ordinal) {
+        return shardSizes[ordinal];
+    }
+
+    /**
+     * @return the shard ids of a document of a shard, shared by all of them so they must not be modified
+     */
+    public String[] shardIds(int ordinal) {
+        return shardIds[ordinal];
+    }
+}
@@ -19,15 +19,13 @@ public class ShardStatsBuilder {
 
     private static final Logger logger = LoggerFactory.getLogger(ShardStatsBuilder.class);
 
-    private final IndexReader reader;
     private final Map<String, ImmutableSortedSet<String>> topics;
     
     private Map<String, String> reverseTopicMap;
     private ShardStats collectionsShardStats;
     private ShardStats topicsShardStats;
 
-    public ShardStatsBuilder(IndexReader reader, Map<String, ImmutableSortedSet<String>> topics) throws IOException {
-        this.reader = reader;
+    public ShardStatsBuilder(Map<String, ImmutableSortedSet<String>> topics) {
         this.topics = topics;
         reverseMap(topics);
     }
@@ -63,7 +61,7 @@ public void reverseMap(Map<String, ImmutableSortedSet<String>> topics) {
         this.reverseTopicMap = reverseMap;
     }
 
-    public void collectStats() throws IOException {
+    public void collectStats(IndexReader reader) throws IOException {
         Map<String, Integer> collectionsSizes = new HashMap<>();
         Map<String, Integer> topicsSizes = new HashMap<>();
 
@@ -95,7 +93,7 @@ public void collectStats() throws IOException {
         for (String topic : topics.keySet()) {
             int docFreq = 0;
             for (String collection : topics.get(topic)) {
-                Integer sz = collectionsSizes.get(collection);
+                Integer sz = collectionsSizes.get(collection.toLowerCase(Locale.ROOT));
                 if (sz != null)
                     docFreq += sz;
             }
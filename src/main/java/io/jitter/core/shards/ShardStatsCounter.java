@@ -0,0 +1,158 @@
+package io.jitter.core.shards;
+
+import com.google.common.collect.ImmutableSortedSet;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sizes of the collections and topics of the shards index, counted as statuses are indexed so they keep up with a
+ * live index between scans of it.
+ * <p>
+ * Counts are seeded from a scan of the index and then updated by {@link #add(String)}. Readers get immutable
+ * {@link ShardStats} of the collections and topics taken together, rebuilt when asked for after counts changed, at
+ * most every {@link #SNAPSHOT_MILLIS} while statuses are added so that requests share them.
+ */
+public class ShardStatsCounter {
+
+    // how stale the sizes can be while statuses are added
+    static final long SNAPSHOT_MILLIS = 1000;
+
+    // topics of each lowercased collection
+    private final Map<String, String[]> collectionTopics = new HashMap<>();
+
+    // guarded by this
+    private final Object2IntOpenHashMap<String> collectionsSizes = new Object2IntOpenHashMap<>();
+    private final Object2IntOpenHashMap<String> topicsSizes = new Object2IntOpenHashMap<>();
+
+    private final AtomicLong version = new AtomicLong();
+    private volatile Snapshot snapshot;
+
+    public ShardStatsCounter(Map<String, ImmutableSortedSet<String>> topics) {
+        Map<String, List<String>> collectionTopics = new HashMap<>();
+        for (Map.Entry<String, ImmutableSortedSet<String>> entry : topics.entrySet()) {
+            topicsSizes.put(entry.getKey(), 0);
+            for (String collection : entry.getValue()) {
+                collectionTopics.computeIfAbsent(collection.toLowerCase(Locale.ROOT), k -> new ArrayList<>()).add(entry.getKey());
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : collectionTopics.entrySet()) {
+            this.collectionTopics.put(entry.getKey(), entry.getValue().toArray(new String[0]));
+        }
+    }
+
+    /**
+     * Counts a status of {@code screenName}, statuses of sources outside the topics are not counted.
+     */
+    public synchronized void add(String screenName) {
+        String collection = screenName.toLowerCase(Locale.ROOT);
+        String[] topics = collectionTopics.get(collection);
+        if (topics == null) {
+            return;
+        }
+        collectionsSizes.addTo(collection, 1);
+        for (String topic : topics) {
+            topicsSizes.addTo(topic, 1);
+        }
+        version.incrementAndGet();
+    }
+
+    /**
+     * Replaces the counts with those of a scan of the index.
+     */
+    public synchronized void reset(ShardStats collectionsShardStats, ShardStats topicsShardStats) {
+        collectionsSizes.clear();
+        if (collectionsShardStats != null) {
+            collectionsSizes.putAll(collectionsShardStats.getSizes());
+        }
+        for (String topic : topicsSizes.keySet()) {
+            topicsSizes.put(topic, 0);
+        }
+        if (topicsShardStats != null) {
+            topicsSizes.putAll(topicsShardStats.getSizes());
+        }
+        version.incrementAndGet();
+        // the scanned sizes are not held back
+        snapshot = null;
+    }
+
+    /**
+     * @return the difference between the sizes of a scan of the index and the counted ones, for each collection
+     * where they differ
+     */
+    public synchronized Map<String, Integer> drift(ShardStats collectionsShardStats) {
+        Map<String, Integer> drift = new TreeMap<>();
+        Map<String, Integer> scanned = collectionsShardStats != null ? collectionsShardStats.getSizes() : Map.of();
+        for (Map.Entry<String, Integer> entry : scanned.entrySet()) {
+            int diff = entry.getValue() - collectionsSizes.getInt(entry.getKey());
+            if (diff != 0) {
+                drift.put(entry.getKey(), diff);
+            }
+        }
+        for (Object2IntMap.Entry<String> entry : collectionsSizes.object2IntEntrySet()) {
+            if (!scanned.containsKey(entry.getKey()) && entry.getIntValue() != 0) {
+                drift.put(entry.getKey(), -entry.getIntValue());
+            }
+        }
+        return drift;
+    }
+
+    /**
+     * @return the sizes of the collections, or null if none has statuses
+     */
+    public ShardStats getCollectionsShardStats() {
+        return snapshot().collections;
+    }
+
+    /**
+     * @return the sizes of the topics, or null if there are none
+     */
+    public ShardStats getTopicsShardStats() {
+        return snapshot().topics;
+    }
+
+    private Snapshot snapshot() {
+        Snapshot current = snapshot;
+        if (current != null && !current.stale(version.get())) {
+            return current;
+        }
+        synchronized (this) {
+            current = snapshot;
+            long v = version.get();
+            if (current == null || current.stale(v)) {
+                current = new Snapshot(v, stats(collectionsSizes), stats(topicsSizes));
+                snapshot = current;
+            }
+            return current;
+        }
+    }
+
+    private static ShardStats stats(Object2IntMap<String> sizes) {
+        return sizes.isEmpty() ? null : new ShardStats(new HashMap<>(sizes));
+    }
+
+    private static class Snapshot {
+        final long version;
+        final ShardStats collections;
+        final ShardStats topics;
+        final long nanos = System.nanoTime();
+
+        Snapshot(long version, ShardStats collections, ShardStats topics) {
+            this.version = version;
+            this.collections = collections;
+            this.topics = topics;
+        }
+
+        boolean stale(long version) {
+            return version != this.version && System.nanoTime() - nanos >= TimeUnit.MILLISECONDS.toNanos(SNAPSHOT_MILLIS);
+        }
+    }
+}
@@ -1,15 +1,18 @@
 package io.jitter.core.shards;
 
 import cc.twittertools.index.IndexStatuses;
-import cc.twittertools.util.QueryLikelihoodModel;
-import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
-import com.google.common.collect.Sets;
 import io.dropwizard.lifecycle.Managed;
 import io.jitter.api.collectionstatistics.CollectionStats;
 import io.jitter.api.collectionstatistics.IndexCollectionStats;
 import io.jitter.api.search.StatusDocument;
 import io.jitter.core.analysis.TweetAnalyzer;
+import io.jitter.core.search.PartitionedSearcherManager;
+import io.jitter.core.search.QueryLikelihoodRescorer;
+import io.jitter.core.search.RefreshingSearcherManager;
+import io.jitter.core.search.SearchCursor;
+import io.jitter.core.search.StatusColumns;
+import io.jitter.core.search.StatusColumnsMigration;
 import io.jitter.core.selection.SelectionTopDocuments;
 import io.jitter.core.taily.TailyManager;
 import io.jitter.core.twitter.manager.TwitterManager;
@@ -28,6 +31,7 @@
 import org.apache.lucene.search.similarities.LMDirichletSimilarity;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,10 +49,9 @@ public class ShardsManager implements Managed {
 
     private final Analyzer analyzer;
     private final LMDirichletSimilarity similarity;
-    private final QueryLikelihoodModel qlModel;
+    private final QueryLikelihoodRescorer qlRescorer;
 
-    private DirectoryReader indexReader;
-    private IndexSearcher searcher;
+    private final RefreshingSearcherManager searcherManager;
 
     private final String collection;
     private final String indexPath;
@@ -57,19 +60,21 @@ public class ShardsManager implements Managed {
     private final String method;
     private final boolean removeDuplicates;
     private final boolean live;
+    private boolean timeSorted;
+    private boolean exactTotalHits;
+    private boolean shardIndexes;
 
     private Map<String, ImmutableSortedSet<String>> topics;
 
     private ShardStatsBuilder shardStatsBuilder;
     private Map<String, String> reverseTopicMap;
-    private ShardStats collectionsShardStats;
-    private ShardStats topicsShardStats;
+    private final ShardStatsCounter shardStatsCounter;
 
     private TwitterManager twitterManager;
     private TailyManager tailyManager;
     private boolean indexing;
 
-    public ShardsManager(String collection, String indexPath, String stopwords, float mu, String method, boolean removeDuplicates, boolean live, Map<String, Set<String>> topics) {
+    public ShardsManager(String collection, String indexPath, String stopwords, float mu, String method, boolean removeDuplicates, boolean live, long maxStalenessMillis, Map<String, Set<String>> topics) {
         this.collection = collection;
         this.indexPath = indexPath;
         this.mu = mu;
@@ -82,9 +87,11 @@ public ShardsManager(String collection, String indexPath, String stopwords, floa
             treeMap.put(entry.getKey(), new ImmutableSortedSet.Builder<>(String.CASE_INSENSITIVE_ORDER).addAll(entry.getValue()).build());
         }
         this.topics = treeMap;
+        shardStatsCounter = new ShardStatsCounter(treeMap);
 
         similarity = new LMDirichletSimilarity(mu);
-        qlModel = new QueryLikelihoodModel(mu);
+        qlRescorer = new QueryLikelihoodRescorer(IndexStatuses.StatusField.TEXT.name, mu);
+        searcherManager = new RefreshingSearcherManager(Paths.get(indexPath), similarity, live, maxStalenessMillis);
 
         if (!stopwords.isEmpty()) {
             stopper = new Stopper(stopwords);
@@ -99,9 +106,9 @@ public ShardsManager(String collection, String indexPath, String stopwords, floa
 
     @Override
     public void start() throws Exception {
+        searcherManager.start();
         try {
-            searcher = getIndexSearcher();
-            shardStatsBuilder = new ShardStatsBuilder(indexReader, topics);
+            shardStatsBuilder = new ShardStatsBuilder(topics);
             reverseTopicMap = shardStatsBuilder.getReverseTopicMap();
             collectStats();
         } catch (Exception e) {
@@ -110,16 +117,41 @@ public void start() throws Exception {
     }
 
     public void collectStats() throws IOException {
-        shardStatsBuilder.collectStats();
-        collectionsShardStats = shardStatsBuilder.getCollectionsShardStats();
-        topicsShardStats = shardStatsBuilder.getTopicsShardStats();
+        scanStats();
+        shardStatsCounter.reset(shardStatsBuilder.getCollectionsShardStats(), shardStatsBuilder.getTopicsShardStats());
+    }
+
+    /**
+     * Scans the index for the sizes of the collections and compares them with the counted ones, which the live
+     * indexer keeps up to date. Statuses indexed but not yet searchable show up as drift too.
+     *
+     * @param reset replace the counted sizes with the scanned ones
+     * @return the difference between the scanned and the counted size of each collection where they differ
+     */
+    public Map<String, Integer> verifyStats(boolean reset) throws IOException {
+        scanStats();
+        Map<String, Integer> drift = shardStatsCounter.drift(shardStatsBuilder.getCollectionsShardStats());
+        if (!drift.isEmpty()) {
+            logger.warn("shard sizes drifted for {} collections", drift.size());
+        }
+        if (reset) {
+            shardStatsCounter.reset(shardStatsBuilder.getCollectionsShardStats(), shardStatsBuilder.getTopicsShardStats());
+        }
+        return drift;
+    }
+
+    private void scanStats() throws IOException {
+        IndexSearcher indexSearcher = searcherManager.acquire();
+        try {
+            shardStatsBuilder.collectStats(indexSearcher.getIndexReader());
+        } finally {
+            searcherManager.release(indexSearcher);
+        }
     }
 
     @Override
     public void stop() throws Exception {
-        if (indexReader != null) {
-            indexReader.close();
-        }
+        searcherManager.close();
     }
 
     public String getMethod() {
@@ -138,6 +170,49 @@ public float getMu() {
         return mu;
     }
 
+    public boolean isTimeSorted() {
+        return timeSorted;
+    }
+
+    public void setTimeSorted(boolean timeSorted) {
+        this.timeSorted = timeSorted;
+    }
+
+    public boolean isExactTotalHits() {
+        return exactTotalHits;
+    }
+
+    /**
+     * Counts every matching status. By default counting stops after the collected hits, which lets the
+     * collector skip blocks of postings that cannot make the top hits.
+     */
+    public void setExactTotalHits(boolean exactTotalHits) {
+        this.exactTotalHits = exactTotalHits;
+    }
+
+    private int totalHitsThreshold(int len) {
+        return exactTotalHits ? Integer.MAX_VALUE : len;
+    }
+
+    public boolean isShardIndexes() {
+        return shardIndexes;
+    }
+
+    /**
+     * Keeps the statuses of each source in their own index, so a search over selected shards only reads their
+     * indexes. Has to be set before the manager is started.
+     */
+    public void setShardIndexes(boolean shardIndexes) {
+        this.shardIndexes = shardIndexes;
+        if (shardIndexes) {
+            searcherManager.setSharded();
+        }
+    }
+
+    public RefreshingSearcherManager getSearcherManager() {
+        return searcherManager;
+    }
+
     public Map<String, ImmutableSortedSet<String>> getTopics() {
         return topics;
     }
@@ -151,11 +226,18 @@ public boolean isRemoveDuplicates() {
     }
 
     public ShardStats getCollectionsShardStats() {
-        return collectionsShardStats;
+        return shardStatsCounter.getCollectionsShardStats();
     }
 
     public ShardStats getTopicsShardStats() {
-        return topicsShardStats;
+        return shardStatsCounter.getTopicsShardStats();
+    }
+
+    /**
+     * @return the counters of the shard sizes, which the live indexer updates as it adds statuses
+     */
+    public ShardStatsCounter getShardStatsCounter() {
+        return shardStatsCounter;
     }
 
     public TwitterManager getTwitterManager() {
@@ -166,14 +248,6 @@ public TailyManager getTailyManager() {
         return tailyManager;
     }
 
-    public void setCollectionsShardStats(ShardStats collectionsShardStats) {
-        this.collectionsShardStats = collectionsShardStats;
-    }
-
-    public void setTopicsShardStats(ShardStats topicsShardStats) {
-        this.topicsShardStats = topicsShardStats;
-    }
-
     public void setTwitterManager(TwitterManager twitterManager) {
         this.twitterManager = twitterManager;
     }
@@ -182,104 +256,65 @@ public void setTailyManager(TailyManager tailyManager) {
         this.tailyManager = tailyManager;
     }
 
-    private SelectionTopDocuments filter(Query query, Set<String> selectedSources, SelectionTopDocuments selectResults) throws IOException {
-        List<StatusDocument> topDocs = (List<StatusDocument>) selectResults.scoreDocs;
-        List<StatusDocument> shardedDocs = new ArrayList<>();
-        for (StatusDocument topDoc : topDocs) {
-            topDoc.setShardIds(new String[]{topDoc.getScreen_name()});
-        }
-        if (selectedSources != null && !selectedSources.isEmpty()) {
-            for (StatusDocument doc : topDocs) {
-                ImmutableSortedSet<String> shardIds = new ImmutableSortedSet.Builder<>(String.CASE_INSENSITIVE_ORDER)
-                        .addAll(ImmutableSet.copyOf(doc.getShardIds()))
-                        .build();
-                if (Sets.intersection(selectedSources, shardIds).size() > 0) {
-                    shardedDocs.add(doc);
-                }
-            }
-        } else {
-            shardedDocs.addAll(topDocs);
+    /**
+     * @return the lowercased screen names of the selected collections, or of the collections of the selected
+     * topics, or null if none are selected
+     */
+    private Set<String> selectedSources(boolean topics, Set<String> selected) {
+        if (selected == null || selected.isEmpty()) {
+            return null;
         }
-
-        int c_r;
-        if (live) {
-            c_r = selectResults.totalHits;
-        } else {
-            int totalDF = 0;
-            Set<Term> queryTerms = new TreeSet<>();
-            QueryVisitor termCollector = QueryVisitor.termCollector(queryTerms);
-            query.visit(termCollector);
-            for (Term term : queryTerms) {
-                String text = term.text();
-                if (text.isEmpty())
-                    continue;
-
-                if (selectedSources != null) {
-                    for (String selectedSource : selectedSources) {
-                        totalDF += tailyManager.getDF(selectedSource, text);
-                    }
-                } else {
-                    for (String source : reverseTopicMap.keySet()) {
-                        totalDF += tailyManager.getDF(source, text);
+        Set<String> sources = new HashSet<>();
+        for (String shard : selected) {
+            if (topics) {
+                Set<String> members = this.topics.get(shard);
+                if (members != null) {
+                    for (String member : members) {
+                        sources.add(member.toLowerCase(Locale.ROOT));
                     }
                 }
+            } else {
+                sources.add(shard.toLowerCase(Locale.ROOT));
             }
-            c_r = totalDF;
         }
+        return sources;
+    }
 
-        SelectionTopDocuments selectionTopDocuments = new SelectionTopDocuments(shardedDocs.size(), shardedDocs);
-        selectionTopDocuments.setC_r(c_r);
-        return selectionTopDocuments;
+    /**
+     * @return a filter on the statuses of {@code sources}, screen names are indexed lowercased
+     */
+    private static Query sourcesFilter(Set<String> sources) {
+        List<BytesRef> screenNames = new ArrayList<>(sources.size());
+        for (String source : sources) {
+            screenNames.add(new BytesRef(source));
+        }
+        return new TermInSetQuery(IndexStatuses.StatusField.SCREEN_NAME.name, screenNames);
     }
 
-    private SelectionTopDocuments filterTopics(Query query, Set<String> selectedTopics, SelectionTopDocuments selectResults) throws IOException {
+    private SelectionTopDocuments shard(Query query, boolean topics, Set<String> selected, SelectionTopDocuments selectResults) throws IOException {
         List<StatusDocument> topDocs = (List<StatusDocument>) selectResults.scoreDocs;
-        List<StatusDocument> shardedDocs = new ArrayList<>();
         for (StatusDocument topDoc : topDocs) {
             topDoc.setShardIds(new String[]{topDoc.getScreen_name()});
         }
-        if (selectedTopics != null && !selectedTopics.isEmpty()) {
-            for (StatusDocument doc : topDocs) {
-                ImmutableSortedSet<String> shardIds = new ImmutableSortedSet.Builder<>(String.CASE_INSENSITIVE_ORDER)
-                        .addAll(ImmutableSet.copyOf(doc.getShardIds()))
-                        .build();
-                for (String selectedTopic : selectedTopics) {
-                    if (topics.get(selectedTopic) != null && Sets.intersection(topics.get(selectedTopic), shardIds).size() > 0) {
-                        shardedDocs.add(doc);
-                    }
-                }
-            }
-        } else {
-            shardedDocs.addAll(topDocs);
-        }
 
         int c_r;
         if (live) {
             c_r = selectResults.totalHits;
         } else {
-            int totalDF = 0;
+            Collection<String> shards = selected != null ? selected : topics ? this.topics.keySet() : reverseTopicMap.keySet();
             Set<Term> queryTerms = new TreeSet<>();
             QueryVisitor termCollector = QueryVisitor.termCollector(queryTerms);
             query.visit(termCollector);
+            Set<String> stems = new LinkedHashSet<>();
             for (Term term : queryTerms) {
                 String text = term.text();
-                if (text.isEmpty())
-                    continue;
-
-                if (selectedTopics != null) {
-                    for (String selectedTopic : selectedTopics) {
-                        totalDF += tailyManager.getTopicsDF(selectedTopic, text);
-                    }
-                } else {
-                    for (String topic : topics.keySet()) {
-                        totalDF += tailyManager.getTopicsDF(topic, text);
-                    }
-                }
+                if (!text.isEmpty())
+                    stems.add(text);
             }
-            c_r = totalDF;
+            c_r = topics ? tailyManager.getTopicsDF(shards, stems) : tailyManager.getDF(shards, stems);
         }
 
-        SelectionTopDocuments selectionTopDocuments = new SelectionTopDocuments(shardedDocs.size(), shardedDocs);
+        SelectionTopDocuments selectionTopDocuments = new SelectionTopDocuments(topDocs.size(), topDocs);
         selectionTopDocuments.setC_r(c_r);
         return selectionTopDocuments;
     }
@@ -290,6 +325,21 @@ public SelectionTopDocuments limit(SelectionTopDocuments selectionTopDocuments,
     }
 
     public SelectionTopDocuments isearch(boolean topics, Set<String> collections, String query, String filterQuery, Query filter, int n, boolean filterRT) throws IOException, ParseException {
+        return isearch(topics, collections, query, filterQuery, filter, n, filterRT, null);
+    }
+
+    /**
+     * @param cursor page through the results, {@code n} hits at a time, or null to return the top {@code n}; a page
+     *               holds fewer than {@code n} statuses when some of its hits are duplicates
+     */
+    public SelectionTopDocuments isearch(boolean topics, Set<String> collections, String query, String filterQuery, Query filter, int n, boolean filterRT, SearchCursor cursor) throws IOException, ParseException {
+        return isearch(topics, collections, query, filterQuery, filter, n, filterRT, cursor, null);
+    }
+
+    /**
+     * @param timeout stops the search once reached, which then returns the hits collected so far, or null
+     */
+    public SelectionTopDocuments isearch(boolean topics, Set<String> collections, String query, String filterQuery, Query filter, int n, boolean filterRT, SearchCursor cursor, QueryTimeout timeout) throws IOException, ParseException {
         int len = Math.min(MAX_RESULTS, 3 * n);
         int nDocsReturned;
         int totalHits;
@@ -297,52 +347,85 @@ public SelectionTopDocuments isearch(boolean topics, Set<String> collections, St
         int[] ids;
         float[] scores;
 
-        IndexSearcher indexSearcher = getIndexSearcher();
-        CollectionStats collectionStats = getCollectionStats();
-        Query q = new QueryParser(IndexStatuses.StatusField.TEXT.name, analyzer).parse(query);
+        // the next page of a score ranked cursor is collected from the reader of its previous page while it is leased
+        IndexSearcher acquired = searcherManager.acquire(cursor);
+        IndexSearcher indexSearcher = timeout != null ? searcherManager.withTimeout(acquired, timeout) : acquired;
+        IndexSearcher shardsSearcher = indexSearcher;
+        try {
+            // statistics of all shards, whichever are searched
+            CollectionStats collectionStats = new IndexCollectionStats(indexSearcher.getIndexReader(), IndexStatuses.StatusField.TEXT.name);
+            Query q = new QueryParser(IndexStatuses.StatusField.TEXT.name, analyzer).parse(query);
 
-        BooleanQuery.Builder b = new BooleanQuery.Builder();
-        b.add(q, BooleanClause.Occur.MUST);
+            BooleanQuery.Builder b = new BooleanQuery.Builder();
+            b.add(q, BooleanClause.Occur.MUST);
 
-        if (!filterQuery.isEmpty()) {
-            Query fq = new QueryParser(IndexStatuses.StatusField.TEXT.name, new WhitespaceAnalyzer()).parse(filterQuery);
-            b.add(fq, BooleanClause.Occur.FILTER);
-        }
+            if (!filterQuery.isEmpty()) {
+                Query fq = new QueryParser(IndexStatuses.StatusField.TEXT.name, new WhitespaceAnalyzer()).parse(filterQuery);
+                b.add(fq, BooleanClause.Occur.FILTER);
+            }
 
-        if (filter != null) {
-            b.add(filter, BooleanClause.Occur.FILTER);
-        }
+            if (filter != null) {
+                b.add(filter, BooleanClause.Occur.FILTER);
+            }
 
-        Query bQuery = b.build();
+            if (filterRT) {
+                b.add(StatusColumns.retweets(), BooleanClause.Occur.MUST_NOT);
+            }
 
-        final TopDocsCollector hitsCollector = TopScoreDocCollector.create(len, len);
-        indexSearcher.search(bQuery, hitsCollector);
+            // only statuses of the selected shards are collected, so the top hits need no filtering afterwards
+            Set<String> sources = selectedSources(topics, collections);
+            if (sources != null) {
+                if (shardIndexes) {
+                    // the selected shard indexes are searched in parallel and their hits merged
+                    shardsSearcher = PartitionedSearcherManager.acquire(indexSearcher, searcherManager.getExecutor(), sources);
+                } else {
+                    b.add(sourcesFilter(sources), BooleanClause.Occur.FILTER);
+                }
+            }
 
-        totalHits = hitsCollector.getTotalHits();
-        TopDocs topDocs;
-        if (live) {
-            topDocs = hitsCollector.topDocs(0, len);
-        } else {
-            topDocs = hitsCollector.topDocs(0, indexReader.numDocs());
-        }
+            Query bQuery = b.build();
 
-        nDocsReturned = topDocs.scoreDocs.length;
-        ids = new int[nDocsReturned];
-        scores = new float[nDocsReturned];
-        for (int i = 0; i < nDocsReturned; i++) {
-            ScoreDoc scoreDoc = topDocs.scoreDocs[i];
-            ids[i] = scoreDoc.doc;
-            scores[i] = scoreDoc.score;
-        }
+            // the 3n headroom covers the duplicate statuses dropped by getDocs, and the retweets of segments without the flag
+            int numHits = len;
 
-        List<StatusDocument> docs = SearchUtils.getDocs(indexSearcher, analyzer, collectionStats, qlModel, topDocs, query, n, filterRT);
+            // a page holds the next n hits, whatever is filtered out of them, so that it ends at the cursor
+            long generation = RefreshingSearcherManager.getVersion(indexSearcher.getIndexReader());
+            ScoreDoc after = null;
+            if (cursor != null) {
+                numHits = Math.min(MAX_RESULTS, n);
+                after = cursor.after(generation, null);
+            }
 
-        SelectionTopDocuments selectionTopDocuments = new SelectionTopDocuments(totalHits, docs);
+            // a collector manager lets the searcher collect slices of segments in parallel
+            TopDocs topDocs = shardsSearcher.search(bQuery, new TopScoreDocCollectorManager(numHits, after, totalHitsThreshold(len)));
+            totalHits = (int) topDocs.totalHits.value;
+            if (shardsSearcher.timedOut()) {
+                logger.warn("Search timed out, partial results: {}", query);
+            }
 
-        if (topics) {
-            return limit(filterTopics(q, collections, selectionTopDocuments), n);
-        } else {
-            return limit(filter(q, collections, selectionTopDocuments), n);
+            nDocsReturned = topDocs.scoreDocs.length;
+            ids = new int[nDocsReturned];
+            scores = new float[nDocsReturned];
+            for (int i = 0; i < nDocsReturned; i++) {
+                ScoreDoc scoreDoc = topDocs.scoreDocs[i];
+                ids[i] = scoreDoc.doc;
+                scores[i] = scoreDoc.score;
+            }
+
+            // cursor pages keep the order they were collected in, so that a page ends with its cursor
+            List<StatusDocument> docs = SearchUtils.getDocs(shardsSearcher, analyzer, collectionStats, qlRescorer, topDocs, query, n, filterRT, false, cursor == null);
+
+            SelectionTopDocuments selectionTopDocuments = new SelectionTopDocuments(totalHits, docs);
+
+            SelectionTopDocuments results = limit(shard(q, topics, collections, selectionTopDocuments), n);
+            if (cursor != null && nDocsReturned == numHits) {
+                results.nextCursor = SearchCursor.next(generation, topDocs.scoreDocs[nDocsReturned - 1]);
+                searcherManager.lease(acquired);
+            }
+            return results;
+        } finally {
+            PartitionedSearcherManager.release(indexSearcher, shardsSearcher);
+            searcherManager.release(acquired);
         }
     }
 
@@ -378,7 +461,7 @@ public void index() throws IOException {
 
         try {
             logger.info("shards indexing");
-            twitterManager.index(collection, indexPath, analyzer);
+            twitterManager.index(collection, indexPath, analyzer, timeSorted, shardIndexes);
         } catch (IOException e) {
             throw e;
         } finally {
@@ -390,70 +473,91 @@ public void forceMerge() throws IOException {
         if (indexing)
             return;
 
+        try {
+            indexing = true;
+            for (Path indexPath : indexPaths()) {
+                forceMerge(indexPath);
+            }
+        } finally {
+            indexing = false;
+        }
+    }
+
+    private void forceMerge(Path indexPath) throws IOException {
         logger.info("Merging started!");
         long startTime = System.currentTimeMillis();
-        Path indexPath = Paths.get(this.indexPath);
         Directory dir = FSDirectory.open(indexPath);
         IndexWriterConfig config = new IndexWriterConfig(analyzer);
         config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        // merging without the sort of a time sorted index would unsort it
+        Sort indexSort = StatusColumns.indexSort(dir);
+        if (indexSort != null) {
+            config.setIndexSort(indexSort);
+        }
 
         try (IndexWriter writer = new IndexWriter(dir, config)) {
-            indexing = true;
             writer.forceMerge(1);
-        } catch (IOException e) {
-            throw e;
         } finally {
             dir.close();
             long endTime = System.currentTimeMillis();
             logger.info(String.format(Locale.ENGLISH, "Merging finished! Total time: %4dms", (endTime - startTime)));
+        }
+    }
+
+    public void migrateColumns() throws IOException {
+        if (indexing)
+            return;
+
+        try {
+            indexing = true;
+            for (Path indexPath : indexPaths()) {
+                StatusColumnsMigration.migrate(indexPath, analyzer);
+            }
+        } finally {
             indexing = false;
         }
+        searcherManager.refresh();
     }
 
-    public TermStats[] getHighFreqTerms(int n) throws Exception {
-        int numResults = n > MAX_TERMS_RESULTS ? MAX_TERMS_RESULTS : n;
-        return HighFreqTerms.getHighFreqTerms(indexReader, numResults, IndexStatuses.StatusField.TEXT.name, new HighFreqTerms.DocFreqComparator());
+    private List<Path> indexPaths() throws IOException {
+        if (shardIndexes) {
+            return PartitionedSearcherManager.shards(Paths.get(indexPath));
+        }
+        return List.of(Paths.get(indexPath));
     }
 
-    private IndexSearcher getIndexSearcher() throws IOException {
+    public TermStats[] getHighFreqTerms(int n) throws Exception {
+        int numResults = n > MAX_TERMS_RESULTS ? MAX_TERMS_RESULTS : n;
+        IndexSearcher indexSearcher = searcherManager.acquire();
         try {
-            if (indexReader == null) {
-                indexReader = DirectoryReader.open(FSDirectory.open(Paths.get(indexPath)));
-                searcher = new IndexSearcher(indexReader);
-                searcher.setSimilarity(similarity);
-            } else if (live && !indexReader.isCurrent()) {
-                DirectoryReader newReader = DirectoryReader.openIfChanged(indexReader);
-                if (newReader != null) {
-                    indexReader.close();
-                    indexReader = newReader;
-                    searcher = new IndexSearcher(indexReader);
-                    searcher.setSimilarity(similarity);
-                }
-            }
-        } catch (IndexNotFoundException e) {
-            logger.error(e.getMessage());
+            return HighFreqTerms.getHighFreqTerms(indexSearcher.getIndexReader(), numResults, IndexStatuses.StatusField.TEXT.name, new HighFreqTerms.DocFreqComparator());
+        } finally {
+            searcherManager.release(indexSearcher);
         }
-        return searcher;
     }
 
     public CollectionStats getCollectionStats() {
-        return new IndexCollectionStats(indexReader, IndexStatuses.StatusField.TEXT.name);
+        return searcherManager.getCollectionStats(IndexStatuses.StatusField.TEXT.name);
     }
 
-    public SelectionTopDocuments search(Optional<Long> maxId, long[] epochs, boolean retweets, boolean future, int limit, boolean topics, String query, String filterQuery, Set<String> selected) throws IOException, ParseException {
-        SelectionTopDocuments shardResults;
+    public SelectionTopDocuments search(Optional<Long> maxId, long[] epochs, boolean retweets, boolean future, int limit, boolean topics, String query, String filterQuery, Set<String> selected, SearchCursor cursor) throws IOException, ParseException {
+        return search(maxId, epochs, retweets, future, limit, topics, query, filterQuery, selected, cursor, null);
+    }
+
+    public SelectionTopDocuments search(Optional<Long> maxId, long[] epochs, boolean retweets, boolean future, int limit, boolean topics, String query, String filterQuery, Set<String> selected, SearchCursor cursor, QueryTimeout timeout) throws IOException, ParseException {
+        Query filter = null;
         if (!future) {
             if (maxId.isPresent()) {
-                shardResults = search(topics, selected, query, filterQuery, limit, !retweets, maxId.get());
+                filter = LongPoint.newRangeQuery(IndexStatuses.StatusField.ID.name, 0L, maxId.get());
             } else if (epochs[0] > 0 || epochs[1] > 0) {
-                shardResults = search(topics, selected, query, filterQuery, limit, !retweets, epochs[0], epochs[1]);
-            } else {
-                shardResults = search(topics, selected, query, filterQuery, limit, !retweets);
+                filter = LongPoint.newRangeQuery(IndexStatuses.StatusField.EPOCH.name, epochs[0], epochs[1]);
             }
-        } else {
-            shardResults = search(topics, selected, query, filterQuery, limit, !retweets);
         }
-        return shardResults;
+        return isearch(topics, selected, query, filterQuery, filter, limit, !retweets, cursor, timeout);
+    }
+
+    public SelectionTopDocuments search(Optional<Long> maxId, long[] epochs, boolean retweets, boolean future, int limit, boolean topics, String query, String filterQuery, Set<String> selected) throws IOException, ParseException {
+        return search(maxId, epochs, retweets, future, limit, topics, query, filterQuery, selected, null);
     }
 
     public boolean isIndexing() {
@@ -2,6 +2,8 @@
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import io.dropwizard.core.setup.Environment;
+import io.dropwizard.util.Duration;
+import io.jitter.core.search.SearchExecutorFactory;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
@@ -32,6 +34,22 @@ public class ShardsManagerFactory {
     @NotNull
     private boolean removeDuplicates;
 
+    @NotNull
+    private Duration maxStaleness = Duration.seconds(1);
+
+    @NotNull
+    private Duration cursorLease = Duration.minutes(1);
+
+    private boolean timeSorted = false;
+
+    private boolean exactTotalHits = false;
+
+    private boolean shardIndexes = false;
+
+    @Valid
+    @NotNull
+    private SearchExecutorFactory searchExecutor = new SearchExecutorFactory();
+
     private Map<String, Set<String>> topics;
 
     @JsonProperty
@@ -94,6 +112,66 @@ public void setRemoveDuplicates(boolean removeDuplicates) {
         this.removeDuplicates = removeDuplicates;
     }
 
+    @JsonProperty
+    public Duration getMaxStaleness() {
+        return maxStaleness;
+    }
+
+    @JsonProperty
+    public void setMaxStaleness(Duration maxStaleness) {
+        this.maxStaleness = maxStaleness;
+    }
+
+    @JsonProperty
+    public Duration getCursorLease() {
+        return cursorLease;
+    }
+
+    @JsonProperty
+    public void setCursorLease(Duration cursorLease) {
+        this.cursorLease = cursorLease;
+    }
+
+    @JsonProperty
+    public boolean isTimeSorted() {
+        return timeSorted;
+    }
+
+    @JsonProperty
+    public void setTimeSorted(boolean timeSorted) {
+        this.timeSorted = timeSorted;
+    }
+
+    @JsonProperty
+    public boolean isExactTotalHits() {
+        return exactTotalHits;
+    }
+
+    @JsonProperty
+    public void setExactTotalHits(boolean exactTotalHits) {
+        this.exactTotalHits = exactTotalHits;
+    }
+
+    @JsonProperty
+    public boolean isShardIndexes() {
+        return shardIndexes;
+    }
+
+    @JsonProperty
+    public void setShardIndexes(boolean shardIndexes) {
+        this.shardIndexes = shardIndexes;
+    }
+
+    @JsonProperty
+    public SearchExecutorFactory getSearchExecutor() {
+        return searchExecutor;
+    }
+
+    @JsonProperty
+    public void setSearchExecutor(SearchExecutorFactory searchExecutor) {
+        this.searchExecutor = searchExecutor;
+    }
+
     @JsonProperty
     public Map<String, Set<String>> getTopics() {
         return topics;
@@ -105,8 +183,14 @@ public void setTopics(Map<String, Set<String>> topics) {
     }
 
     public ShardsManager build(Environment environment, boolean live) {
-        final ShardsManager shardsManager = new ShardsManager(collection, index, stopwords, mu, method, removeDuplicates, live, topics);
+        final ShardsManager shardsManager = new ShardsManager(collection, index, stopwords, mu, method, removeDuplicates, live, maxStaleness.toMilliseconds(), topics);
+        shardsManager.setTimeSorted(timeSorted);
+        shardsManager.getSearcherManager().setCursorLease(cursorLease.toMilliseconds());
+        shardsManager.setExactTotalHits(exactTotalHits);
+        shardsManager.setShardIndexes(shardIndexes);
         environment.lifecycle().manage(shardsManager);
+        searchExecutor.configure(shardsManager.getSearcherManager(), environment, "shards");
+        shardsManager.getSearcherManager().registerMetrics(environment.metrics(), ShardsManager.class);
         return shardsManager;
     }
 
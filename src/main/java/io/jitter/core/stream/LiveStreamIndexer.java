@@ -3,12 +3,18 @@
 import io.dropwizard.lifecycle.Managed;
 import io.jitter.core.analysis.LowercaseKeywordAnalyzer;
 import io.jitter.core.analysis.TweetAnalyzer;
+import io.jitter.core.search.StatusColumns;
+import io.jitter.core.search.TimePartitioning;
+import io.jitter.core.shards.ShardStatsCounter;
+import io.jitter.core.taily.TailyUpdater;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
 import org.apache.lucene.document.*;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexOptions;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.Sort;
 import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
@@ -17,9 +23,17 @@
 import twitter4j.*;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static cc.twittertools.index.IndexStatuses.StatusField;
@@ -31,27 +45,68 @@ public class LiveStreamIndexer implements Managed, StatusListener, UserStreamLis
 
     private static final Analyzer ANALYZER = new TweetAnalyzer();
 
+    // source indexes written to at once, the least recently written ones are closed past it
+    private static final int MAX_OPEN_SOURCES = 64;
+    private static final double SOURCE_RAM_BUFFER_MB = 4;
+
     private final AtomicLong counter;
     private final String indexPath;
     private final int commitEvery;
+    private final boolean timeSorted;
+    private final TimePartitioning partitioning;
+    private final boolean bySource;
 
+    private final Analyzer analyzer;
     private final FieldType textOptions;
     private final FieldType screenNameOptions;
-    private final IndexWriter writer;
+
+    // writers of the open partitions, oldest first
+    private final TreeMap<String, IndexWriter> writers = new TreeMap<>();
+    // writers of the open sources, least recently written first
+    private final LinkedHashMap<String, IndexWriter> sourceWriters = new LinkedHashMap<>(16, 0.75f, true);
+    // writers with statuses added since their last commit
+    private final Set<IndexWriter> uncommitted = Collections.newSetFromMap(new IdentityHashMap<>());
+    private boolean closed;
+
+    private volatile ShardStatsCounter shardStatsCounter;
+    private volatile TailyUpdater tailyUpdater;
 
     public LiveStreamIndexer(String indexPath, int commitEvery) throws IOException {
+        this(indexPath, commitEvery, false);
+    }
+
+    public LiveStreamIndexer(String indexPath, int commitEvery, boolean timeSorted) throws IOException {
+        this(indexPath, commitEvery, timeSorted, TimePartitioning.NONE);
+    }
+
+    /**
+     * @param timeSorted   sort a new index by {@link StatusColumns#TIME_SORT}, an existing index keeps its sort
+     * @param partitioning write each status to the partition of its creation time, rolling over to a new
+     *                     partition as time passes
+     */
+    public LiveStreamIndexer(String indexPath, int commitEvery, boolean timeSorted, TimePartitioning partitioning) throws IOException {
+        this(indexPath, commitEvery, timeSorted, partitioning, false);
+    }
+
+    /**
+     * @param bySource write the statuses of each source to their own index, in a subdirectory of
+     *                 {@code indexPath} named by the lowercased screen name of the source
+     */
+    public LiveStreamIndexer(String indexPath, int commitEvery, boolean timeSorted, boolean bySource) throws IOException {
+        this(indexPath, commitEvery, timeSorted, TimePartitioning.NONE, bySource);
+    }
+
+    private LiveStreamIndexer(String indexPath, int commitEvery, boolean timeSorted, TimePartitioning partitioning, boolean bySource) throws IOException {
         counter = new AtomicLong();
         this.indexPath = indexPath;
         this.commitEvery = commitEvery;
-
-        Directory dir = FSDirectory.open(Paths.get(indexPath));
+        this.timeSorted = timeSorted;
+        this.partitioning = partitioning;
+        this.bySource = bySource;
 
         Map<String, Analyzer> fieldAnalyzers = new HashMap<>();
         fieldAnalyzers.put(StatusField.SCREEN_NAME.name, new LowercaseKeywordAnalyzer());
-        PerFieldAnalyzerWrapper perFieldAnalyzerWrapper = new PerFieldAnalyzerWrapper(ANALYZER, fieldAnalyzers);
-
-        IndexWriterConfig config = new IndexWriterConfig(perFieldAnalyzerWrapper);
-        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        analyzer = new PerFieldAnalyzerWrapper(ANALYZER, fieldAnalyzers);
 
         textOptions = new FieldType();
         textOptions.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
@@ -64,7 +119,137 @@ public LiveStreamIndexer(String indexPath, int commitEvery) throws IOException {
         screenNameOptions.setStored(true);
         screenNameOptions.setTokenized(true);
 
-        writer = new IndexWriter(dir, config);
+        if (!partitioning.isPartitioned() && !bySource) {
+            writer("");
+        }
+    }
+
+    /**
+     * Counts each status added to the index by its source.
+     */
+    public void setShardStatsCounter(ShardStatsCounter shardStatsCounter) {
+        this.shardStatsCounter = shardStatsCounter;
+    }
+
+    /**
+     * Adds each status added to the index to the Taily statistics, applied in batches and on commits.
+     */
+    public void setTailyUpdater(TailyUpdater tailyUpdater) {
+        this.tailyUpdater = tailyUpdater;
+    }
+
+    /**
+     * @return the writer of {@code partition}, opening it and closing the oldest open one when it is new, or the
+     * writer of the source {@code partition}, opening it and closing the least recently written one past
+     * {@value #MAX_OPEN_SOURCES}
+     */
+    private IndexWriter writer(String partition) throws IOException {
+        if (closed) {
+            return null;
+        }
+        if (bySource) {
+            return sourceWriter(partition);
+        }
+        IndexWriter writer = writers.get(partition);
+        if (writer != null) {
+            return writer;
+        }
+        if (!writers.isEmpty() && partition.compareTo(writers.firstKey()) < 0) {
+            // too late for its own partition, searches select partitions by the epochs they actually hold
+            return writers.firstEntry().getValue();
+        }
+
+        writer = open(partitioning.path(Paths.get(indexPath), partition), IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB);
+        writers.put(partition, writer);
+
+        while (writers.size() > TimePartitioning.WRITABLE_PARTITIONS) {
+            Map.Entry<String, IndexWriter> oldest = writers.pollFirstEntry();
+            close(oldest.getValue());
+            logger.info("{} partition {} closed", indexPath, oldest.getKey());
+        }
+        return writer;
+    }
+
+    private IndexWriter sourceWriter(String source) throws IOException {
+        IndexWriter writer = sourceWriters.get(source);
+        if (writer != null) {
+            return writer;
+        }
+        writer = open(Paths.get(indexPath, source), SOURCE_RAM_BUFFER_MB);
+        sourceWriters.put(source, writer);
+
+        Iterator<Map.Entry<String, IndexWriter>> it = sourceWriters.entrySet().iterator();
+        while (sourceWriters.size() > MAX_OPEN_SOURCES) {
+            Map.Entry<String, IndexWriter> leastRecent = it.next();
+            it.remove();
+            close(leastRecent.getValue());
+            logger.debug("{} source {} closed", indexPath, leastRecent.getKey());
+        }
+        return writer;
+    }
+
+    private IndexWriter open(Path path, double ramBufferSizeMB) throws IOException {
+        Directory dir = FSDirectory.open(path);
+        try {
+            IndexWriterConfig config = new IndexWriterConfig(analyzer);
+            config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+            config.setRAMBufferSizeMB(ramBufferSizeMB);
+            Sort indexSort = indexSort(dir);
+            if (indexSort != null) {
+                config.setIndexSort(indexSort);
+            }
+            return new IndexWriter(dir, config);
+        } catch (IOException e) {
+            dir.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Adds {@code doc} to the index of {@code partition}, see {@link #writer(String)}.
+     *
+     * @return false if the indexer is closed
+     */
+    private synchronized boolean add(String partition, Document doc) throws IOException {
+        IndexWriter writer = writer(partition);
+        if (writer == null) {
+            return false;
+        }
+        writer.addDocument(doc);
+        uncommitted.add(writer);
+        return true;
+    }
+
+    private Sort indexSort(Directory dir) throws IOException {
+        if (DirectoryReader.indexExists(dir)) {
+            Sort existing = StatusColumns.indexSort(dir);
+            if (timeSorted && existing == null) {
+                logger.warn("{} is not time sorted, rebuild it to sort new segments", indexPath);
+            }
+            return existing;
+        }
+        return timeSorted ? StatusColumns.TIME_SORT : null;
+    }
+
+    /**
+     * Commits the writers with statuses added since their last commit, the others have nothing to sync.
+     */
+    private synchronized void commit() throws IOException {
+        for (IndexWriter writer : uncommitted) {
+            writer.commit();
+        }
+        uncommitted.clear();
+    }
+
+    private void close(IndexWriter writer) throws IOException {
+        // commits on close
+        uncommitted.remove(writer);
+        Directory dir = writer.getDirectory();
+        try {
+            writer.close();
+        } finally {
+            dir.close();
+        }
     }
 
     @Override
@@ -73,24 +258,33 @@ public void start() throws Exception {
     }
 
     @Override
-    public void stop() throws Exception {
-        if (writer != null) {
-            writer.close();
+    public synchronized void stop() throws Exception {
+        closed = true;
+        for (IndexWriter writer : writers.values()) {
+            close(writer);
         }
+        writers.clear();
+        for (IndexWriter writer : sourceWriters.values()) {
+            close(writer);
+        }
+        sourceWriters.clear();
     }
 
     private void index(Status status) {
-        if (writer == null) return;
         try {
+            long epoch = status.getCreatedAt().getTime() / 1000L;
+            String screenName = status.getUser().getScreenName();
+            String partition = bySource ? screenName.toLowerCase(Locale.ROOT) : partitioning.partition(epoch);
+
             Document doc = new Document();
             long id = status.getId();
             doc.add(new LongPoint(StatusField.ID.name, id));
             doc.add(new StoredField(StatusField.ID.name, id));
 
-            doc.add(new LongPoint(StatusField.EPOCH.name, status.getCreatedAt().getTime() / 1000L));
-            doc.add(new StoredField(StatusField.EPOCH.name, status.getCreatedAt().getTime() / 1000L));
+            doc.add(new LongPoint(StatusField.EPOCH.name, epoch));
+            doc.add(new StoredField(StatusField.EPOCH.name, epoch));
 
-            doc.add(new Field(StatusField.SCREEN_NAME.name, status.getUser().getScreenName(), screenNameOptions));
+            doc.add(new Field(StatusField.SCREEN_NAME.name, screenName, screenNameOptions));
 
             doc.add(new Field(StatusField.TEXT.name, status.getText(), textOptions));
 
@@ -132,10 +326,23 @@ private void index(Status status) {
             doc.add(new IntPoint(StatusField.RETWEET_COUNT.name, Math.max(retweetCount, retweetedStatusRetweetCount)));
             doc.add(new StoredField(StatusField.RETWEET_COUNT.name, Math.max(retweetCount, retweetedStatusRetweetCount)));
 
-            writer.addDocument(doc);
+            StatusColumns.addColumns(doc);
+
+            if (!add(partition, doc)) return;
+            ShardStatsCounter shardStats = shardStatsCounter;
+            if (shardStats != null) {
+                shardStats.add(screenName);
+            }
+            TailyUpdater updater = tailyUpdater;
+            if (updater != null) {
+                updater.add(screenName, status.getText());
+            }
             if (counter.incrementAndGet() % commitEvery == 0) {
                 logger.debug("{} {} statuses indexed", indexPath, counter.get());
-                writer.commit();
+                commit();
+                if (updater != null) {
+                    updater.flush();
+                }
             }
         } catch (AlreadyClosedException e) {
             // do nothing
@@ -1,5 +1,10 @@
 package io.jitter.core.taily;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 public interface FeatureStore {
     String FEAT_SUFFIX = "#f";
     String SQUARED_FEAT_SUFFIX = "#f2";
@@ -13,6 +18,43 @@ public interface FeatureStore {
     // returns feature; if feature isn't found, returns -1
     double getFeature(String keyStr);
 
+    // returns the features of all keys in one lookup, -1 for those not found
+    default double[] getFeatures(List<String> keyStrs) {
+        double[] vals = new double[keyStrs.size()];
+        for (int i = 0; i < vals.length; i++) {
+            vals[i] = getFeature(keyStrs.get(i));
+        }
+        return vals;
+    }
+
+    // returns the statistics of a term in a shard; if the term isn't found, returns null
+    default ShardData getTermStats(byte[] term) {
+        return getTermStats(List.of(term))[0];
+    }
+
+    // returns the statistics of all terms in one lookup, null for those not found; reads the feature of each
+    // statistic, stores with packed records override this
+    default ShardData[] getTermStats(List<byte[]> terms) {
+        List<String> keyStrs = new ArrayList<>(4 * terms.size());
+        for (byte[] term : terms) {
+            String termStr = new String(term, UTF_8);
+            keyStrs.add(termStr + MIN_FEAT_SUFFIX);
+            keyStrs.add(termStr + SIZE_FEAT_SUFFIX);
+            keyStrs.add(termStr + FEAT_SUFFIX);
+            keyStrs.add(termStr + SQUARED_FEAT_SUFFIX);
+        }
+        double[] vals = getFeatures(keyStrs);
+
+        ShardData[] stats = new ShardData[terms.size()];
+        for (int i = 0; i < stats.length; i++) {
+            int j = 4 * i;
+            if (vals[j + 1] != -1) {
+                stats[i] = new ShardData(vals[j], vals[j + 1], vals[j + 2], vals[j + 3]);
+            }
+        }
+        return stats;
+    }
+
     void putFeature(String keyStr, double val, long frequency);
 
     // add val to the keyStr feature if it exists already; otherwise, create the feature
@@ -0,0 +1,312 @@
+package io.jitter.core.taily;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.RandomAccessInput;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The statistics of a Taily build in a single read-only file, memory mapped, so shards are ranked with plain reads
+ * of the mapped pages instead of RocksDB lookups, and opening it takes no more than mapping the file.
+ * <p>
+ * After a header with the ids and sizes of the source and topic shards and the corpus totals, the file has these
+ * sections, each an array read at fixed offsets:
+ * <ul>
+ * <li>the bytes of the terms, in sorted order, and the offset where each one starts</li>
+ * <li>the df and ctf of each term in the corpus</li>
+ * <li>for the sources and then the topics, the {@link ShardData} of each term in each shard that has it, in a
+ * block per term sorted by shard, and the offset where each block starts</li>
+ * </ul>
+ * Terms are found by binary search on their bytes, and shards by binary search in the block of a term.
+ */
+public class MappedTailyStats implements Closeable {
+
+    public static final String STATS_FILE = "taily.stats";
+
+    static final String CODEC = "TailyStats";
+    static final int VERSION = 0;
+    static final int SECTIONS = 7;
+    // shard ordinal followed by its statistics
+    static final int ENTRY_BYTES = Integer.BYTES + ShardData.BYTES;
+
+    private final Directory directory;
+    private final IndexInput input;
+
+    private final double totalDocs;
+    private final double totalTerms;
+    private final long numTerms;
+
+    private final RandomAccessInput terms;
+    private final RandomAccessInput termOffsets;
+    private final RandomAccessInput corpus;
+    private final Family sources;
+    private final Family topics;
+
+    public MappedTailyStats(String dbPath) throws IOException {
+        directory = new MMapDirectory(Paths.get(dbPath));
+        IndexInput input = null;
+        try {
+            input = directory.openInput(STATS_FILE, IOContext.DEFAULT);
+            CodecUtil.checkHeader(input, CODEC, VERSION, VERSION);
+            Family sources = new Family(input);
+            Family topics = new Family(input);
+            totalDocs = Double.longBitsToDouble(input.readLong());
+            totalTerms = Double.longBitsToDouble(input.readLong());
+            numTerms = input.readLong();
+
+            long[] starts = new long[SECTIONS + 1];
+            starts[SECTIONS] = input.length() - CodecUtil.footerLength() - SECTIONS * Long.BYTES;
+            input.seek(starts[SECTIONS]);
+            for (int i = 0; i < SECTIONS; i++) {
+                starts[i] = input.readLong();
+            }
+            CodecUtil.retrieveChecksum(input);
+
+            terms = slice(input, starts, 0);
+            termOffsets = slice(input, starts, 1);
+            corpus = slice(input, starts, 2);
+            sources.offsets = slice(input, starts, 3);
+            sources.entries = slice(input, starts, 4);
+            topics.offsets = slice(input, starts, 5);
+            topics.entries = slice(input, starts, 6);
+            this.sources = sources;
+            this.topics = topics;
+            this.input = input;
+        } catch (IOException | RuntimeException e) {
+            IOUtils.closeWhileHandlingException(input, directory);
+            throw e;
+        }
+    }
+
+    private static RandomAccessInput slice(IndexInput input, long[] starts, int section) throws IOException {
+        return input.randomAccessSlice(starts[section], starts[section + 1] - starts[section]);
+    }
+
+    /**
+     * @return whether {@code dbPath} holds a statistics file
+     */
+    public static boolean exists(String dbPath) {
+        return Files.isRegularFile(Paths.get(dbPath, STATS_FILE));
+    }
+
+    /**
+     * @return the feature store of the corpus, closed along with this
+     */
+    public FeatureStore corpus() {
+        return new CorpusStore();
+    }
+
+    /**
+     * @param family {@link Taily#SOURCES_DBENV} or {@link Taily#TOPICS_DBENV}
+     * @return the feature store of a shard, closed along with this
+     */
+    public FeatureStore store(String family, String shardId) {
+        Family f = Taily.TOPICS_DBENV.equals(family) ? topics : sources;
+        return new ShardStore(f, f.ordinals.getInt(shardId));
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOUtils.close(input, directory);
+    }
+
+    // returns the ordinal of a term; if the term isn't found, returns -1
+    private long termOrdinal(byte[] term) throws IOException {
+        long lo = 0;
+        long hi = numTerms - 1;
+        while (lo <= hi) {
+            long mid = (lo + hi) >>> 1;
+            int cmp = compareTerm(mid, term);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compareTerm(long ord, byte[] term) throws IOException {
+        long start = termOffsets.readLong(ord * Long.BYTES);
+        int length = (int) (termOffsets.readLong((ord + 1) * Long.BYTES) - start);
+        int n = Math.min(length, term.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = Byte.compareUnsigned(terms.readByte(start + i), term[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - term.length;
+    }
+
+    // returns the statistics of a term in a shard; if the shard doesn't have the term, returns null
+    private static ShardData termStats(Family family, long termOrd, int shard) throws IOException {
+        long lo = family.offsets.readLong(termOrd * Long.BYTES);
+        long hi = family.offsets.readLong((termOrd + 1) * Long.BYTES) - 1;
+        while (lo <= hi) {
+            long mid = (lo + hi) >>> 1;
+            long pos = mid * ENTRY_BYTES;
+            int cmp = Integer.compare(family.entries.readInt(pos), shard);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                RandomAccessInput entries = family.entries;
+                return new ShardData(
+                        Double.longBitsToDouble(entries.readLong(pos + Integer.BYTES)),
+                        Double.longBitsToDouble(entries.readLong(pos + Integer.BYTES + Double.BYTES)),
+                        Double.longBitsToDouble(entries.readLong(pos + Integer.BYTES + 2 * Double.BYTES)),
+                        Double.longBitsToDouble(entries.readLong(pos + Integer.BYTES + 3 * Double.BYTES)));
+            }
+        }
+        return null;
+    }
+
+    private static class Family {
+        // lowercased shard id -> ordinal
+        final Object2IntMap<String> ordinals;
+        final double[] sizes;
+        RandomAccessInput offsets;
+        RandomAccessInput entries;
+
+        Family(IndexInput input) throws IOException {
+            int numShards = input.readVInt();
+            ordinals = new Object2IntOpenHashMap<>(numShards);
+            ordinals.defaultReturnValue(-1);
+            sizes = new double[numShards];
+            for (int i = 0; i < numShards; i++) {
+                ordinals.put(input.readString(), i);
+                sizes[i] = Double.longBitsToDouble(input.readLong());
+            }
+        }
+    }
+
+    private abstract static class ReadOnlyStore implements FeatureStore {
+        @Override
+        public void close() {
+            // the stores share the file
+        }
+
+        @Override
+        public void putFeature(String keyStr, double val, long frequency) {
+            throw new UnsupportedOperationException(STATS_FILE + " is read-only");
+        }
+
+        @Override
+        public void addValFeature(String keyStr, double val, long frequency) {
+            throw new UnsupportedOperationException(STATS_FILE + " is read-only");
+        }
+    }
+
+    private class CorpusStore extends ReadOnlyStore {
+        @Override
+        public double getFeature(String keyStr) {
+            if (keyStr.equals(FeatureStore.SIZE_FEAT_SUFFIX)) {
+                return totalDocs;
+            } else if (keyStr.equals(FeatureStore.TERM_SIZE_FEAT_SUFFIX)) {
+                return totalTerms;
+            }
+
+            // only the df and ctf of terms are kept
+            int offset;
+            if (keyStr.endsWith(FeatureStore.SIZE_FEAT_SUFFIX)) {
+                offset = 0;
+            } else if (keyStr.endsWith(FeatureStore.TERM_SIZE_FEAT_SUFFIX)) {
+                offset = Long.BYTES;
+            } else {
+                return -1;
+            }
+            try {
+                String term = keyStr.substring(0, keyStr.length() - FeatureStore.SIZE_FEAT_SUFFIX.length());
+                long ord = termOrdinal(term.getBytes(UTF_8));
+                return ord >= 0 ? corpus.readLong(ord * 2 * Long.BYTES + offset) : -1;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private class ShardStore extends ReadOnlyStore {
+        private final Family family;
+        private final int shard;
+
+        ShardStore(Family family, int shard) {
+            this.family = family;
+            this.shard = shard;
+        }
+
+        @Override
+        public double getFeature(String keyStr) {
+            if (shard < 0) {
+                return -1;
+            }
+            if (keyStr.equals(FeatureStore.SIZE_FEAT_SUFFIX)) {
+                return family.sizes[shard];
+            }
+
+            String suffix;
+            if (keyStr.endsWith(FeatureStore.SQUARED_FEAT_SUFFIX)) {
+                suffix = FeatureStore.SQUARED_FEAT_SUFFIX;
+            } else if (keyStr.endsWith(FeatureStore.FEAT_SUFFIX)) {
+                suffix = FeatureStore.FEAT_SUFFIX;
+            } else if (keyStr.endsWith(FeatureStore.MIN_FEAT_SUFFIX)) {
+                suffix = FeatureStore.MIN_FEAT_SUFFIX;
+            } else if (keyStr.endsWith(FeatureStore.SIZE_FEAT_SUFFIX)) {
+                suffix = FeatureStore.SIZE_FEAT_SUFFIX;
+            } else {
+                return -1;
+            }
+            String term = keyStr.substring(0, keyStr.length() - suffix.length());
+            ShardData stats = getTermStats(term.getBytes(UTF_8));
+            if (stats == null) {
+                return -1;
+            }
+            switch (suffix) {
+                case FeatureStore.SQUARED_FEAT_SUFFIX:
+                    return stats.f2;
+                case FeatureStore.FEAT_SUFFIX:
+                    return stats.f;
+                case FeatureStore.MIN_FEAT_SUFFIX:
+                    return stats.min;
+                default:
+                    return stats.df;
+            }
+        }
+
+        @Override
+        public ShardData[] getTermStats(List<byte[]> terms) {
+            ShardData[] stats = new ShardData[terms.size()];
+            if (shard < 0) {
+                return stats;
+            }
+            try {
+                for (int i = 0; i < stats.length; i++) {
+                    long ord = termOrdinal(terms.get(i));
+                    if (ord >= 0) {
+                        stats[i] = termStats(family, ord, shard);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return stats;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package io.jitter.core.taily;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.store.DataInput;
+import org.apache.lucene.store.DataOutput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Writes the {@link MappedTailyStats} file of a build. Each range of terms is written by the thread building it to
+ * a temporary file, and once all are done the ranges are put together, in term order, into the sections of the file.
+ */
+class MappedTailyStatsWriter implements Closeable {
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final Directory directory;
+    private final int numRanges;
+
+    MappedTailyStatsWriter(String dbPath, int numRanges) throws IOException {
+        this.directory = FSDirectory.open(Paths.get(dbPath));
+        this.numRanges = numRanges;
+        // leftovers of a failed build
+        for (String file : directory.listAll()) {
+            if (file.startsWith(MappedTailyStats.STATS_FILE) && file.endsWith(TMP_SUFFIX)) {
+                directory.deleteFile(file);
+            }
+        }
+    }
+
+    private static String tmpFile(String name) {
+        return MappedTailyStats.STATS_FILE + "." + name + TMP_SUFFIX;
+    }
+
+    /**
+     * @return the output of a range, to write its terms to in order with {@link #writeTerm}
+     */
+    IndexOutput range(int range) throws IOException {
+        return directory.createOutput(tmpFile(Integer.toString(range)), IOContext.DEFAULT);
+    }
+
+    /**
+     * Writes the statistics of a term in the corpus and in the shards that have it.
+     */
+    static void writeTerm(DataOutput out, BytesRef term, long df, long ctf,
+                          ShardData[] sourcesShardData, IntArrayList touchedSources,
+                          ShardData[] topicsShardData, IntArrayList touchedTopics) throws IOException {
+        out.writeVInt(term.length);
+        out.writeBytes(term.bytes, term.offset, term.length);
+        out.writeVLong(df);
+        out.writeVLong(ctf);
+        writeShards(out, sourcesShardData, touchedSources);
+        writeShards(out, topicsShardData, touchedTopics);
+    }
+
+    private static void writeShards(DataOutput out, ShardData[] shardData, IntArrayList touched) throws IOException {
+        int[] shards = touched.toIntArray();
+        Arrays.sort(shards);
+        out.writeVInt(shards.length);
+        for (int shard : shards) {
+            ShardData stats = shardData[shard];
+            out.writeInt(shard);
+            out.writeLong(Double.doubleToLongBits(stats.min));
+            out.writeLong(Double.doubleToLongBits(stats.df));
+            out.writeLong(Double.doubleToLongBits(stats.f));
+            out.writeLong(Double.doubleToLongBits(stats.f2));
+        }
+    }
+
+    /**
+     * Puts the ranges together into the statistics file, replacing the one of the previous build.
+     */
+    void finish(String[] sources, double[] sourceSizes, String[] topics, double[] topicSizes,
+                double totalDocs, double totalTerms) throws IOException {
+        String[] sections = {"terms", "termOffsets", "corpus", "sourceOffsets", "sourceEntries", "topicOffsets", "topicEntries"};
+        IndexOutput[] outs = new IndexOutput[MappedTailyStats.SECTIONS];
+        long numTerms = 0;
+        try {
+            for (int i = 0; i < outs.length; i++) {
+                outs[i] = directory.createOutput(tmpFile(sections[i]), IOContext.DEFAULT);
+            }
+            long termBytes = 0;
+            long sourceEntries = 0;
+            long topicEntries = 0;
+            outs[1].writeLong(termBytes);
+            outs[3].writeLong(sourceEntries);
+            outs[5].writeLong(topicEntries);
+            for (int range = 0; range < numRanges; range++) {
+                String rangeFile = tmpFile(Integer.toString(range));
+                try (IndexInput in = directory.openInput(rangeFile, IOContext.READONCE)) {
+                    while (in.getFilePointer() < in.length()) {
+                        int length = in.readVInt();
+                        outs[0].copyBytes(in, length);
+                        termBytes += length;
+                        outs[1].writeLong(termBytes);
+                        outs[2].writeLong(in.readVLong());
+                        outs[2].writeLong(in.readVLong());
+                        sourceEntries += copyShards(in, outs[4]);
+                        outs[3].writeLong(sourceEntries);
+                        topicEntries += copyShards(in, outs[6]);
+                        outs[5].writeLong(topicEntries);
+                        numTerms++;
+                    }
+                }
+                directory.deleteFile(rangeFile);
+            }
+        } finally {
+            IOUtils.close(outs);
+        }
+
+        String statsFile = tmpFile("all");
+        try (IndexOutput out = directory.createOutput(statsFile, IOContext.DEFAULT)) {
+            CodecUtil.writeHeader(out, MappedTailyStats.CODEC, MappedTailyStats.VERSION);
+            writeFamily(out, sources, sourceSizes);
+            writeFamily(out, topics, topicSizes);
+            out.writeLong(Double.doubleToLongBits(totalDocs));
+            out.writeLong(Double.doubleToLongBits(totalTerms));
+            out.writeLong(numTerms);
+
+            long[] starts = new long[MappedTailyStats.SECTIONS];
+            for (int i = 0; i < sections.length; i++) {
+                starts[i] = out.getFilePointer();
+                try (IndexInput in = directory.openInput(tmpFile(sections[i]), IOContext.READONCE)) {
+                    out.copyBytes(in, in.length());
+                }
+                directory.deleteFile(tmpFile(sections[i]));
+            }
+            for (long start : starts) {
+                out.writeLong(start);
+            }
+            CodecUtil.writeFooter(out);
+        }
+        directory.sync(Arrays.asList(statsFile));
+        directory.rename(statsFile, MappedTailyStats.STATS_FILE);
+        directory.syncMetaData();
+    }
+
+    private static void writeFamily(DataOutput out, String[] shardIds, double[] sizes) throws IOException {
+        out.writeVInt(shardIds.length);
+        for (int i = 0; i < shardIds.length; i++) {
+            out.writeString(shardIds[i]);
+            out.writeLong(Double.doubleToLongBits(sizes[i]));
+        }
+    }
+
+    // copies the entries of the shards of a term, returns how many
+    private static int copyShards(DataInput in, DataOutput out) throws IOException {
+        int numShards = in.readVInt();
+        out.copyBytes(in, (long) numShards * MappedTailyStats.ENTRY_BYTES);
+        return numShards;
+    }
+
+    @Override
+    public void close() throws IOException {
+        directory.close();
+    }
+}
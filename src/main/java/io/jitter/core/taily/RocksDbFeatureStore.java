@@ -8,6 +8,9 @@
 
 import java.io.File;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -76,6 +79,32 @@ public double getFeature(String keyStr) {
         }
     }
 
+    @Override
+    public double[] getFeatures(List<String> keyStrs) {
+        double[] vals = new double[keyStrs.size()];
+        Arrays.fill(vals, -1);
+        if (db == null) {
+            return vals;
+        }
+
+        List<byte[]> keys = new ArrayList<>(keyStrs.size());
+        for (String keyStr : keyStrs) {
+            keys.add(keyStr.getBytes(UTF_8));
+        }
+        try {
+            List<byte[]> values = db.multiGetAsList(keys);
+            for (int i = 0; i < vals.length; i++) {
+                byte[] bytes = values.get(i);
+                if (bytes != null) {
+                    vals[i] = ByteBuffer.wrap(bytes).getDouble();
+                }
+            }
+        } catch (RocksDBException e) {
+            logger.error(e.getMessage());
+        }
+        return vals;
+    }
+
     @Override
     public void putFeature(String keyStr, double val, long frequency) {
         byte[] key = keyStr.getBytes(UTF_8);
@@ -0,0 +1,352 @@
+package io.jitter.core.taily;
+
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.BloomFilter;
+import org.rocksdb.Cache;
+import org.rocksdb.ColumnFamilyDescriptor;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.DBOptions;
+import org.rocksdb.FlushOptions;
+import org.rocksdb.LRUCache;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The feature stores of all source and topic shards in a single RocksDB, with a column family for the sources and
+ * one for the topics. The features of a shard are keyed by its id followed by the feature key, so all shards share
+ * one block cache, write buffer, WAL and set of file handles.
+ * <p>
+ * Stores built since the packed format hold the statistics of a term in a shard as one {@link ShardData} record,
+ * keyed by the shard id, two separators and the term bytes. Stores without the {@code format} key in the default
+ * column family, those migrated from the per-shard layout, keep a feature per statistic and are read as before.
+ */
+public class RocksDbShardStores {
+    private static final Logger logger = LoggerFactory.getLogger(RocksDbShardStores.class);
+
+    public static final String SHARDS_DBENV = "shards";
+
+    private static final long BLOCK_CACHE_SIZE = 64L << 20;
+    private static final byte SEPARATOR = 0;
+    private static final byte[] FORMAT_KEY = "format".getBytes(UTF_8);
+    private static final byte[] PACKED_FORMAT = {2};
+
+    private final Cache blockCache;
+    private final BloomFilter bloomFilter;
+    private final DBOptions dbOptions;
+    private final ColumnFamilyOptions cfOptions;
+    private final WriteOptions writeOptions;
+    private final List<ColumnFamilyHandle> handles = new ArrayList<>();
+    private final Map<String, ColumnFamilyHandle> families = new HashMap<>();
+    private RocksDB db;
+    private boolean packed;
+
+    /**
+     * @param readOnly open an existing store for shard ranking, otherwise a new empty one is created to build
+     */
+    public RocksDbShardStores(String dir, boolean readOnly) {
+        blockCache = new LRUCache(BLOCK_CACHE_SIZE);
+        bloomFilter = new BloomFilter(10, false);
+        cfOptions = new ColumnFamilyOptions()
+                .setTableFormatConfig(new BlockBasedTableConfig()
+                        .setBlockCache(blockCache)
+                        .setFilterPolicy(bloomFilter));
+        dbOptions = new DBOptions()
+                .setCreateIfMissing(true)
+                .setCreateMissingColumnFamilies(true);
+        // a build is written once and flushed on close
+        writeOptions = new WriteOptions().setDisableWAL(true);
+
+        List<ColumnFamilyDescriptor> descriptors = Arrays.asList(
+                new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY, cfOptions),
+                new ColumnFamilyDescriptor(Taily.SOURCES_DBENV.getBytes(UTF_8), cfOptions),
+                new ColumnFamilyDescriptor(Taily.TOPICS_DBENV.getBytes(UTF_8), cfOptions));
+        try {
+            if (readOnly) {
+                db = RocksDB.openReadOnly(dbOptions, dir, descriptors, handles);
+                packed = db.get(handles.get(0), FORMAT_KEY) != null;
+            } else {
+                File dirFile = new File(dir);
+                if (!dirFile.isDirectory() && !dirFile.mkdirs()) {
+                    throw new RuntimeException("Cannot create directory " + dirFile.getAbsolutePath());
+                }
+                try (Options options = new Options()) {
+                    RocksDB.destroyDB(dir, options);
+                }
+                db = RocksDB.open(dbOptions, dir, descriptors, handles);
+                db.put(handles.get(0), writeOptions, FORMAT_KEY, PACKED_FORMAT);
+                packed = true;
+            }
+            families.put(Taily.SOURCES_DBENV, handles.get(1));
+            families.put(Taily.TOPICS_DBENV, handles.get(2));
+        } catch (RocksDBException e) {
+            logger.error(e.getMessage());
+        }
+    }
+
+    /**
+     * @return whether {@code dir} holds a shards store
+     */
+    public static boolean exists(String dir) {
+        return new File(dir, "CURRENT").isFile();
+    }
+
+    /**
+     * @param family {@link Taily#SOURCES_DBENV} or {@link Taily#TOPICS_DBENV}
+     * @return the feature store of a shard, closed along with this
+     */
+    public FeatureStore store(String family, String shardId) {
+        return new ShardStore(families.get(family), shardId);
+    }
+
+    /**
+     * @return a batch of features to write to the shard stores at once, safe to use by one thread
+     */
+    public Batch batch() {
+        return new Batch();
+    }
+
+    public void close() {
+        if (db != null) {
+            try (FlushOptions flushOptions = new FlushOptions().setWaitForFlush(true)) {
+                db.flush(flushOptions, handles);
+            } catch (RocksDBException e) {
+                // read-only stores have nothing to flush
+            }
+            for (ColumnFamilyHandle handle : handles) {
+                handle.close();
+            }
+            db.close();
+            db = null;
+        }
+        writeOptions.close();
+        dbOptions.close();
+        cfOptions.close();
+        bloomFilter.close();
+        blockCache.close();
+    }
+
+    /**
+     * Copies the features of the shards of the per-shard layout, a RocksDB for each source and topic under
+     * {@code dbPath}, into a new shards store. The old stores are left in place.
+     */
+    public static void migrate(String dbPath) throws RocksDBException {
+        long startTime = System.currentTimeMillis();
+        RocksDbShardStores shardStores = new RocksDbShardStores(dbPath + "/" + SHARDS_DBENV, false);
+        try (Options options = new Options()) {
+            if (shardStores.db == null) {
+                throw new RocksDBException("Cannot open " + dbPath + "/" + SHARDS_DBENV);
+            }
+            // the features are copied as they are, a feature per statistic
+            shardStores.db.delete(shardStores.handles.get(0), shardStores.writeOptions, FORMAT_KEY);
+            for (String family : Arrays.asList(Taily.SOURCES_DBENV, Taily.TOPICS_DBENV)) {
+                File[] dirs = new File(dbPath, family).listFiles(File::isDirectory);
+                if (dirs == null)
+                    continue;
+
+                ColumnFamilyHandle handle = shardStores.families.get(family);
+                for (File dir : dirs) {
+                    byte[] prefix = prefix(dir.getName());
+                    long keys = 0;
+                    try (RocksDB shardDb = RocksDB.openReadOnly(options, dir.getPath());
+                         RocksIterator it = shardDb.newIterator();
+                         WriteBatch batch = new WriteBatch()) {
+                        for (it.seekToFirst(); it.isValid(); it.next()) {
+                            batch.put(handle, key(prefix, it.key()), it.value());
+                            keys++;
+                        }
+                        shardStores.db.write(shardStores.writeOptions, batch);
+                    }
+                    logger.info("migrated {} {}: {} features", family, dir.getName(), keys);
+                }
+            }
+        } finally {
+            shardStores.close();
+            logger.info("migration end {}ms", System.currentTimeMillis() - startTime);
+        }
+    }
+
+    private static byte[] prefix(String shardId) {
+        byte[] id = shardId.getBytes(UTF_8);
+        byte[] prefix = Arrays.copyOf(id, id.length + 1);
+        prefix[id.length] = SEPARATOR;
+        return prefix;
+    }
+
+    private static byte[] key(byte[] prefix, byte[] featureKey) {
+        byte[] key = Arrays.copyOf(prefix, prefix.length + featureKey.length);
+        System.arraycopy(featureKey, 0, key, prefix.length, featureKey.length);
+        return key;
+    }
+
+    private static byte[] statsKey(byte[] prefix, byte[] term) {
+        byte[] key = Arrays.copyOf(prefix, prefix.length + 1 + term.length);
+        key[prefix.length] = SEPARATOR;
+        System.arraycopy(term, 0, key, prefix.length + 1, term.length);
+        return key;
+    }
+
+    public class Batch implements AutoCloseable {
+        private final WriteBatch batch = new WriteBatch();
+
+        /**
+         * @param family {@link Taily#SOURCES_DBENV} or {@link Taily#TOPICS_DBENV}
+         */
+        public void putTermStats(String family, String shardId, byte[] term, ShardData stats) {
+            try {
+                batch.put(families.get(family), statsKey(prefix(shardId), term), stats.toBytes());
+            } catch (RocksDBException e) {
+                logger.error(e.getMessage());
+            }
+        }
+
+        public int size() {
+            return batch.count();
+        }
+
+        /**
+         * Writes the features put since the last write.
+         */
+        public void write() throws RocksDBException {
+            if (batch.count() > 0) {
+                db.write(writeOptions, batch);
+                batch.clear();
+            }
+        }
+
+        @Override
+        public void close() {
+            batch.close();
+        }
+    }
+
+    private class ShardStore implements FeatureStore {
+        private final ColumnFamilyHandle family;
+        private final byte[] prefix;
+
+        ShardStore(ColumnFamilyHandle family, String shardId) {
+            this.family = family;
+            this.prefix = prefix(shardId);
+        }
+
+        private byte[] key(String keyStr) {
+            return RocksDbShardStores.key(prefix, keyStr.getBytes(UTF_8));
+        }
+
+        @Override
+        public void close() {
+            // the shards share the store
+        }
+
+        @Override
+        public double getFeature(String keyStr) {
+            if (db == null) {
+                return -1;
+            }
+            try {
+                byte[] bytes = db.get(family, key(keyStr));
+                return bytes != null ? ByteBuffer.wrap(bytes).getDouble() : -1;
+            } catch (RocksDBException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        public double[] getFeatures(List<String> keyStrs) {
+            double[] vals = new double[keyStrs.size()];
+            Arrays.fill(vals, -1);
+            if (db == null) {
+                return vals;
+            }
+
+            List<ColumnFamilyHandle> families = new ArrayList<>(keyStrs.size());
+            List<byte[]> keys = new ArrayList<>(keyStrs.size());
+            for (String keyStr : keyStrs) {
+                families.add(family);
+                keys.add(key(keyStr));
+            }
+            try {
+                List<byte[]> values = db.multiGetAsList(families, keys);
+                for (int i = 0; i < vals.length; i++) {
+                    byte[] bytes = values.get(i);
+                    if (bytes != null) {
+                        vals[i] = ByteBuffer.wrap(bytes).getDouble();
+                    }
+                }
+            } catch (RocksDBException e) {
+                logger.error(e.getMessage());
+            }
+            return vals;
+        }
+
+        @Override
+        public ShardData[] getTermStats(List<byte[]> terms) {
+            if (!packed) {
+                return FeatureStore.super.getTermStats(terms);
+            }
+
+            ShardData[] stats = new ShardData[terms.size()];
+            if (db == null) {
+                return stats;
+            }
+
+            List<ColumnFamilyHandle> families = new ArrayList<>(terms.size());
+            List<byte[]> keys = new ArrayList<>(terms.size());
+            for (byte[] term : terms) {
+                families.add(family);
+                keys.add(statsKey(prefix, term));
+            }
+            try {
+                List<byte[]> values = db.multiGetAsList(families, keys);
+                for (int i = 0; i < stats.length; i++) {
+                    byte[] bytes = values.get(i);
+                    if (bytes != null) {
+                        stats[i] = ShardData.fromBytes(bytes);
+                    }
+                }
+            } catch (RocksDBException e) {
+                logger.error(e.getMessage());
+            }
+            return stats;
+        }
+
+        @Override
+        public void putFeature(String keyStr, double val, long frequency) {
+            byte[] bytes = new byte[8];
+            ByteBuffer.wrap(bytes).putDouble(val);
+            try {
+                db.put(family, writeOptions, key(keyStr), bytes);
+            } catch (RocksDBException e) {
+                logger.error(e.getMessage());
+            }
+        }
+
+        @Override
+        public void addValFeature(String keyStr, double val, long frequency) {
+            double prevVal;
+            try {
+                byte[] bytes = db.get(family, key(keyStr));
+                prevVal = bytes != null ? ByteBuffer.wrap(bytes).getDouble() : 0;
+            } catch (RocksDBException e) {
+                prevVal = 0;
+            }
+            putFeature(keyStr, val + prevVal, frequency);
+        }
+    }
+}
@@ -1,6 +1,13 @@
 package io.jitter.core.taily;
 
+import java.nio.ByteBuffer;
+
+/**
+ * Statistics of a term in a shard, stored packed as one record of {@link #BYTES} bytes.
+ */
 public class ShardData {
+    static final int BYTES = 4 * Double.BYTES;
+
     double min;
     double df;
     double f;
@@ -13,10 +20,26 @@ public ShardData() {
         f2 = 0;
     }
 
+    void reset() {
+        min = Double.MAX_VALUE;
+        df = 0;
+        f = 0;
+        f2 = 0;
+    }
+
     public ShardData(double min, double df, double f, double f2) {
         this.min = min;
         this.df = df;
         this.f = f;
         this.f2 = f2;
     }
+
+    byte[] toBytes() {
+        return ByteBuffer.allocate(BYTES).putDouble(min).putDouble(df).putDouble(f).putDouble(f2).array();
+    }
+
+    static ShardData fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new ShardData(buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+    }
 }
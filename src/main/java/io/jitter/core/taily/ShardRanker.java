@@ -1,13 +1,17 @@
 package io.jitter.core.taily;
 
-import com.google.common.collect.Lists;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import io.jitter.core.utils.AnalyzerUtils;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import org.apache.commons.math3.distribution.GammaDistribution;
 import org.apache.lucene.analysis.Analyzer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 public class ShardRanker {
@@ -30,7 +34,78 @@ public class ShardRanker {
     // Taily parameter used in Eq (11)
     private final float _n_c;
 
+    // lowercased shard id -> index into _shardIds and _stores
+    private final Object2IntMap<String> _ordinals;
+
+    // term -> df of each shard, indexed like _shardIds; the stores are read-only, so this lives as long as they do
+    private final Cache<String, int[]> _dfs = Caffeine.newBuilder().maximumSize(DF_CACHE_SIZE).build();
+
+    private static final int DF_CACHE_SIZE = 10000;
+
+    // statistics of the statuses added since the stores were built, and the family of the shards in them
+    private volatile TailyUpdater _updater;
+    private String _family;
+
     public ShardRanker(Collection<String> shardIds, String indexPath, Analyzer analyzer, float _n_c, String dbPath, String shardsDbPath) {
+        this(shardIds, indexPath, analyzer, _n_c, _openCollectionStore(dbPath));
+
+        // read in the mapping files given and construct a reverse mapping,
+        // i.e. doc -> shard, and create FeatureStore dbs for each shard
+        for (int i = 1; i < _numShards + 1; i++) {
+            String shardIdStr = _shardIds[i].toLowerCase(Locale.ROOT);
+
+            // create output directory for the feature store dbs
+            String cPath = shardsDbPath + "/" + shardIdStr;
+
+            if (new File(cPath).isDirectory()) {
+                // open feature store for shard
+                FeatureStore store = new RocksDbFeatureStore(cPath, true);
+                _stores[i] = store;
+            } else {
+                logger.error("directory not found: " + cPath);
+            }
+        }
+    }
+
+    /**
+     * Ranks the shards of {@code family} in {@code shardStores}, which has to stay open as long as this.
+     */
+    public ShardRanker(Collection<String> shardIds, String indexPath, Analyzer analyzer, float _n_c, String dbPath, RocksDbShardStores shardStores, String family) {
+        this(shardIds, indexPath, analyzer, _n_c, _openCollectionStore(dbPath));
+
+        for (int i = 1; i < _numShards + 1; i++) {
+            String shardIdStr = _shardIds[i].toLowerCase(Locale.ROOT);
+            FeatureStore store = shardStores.store(family, shardIdStr);
+
+            // shards that were not built have no size
+            if (store.getFeature(FeatureStore.SIZE_FEAT_SUFFIX) != -1) {
+                _stores[i] = store;
+            } else {
+                logger.error("shard not found: " + family + "/" + shardIdStr);
+            }
+        }
+    }
+
+    /**
+     * Ranks the shards of {@code family} in {@code stats}, which has to stay open as long as this.
+     */
+    public ShardRanker(Collection<String> shardIds, String indexPath, Analyzer analyzer, float _n_c, MappedTailyStats stats, String family) {
+        this(shardIds, indexPath, analyzer, _n_c, stats.corpus());
+
+        for (int i = 1; i < _numShards + 1; i++) {
+            String shardIdStr = _shardIds[i].toLowerCase(Locale.ROOT);
+            FeatureStore store = stats.store(family, shardIdStr);
+
+            // shards that were not built have no size
+            if (store.getFeature(FeatureStore.SIZE_FEAT_SUFFIX) != -1) {
+                _stores[i] = store;
+            } else {
+                logger.error("shard not found: " + family + "/" + shardIdStr);
+            }
+        }
+    }
+
+    private ShardRanker(Collection<String> shardIds, String indexPath, Analyzer analyzer, float _n_c, FeatureStore collectionStore) {
         this.indexPath = indexPath;
         this.analyzer = analyzer;
 
@@ -42,39 +117,55 @@ public ShardRanker(Collection<String> shardIds, String indexPath, Analyzer analy
             _shardIds[i] = shardIdsIterator.next();
         }
 
+        _ordinals = new Object2IntOpenHashMap<>(_numShards);
+        _ordinals.defaultReturnValue(-1);
+        for (int i = 1; i < _shardIds.length; i++) {
+            _ordinals.put(_shardIds[i].toLowerCase(Locale.ROOT), i);
+        }
+
         this._n_c = _n_c;
 
         // open up all output feature storage for each mapping file we are accessing
         _stores = new FeatureStore[_numShards + 1];
 
-        // open collection feature store
+        _stores[0] = collectionStore;
+    }
+
+    // open collection feature store
+    private static FeatureStore _openCollectionStore(String dbPath) {
         if (new File(dbPath).isDirectory()) {
-            FeatureStore collectionStore = new RocksDbFeatureStore(dbPath, true);
-            _stores[0] = collectionStore;
+            return new RocksDbFeatureStore(dbPath, true);
         } else {
             logger.error("directory not found: " + dbPath);
+            return null;
         }
+    }
 
-        // read in the mapping files given and construct a reverse mapping,
-        // i.e. doc -> shard, and create FeatureStore dbs for each shard
-        for (int i = 1; i < _numShards + 1; i++) {
-            String shardIdStr = _shardIds[i].toLowerCase(Locale.ROOT);
+    public String getIndexPath() {
+        return indexPath;
+    }
 
-            // create output directory for the feature store dbs
-            String cPath = shardsDbPath + "/" + shardIdStr;
+    /**
+     * Adds the statistics of the shards of {@code family} in {@code updater} to those of the stores.
+     */
+    public void setUpdater(TailyUpdater updater, String family) {
+        this._family = family;
+        this._updater = updater;
+    }
 
-            if (new File(cPath).isDirectory()) {
-                // open feature store for shard
-                FeatureStore store = new RocksDbFeatureStore(cPath, true);
-                _stores[i] = store;
-            } else {
-                logger.error("directory not found: " + cPath);
-            }
-        }
+    FeatureStore getCollectionStore() {
+        return _stores[0];
     }
 
-    public String getIndexPath() {
-        return indexPath;
+    // number of shards with a store
+    int getNumShardStores() {
+        int numStores = 0;
+        for (int i = 1; i < _numShards + 1; i++) {
+            if (_stores[i] != null) {
+                numStores++;
+            }
+        }
+        return numStores;
     }
 
     public void close() {
@@ -101,19 +192,113 @@ public int getDF(String shardId, String stem) {
         if (stem.isEmpty()) {
             logger.warn("Tryed to get the DF of an empty term. Will return numDocs instead.");
         }
-        int i = Lists.newArrayList(_shardIds).indexOf(shardId.toLowerCase(Locale.ROOT));
-        if (i > 0) {
+        return getDF(Collections.singleton(shardId), Collections.singletonList(stem));
+    }
+
+    /**
+     * @return the sum of the df of each term in each shard, with a df of 1 for terms a shard does not have and for
+     * unknown shards
+     */
+    public int getDF(Collection<String> shardIds, Collection<String> stems) {
+        int[] ordinals = new int[shardIds.size()];
+        int n = 0;
+        for (String shardId : shardIds) {
+            ordinals[n++] = _ordinals.getInt(shardId.toLowerCase(Locale.ROOT));
+        }
+
+        TailyUpdater updater = _updater;
+        if (updater != null) {
+            updater.readLock().lock();
+        }
+        try {
+            int totalDF = 0;
+            Map<String, int[]> dfs = _dfs.getAll(stems, this::_loadDFs);
+            for (String stem : stems) {
+                int[] termDFs = dfs.get(stem);
+                Map<String, ShardData> deltas = updater != null ? updater.getTermStats(_family, stem) : null;
+                n = 0;
+                for (String shardId : shardIds) {
+                    int ordinal = ordinals[n++];
+                    if (ordinal <= 0) {
+                        totalDF += 1;
+                    } else if (termDFs[ordinal] >= 0) {
+                        ShardData delta = deltas != null ? deltas.get(shardId.toLowerCase(Locale.ROOT)) : null;
+                        int df = termDFs[ordinal] + (delta != null ? (int) delta.df : 0);
+                        totalDF += df > 0 ? df : 1;
+                    }
+                }
+            }
+            return totalDF;
+        } finally {
+            if (updater != null) {
+                updater.readLock().unlock();
+            }
+        }
+    }
+
+    // looks up the df of the terms in every shard, one batch per shard store;
+    // 0 where a shard does not have a term, -1 for shards without a store
+    private Map<String, int[]> _loadDFs(Set<? extends String> stems) {
+        List<String> terms = new ArrayList<>(stems);
+        ShardData[][] termStats = _getTermStats(terms);
+
+        Map<String, int[]> loaded = new HashMap<>();
+        for (int j = 0; j < terms.size(); j++) {
+            int[] termDFs = new int[_numShards + 1];
+            for (int i = 1; i < _numShards + 1; i++) {
+                if (_stores[i] == null) {
+                    termDFs[i] = -1;
+                    continue;
+                }
+
+                ShardData stats = termStats[j][i];
+                termDFs[i] = stats != null && stats.df > 0 ? (int) stats.df : 0;
+            }
+            loaded.put(terms.get(j), termDFs);
+        }
+        return loaded;
+    }
+
+    // looks up the statistics of the terms in every shard, one batch per shard store;
+    // indexed by term then shard, null where a shard does not have the term
+    private ShardData[][] _getTermStats(List<String> stems) {
+        List<byte[]> terms = new ArrayList<>(stems.size());
+        for (String stem : stems) {
+            terms.add(stem.getBytes(StandardCharsets.UTF_8));
+        }
+
+        ShardData[][] termStats = new ShardData[terms.size()][_numShards + 1];
+        for (int i = 1; i < _numShards + 1; i++) {
             FeatureStore store = _stores[i];
             if (store == null)
-                return 0;
+                continue;
+
+            ShardData[] stats = store.getTermStats(terms);
+            for (int j = 0; j < stats.length; j++) {
+                termStats[j][i] = stats[j];
+            }
+        }
+        return termStats;
+    }
+
+    // adds the statistics of the statuses added since the stores were built
+    private void _addUpdates(List<String> stems, ShardData[][] termStats, TailyUpdater updater) {
+        for (int j = 0; j < stems.size(); j++) {
+            Map<String, ShardData> deltas = updater.getTermStats(_family, stems.get(j));
+            if (deltas == null)
+                continue;
+
+            for (Map.Entry<String, ShardData> entry : deltas.entrySet()) {
+                int i = _ordinals.getInt(entry.getKey());
+                if (i <= 0 || _stores[i] == null)
+                    continue;
 
-            // get term's shard df
-            String dfFeat = stem + FeatureStore.SIZE_FEAT_SUFFIX;
-            double df = store.getFeature(dfFeat);
-            if (df > 0)
-                return (int) df;
+                ShardData stats = termStats[j][i];
+                ShardData delta = entry.getValue();
+                termStats[j][i] = stats == null ? new ShardData(delta.min, delta.df, delta.f, delta.f2)
+                        : new ShardData(Math.min(stats.min, delta.min), stats.df + delta.df, stats.f + delta.f, stats.f2 + delta.f2);
+            }
         }
-        return 1;
     }
 
     static class QueryFeats {
@@ -133,10 +318,11 @@ public QueryFeats(int numShards) {
 
     // retrieves the mean/variance for query terms and fills in the given queryMean/queryVar arrays
     // and marks shards that have at least one doc for one query term in given bool array
-    private QueryFeats _getQueryFeats(List<String> stems) {
+    private QueryFeats _getQueryFeats(List<String> stems, ShardData[][] termStats) {
         QueryFeats queryFeats = new QueryFeats(_numShards + 1);
         // calculate mean and variances for query for all shards
-        for (String stem : stems) {
+        for (int j = 0; j < stems.size(); j++) {
+            String stem = stems.get(j);
             if (stem.isEmpty()) {
                 logger.warn("Got empty stem");
                 continue;
@@ -163,19 +349,15 @@ private QueryFeats _getQueryFeats(List<String> stems) {
             // for each shard (not including whole corpus db), calculate mean/var
             // keep track of totals to use in the corpus-wide features
             for (int i = 1; i < _numShards + 1; i++) {
-                FeatureStore store = _stores[i];
-                if (store == null)
-                    continue;
-
-                // get current term's shard df
-                String dfFeat = stem + FeatureStore.SIZE_FEAT_SUFFIX;
-                double df = store.getFeature(dfFeat);
-
                 // TODO: fix this kludge
                 // if this shard doesn't have this term, skip; otherwise you get nan everywhere
-                if (df == -1)
+                ShardData stats = termStats[j][i];
+                if (stats == null)
                     continue;
 
+                // get current term's shard df
+                double df = stats.df;
+
                 dfCache[i] = df;
                 globalDf += df;
 
@@ -184,8 +366,7 @@ private QueryFeats _getQueryFeats(List<String> stems) {
                 queryFeats.dfTerm[0] += df;
 
                 // add current term's mean to shard; also shift by min feat value Eq (5)
-                String meanFeat = stem + FeatureStore.FEAT_SUFFIX;
-                double fSum = store.getFeature(meanFeat);
+                double fSum = stats.f;
                 if (fSum == -1) {
                     logger.error("BAD fSum");
                 }
@@ -194,8 +375,7 @@ private QueryFeats _getQueryFeats(List<String> stems) {
                 globalFSum += fSum;
 
                 // add current term's variance to shard Eq (6)
-                String f2Feat = stem + FeatureStore.SQUARED_FEAT_SUFFIX;
-                double f2Sum = store.getFeature(f2Feat);
+                double f2Sum = stats.f2;
                 if (f2Sum < 0) {
                     logger.error("BAD f2Sum");
                 }
@@ -205,7 +385,7 @@ private QueryFeats _getQueryFeats(List<String> stems) {
 
                 // if there is no global min stored, figure out the minimum from shards
                 if (calcMin) {
-                    double currMin = store.getFeature(minFeat);
+                    double currMin = stats.min;
                     if (currMin < minVal) {
                         minVal = currMin;
                     }
@@ -233,7 +413,7 @@ private QueryFeats _getQueryFeats(List<String> stems) {
     }
 
     // calculates All from Eq (10)
-    private double[] _getAll(List<String> stems) {
+    private double[] _getAll(List<String> stems, ShardData[][] termStats, TailyUpdater updater) {
         // calculate Any_i & all_i
         double[] all = new double[_numShards + 1];
         double[] any = new double[_numShards + 1];
@@ -249,6 +429,9 @@ private double[] _getAll(List<String> stems) {
 
             // get size of current shard
             double shardSize = store.getFeature(FeatureStore.SIZE_FEAT_SUFFIX);
+            if (updater != null) {
+                shardSize += i == 0 ? updater.getTotalDocs() : updater.getShardSize(_family, _shardIds[i].toLowerCase(Locale.ROOT));
+            }
 
             // if this shard is empty, skip; otherwise you get nan everywhere
             if (shardSize == 0)
@@ -257,9 +440,16 @@ private double[] _getAll(List<String> stems) {
             // for each query term, calculate inner bracket of any_i equation
             double[] dfs = new double[stems.size()];
             int dfCnt = 0;
-            for (String stem : stems) {
-                String stemKey = stem + FeatureStore.SIZE_FEAT_SUFFIX;
-                double df = store.getFeature(stemKey);
+            for (int j = 0; j < stems.size(); j++) {
+                double df;
+                if (i == 0) {
+                    df = store.getFeature(stems.get(j) + FeatureStore.SIZE_FEAT_SUFFIX);
+                    if (updater != null) {
+                        df = Math.max(0, df) + updater.getCorpusDF(stems.get(j));
+                    }
+                } else {
+                    df = termStats[j][i] != null ? termStats[j][i].df : -1;
+                }
 
                 // no smoothing
                 if (df == -1) {
@@ -286,11 +476,30 @@ private double[] _getAll(List<String> stems) {
     }
 
     public Map<String, Double> rank(String query) {
+        TailyUpdater updater = _updater;
+        if (updater == null) {
+            return _rank(query, null);
+        }
+        updater.readLock().lock();
+        try {
+            return _rank(query, updater);
+        } finally {
+            updater.readLock().unlock();
+        }
+    }
+
+    private Map<String, Double> _rank(String query, TailyUpdater updater) {
         Map<String, Double> ranking = new HashMap<>();
 
         List<String> stems = _getStems(query);
 
-        QueryFeats queryFeats = _getQueryFeats(stems);
+        // one lookup of the statistics of all stems in each shard
+        ShardData[][] termStats = _getTermStats(stems);
+        if (updater != null) {
+            _addUpdates(stems, termStats, updater);
+        }
+
+        QueryFeats queryFeats = _getQueryFeats(stems, termStats);
         // query total means and variances for each shard
         double[] queryMean = queryFeats.queryMean;
         double[] queryVar = queryFeats.queryVar;
@@ -318,11 +527,11 @@ public Map<String, Double> rank(String query) {
                     ranking.put(_shardIds[i], 0.0);
                 }
             }
-            return sortAndNormalization(ranking);
+            return normalization(ranking);
         }
 
         // all from Eq (10)
-        double[] all = _getAll(stems);
+        double[] all = _getAll(stems, termStats, updater);
 
         // fast fall-through for for 1 degenerate case
         if (all[0] < 1e-10) {
@@ -337,7 +546,7 @@ public Map<String, Double> rank(String query) {
                     ranking.put(_shardIds[i], 0.0);
                 }
             }
-            return sortAndNormalization(ranking);
+            return normalization(ranking);
         }
 
         // calculate k and theta from mean/vars Eq (7) (8)
@@ -387,18 +596,13 @@ public Map<String, Double> rank(String query) {
             }
         }
 
-        return sortAndNormalization(ranking);
+        return normalization(ranking);
     }
 
-    private TreeMap<String, Double> sortAndNormalization(Map<String, Double> ranking) {
-        // sort shards by n
-        ShardComparator comparator = new ShardComparator(ranking);
-        TreeMap<String, Double> sortedMap = new TreeMap<>(comparator);
-        sortedMap.putAll(ranking);
-
+    private Map<String, Double> normalization(Map<String, Double> ranking) {
         double sum = 0;
-        for (Map.Entry<String, Double> entry : sortedMap.entrySet()) {
-            sum += entry.getValue();
+        for (double n : ranking.values()) {
+            sum += n;
         }
 
         // if sum is 0 no shard will be selected
@@ -409,12 +613,8 @@ private TreeMap<String, Double> sortAndNormalization(Map<String, Double> ranking
         double norm = _n_c / sum;
 
         // normalize shard scores Eq (12)
-        TreeMap<String, Double> normedMap = new TreeMap<>(comparator);
-        for (Map.Entry<String, Double> entry : sortedMap.entrySet()) {
-            normedMap.put(entry.getKey(), entry.getValue() * norm);
-        }
-
-        return normedMap;
+        ranking.replaceAll((shardId, n) -> n * norm);
+        return ranking;
     }
 
 }
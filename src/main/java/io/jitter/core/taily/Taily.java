@@ -1,19 +1,36 @@
 package io.jitter.core.taily;
 
 import cc.twittertools.index.IndexStatuses;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import io.jitter.core.features.IndriFeature;
+import io.jitter.core.search.PartitionedSearcherManager;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.lucene.document.Document;
 import org.apache.lucene.index.*;
 import org.apache.lucene.search.*;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IndexOutput;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+import org.rocksdb.RocksDBException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 @SuppressWarnings("LoggingSimilarMessage")
 public class Taily {
@@ -24,39 +41,44 @@ public class Taily {
     public static final String TOPICS_DBENV = "topics";
     public static final int LOG_TERM_INTERVAL = 10000;
 
+    // terms of the dictionary in each range built by a thread
+    private static final int RANGE_TERMS = 10000;
+    // term statistics records written to the shard stores at once
+    private static final int BATCH_RECORDS = 10000;
+
     private final String dbPath;
     private final String indexPath;
     private final float mu;
+    private final int threads;
+    private final boolean mapped;
+    private final MetricRegistry metrics;
+
+    // what the build is doing, and the term statistics once it gets to them
+    private volatile String phase = "not started";
+    private volatile Build build;
 
     public Taily(String dbPath, String indexPath, float mu) {
+        this(dbPath, indexPath, mu, 0, false, new MetricRegistry());
+    }
+
+    /**
+     * @param threads number of threads building the term statistics of the shards, or 0 for one per core
+     * @param mapped also write the statistics to a {@link MappedTailyStats} file
+     * @param metrics registry of the build throughput meters
+     */
+    public Taily(String dbPath, String indexPath, float mu, int threads, boolean mapped, MetricRegistry metrics) {
         this.dbPath = dbPath;
         this.indexPath = indexPath;
         this.mu = mu;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.mapped = mapped;
+        this.metrics = metrics;
     }
 
     public Taily(String dbPath, String indexPath) {
         this(dbPath, indexPath, IndriFeature.DEFAULT_MU);
     }
 
-    private void storeTermStats(FeatureStore store, String term, int ctf, double min,
-                                double df, double f, double f2) {
-        // store min feature for term (for this shard; will later be merged into corpus-wide Db)
-        String minFeatKey = term + FeatureStore.MIN_FEAT_SUFFIX;
-        store.putFeature(minFeatKey, min, ctf);
-
-        // get and store shard df feature for term
-        String dfFeatKey = term + FeatureStore.SIZE_FEAT_SUFFIX;
-        store.putFeature(dfFeatKey, df, ctf);
-
-        // store sum f
-        String featKey = term + FeatureStore.FEAT_SUFFIX;
-        store.putFeature(featKey, f, ctf);
-
-        // store sum f^2
-        String squaredFeatKey = term + FeatureStore.SQUARED_FEAT_SUFFIX;
-        store.putFeature(squaredFeatKey, f2, ctf);
-    }
-
     // innards of buildCorpus
     private long collectCorpusStats(TermsEnum termsEnum, FeatureStore store) throws IOException {
         String term = termsEnum.term().utf8ToString();
@@ -77,10 +99,19 @@ private long collectCorpusStats(TermsEnum termsEnum, FeatureStore store) throws
     }
 
     public void build(List<String> screenNames, Map<String, List<String>> topics) throws IOException {
+        build(screenNames, topics, () -> {});
+    }
+
+    /**
+     * @param opened run once the index reader of the build is open, the statuses indexed after are not in the build
+     */
+    public void build(List<String> screenNames, Map<String, List<String>> topics, Runnable opened) throws IOException {
         logger.info("build start");
+        phase = "corpus";
         long startTime = System.currentTimeMillis();
 
-        DirectoryReader indexReader = DirectoryReader.open(FSDirectory.open(Paths.get(indexPath)));
+        IndexReader indexReader = openIndex(Paths.get(indexPath));
+        opened.run();
 
         FeatureStore corpusStore = new RocksDbFeatureStore(dbPath + "/" + CORPUS_DBENV, false);
         buildCorpus(indexReader, corpusStore);
@@ -91,126 +122,375 @@ public void build(List<String> screenNames, Map<String, List<String>> topics) th
 
         IndriFeature indriFeature = new IndriFeature(mu);
 
-        // Reverse map collections -> topic
+        Map<String, String> sourceTopicMap = sourceTopicMap(topics);
+
+        // all source and topic shards go to one store
+        RocksDbShardStores shardStores = new RocksDbShardStores(dbPath + "/" + RocksDbShardStores.SHARDS_DBENV, false);
+
+        int numSources = screenNames.size(); // sourceTopicMap.size();
+        Map<String, FeatureStore> sourceStores = new HashMap<>(numSources);
+        phase = "sources";
+        buildSources(screenNames, indexReader, sourceTopicMap, shardStores, sourceStores);
+
+        int numTopics = topics.size();
+        Map<String, FeatureStore> topicStores = new HashMap<>(numTopics);
+        phase = "topics";
+        buildTopics(topics, shardStores, topicStores, sourceStores);
+
+        // term statistics are stored for the screen names and topics, numbered by ordinal
+        Set<String> sourceIds = new LinkedHashSet<>();
+        for (String screenName : screenNames) {
+            sourceIds.add(screenName.toLowerCase(Locale.ROOT));
+        }
+        Set<String> topicIds = new LinkedHashSet<>();
+        for (String topic : topics.keySet()) {
+            topicIds.add(topic.toLowerCase(Locale.ROOT));
+        }
+        String[] sources = sourceIds.toArray(new String[0]);
+        String[] topicShards = topicIds.toArray(new String[0]);
+
+        // read once what each posting needs of its doc, instead of its stored fields and term vector
+        int[] docSources = new int[indexReader.maxDoc()];
+        int[] docTopics = new int[indexReader.maxDoc()];
+        phase = "doc lengths";
+        docShards(indexReader, sources, topicShards, sourceTopicMap, docSources, docTopics);
+        int[] docLengths = new int[indexReader.maxDoc()];
+        List<BytesRef> ranges = docLengths(indexReader, docLengths);
+        logger.info("build {} term ranges on {} threads", ranges.size(), threads);
+
+        MappedTailyStatsWriter statsWriter = mapped ? new MappedTailyStatsWriter(dbPath, ranges.size()) : null;
+        phase = "terms";
+        Build build = new Build(indexReader, indriFeature, totalTermCount, sources, topicShards,
+                docSources, docTopics, docLengths, shardStores, statsWriter, ranges.size());
+        this.build = build;
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "taily-build");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (Timer.Context ignored = metrics.timer(MetricRegistry.name(Taily.class, "build")).time()) {
+            List<Future<?>> futures = new ArrayList<>(ranges.size());
+            for (int i = 0; i < ranges.size(); i++) {
+                int range = i;
+                BytesRef start = ranges.get(i);
+                BytesRef end = i + 1 < ranges.size() ? ranges.get(i + 1) : null;
+                futures.add(executor.submit(() -> {
+                    build.buildRange(range, start, end);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            if (statsWriter != null) {
+                phase = MappedTailyStats.STATS_FILE;
+                statsWriter.finish(sources, sizes(shardStores, SOURCES_DBENV, sources),
+                        topicShards, sizes(shardStores, TOPICS_DBENV, topicShards),
+                        corpusStore.getFeature(FeatureStore.SIZE_FEAT_SUFFIX), totalTermCount);
+                logger.info("build wrote {}", MappedTailyStats.STATS_FILE);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } finally {
+            // the ranges still running stop at their next term, and must before their stores and reader close
+            executor.shutdownNow();
+            awaitTermination(executor);
+
+            // clean up
+            if (statsWriter != null) {
+                statsWriter.close();
+            }
+            corpusStore.close();
+            sourceStores.values().forEach(FeatureStore::close);
+            topicStores.values().forEach(FeatureStore::close);
+            shardStores.close();
+            indexReader.close();
+        }
+
+        phase = "done";
+        long endTime = System.currentTimeMillis();
+        logger.info(String.format(Locale.ENGLISH, "build end %4dms", (endTime - startTime)));
+    }
+
+    private static void awaitTermination(ExecutorService executor) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    break;
+                }
+                logger.warn("build waiting for its term ranges to stop");
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reverse maps collections to the topic whose term statistics they are built into: a collection of several
+     * topics is built into the last one, though it counts in the size of each.
+     *
+     * @return the lowercased topic of each lowercased collection
+     */
+    static Map<String, String> sourceTopicMap(Map<String, List<String>> topics) {
         Map<String, String> sourceTopicMap = new HashMap<>();
         for (Map.Entry<String, List<String>> entry : topics.entrySet()) {
             for (String collection : entry.getValue()) {
                 sourceTopicMap.put(collection.toLowerCase(Locale.ROOT), entry.getKey().toLowerCase(Locale.ROOT));
             }
         }
+        return sourceTopicMap;
+    }
 
-        int numSources = screenNames.size(); // sourceTopicMap.size();
-        Map<String, FeatureStore> sourceStores = new HashMap<>(numSources);
-        buildSources(screenNames, indexReader, sourceTopicMap, sourceStores);
+    /**
+     * @return a reader of the index at {@code indexPath} or, when it is split into
+     * {@link PartitionedSearcherManager#shards(Path) shard indexes}, of all of them
+     */
+    static IndexReader openIndex(Path indexPath) throws IOException {
+        FSDirectory dir = FSDirectory.open(indexPath);
+        if (DirectoryReader.indexExists(dir)) {
+            return DirectoryReader.open(dir);
+        }
+        dir.close();
 
-        int numTopics = topics.size();
-        Map<String, FeatureStore> topicStores = new HashMap<>(numTopics);
-        buildTopics(topics, topicStores, sourceStores);
+        List<Path> shards = PartitionedSearcherManager.shards(indexPath);
+        if (shards.isEmpty()) {
+            throw new IndexNotFoundException("no index or shard indexes in " + indexPath);
+        }
+        IndexReader[] readers = new IndexReader[shards.size()];
+        try {
+            for (int i = 0; i < readers.length; i++) {
+                readers[i] = DirectoryReader.open(FSDirectory.open(shards.get(i)));
+            }
+        } catch (IOException e) {
+            IOUtils.closeWhileHandlingException(readers);
+            throw e;
+        }
+        return new MultiReader(readers, true);
+    }
 
-        // TODO: read terms list
-        // TODO: field list?
-        // TODO: only create shard statistics for specified terms
-        Terms terms = MultiTerms.getTerms(indexReader, IndexStatuses.StatusField.TEXT.name);
-        TermsEnum termEnum = terms.iterator();
+    /**
+     * @return what the build is doing, with the progress of the term statistics
+     */
+    public String getProgress() {
+        String progress = phase;
+        Build build = this.build;
+        if (build != null) {
+            progress += String.format(Locale.ENGLISH, ", %d terms, %d/%d ranges, %.0f terms/s, %.0f postings/s",
+                    build.termCnt.get(), build.rangeCnt.get(), build.numRanges,
+                    build.termsMeter.getMeanRate(), build.postingsMeter.getMeanRate());
+        }
+        return progress;
+    }
+
+    private static double[] sizes(RocksDbShardStores shardStores, String family, String[] shardIds) {
+        double[] sizes = new double[shardIds.length];
+        for (int i = 0; i < shardIds.length; i++) {
+            sizes[i] = shardStores.store(family, shardIds[i]).getFeature(FeatureStore.SIZE_FEAT_SUFFIX);
+        }
+        return sizes;
+    }
 
-        int termCnt = 0;
+    // numbers the source and topic of each doc, -1 for none, from the postings of the screen names
+    private static void docShards(IndexReader indexReader, String[] sources, String[] topicShards, Map<String, String> sourceTopicMap,
+                                  int[] docSources, int[] docTopics) throws IOException {
+        Map<String, Integer> sourceOrdinals = new HashMap<>();
+        for (int i = 0; i < sources.length; i++) {
+            sourceOrdinals.put(sources[i], i);
+        }
+        Map<String, Integer> topicOrdinals = new HashMap<>();
+        for (int i = 0; i < topicShards.length; i++) {
+            topicOrdinals.put(topicShards[i], i);
+        }
+        Arrays.fill(docSources, -1);
+        Arrays.fill(docTopics, -1);
+
+        Terms terms = MultiTerms.getTerms(indexReader, IndexStatuses.StatusField.SCREEN_NAME.name);
+        if (terms == null)
+            return;
+
+        TermsEnum termsEnum = terms.iterator();
+        PostingsEnum postings = null;
         BytesRef bytesRef;
-        while ((bytesRef = termEnum.next()) != null) {
-            String term = bytesRef.utf8ToString();
-            if (term.isEmpty()) {
-                logger.warn("Empty term was found and skipped automatically. Check your tokenizer.");
+        while ((bytesRef = termsEnum.next()) != null) {
+            // lowercased, for case sensitive indexes too
+            String screenName = bytesRef.utf8ToString().toLowerCase(Locale.ROOT);
+            int source = sourceOrdinals.getOrDefault(screenName, -1);
+            String topic = sourceTopicMap.get(screenName);
+            int topicShard = topic != null ? topicOrdinals.getOrDefault(topic, -1) : -1;
+            if (source < 0 && topicShard < 0)
                 continue;
+
+            postings = termsEnum.postings(postings, PostingsEnum.NONE);
+            int docId;
+            while ((docId = postings.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+                docSources[docId] = source;
+                docTopics[docId] = topicShard;
             }
+        }
+    }
 
-            termCnt++;
-            if (termCnt % LOG_TERM_INTERVAL == 0) {
-                logger.info("  Finished {} terms", termCnt);
+    /**
+     * Counts the distinct terms of each doc, the size of its term vector, from the postings of the text.
+     *
+     * @return the first term of each range of {@link #RANGE_TERMS} terms of the dictionary
+     */
+    private static List<BytesRef> docLengths(IndexReader indexReader, int[] docLengths) throws IOException {
+        List<BytesRef> ranges = new ArrayList<>();
+        Terms terms = MultiTerms.getTerms(indexReader, IndexStatuses.StatusField.TEXT.name);
+        if (terms == null)
+            return ranges;
+
+        TermsEnum termsEnum = terms.iterator();
+        PostingsEnum postings = null;
+        long termCnt = 0;
+        BytesRef bytesRef;
+        while ((bytesRef = termsEnum.next()) != null) {
+            if (termCnt++ % RANGE_TERMS == 0) {
+                ranges.add(BytesRef.deepCopyOf(bytesRef));
+            }
+            postings = termsEnum.postings(postings, PostingsEnum.NONE);
+            int docId;
+            while ((docId = postings.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+                docLengths[docId]++;
             }
+        }
+        return ranges;
+    }
 
-            // get term ctf
-            double ctf = termEnum.totalTermFreq();
+    /**
+     * The term statistics of the shards, built over ranges of the dictionary by several threads.
+     */
+    private class Build {
+        private final IndexReader indexReader;
+        private final IndriFeature indriFeature;
+        private final double totalTermCount;
+        private final String[] sources;
+        private final String[] topicShards;
+        private final int[] docSources;
+        private final int[] docTopics;
+        private final int[] docLengths;
+        private final RocksDbShardStores shardStores;
+        private final MappedTailyStatsWriter statsWriter;
+        private final int numRanges;
+
+        private final Meter termsMeter = metrics.meter(MetricRegistry.name(Taily.class, "build", "terms"));
+        private final Meter postingsMeter = metrics.meter(MetricRegistry.name(Taily.class, "build", "postings"));
+        private final AtomicLong termCnt = new AtomicLong();
+        private final AtomicInteger rangeCnt = new AtomicInteger();
+
+        Build(IndexReader indexReader, IndriFeature indriFeature, double totalTermCount, String[] sources, String[] topicShards,
+              int[] docSources, int[] docTopics, int[] docLengths, RocksDbShardStores shardStores,
+              MappedTailyStatsWriter statsWriter, int numRanges) {
+            this.indexReader = indexReader;
+            this.indriFeature = indriFeature;
+            this.totalTermCount = totalTermCount;
+            this.sources = sources;
+            this.topicShards = topicShards;
+            this.docSources = docSources;
+            this.docTopics = docTopics;
+            this.docLengths = docLengths;
+            this.shardStores = shardStores;
+            this.statsWriter = statsWriter;
+            this.numRanges = numRanges;
+        }
 
-            // track df for this term for each shard; initialize
-            Map<String, ShardData> sourcesShardDataMap = new HashMap<>(numSources);
-            Map<String, ShardData> topicsShardDataMap = new HashMap<>(numTopics);
+        // builds the terms from start up to end, or to the last term if null
+        void buildRange(int range, BytesRef start, BytesRef end) throws IOException, RocksDBException {
+            try (IndexOutput statsOut = statsWriter != null ? statsWriter.range(range) : null) {
+                buildRange(start, end, statsOut);
+            }
+            rangeCnt.incrementAndGet();
+        }
 
-            if (termEnum.seekExact(bytesRef)) {
-                PostingsEnum docsEnum = termEnum.postings(null);
-                if (docsEnum != null) {
-                    int docId;
-                    // go through each doc in index containing the current term
-                    // calculate Sum(f) and Sum(f^2) top parts of eq (3) (4)
-                    while ((docId = docsEnum.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
-                        Document doc = indexReader.document(docId);
+        private void buildRange(BytesRef start, BytesRef end, IndexOutput statsOut) throws IOException, RocksDBException {
+            TermsEnum termsEnum = MultiTerms.getTerms(indexReader, IndexStatuses.StatusField.TEXT.name).iterator();
+            if (termsEnum.seekCeil(start) == TermsEnum.SeekStatus.END)
+                return;
+
+            // track the data of each shard for the current term, resetting those it touched
+            ShardData[] sourcesShardData = newShardData(sources.length);
+            ShardData[] topicsShardData = newShardData(topicShards.length);
+            IntArrayList touchedSources = new IntArrayList();
+            IntArrayList touchedTopics = new IntArrayList();
+
+            PostingsEnum postings = null;
+            try (RocksDbShardStores.Batch batch = shardStores.batch()) {
+                BytesRef bytesRef = termsEnum.term();
+                do {
+                    if (end != null && bytesRef.compareTo(end) >= 0)
+                        break;
+                    if (Thread.interrupted())
+                        throw new InterruptedIOException("build of the terms from " + start.utf8ToString() + " interrupted");
+
+                    if (bytesRef.length == 0) {
+                        logger.warn("Empty term was found and skipped automatically. Check your tokenizer.");
+                        continue;
+                    }
+                    byte[] term = BytesRef.deepCopyOf(bytesRef).bytes;
 
-                        Terms termVector = indexReader.getTermVector(docId, IndexStatuses.StatusField.TEXT.name);
-                        double length = termVector.size();
-                        double tf = docsEnum.freq();
+                    // get term ctf
+                    double ctf = termsEnum.totalTermFreq();
 
+                    // go through each doc in index containing the current term
+                    // calculate Sum(f) and Sum(f^2) top parts of eq (3) (4)
+                    postings = termsEnum.postings(postings, PostingsEnum.FREQS);
+                    int docId;
+                    long postingCnt = 0;
+                    while ((docId = postings.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
                         // calculate Indri score feature and sum it up
-                        double feat = indriFeature.value(tf, ctf, totalTermCount, length);
-
-                        // find the shard id, if this doc belongs to any
-                        String sourceCurrShardId = doc.get(IndexStatuses.StatusField.SCREEN_NAME.name).toLowerCase(Locale.ROOT);
-                        updateShardData(sourcesShardDataMap, sourceCurrShardId, feat);
+                        double feat = indriFeature.value(postings.freq(), ctf, totalTermCount, docLengths[docId]);
+                        updateShardData(sourcesShardData, touchedSources, docSources[docId], feat);
+                        updateShardData(topicsShardData, touchedTopics, docTopics[docId], feat);
+                        postingCnt++;
+                    }
 
-                        // find the shard id, if this doc belongs to any
-                        String topicsCurrShardId = sourceTopicMap.get(doc.get(IndexStatuses.StatusField.SCREEN_NAME.name).toLowerCase(Locale.ROOT));
-                        updateShardData(topicsShardDataMap, topicsCurrShardId, feat);
+                    if (statsOut != null) {
+                        MappedTailyStatsWriter.writeTerm(statsOut, bytesRef, termsEnum.docFreq(), (long) ctf,
+                                sourcesShardData, touchedSources, topicsShardData, touchedTopics);
                     }
-                }
-            }
 
-            // add term info to correct shard dbs
-            for (String screenName : screenNames) {
-                String shardIdStr = screenName.toLowerCase(Locale.ROOT);
-                updateStores(sourcesShardDataMap, shardIdStr, sourceStores, term, (int) ctf);
-            }
+                    // add term info to correct shards
+                    storeShardData(batch, SOURCES_DBENV, sources, sourcesShardData, touchedSources, term);
+                    storeShardData(batch, TOPICS_DBENV, topicShards, topicsShardData, touchedTopics, term);
+                    if (batch.size() >= BATCH_RECORDS) {
+                        batch.write();
+                    }
 
-            // add term info to correct shard dbs
-            for (String topic : topics.keySet()) {
-                String shardIdStr = topic.toLowerCase(Locale.ROOT);
-                updateStores(topicsShardDataMap, shardIdStr, topicStores, term, (int) ctf);
+                    termsMeter.mark();
+                    postingsMeter.mark(postingCnt);
+                    if (termCnt.incrementAndGet() % LOG_TERM_INTERVAL == 0) {
+                        logger.info(String.format(Locale.ENGLISH, "  Finished %d terms, %d/%d ranges, %.0f terms/s, %.0f postings/s",
+                                termCnt.get(), rangeCnt.get(), numRanges, termsMeter.getMeanRate(), postingsMeter.getMeanRate()));
+                    }
+                } while ((bytesRef = termsEnum.next()) != null);
+                batch.write();
             }
-        } // end term iter
-
-        // clean up
-        corpusStore.close();
-        sourceStores.values().forEach(FeatureStore::close);
-        topicStores.values().forEach(FeatureStore::close);
-        indexReader.close();
-
-        long endTime = System.currentTimeMillis();
-        logger.info(String.format(Locale.ENGLISH, "build end %4dms", (endTime - startTime)));
+        }
     }
 
-    private void updateStores(Map<String, ShardData> shardDataMap, String shardIdStr, Map<String, FeatureStore> stores, String term, int ctf) {
-        // don't store empty terms
-        if (shardDataMap.get(shardIdStr) != null) {
-            if (shardDataMap.get(shardIdStr).df != 0) {
-                logger.debug(String.format(Locale.ENGLISH, "%s shard: %s df: %4d ctf: %4d min: %4.2f f: %4.2f f2: %4.2f",
-                        StringUtils.leftPad(term, 30), StringUtils.leftPad(shardIdStr, 15),
-                        (long) shardDataMap.get(shardIdStr).df, ctf, shardDataMap.get(shardIdStr).min,
-                        shardDataMap.get(shardIdStr).f, shardDataMap.get(shardIdStr).f2));
-                storeTermStats(stores.get(shardIdStr), term, ctf, shardDataMap.get(shardIdStr).min,
-                        shardDataMap.get(shardIdStr).df, shardDataMap.get(shardIdStr).f,
-                        shardDataMap.get(shardIdStr).f2);
-
-                // store min feature for term (for corpus)
-//                        String minFeatKey = term + FeatureStore.MIN_FEAT_SUFFIX;
-//                        double min = corpusStore.getFeature(minFeatKey);
-//                        if (min > shardDataMap.get(shardIdStr).min) {
-//                            corpusStore.putFeature(minFeatKey, shardDataMap.get(shardIdStr).min, FeatureStore.FREQUENT_TERMS + 1);
-//                        }
-            }
+    private static ShardData[] newShardData(int numShards) {
+        ShardData[] shardData = new ShardData[numShards];
+        for (int i = 0; i < numShards; i++) {
+            shardData[i] = new ShardData();
         }
+        return shardData;
     }
 
-    private void updateShardData(Map<String, ShardData> shardDataMap, String currShardId, double feat) {
-        ShardData currShard = shardDataMap.get(currShardId);
-        if (currShard == null) {
-            currShard = new ShardData();
-            shardDataMap.put(currShardId, currShard);
+    private static void updateShardData(ShardData[] shardData, IntArrayList touched, int shard, double feat) {
+        if (shard < 0)
+            return;
+
+        ShardData currShard = shardData[shard];
+        if (currShard.df == 0) {
+            touched.add(shard);
         }
         currShard.f += feat;
         currShard.f2 += Math.pow(feat, 2);
@@ -221,14 +501,27 @@ private void updateShardData(Map<String, ShardData> shardDataMap, String currSha
         }
     }
 
-    private void buildTopics(Map<String, List<String>> topics, Map<String, FeatureStore> topicStores, Map<String, FeatureStore> sourceStores) {
-        // create FeatureStore dbs for each topic
+    private static void storeShardData(RocksDbShardStores.Batch batch, String family, String[] shardIds, ShardData[] shardData,
+                                       IntArrayList touched, byte[] term) {
+        for (int i = 0; i < touched.size(); i++) {
+            int shard = touched.getInt(i);
+            ShardData currShard = shardData[shard];
+            if (logger.isDebugEnabled()) {
+                logger.debug("{} shard: {} df: {}", new String(term, StandardCharsets.UTF_8), shardIds[shard], (long) currShard.df);
+            }
+            batch.putTermStats(family, shardIds[shard], term, currShard);
+            currShard.reset();
+        }
+        touched.clear();
+    }
+
+    private void buildTopics(Map<String, List<String>> topics, RocksDbShardStores shardStores, Map<String, FeatureStore> topicStores, Map<String, FeatureStore> sourceStores) {
+        // create FeatureStore for each topic
         for (String topic : topics.keySet()) {
             String shardIdStr = topic.toLowerCase(Locale.ROOT);
-            String cPath = dbPath + "/" + TOPICS_DBENV + "/" + shardIdStr;
 
             // create feature store for shard
-            FeatureStore store = new RocksDbFeatureStore(cPath, false);
+            FeatureStore store = shardStores.store(TOPICS_DBENV, shardIdStr);
             topicStores.put(shardIdStr, store);
 
             // store the shard size (# of docs) feature
@@ -242,12 +535,12 @@ private void buildTopics(Map<String, List<String>> topics, Map<String, FeatureSt
         }
     }
 
-    private void buildSources(List<String> screenNames, DirectoryReader indexReader, Map<String, String> sourceTopicMap, Map<String, FeatureStore> sourceStores) throws IOException {
+    private void buildSources(List<String> screenNames, IndexReader indexReader, Map<String, String> sourceTopicMap, RocksDbShardStores shardStores, Map<String, FeatureStore> sourceStores) throws IOException {
         Terms screenNameTerms = MultiTerms.getTerms(indexReader, IndexStatuses.StatusField.SCREEN_NAME.name);
         TermsEnum screenNameTermEnum = screenNameTerms.iterator();
         IndexSearcher indexSearcher = new IndexSearcher(indexReader);
 
-        // create FeatureStore dbs for each source
+        // create FeatureStore for each source
         HashSet<String> allSources = new HashSet<>(screenNames.size());
 
         for (String screenName : screenNames) {
@@ -260,10 +553,9 @@ private void buildSources(List<String> screenNames, DirectoryReader indexReader,
 
         for (String screenName : allSources) {
             String shardIdStr = screenName;
-            String cPath = dbPath + "/" + SOURCES_DBENV + "/" + shardIdStr;
 
             // create feature store for source
-            FeatureStore store = new RocksDbFeatureStore(cPath, false);
+            FeatureStore store = shardStores.store(SOURCES_DBENV, shardIdStr);
             sourceStores.put(shardIdStr, store);
 
             BytesRef bytesRef = new BytesRef(shardIdStr);
@@ -287,7 +579,7 @@ private void buildSources(List<String> screenNames, DirectoryReader indexReader,
         }
     }
 
-    private void buildCorpus(DirectoryReader indexReader, FeatureStore store) throws IOException {
+    private void buildCorpus(IndexReader indexReader, FeatureStore store) throws IOException {
         logger.info("build corpus start");
         long startTime = System.currentTimeMillis();
 
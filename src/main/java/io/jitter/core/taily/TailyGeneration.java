@@ -0,0 +1,143 @@
+package io.jitter.core.taily;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.util.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The stores of a Taily build and the rankers over them. Selections hold a reference while they rank, so a rebuild
+ * can swap in a new generation while the running ones finish on the old, which is closed once the last releases it.
+ */
+class TailyGeneration {
+    private static final Logger logger = LoggerFactory.getLogger(TailyGeneration.class);
+
+    private final String dbPath;
+    private final ShardRanker ranker;
+    private final ShardRanker topicsRanker;
+    private final RocksDbShardStores shardStores;
+    private final MappedTailyStats mapped;
+
+    private final AtomicInteger refCount = new AtomicInteger(1);
+    private volatile boolean deleteOnClose;
+
+    private TailyGeneration(String dbPath, ShardRanker ranker, ShardRanker topicsRanker,
+                            RocksDbShardStores shardStores, MappedTailyStats mapped) {
+        this.dbPath = dbPath;
+        this.ranker = ranker;
+        this.topicsRanker = topicsRanker;
+        this.shardStores = shardStores;
+        this.mapped = mapped;
+    }
+
+    /**
+     * Opens the stores under {@code dbPath}: the {@link MappedTailyStats} file if {@code mappedStats}, otherwise or
+     * if there is none the shards store, or the stores of each shard of the layout before it.
+     */
+    static TailyGeneration open(String dbPath, String index, Analyzer analyzer, float nc, List<String> users,
+                                Map<String, List<String>> topics, boolean mappedStats) throws IOException {
+        String corpusDbPath = dbPath + "/" + Taily.CORPUS_DBENV;
+        String shardsDbPath = dbPath + "/" + RocksDbShardStores.SHARDS_DBENV;
+        if (mappedStats && MappedTailyStats.exists(dbPath)) {
+            MappedTailyStats mapped = new MappedTailyStats(dbPath);
+            return new TailyGeneration(dbPath,
+                    new ShardRanker(users, index, analyzer, nc, mapped, Taily.SOURCES_DBENV),
+                    new ShardRanker(topics.keySet(), index, analyzer, nc, mapped, Taily.TOPICS_DBENV),
+                    null, mapped);
+        } else if (RocksDbShardStores.exists(shardsDbPath)) {
+            if (mappedStats) {
+                logger.warn("{} not found in {}, ranking with {} until the next build", MappedTailyStats.STATS_FILE, dbPath, shardsDbPath);
+            }
+            RocksDbShardStores shardStores = new RocksDbShardStores(shardsDbPath, true);
+            return new TailyGeneration(dbPath,
+                    new ShardRanker(users, index, analyzer, nc, corpusDbPath, shardStores, Taily.SOURCES_DBENV),
+                    new ShardRanker(topics.keySet(), index, analyzer, nc, corpusDbPath, shardStores, Taily.TOPICS_DBENV),
+                    shardStores, null);
+        } else {
+            logger.warn("{} not found, opening a store per shard, migrate them with the taily-migrate-stores task", shardsDbPath);
+            return new TailyGeneration(dbPath,
+                    new ShardRanker(users, index, analyzer, nc, corpusDbPath, dbPath + "/" + Taily.SOURCES_DBENV),
+                    new ShardRanker(topics.keySet(), index, analyzer, nc, corpusDbPath, dbPath + "/" + Taily.TOPICS_DBENV),
+                    null, null);
+        }
+    }
+
+    /**
+     * Checks that the build has a corpus and, unless there are none to build, shards to rank.
+     */
+    void validate(List<String> users, Map<String, List<String>> topics) throws IOException {
+        FeatureStore corpus = ranker.getCollectionStore();
+        if (corpus == null || corpus.getFeature(FeatureStore.SIZE_FEAT_SUFFIX) <= 0) {
+            throw new IOException("Taily build in " + dbPath + " has an empty corpus");
+        }
+        if (!users.isEmpty() && ranker.getNumShardStores() == 0) {
+            throw new IOException("Taily build in " + dbPath + " has none of the sources");
+        }
+        if (topics != null && !topics.isEmpty() && topicsRanker.getNumShardStores() == 0) {
+            throw new IOException("Taily build in " + dbPath + " has none of the topics");
+        }
+    }
+
+    String getDbPath() {
+        return dbPath;
+    }
+
+    ShardRanker getRanker() {
+        return ranker;
+    }
+
+    ShardRanker getTopicsRanker() {
+        return topicsRanker;
+    }
+
+    boolean tryIncRef() {
+        int count;
+        while ((count = refCount.get()) > 0) {
+            if (refCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void decRef() {
+        if (refCount.decrementAndGet() == 0) {
+            close();
+        }
+    }
+
+    /**
+     * Releases the reference of the manager, closing this once the selections running on it are done.
+     *
+     * @param delete delete the directory of this generation once closed
+     */
+    void retire(boolean delete) {
+        deleteOnClose = delete;
+        decRef();
+    }
+
+    private void close() {
+        ranker.close();
+        topicsRanker.close();
+        if (shardStores != null) {
+            shardStores.close();
+        }
+        try {
+            if (mapped != null) {
+                mapped.close();
+            }
+            if (deleteOnClose) {
+                IOUtils.rm(Paths.get(dbPath));
+                logger.info("deleted Taily generation {}", dbPath);
+            }
+        } catch (IOException e) {
+            logger.error("closing Taily generation {}: {}", dbPath, e.getMessage());
+        }
+    }
+}
@@ -1,23 +1,40 @@
 package io.jitter.core.taily;
 
+import com.codahale.metrics.MetricRegistry;
 import io.dropwizard.lifecycle.Managed;
 import io.jitter.core.analysis.TweetAnalyzer;
 import io.jitter.core.selection.Selection;
 import io.jitter.core.selection.SelectionTopDocuments;
 import io.jitter.core.utils.Stopper;
+import io.jitter.core.utils.TopScores;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.util.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.LinkedHashMap;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class TailyManager implements Managed {
     private static final Logger logger = LoggerFactory.getLogger(TailyManager.class);
 
+    // each build is written to a directory of its own, the one in use is named in the generation file
+    static final String GENERATION_PREFIX = "gen-";
+    static final String GENERATION_FILE = "GENERATION";
+
     private final Analyzer analyzer;
 
     private final String dbPath;
@@ -26,10 +43,17 @@ public class TailyManager implements Managed {
     private final float nc;
     private final List<String> users;
     private Map<String, List<String>> topics;
+    private int buildThreads;
+    private boolean mappedStats;
+    private TailyUpdater updater;
+    private MetricRegistry metrics = new MetricRegistry();
 
-    private ShardRanker ranker;
-    private ShardRanker topicsRanker;
-    private boolean indexing;
+    // the stores of the selections, swapped for those of each new build
+    private volatile TailyGeneration generation;
+    private volatile Taily building;
+    private final AtomicBoolean indexing = new AtomicBoolean();
+    // incremented by each swap
+    private final AtomicLong swaps = new AtomicLong();
 
     public TailyManager(String dbPath, String index, String stopwords, float mu, float nc, List<String> users) {
         this.dbPath = dbPath;
@@ -63,65 +87,298 @@ public Map<String, List<String>> getTopics() {
         return topics;
     }
 
+    /**
+     * @param buildThreads number of threads building the shard statistics, or 0 for one per core
+     */
+    public void setBuildThreads(int buildThreads) {
+        this.buildThreads = buildThreads;
+    }
+
+    /**
+     * @param mappedStats build a {@link MappedTailyStats} file too and rank shards with it instead of RocksDB
+     */
+    public void setMappedStats(boolean mappedStats) {
+        this.mappedStats = mappedStats;
+    }
+
+    /**
+     * @param liveUpdates keep the statistics up to date with the statuses indexed live between builds, fed to
+     *                    {@link #getUpdater()}
+     */
+    public void setLiveUpdates(boolean liveUpdates) {
+        updater = liveUpdates ? new TailyUpdater(new TweetAnalyzer(), mu, users, topics) : null;
+    }
+
+    /**
+     * @return the updater of the statistics with the statuses indexed live, or null if not enabled
+     */
+    public TailyUpdater getUpdater() {
+        return updater;
+    }
+
+    public void setMetrics(MetricRegistry metrics) {
+        this.metrics = metrics;
+    }
+
     private Map<String,Double> limit(Map<String, Double> ranking, int v) {
-        Map<String, Double> map = new LinkedHashMap<>();
-        ranking.entrySet().stream().filter(entry -> entry.getValue() >= v).forEachOrdered(entry -> map.put(entry.getKey(), entry.getValue()));
-        return map;
+        return TopScores.atLeast(ranking, v);
+    }
+
+    // acquires the current generation, to release with decRef
+    private TailyGeneration acquire() {
+        while (true) {
+            TailyGeneration current = generation;
+            if (current == null) {
+                throw new TailyUnavailableException();
+            }
+            if (current.tryIncRef()) {
+                return current;
+            }
+        }
     }
 
     public Map<String, Double> select(String query, int v) {
-        return limit(ranker.rank(query), v);
+        TailyGeneration current = acquire();
+        try {
+            return limit(current.getRanker().rank(query), v);
+        } finally {
+            current.decRef();
+        }
     }
 
     public Map<String,Double> selectTopics(String query, int v) {
-        return limit(topicsRanker.rank(query), v);
+        TailyGeneration current = acquire();
+        try {
+            return limit(current.getTopicsRanker().rank(query), v);
+        } finally {
+            current.decRef();
+        }
     }
     
     public int getDF(String source, String stem) {
-        return ranker.getDF(source, stem);
+        TailyGeneration current = acquire();
+        try {
+            return current.getRanker().getDF(source, stem);
+        } finally {
+            current.decRef();
+        }
     }
 
     public int getTopicsDF(String topic, String stem) {
-        return topicsRanker.getDF(topic, stem);
+        TailyGeneration current = acquire();
+        try {
+            return current.getTopicsRanker().getDF(topic, stem);
+        } finally {
+            current.decRef();
+        }
+    }
+
+    /**
+     * @return the sum of the df of each term in each of the sources, looked up in one batch
+     */
+    public int getDF(Collection<String> sources, Collection<String> stems) {
+        TailyGeneration current = acquire();
+        try {
+            return current.getRanker().getDF(sources, stems);
+        } finally {
+            current.decRef();
+        }
+    }
+
+    /**
+     * @return the sum of the df of each term in each of the topics, looked up in one batch
+     */
+    public int getTopicsDF(Collection<String> topics, Collection<String> stems) {
+        TailyGeneration current = acquire();
+        try {
+            return current.getTopicsRanker().getDF(topics, stems);
+        } finally {
+            current.decRef();
+        }
     }
 
+    /**
+     * Opens the stores of the current generation. Selections are unavailable until the first build if there are
+     * none, stores that fail to open fail the start.
+     */
     @Override
     public void start() throws Exception {
-        try {
-            ranker = new ShardRanker(users, index, analyzer, nc, dbPath + "/" + Taily.CORPUS_DBENV, dbPath + "/" + Taily.SOURCES_DBENV);
-            topicsRanker = new ShardRanker(topics.keySet(), index, analyzer, nc, dbPath + "/" + Taily.CORPUS_DBENV, dbPath + "/" + Taily.TOPICS_DBENV);
-        } catch (Exception e) {
-            logger.error(e.getMessage());
+        deleteOldGenerations();
+        String currentDbPath = currentDbPath();
+        if (!Files.exists(Paths.get(currentDbPath, Taily.CORPUS_DBENV))) {
+            logger.warn("No Taily stores in {}, selections are unavailable until the taily-index task builds them", currentDbPath);
+            return;
         }
+        swap(TailyGeneration.open(currentDbPath, index, analyzer, nc, users, topics, mappedStats), false);
     }
 
     @Override
     public void stop() throws Exception {
-        if (ranker != null) {
-            ranker.close();
-            topicsRanker.close();
+        swap(null, false);
+    }
+
+    /**
+     * Makes next the generation of the selections and retires the current one.
+     *
+     * @param built the statuses added to the updater since its mark are all that next does not have
+     */
+    private synchronized void swap(TailyGeneration next, boolean built) {
+        if (updater != null) {
+            if (next != null) {
+                next.getRanker().setUpdater(updater, Taily.SOURCES_DBENV);
+                next.getTopicsRanker().setUpdater(updater, Taily.TOPICS_DBENV);
+            }
+            updater.reset(next != null ? next.getRanker().getCollectionStore() : null, built);
+        }
+        TailyGeneration previous = generation;
+        generation = next;
+        swaps.incrementAndGet();
+        if (previous != null) {
+            // a replaced build is deleted, the stores of builds before generations are left alone
+            boolean replaced = next != null && !next.getDbPath().equals(previous.getDbPath());
+            previous.retire(replaced && isGeneration(previous.getDbPath()));
+        }
+    }
+
+    /**
+     * @return a number that grows whenever the selections may change, as a build is swapped in or live statuses
+     * are added
+     */
+    public long getVersion() {
+        TailyUpdater updater = this.updater;
+        return swaps.get() + (updater != null ? updater.getVersion() : 0);
+    }
+
+    /**
+     * @return the directory of the stores of the current generation, or {@code dbPath} if built before generations
+     */
+    private String currentDbPath() throws IOException {
+        Path generationFile = Paths.get(dbPath, GENERATION_FILE);
+        if (Files.isRegularFile(generationFile)) {
+            return dbPath + "/" + new String(Files.readAllBytes(generationFile), StandardCharsets.UTF_8).trim();
+        }
+        return dbPath;
+    }
+
+    private static boolean isGeneration(String path) {
+        return Paths.get(path).getFileName().toString().matches(GENERATION_PREFIX + "\\d+");
+    }
+
+    private List<Path> generations() throws IOException {
+        Path root = Paths.get(dbPath);
+        if (!Files.isDirectory(root)) {
+            return Collections.emptyList();
+        }
+        try (Stream<Path> paths = Files.list(root)) {
+            return paths.filter(path -> Files.isDirectory(path) && isGeneration(path.toString()))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private long nextGeneration() throws IOException {
+        long last = 0;
+        for (Path path : generations()) {
+            last = Math.max(last, Long.parseLong(path.getFileName().toString().substring(GENERATION_PREFIX.length())));
+        }
+        return last + 1;
+    }
+
+    // deletes the generations left by builds that failed or were replaced before a restart
+    private void deleteOldGenerations() throws IOException {
+        Path current = Paths.get(currentDbPath());
+        for (Path path : generations()) {
+            if (!path.equals(current)) {
+                IOUtils.rm(path);
+                logger.info("deleted Taily generation {}", path);
+            }
         }
     }
 
+    /**
+     * Builds a new generation of the stores while the current one keeps serving the selections, then validates it
+     * and swaps it in. The previous generation is deleted once the selections running on it are done.
+     */
     public void index() throws Exception {
-        if (indexing)
+        if (!indexing.compareAndSet(false, true))
+            return;
+
+        TailyGeneration next = null;
+        boolean swapped = false;
+        String name = null;
+        try {
+            name = GENERATION_PREFIX + nextGeneration();
+            String genPath = dbPath + "/" + name;
+
+            Taily taily = new Taily(genPath, index, mu, buildThreads, mappedStats, metrics);
+            building = taily;
+            TailyUpdater updater = this.updater;
+            taily.build(users, topics, updater != null ? updater::mark : () -> {});
+
+            next = TailyGeneration.open(genPath, index, analyzer, nc, users, topics, mappedStats);
+            next.validate(users, topics);
+
+            // the generation to open on start, replaced at once
+            Path tmp = Paths.get(dbPath, GENERATION_FILE + ".tmp");
+            Files.write(tmp, name.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, Paths.get(dbPath, GENERATION_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+            swap(next, true);
+            swapped = true;
+            logger.info("Taily generation {} swapped in", name);
+        } finally {
+            if (!swapped && name != null) {
+                logger.error("Taily generation {} failed, keeping {}", name, generation != null ? generation.getDbPath() : null);
+                if (updater != null) {
+                    updater.unmark();
+                }
+                if (next != null) {
+                    next.retire(true);
+                } else {
+                    IOUtils.rm(Paths.get(dbPath, name));
+                }
+            }
+            building = null;
+            indexing.set(false);
+        }
+    }
+
+    /**
+     * @return what the running build is doing, or null if none is running
+     */
+    public String getBuildProgress() {
+        Taily taily = building;
+        return taily != null ? taily.getProgress() : null;
+    }
+
+    /**
+     * @return the directory of the stores the selections run on, or null if they are not open
+     */
+    public String getGeneration() {
+        TailyGeneration current = generation;
+        return current != null ? current.getDbPath() : null;
+    }
+
+    /**
+     * Copies the stores of the sources and topics, one RocksDB per shard, into a single store.
+     */
+    public void migrateStores() throws Exception {
+        if (!indexing.compareAndSet(false, true))
             return;
 
         try {
-            indexing = true;
-            if (ranker != null)
-                ranker.close();
-            if (topicsRanker != null)
-                topicsRanker.close();
-
-            Taily taily = new Taily(dbPath, index, mu);
-            taily.build(users, topics);
-        } catch (IOException e) {
-            throw e;
+            if (isGeneration(currentDbPath())) {
+                logger.info("{} is a generation of shards stores, nothing to migrate", currentDbPath());
+                return;
+            }
+
+            swap(null, false);
+            try {
+                RocksDbShardStores.migrate(dbPath);
+            } finally {
+                swap(TailyGeneration.open(dbPath, index, analyzer, nc, users, topics, mappedStats), false);
+            }
         } finally {
-            ranker = new ShardRanker(users, index, analyzer, nc, dbPath + "/" + Taily.CORPUS_DBENV, dbPath + "/" + Taily.SOURCES_DBENV);
-            topicsRanker = new ShardRanker(topics.keySet(), index, analyzer, nc, dbPath + "/" + Taily.CORPUS_DBENV, dbPath + "/" + Taily.TOPICS_DBENV);
-            indexing = false;
+            indexing.set(false);
         }
     }
 
@@ -140,7 +397,7 @@ public TailySelection selection(String query, int v, boolean topics) {
     }
 
     public boolean isIndexing() {
-        return indexing;
+        return indexing.get();
     }
 
     public class TailySelection implements Selection {
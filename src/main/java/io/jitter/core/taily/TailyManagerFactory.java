@@ -33,6 +33,13 @@ public class TailyManagerFactory {
 
     private Map<String, List<String>> topics;
 
+    @Min(0)
+    private int buildThreads = 0;
+
+    private boolean mappedStats = false;
+
+    private boolean liveUpdates = false;
+
     @JsonProperty("index")
     public String getIndex() {
         return index;
@@ -103,8 +110,42 @@ public void setTopics(Map<String, List<String>> topics) {
         this.topics = topics;
     }
 
+    @JsonProperty
+    public int getBuildThreads() {
+        return buildThreads;
+    }
+
+    @JsonProperty
+    public void setBuildThreads(int buildThreads) {
+        this.buildThreads = buildThreads;
+    }
+
+    @JsonProperty
+    public boolean isMappedStats() {
+        return mappedStats;
+    }
+
+    @JsonProperty
+    public void setMappedStats(boolean mappedStats) {
+        this.mappedStats = mappedStats;
+    }
+
+    @JsonProperty
+    public boolean isLiveUpdates() {
+        return liveUpdates;
+    }
+
+    @JsonProperty
+    public void setLiveUpdates(boolean liveUpdates) {
+        this.liveUpdates = liveUpdates;
+    }
+
     public TailyManager build(Environment environment) {
         final TailyManager tailyManager = new TailyManager(dbPath, index, stopwords, mu, nc, users, topics);
+        tailyManager.setBuildThreads(buildThreads);
+        tailyManager.setMappedStats(mappedStats);
+        tailyManager.setLiveUpdates(liveUpdates);
+        tailyManager.setMetrics(environment.metrics());
         environment.lifecycle().manage(tailyManager);
         return tailyManager;
     }
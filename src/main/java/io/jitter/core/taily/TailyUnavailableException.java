@@ -0,0 +1,13 @@
+package io.jitter.core.taily;
+
+/**
+ * Thrown by the selections of {@link TailyManager} while its stores are not open: before a first build, after a
+ * failed start or while they are migrated.
+ */
+public class TailyUnavailableException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public TailyUnavailableException() {
+        super("Taily stores are not open");
+    }
+}
@@ -0,0 +1,358 @@
+package io.jitter.core.taily;
+
+import io.jitter.core.features.IndriFeature;
+import io.jitter.core.utils.AnalyzerUtils;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import org.apache.lucene.analysis.Analyzer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Keeps the Taily statistics up to date with the statuses indexed live since the stores were opened, so shards are
+ * not ranked on the statistics of the last build until the next one.
+ * <p>
+ * Statuses are analyzed as they are added and applied in batches: the corpus df and ctf of their terms and, for
+ * statuses of the sources, the df, sum f, sum f^2 and min of their terms in their source and topic. As in a build, a
+ * source of several topics counts in the size of each but its terms in the one of {@link Taily#sourceTopicMap}.
+ * A feature is scored with the corpus statistics of when its batch is applied, the ones of older statuses are not
+ * rescored as the corpus grows, so the statistics drift from those of a build until the next one.
+ * <p>
+ * {@link ShardRanker} adds these to the statistics of its stores while holding the {@link #readLock() read lock},
+ * and batches are applied holding the write lock, so a ranking sees whole batches only.
+ */
+public class TailyUpdater {
+    private static final Logger logger = LoggerFactory.getLogger(TailyUpdater.class);
+
+    static final int BATCH_SIZE = 100;
+    // statuses kept for the next build while it runs
+    static final int MAX_SINCE_MARK = 200_000;
+
+    private final Analyzer analyzer;
+    private final IndriFeature indriFeature;
+    private final Set<String> sources = new HashSet<>();
+    // topics of each lowercased source, in the sizes of which it counts
+    private final Map<String, List<String>> sourceTopics = new HashMap<>();
+    // topic of the term statistics of each lowercased source
+    private final Map<String, String> sourceTopic;
+
+    // guarded by pending
+    private final List<Status> pending = new ArrayList<>();
+    // the statuses added since mark, or null if not marked
+    private List<Status> sinceMark;
+    // incremented by each reset, so that batches taken before it are dropped
+    private long epoch;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // guarded by lock
+    private FeatureStore corpus;
+    private final Deltas sourceDeltas = new Deltas();
+    private final Deltas topicDeltas = new Deltas();
+    private final Object2LongOpenHashMap<String> corpusDfs = new Object2LongOpenHashMap<>();
+    private final Object2LongOpenHashMap<String> corpusCtfs = new Object2LongOpenHashMap<>();
+    private long totalDocs;
+    private long totalTerms;
+    // incremented by each batch applied and each reset, read without the lock
+    private volatile long version;
+
+    /**
+     * @param analyzer analyzer of the text of the statuses in the index the statistics are built from
+     */
+    public TailyUpdater(Analyzer analyzer, float mu, Collection<String> users, Map<String, List<String>> topics) {
+        this.analyzer = analyzer;
+        this.indriFeature = new IndriFeature(mu);
+        for (String user : users) {
+            sources.add(user.toLowerCase(Locale.ROOT));
+        }
+        if (topics != null) {
+            for (Map.Entry<String, List<String>> entry : topics.entrySet()) {
+                for (String collection : entry.getValue()) {
+                    sourceTopics.computeIfAbsent(collection.toLowerCase(Locale.ROOT), k -> new ArrayList<>())
+                            .add(entry.getKey().toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+        sourceTopic = topics != null ? Taily.sourceTopicMap(topics) : Map.of();
+    }
+
+    /**
+     * Adds a status indexed by {@code screenName}, applied with its batch.
+     */
+    public void add(String screenName, String text) {
+        Status status = new Status(screenName.toLowerCase(Locale.ROOT), AnalyzerUtils.analyze(analyzer, text));
+        List<Status> batch = null;
+        long batchEpoch;
+        synchronized (pending) {
+            pending.add(status);
+            if (sinceMark != null && sinceMark.size() < MAX_SINCE_MARK) {
+                sinceMark.add(status);
+                if (sinceMark.size() == MAX_SINCE_MARK) {
+                    logger.warn("{} statuses since the build opened its index, the next ones are not kept for it",
+                            MAX_SINCE_MARK);
+                }
+            }
+            if (pending.size() >= BATCH_SIZE) {
+                batch = new ArrayList<>(pending);
+                pending.clear();
+            }
+            batchEpoch = epoch;
+        }
+        if (batch != null) {
+            apply(batch, batchEpoch);
+        }
+    }
+
+    /**
+     * Applies the statuses added since the last batch.
+     */
+    public void flush() {
+        List<Status> batch;
+        long batchEpoch;
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = new ArrayList<>(pending);
+            pending.clear();
+            batchEpoch = epoch;
+        }
+        apply(batch, batchEpoch);
+    }
+
+    /**
+     * Keeps the statuses added from now on, those a build opening its index reader now does not have, until the next
+     * {@link #reset(FeatureStore, boolean) reset} or {@link #unmark()}. At most {@link #MAX_SINCE_MARK} are kept.
+     */
+    void mark() {
+        synchronized (pending) {
+            sinceMark = new ArrayList<>();
+        }
+    }
+
+    /**
+     * Stops keeping the statuses added since {@link #mark()}, as after a failed build.
+     */
+    void unmark() {
+        synchronized (pending) {
+            sinceMark = null;
+        }
+    }
+
+    /**
+     * Drops the statuses added so far and adds the next ones to the statistics of {@code corpus}, or drops them too
+     * if null while the stores are closed.
+     */
+    void reset(FeatureStore corpus) {
+        reset(corpus, false);
+    }
+
+    /**
+     * Replaces the statistics with those of the statuses added since {@link #mark()}, if {@code sinceMark}, as the
+     * others are in the stores of {@code corpus}, then adds the next ones to them. Batches taken before are dropped
+     * when they get to be applied, those of the kept statuses are applied again here.
+     */
+    void reset(FeatureStore corpus, boolean sinceMark) {
+        synchronized (pending) {
+            List<Status> kept = sinceMark && this.sinceMark != null ? this.sinceMark : List.of();
+            this.sinceMark = null;
+            pending.clear();
+            lock.writeLock().lock();
+            try {
+                epoch++;
+                version++;
+                this.corpus = corpus;
+                sourceDeltas.clear();
+                topicDeltas.clear();
+                corpusDfs.clear();
+                corpusCtfs.clear();
+                totalDocs = 0;
+                totalTerms = 0;
+                // rescored with the statistics of the new build
+                for (int i = 0; i < kept.size(); i += BATCH_SIZE) {
+                    apply(kept.subList(i, Math.min(kept.size(), i + BATCH_SIZE)), epoch);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private void apply(List<Status> batch, long batchEpoch) {
+        Set<String> terms = new HashSet<>();
+        for (Status status : batch) {
+            terms.addAll(status.tfs.keySet());
+        }
+        List<String> keys = new ArrayList<>(terms.size() + 1);
+        for (String term : terms) {
+            keys.add(term + FeatureStore.TERM_SIZE_FEAT_SUFFIX);
+        }
+        keys.add(FeatureStore.TERM_SIZE_FEAT_SUFFIX);
+
+        // the corpus statistics of the build, read along with the rankings; the stores stay open until a reset,
+        // which takes the write lock
+        double[] baseCtfs;
+        lock.readLock().lock();
+        try {
+            if (corpus == null || batchEpoch != epoch) {
+                logger.debug("{} statuses dropped, the stores are closed or replaced", batch.size());
+                return;
+            }
+            baseCtfs = corpus.getFeatures(keys);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (batchEpoch != epoch) {
+                logger.debug("{} statuses dropped, the stores were replaced", batch.size());
+                return;
+            }
+
+            for (Status status : batch) {
+                totalDocs++;
+                totalTerms += status.length;
+                for (Object2IntMap.Entry<String> entry : status.tfs.object2IntEntrySet()) {
+                    corpusDfs.addTo(entry.getKey(), 1);
+                    corpusCtfs.addTo(entry.getKey(), entry.getIntValue());
+                }
+            }
+
+            // the corpus statistics of the terms, as of this batch
+            Object2LongOpenHashMap<String> ctfs = new Object2LongOpenHashMap<>(terms.size());
+            int i = 0;
+            for (String term : terms) {
+                ctfs.put(term, Math.max(0, (long) baseCtfs[i++]) + corpusCtfs.getLong(term));
+            }
+            double totalTermCount = Math.max(0, baseCtfs[i]) + totalTerms;
+
+            for (Status status : batch) {
+                boolean isSource = sources.contains(status.source);
+                List<String> topics = sourceTopics.get(status.source);
+                if (!isSource && topics == null)
+                    continue;
+
+                // a build has the sizes of the sources of the topics too
+                sourceDeltas.sizes.addTo(status.source, 1);
+                if (topics != null) {
+                    for (String topic : topics) {
+                        topicDeltas.sizes.addTo(topic, 1);
+                    }
+                }
+                String topic = sourceTopic.get(status.source);
+                for (Object2IntMap.Entry<String> entry : status.tfs.object2IntEntrySet()) {
+                    String term = entry.getKey();
+                    double feat = indriFeature.value(entry.getIntValue(), ctfs.getLong(term), totalTermCount, status.tfs.size());
+                    if (isSource) {
+                        sourceDeltas.add(term, status.source, feat);
+                    }
+                    if (topic != null) {
+                        topicDeltas.add(term, topic, feat);
+                    }
+                }
+            }
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return a number that grows whenever the statistics change
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the lock to hold while reading the statistics, so they are those of whole batches
+     */
+    public Lock readLock() {
+        return lock.readLock();
+    }
+
+    /**
+     * @param family {@link Taily#SOURCES_DBENV} or {@link Taily#TOPICS_DBENV}
+     * @return the statistics of a term in each shard with statuses added, by lowercased shard id, or null if none
+     */
+    Map<String, ShardData> getTermStats(String family, String term) {
+        return deltas(family).terms.get(term);
+    }
+
+    /**
+     * @return the number of statuses added to a shard
+     */
+    long getShardSize(String family, String shardId) {
+        return deltas(family).sizes.getLong(shardId);
+    }
+
+    /**
+     * @return the number of statuses added with a term
+     */
+    long getCorpusDF(String term) {
+        return corpusDfs.getLong(term);
+    }
+
+    /**
+     * @return the number of statuses added
+     */
+    long getTotalDocs() {
+        return totalDocs;
+    }
+
+    private Deltas deltas(String family) {
+        return Taily.TOPICS_DBENV.equals(family) ? topicDeltas : sourceDeltas;
+    }
+
+    private static class Deltas {
+        final Map<String, Map<String, ShardData>> terms = new HashMap<>();
+        final Object2LongOpenHashMap<String> sizes = new Object2LongOpenHashMap<>();
+
+        void add(String term, String shardId, double feat) {
+            ShardData shardData = terms.computeIfAbsent(term, k -> new HashMap<>())
+                    .computeIfAbsent(shardId, k -> new ShardData());
+            shardData.f += feat;
+            shardData.f2 += Math.pow(feat, 2);
+            shardData.df += 1;
+            if (feat < shardData.min) {
+                shardData.min = feat;
+            }
+        }
+
+        void clear() {
+            terms.clear();
+            sizes.clear();
+        }
+    }
+
+    private static class Status {
+        final String source;
+        final Object2IntOpenHashMap<String> tfs = new Object2IntOpenHashMap<>();
+        final int length;
+
+        Status(String source, List<String> terms) {
+            this.source = source;
+            for (String term : terms) {
+                // empty terms are skipped by the build
+                if (!term.isEmpty()) {
+                    tfs.addTo(term, 1);
+                }
+            }
+            this.length = terms.size();
+        }
+    }
+}
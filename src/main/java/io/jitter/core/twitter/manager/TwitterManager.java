@@ -4,6 +4,7 @@
 import cc.twittertools.corpus.data.StatusStream;
 import io.dropwizard.lifecycle.Managed;
 import io.jitter.core.analysis.LowercaseKeywordAnalyzer;
+import io.jitter.core.search.StatusColumns;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
 import org.apache.lucene.document.*;
@@ -20,10 +21,15 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static cc.twittertools.index.IndexStatuses.StatusField;
@@ -33,6 +39,11 @@ public class TwitterManager implements Managed {
 
     private final static Logger logger = LoggerFactory.getLogger(TwitterManager.class);
 
+    // source indexes open at once while indexing, each with its own buffer, the least recently written one is closed
+    // past these and reopened to append to
+    private static final int MAX_OPEN_SOURCES = 64;
+    private static final double SOURCE_RAM_BUFFER_MB = 4;
+
     // The factory instance is re-usable and thread safe.
     private final Twitter twitter = TwitterFactory.getSingleton();
 
@@ -49,8 +60,22 @@ public void stop() throws Exception {
 
     }
 
-    @SuppressWarnings("UnusedParameters")
     public void index(String collection, String indexPath, Analyzer analyzer) throws IOException {
+        index(collection, indexPath, analyzer, false);
+    }
+
+    /**
+     * @param timeSorted sort the index by {@link StatusColumns#TIME_SORT}
+     */
+    public void index(String collection, String indexPath, Analyzer analyzer, boolean timeSorted) throws IOException {
+        index(collection, indexPath, analyzer, timeSorted, false);
+    }
+
+    /**
+     * @param bySource write the statuses of each source to their own index, in a subdirectory of
+     *                 {@code indexPath} named by the lowercased screen name of the source
+     */
+    public void index(String collection, String indexPath, Analyzer analyzer, boolean timeSorted, boolean bySource) throws IOException {
         long startTime = System.currentTimeMillis();
         File file = new File(collection);
         if (!file.isDirectory()) {
@@ -60,15 +85,10 @@ public void index(String collection, String indexPath, Analyzer analyzer) throws
 
         StatusStream stream = new JsonStatusCorpusReader(file);
 
-        Directory dir = FSDirectory.open(Paths.get(indexPath));
-        
         Map<String, Analyzer> fieldAnalyzers = new HashMap<>();
         fieldAnalyzers.put(StatusField.SCREEN_NAME.name, new LowercaseKeywordAnalyzer());
         PerFieldAnalyzerWrapper perFieldAnalyzerWrapper = new PerFieldAnalyzerWrapper(analyzer, fieldAnalyzers);
 
-        IndexWriterConfig config = new IndexWriterConfig(perFieldAnalyzerWrapper);
-        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
-
         final FieldType textOptions = new FieldType();
         textOptions.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
         textOptions.setStored(true);
@@ -83,8 +103,32 @@ public void index(String collection, String indexPath, Analyzer analyzer) throws
         AtomicLong counter = new AtomicLong();
         Status status;
         int commitEvery = 1000;
-        try (IndexWriter writer = new IndexWriter(dir, config)) {
+        // in access order, the least recently written first
+        LinkedHashMap<String, IndexWriter> writers = new LinkedHashMap<>(16, 0.75f, true);
+        // sources whose index was created by this run, appended to when reopened
+        Set<String> created = new HashSet<>();
+        try {
+            if (!bySource) {
+                writers.put("", writer(Paths.get(indexPath), perFieldAnalyzerWrapper, timeSorted,
+                        IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB, IndexWriterConfig.OpenMode.CREATE));
+            }
             while ((status = stream.next()) != null) {
+                String source = bySource ? status.getUser().getScreenName().toLowerCase(Locale.ROOT) : "";
+                IndexWriter writer = writers.get(source);
+                if (writer == null) {
+                    IndexWriterConfig.OpenMode openMode = created.add(source) ? IndexWriterConfig.OpenMode.CREATE
+                            : IndexWriterConfig.OpenMode.APPEND;
+                    writer = writer(Paths.get(indexPath, source), perFieldAnalyzerWrapper, timeSorted, SOURCE_RAM_BUFFER_MB, openMode);
+                    writers.put(source, writer);
+
+                    Iterator<Map.Entry<String, IndexWriter>> it = writers.entrySet().iterator();
+                    while (writers.size() > MAX_OPEN_SOURCES) {
+                        IndexWriter leastRecent = it.next().getValue();
+                        it.remove();
+                        close(leastRecent);
+                    }
+                }
+
                 Document doc = new Document();
                 long id = status.getId();
                 doc.add(new LongPoint(StatusField.ID.name, id));
@@ -135,10 +179,15 @@ public void index(String collection, String indexPath, Analyzer analyzer) throws
                 doc.add(new IntPoint(StatusField.RETWEET_COUNT.name, Math.max(retweetCount, retweetedStatusRetweetCount)));
                 doc.add(new StoredField(StatusField.RETWEET_COUNT.name, Math.max(retweetCount, retweetedStatusRetweetCount)));
 
+                StatusColumns.addColumns(doc);
+
                 writer.addDocument(doc);
                 if (counter.incrementAndGet() % commitEvery == 0) {
                     logger.debug("{} {} statuses indexed", indexPath, counter.get());
-                    writer.commit();
+                    // each source index flushes on its own, committing them all this often would only add segments
+                    if (!bySource) {
+                        writer.commit();
+                    }
                 }
             }
 
@@ -147,9 +196,43 @@ public void index(String collection, String indexPath, Analyzer analyzer) throws
         } catch (Exception e) {
             logger.error("{}", e.getMessage());
         } finally {
-            dir.close();
+            for (IndexWriter writer : writers.values()) {
+                close(writer);
+            }
             stream.close();
         }
     }
 
+    private static IndexWriter writer(Path indexPath, Analyzer analyzer, boolean timeSorted, double ramBufferSizeMB,
+                                      IndexWriterConfig.OpenMode openMode) throws IOException {
+        IndexWriterConfig config = new IndexWriterConfig(analyzer);
+        config.setRAMBufferSizeMB(ramBufferSizeMB);
+        config.setOpenMode(openMode);
+        if (timeSorted) {
+            config.setIndexSort(StatusColumns.TIME_SORT);
+        }
+        Directory dir = FSDirectory.open(indexPath);
+        try {
+            return new IndexWriter(dir, config);
+        } catch (IOException e) {
+            dir.close();
+            throw e;
+        }
+    }
+
+    private static void close(IndexWriter writer) {
+        Directory dir = writer.getDirectory();
+        try {
+            writer.close();
+        } catch (IOException e) {
+            logger.error("{}", e.getMessage());
+        } finally {
+            try {
+                dir.close();
+            } catch (IOException e) {
+                logger.error("{}", e.getMessage());
+            }
+        }
+    }
+
 }
@@ -46,6 +46,33 @@ public static long[] parseEpochRange(String epochRange) {
         return epochs;
     }
 
+    /**
+     * Parses {@code epochRange} as {@link #parseEpochRange(String)} does, without falling back to all epochs.
+     *
+     * @return the range of {@code epochRange}, {@code last}, {@code first:} or {@code first:last}
+     * @throws IllegalArgumentException if it is none of these
+     */
+    public static long[] checkEpochRange(String epochRange) {
+        long[] epochs = new long[]{0L, Long.MAX_VALUE};
+        String[] split = RANGE_PATTERN.split(epochRange);
+        if (split.length == 1) {
+            if (epochRange.endsWith(":")) {
+                epochs[0] = Long.parseLong(split[0]);
+            } else {
+                epochs[1] = Long.parseLong(split[0]);
+            }
+        } else if (split.length == 2) {
+            epochs[0] = Long.parseLong(split[0]);
+            epochs[1] = Long.parseLong(split[1]);
+        } else {
+            throw new IllegalArgumentException("Invalid epoch range " + epochRange);
+        }
+        if (epochs[0] > epochs[1]) {
+            throw new IllegalArgumentException("Empty epoch range " + epochRange);
+        }
+        return epochs;
+    }
+
     public static long[] parseDay(LocalDateTime dateTime) {
         long[] epochs = new long[]{0L, Long.MAX_VALUE};
         LocalDateTime startDateTime = dateTime.withHour(0).withMinute(0).withSecond(0).withNano(0);
@@ -8,11 +8,15 @@
 import io.jitter.api.search.StatusDocument;
 import io.jitter.core.document.DocVector;
 import io.jitter.core.rerank.DocumentComparator;
+import io.jitter.core.search.QueryLikelihoodRescorer;
+import io.jitter.core.search.StatusColumns;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.MultiTerms;
+import org.apache.lucene.index.StoredFields;
 import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.search.IndexSearcher;
@@ -25,29 +29,60 @@
 
 public class SearchUtils {
 
-    public static List<StatusDocument> getDocs(IndexSearcher indexSearcher, Analyzer analyzer, CollectionStats collectionStats, QueryLikelihoodModel qlModel, TopDocs topDocs, String query, int limit, boolean filterRT, boolean computeQLScores) throws IOException {
+    /**
+     * Loads the top hits, rescores them with query likelihood and returns at most {@code limit} of them.
+     *
+     * @param buildDocVectors attach a {@link DocVector} to each returned document for rerankers that need one
+     * @param sortByRsv       sort the documents by their rescored rsv, otherwise keep the order of {@code topDocs}
+     */
+    public static List<StatusDocument> getDocs(IndexSearcher indexSearcher, Analyzer analyzer, CollectionStats collectionStats, QueryLikelihoodRescorer qlRescorer, TopDocs topDocs, String query, int limit, boolean filterRT, boolean buildDocVectors, boolean sortByRsv) throws IOException {
         IndexReader indexReader = indexSearcher.getIndexReader();
 
+        ScoreDoc[] scoreDocs = topDocs.scoreDocs;
+        int[] hitIds = new int[scoreDocs.length];
+        for (int i = 0; i < scoreDocs.length; i++) {
+            hitIds[i] = scoreDocs[i].doc;
+        }
+        // filter and dedup from the doc values columns, stored fields are only loaded for kept hits
+        StatusColumns columns = StatusColumns.read(indexReader, hitIds);
+        StoredFields storedFields = indexSearcher.storedFields();
+
         int count = 0;
         LongOpenHashSet seenSet = new LongOpenHashSet();
         List<StatusDocument> topDocuments = Lists.newArrayList();
-        for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+        IntArrayList docIds = new IntArrayList();
+        for (int i = 0; i < scoreDocs.length; i++) {
             if (count >= limit)
                 break;
 
-            org.apache.lucene.document.Document hit = indexSearcher.doc(scoreDoc.doc);
+            ScoreDoc scoreDoc = scoreDocs[i];
+            StatusDocument doc;
+            if (columns.has(i)) {
+                // Throw away retweets.
+                if (filterRT && columns.get(IndexStatuses.StatusField.RETWEETED_STATUS_ID, i) != 0) {
+                    continue;
+                }
 
-            long retweeted_status_id = 0;
-            if (hit.get(IndexStatuses.StatusField.RETWEETED_STATUS_ID.name) != null) {
-                retweeted_status_id = (Long) hit.getField(IndexStatuses.StatusField.RETWEETED_STATUS_ID.name).numericValue();
-            }
+                if (seenSet.contains(columns.get(IndexStatuses.StatusField.ID, i)))
+                    continue;
 
-            // Throw away retweets.
-            if (filterRT && retweeted_status_id != 0) {
-                continue;
-            }
+                doc = new StatusDocument(storedFields.document(scoreDoc.doc, StatusColumns.STORED_FIELDS));
+                columns.copyTo(i, doc);
+            } else {
+                org.apache.lucene.document.Document hit = storedFields.document(scoreDoc.doc);
 
-            StatusDocument doc = new StatusDocument(hit);
+                long retweeted_status_id = 0;
+                if (hit.get(IndexStatuses.StatusField.RETWEETED_STATUS_ID.name) != null) {
+                    retweeted_status_id = (Long) hit.getField(IndexStatuses.StatusField.RETWEETED_STATUS_ID.name).numericValue();
+                }
+
+                // Throw away retweets.
+                if (filterRT && retweeted_status_id != 0) {
+                    continue;
+                }
+
+                doc = new StatusDocument(hit);
+            }
             doc.setRsv(scoreDoc.score);
 
             // Throw away retweets.
@@ -55,35 +90,56 @@ public static List<StatusDocument> getDocs(IndexSearcher indexSearcher, Analyzer
                 continue;
             }
 
-            DocVector docVector = doc.getDocVector();
-            if (computeQLScores && docVector == null) {
-                DocVector newDocVector;
-                try {
-                    newDocVector = buildDocVector(indexReader, scoreDoc.doc);
-                } catch (IOException e) {
-                    newDocVector = buildDocVector(analyzer, doc.getText());
-                }
-                doc.setDocVector(newDocVector);
-            }
-
-            if (seenSet.contains(Long.parseLong(doc.getId())))
+            if (seenSet.contains(doc.id))
                 continue;
 
-            seenSet.add(Long.parseLong(doc.getId()));
+            seenSet.add(doc.id);
 
             topDocuments.add(doc);
+            docIds.add(scoreDoc.doc);
             count += 1;
         }
 
-        if (computeQLScores) {
-            return computeQLScores(analyzer, collectionStats, qlModel, topDocuments, query, limit);
-        } else {
-            return topDocuments;
+        if (qlRescorer != null) {
+            String[] texts = new String[topDocuments.size()];
+            for (int i = 0; i < texts.length; i++) {
+                texts[i] = topDocuments.get(i).getText();
+            }
+            double[] scores = qlRescorer.rescore(indexReader, analyzer, collectionStats, query, docIds.toIntArray(), texts);
+            for (int i = 0; i < scores.length; i++) {
+                if (!Double.isNaN(scores[i])) {
+                    topDocuments.get(i).setRsv(scores[i]);
+                }
+            }
         }
+
+        if (buildDocVectors) {
+            for (int i = 0; i < topDocuments.size(); i++) {
+                StatusDocument doc = topDocuments.get(i);
+                if (doc.getDocVector() == null) {
+                    DocVector docVector = buildDocVector(indexReader, docIds.getInt(i));
+                    if (docVector == null && doc.getText() != null) {
+                        docVector = buildDocVector(analyzer, doc.getText());
+                    }
+                    doc.setDocVector(docVector);
+                }
+            }
+        }
+
+        if (sortByRsv) {
+            Comparator<Document> comparator = new DocumentComparator(true);
+            topDocuments.sort(comparator);
+        }
+
+        return topDocuments.subList(0, Math.min(limit, topDocuments.size()));
+    }
+
+    public static List<StatusDocument> getDocs(IndexSearcher indexSearcher, Analyzer analyzer, CollectionStats collectionStats, QueryLikelihoodRescorer qlRescorer, TopDocs topDocs, String query, int limit, boolean filterRT, boolean buildDocVectors) throws IOException {
+        return getDocs(indexSearcher, analyzer, collectionStats, qlRescorer, topDocs, query, limit, filterRT, buildDocVectors, true);
     }
 
-    public static List<StatusDocument> getDocs(IndexSearcher indexSearcher, Analyzer analyzer, CollectionStats collectionStats, QueryLikelihoodModel qlModel, TopDocs topDocs, String query, int limit, boolean filterRT) throws IOException {
-        return getDocs(indexSearcher, analyzer, collectionStats, qlModel, topDocs, query, limit, filterRT, true);
+    public static List<StatusDocument> getDocs(IndexSearcher indexSearcher, Analyzer analyzer, CollectionStats collectionStats, QueryLikelihoodRescorer qlRescorer, TopDocs topDocs, String query, int limit, boolean filterRT) throws IOException {
+        return getDocs(indexSearcher, analyzer, collectionStats, qlRescorer, topDocs, query, limit, filterRT, false);
     }
 
     public static List<StatusDocument> computeQLScores(Analyzer analyzer, CollectionStats collectionStats, QueryLikelihoodModel qlModel, List<StatusDocument> topDocuments, String query, int limit) throws IOException {
@@ -0,0 +1,90 @@
+package io.jitter.core.utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Picks the best scoring entries of a ranking, e.g. of shards, without sorting all of it. Entries are returned best
+ * first; ties are broken by key, so the result does not depend on the iteration order of the ranking. NaN scores
+ * rank last.
+ */
+public final class TopScores {
+
+    private TopScores() {
+    }
+
+    /**
+     * @return the {@code k} best entries of {@code ranking}
+     */
+    public static <K extends Comparable<K>, V extends Number> Map<K, V> top(Map<K, V> ranking, int k) {
+        if (k <= 0 || ranking.isEmpty()) {
+            return new LinkedHashMap<>();
+        }
+        Comparator<Map.Entry<K, V>> order = order();
+        // worst of the best k first
+        PriorityQueue<Map.Entry<K, V>> heap = new PriorityQueue<>(Math.min(k, ranking.size()), order.reversed());
+        for (Map.Entry<K, V> entry : ranking.entrySet()) {
+            if (heap.size() < k) {
+                heap.add(entry);
+            } else if (order.compare(entry, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(entry);
+            }
+        }
+        List<Map.Entry<K, V>> best = new ArrayList<>(heap.size());
+        while (!heap.isEmpty()) {
+            best.add(heap.poll());
+        }
+        Map<K, V> map = new LinkedHashMap<>();
+        for (int i = best.size() - 1; i >= 0; i--) {
+            map.put(best.get(i).getKey(), best.get(i).getValue());
+        }
+        return map;
+    }
+
+    /**
+     * @return the entries of {@code ranking} scoring at least {@code min}
+     */
+    public static <K extends Comparable<K>, V extends Number> Map<K, V> atLeast(Map<K, V> ranking, double min) {
+        List<Map.Entry<K, V>> above = new ArrayList<>();
+        for (Map.Entry<K, V> entry : ranking.entrySet()) {
+            if (entry.getValue().doubleValue() >= min) {
+                above.add(entry);
+            }
+        }
+        above.sort(order());
+        Map<K, V> map = new LinkedHashMap<>();
+        for (Map.Entry<K, V> entry : above) {
+            map.put(entry.getKey(), entry.getValue());
+        }
+        return map;
+    }
+
+    /**
+     * @return all of {@code ranking}
+     */
+    public static <K extends Comparable<K>, V extends Number> Map<K, V> sorted(Map<K, V> ranking) {
+        return top(ranking, ranking.size());
+    }
+
+    private static <K extends Comparable<K>, V extends Number> Comparator<Map.Entry<K, V>> order() {
+        return (a, b) -> {
+            int c = compare(a.getValue().doubleValue(), b.getValue().doubleValue());
+            return c != 0 ? c : a.getKey().compareTo(b.getKey());
+        };
+    }
+
+    // higher scores first, NaN last
+    private static int compare(double a, double b) {
+        boolean aNaN = Double.isNaN(a);
+        boolean bNaN = Double.isNaN(b);
+        if (aNaN || bNaN) {
+            return aNaN == bNaN ? 0 : (aNaN ? 1 : -1);
+        }
+        return a > b ? -1 : (a < b ? 1 : 0);
+    }
+}
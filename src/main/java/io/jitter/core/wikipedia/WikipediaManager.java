@@ -5,6 +5,7 @@
 import io.jitter.api.collectionstatistics.CollectionStats;
 import io.jitter.api.collectionstatistics.IndexCollectionStats;
 import io.jitter.api.wikipedia.WikipediaDocument;
+import io.jitter.core.search.RefreshingSearcherManager;
 import io.jitter.core.utils.Stopper;
 import io.jitter.core.utils.WikipediaSearchUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -14,12 +15,11 @@
 import org.apache.lucene.facet.FacetResult;
 import org.apache.lucene.facet.Facets;
 import org.apache.lucene.facet.FacetsCollector;
+import org.apache.lucene.facet.FacetsCollectorManager;
 import org.apache.lucene.facet.FacetsConfig;
 import org.apache.lucene.facet.taxonomy.FastTaxonomyFacetCounts;
 import org.apache.lucene.facet.taxonomy.TaxonomyReader;
 import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyReader;
-import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexNotFoundException;
 import org.apache.lucene.misc.HighFreqTerms;
 import org.apache.lucene.misc.TermStats;
 import org.apache.lucene.queryparser.classic.ParseException;
@@ -57,38 +57,41 @@ public class WikipediaManager implements Managed {
     private Stopper stopper;
     private final float mu;
 
-    private DirectoryReader indexReader;
-    private IndexSearcher searcher;
+    private final RefreshingSearcherManager searcherManager;
     private TaxonomyReader taxoReader;
     private final FacetsConfig facetsConfig = new FacetsConfig();
 
-    public WikipediaManager(String indexPath, boolean live, float mu) throws IOException {
+    public WikipediaManager(String indexPath, boolean live, float mu, long maxStalenessMillis) throws IOException {
         this.indexPath = indexPath;
         this.live = live;
         this.mu = mu;
 
         similarity = new LMDirichletSimilarity(mu);
         qlModel = new QueryLikelihoodModel(mu);
+        searcherManager = new RefreshingSearcherManager(Paths.get(indexPath, "index"), similarity, live, maxStalenessMillis);
     }
 
-    public WikipediaManager(String indexPath, boolean live, String stopwords, float mu) throws IOException {
-        this(indexPath, live, mu);
+    public WikipediaManager(String indexPath, boolean live, String stopwords, float mu, long maxStalenessMillis) throws IOException {
+        this(indexPath, live, mu, maxStalenessMillis);
         stopper = new Stopper(stopwords);
     }
 
     @Override
     public void start() throws Exception {
-        try {
-            searcher = getIndexSearcher();
-        } catch (Exception e) {
-            logger.error(e.getMessage());
-        }
+        searcherManager.start();
     }
 
     @Override
     public void stop() throws Exception {
-        if (indexReader != null) {
-            indexReader.close();
+        try {
+            searcherManager.close();
+        } finally {
+            synchronized (this) {
+                if (taxoReader != null) {
+                    taxoReader.decRef();
+                    taxoReader = null;
+                }
+            }
         }
     }
 
@@ -104,6 +107,10 @@ public float getMu() {
         return mu;
     }
 
+    public RefreshingSearcherManager getSearcherManager() {
+        return searcherManager;
+    }
+
     public WikipediaTopDocuments isearch(String query, String filterQuery, Query filter, int n, boolean full) throws IOException, ParseException {
         int len = Math.min(MAX_RESULTS, 3 * n);
         int nDocsReturned;
@@ -111,91 +118,92 @@ public WikipediaTopDocuments isearch(String query, String filterQuery, Query fil
         int[] ids;
         float[] scores;
 
-        IndexSearcher indexSearcher = getIndexSearcher();
-        CollectionStats collectionStats = getCollectionStats();
-        Query q = new QueryParser(TEXT_FIELD, ANALYZER).parse(query);
+        IndexSearcher indexSearcher = searcherManager.acquire();
+        TaxonomyReader taxonomyReader = null;
+        try {
+            taxonomyReader = acquireTaxonomyReader();
+            CollectionStats collectionStats = new IndexCollectionStats(indexSearcher.getIndexReader(), TEXT_FIELD);
+            Query q = new QueryParser(TEXT_FIELD, ANALYZER).parse(query);
 
-        BooleanQuery.Builder b = new BooleanQuery.Builder();
-        b.add(q, BooleanClause.Occur.MUST);
+            BooleanQuery.Builder b = new BooleanQuery.Builder();
+            b.add(q, BooleanClause.Occur.MUST);
 
-        if (!filterQuery.isEmpty()) {
-            Query fq = new QueryParser(TEXT_FIELD, new WhitespaceAnalyzer()).parse(filterQuery);
-            b.add(fq, BooleanClause.Occur.FILTER);
-        }
+            if (!filterQuery.isEmpty()) {
+                Query fq = new QueryParser(TEXT_FIELD, new WhitespaceAnalyzer()).parse(filterQuery);
+                b.add(fq, BooleanClause.Occur.FILTER);
+            }
 
-        if (filter != null) {
-            b.add(filter, BooleanClause.Occur.FILTER);
-        }
+            if (filter != null) {
+                b.add(filter, BooleanClause.Occur.FILTER);
+            }
 
-        Query bQuery = b.build();
+            Query bQuery = b.build();
 
-        final TopDocsCollector hitsCollector = TopScoreDocCollector.create(len, len);
-        final FacetsCollector fc = new FacetsCollector();
-        indexSearcher.search(bQuery, MultiCollector.wrap(hitsCollector, fc));
+            // collector managers let the searcher collect slices of segments in parallel
+            Object[] collected = indexSearcher.search(bQuery, new MultiCollectorManager(new TopScoreDocCollectorManager(len, len), new FacetsCollectorManager()));
+            TopDocs topDocs = (TopDocs) collected[0];
+            FacetsCollector fc = (FacetsCollector) collected[1];
 
-        // Retrieve results
-        List<FacetResult> results = new ArrayList<>();
-        Facets facets = new FastTaxonomyFacetCounts(taxoReader, facetsConfig, fc);
-        results.add(facets.getTopChildren(10, "Categories"));
+            // Retrieve results
+            List<FacetResult> results = new ArrayList<>();
+            Facets facets = new FastTaxonomyFacetCounts(taxonomyReader, facetsConfig, fc);
+            results.add(facets.getTopChildren(10, "Categories"));
 
-        totalHits = hitsCollector.getTotalHits();
-        TopDocs topDocs = hitsCollector.topDocs(0, len);
+            totalHits = (int) topDocs.totalHits.value;
 
-        nDocsReturned = topDocs.scoreDocs.length;
-        ids = new int[nDocsReturned];
-        scores = new float[nDocsReturned];
-        for (int i = 0; i < nDocsReturned; i++) {
-            ScoreDoc scoreDoc = topDocs.scoreDocs[i];
-            ids[i] = scoreDoc.doc;
-            scores[i] = scoreDoc.score;
-        }
+            nDocsReturned = topDocs.scoreDocs.length;
+            ids = new int[nDocsReturned];
+            scores = new float[nDocsReturned];
+            for (int i = 0; i < nDocsReturned; i++) {
+                ScoreDoc scoreDoc = topDocs.scoreDocs[i];
+                ids[i] = scoreDoc.doc;
+                scores[i] = scoreDoc.score;
+            }
+
+            // Compute real QL scores even when live to build termVectors
+            List<WikipediaDocument> docs = WikipediaSearchUtils.getDocs(indexSearcher, collectionStats, qlModel, topDocs, query, n);
 
-        // Compute real QL scores even when live to build termVectors
-        List<WikipediaDocument> docs = WikipediaSearchUtils.getDocs(indexSearcher, collectionStats, qlModel, topDocs, query, n);
+            for (WikipediaDocument doc : docs) {
+                if (!full) {
+                    doc.setText(StringUtils.abbreviate(doc.getText(), 500));
+                }
+            }
 
-        for (WikipediaDocument doc : docs) {
-            if (!full) {
-                doc.setText(StringUtils.abbreviate(doc.getText(), 500));
+            return new WikipediaTopDocuments(totalHits, docs);
+        } finally {
+            if (taxonomyReader != null) {
+                taxonomyReader.decRef();
             }
+            searcherManager.release(indexSearcher);
         }
-
-        return new WikipediaTopDocuments(totalHits, docs);
     }
 
     public TermStats[] getHighFreqTerms(int n) throws Exception {
         int numResults = n > MAX_TERMS_RESULTS ? MAX_TERMS_RESULTS : n;
-        return HighFreqTerms.getHighFreqTerms(indexReader, numResults, TEXT_FIELD, new HighFreqTerms.DocFreqComparator());
-    }
-
-    private IndexSearcher getIndexSearcher() throws IOException {
+        IndexSearcher indexSearcher = searcherManager.acquire();
         try {
-            if (taxoReader == null) {
-                taxoReader = new DirectoryTaxonomyReader(FSDirectory.open(Paths.get(indexPath, "facets")));
-            } else if (live) {
-                taxoReader = DirectoryTaxonomyReader.openIfChanged(taxoReader);
-            }
+            return HighFreqTerms.getHighFreqTerms(indexSearcher.getIndexReader(), numResults, TEXT_FIELD, new HighFreqTerms.DocFreqComparator());
+        } finally {
+            searcherManager.release(indexSearcher);
+        }
+    }
 
-            if (indexReader == null) {
-                indexReader = DirectoryReader.open(FSDirectory.open(Paths.get(indexPath, "index")));
-                searcher = new IndexSearcher(indexReader);
-                searcher.setSimilarity(similarity);
-            } else if (live && !indexReader.isCurrent()) {
-                DirectoryReader newReader = DirectoryReader.openIfChanged(indexReader);
-                if (newReader != null) {
-                    indexReader.close();
-                    indexReader = newReader;
-                    searcher = new IndexSearcher(indexReader);
-                    searcher.setSimilarity(similarity);
-                }
+    private synchronized TaxonomyReader acquireTaxonomyReader() throws IOException {
+        if (taxoReader == null) {
+            taxoReader = new DirectoryTaxonomyReader(FSDirectory.open(Paths.get(indexPath, "facets")));
+        } else if (live) {
+            TaxonomyReader newTaxoReader = TaxonomyReader.openIfChanged(taxoReader);
+            if (newTaxoReader != null) {
+                taxoReader.decRef();
+                taxoReader = newTaxoReader;
             }
-        } catch (IndexNotFoundException e) {
-            logger.error(e.getMessage());
         }
-        return searcher;
+        taxoReader.incRef();
+        return taxoReader;
     }
 
     public CollectionStats getCollectionStats() {
-        return new IndexCollectionStats(indexReader, TEXT_FIELD);
+        return searcherManager.getCollectionStats(TEXT_FIELD);
     }
 
     public WikipediaTopDocuments search(String query, String filterQuery, int limit, boolean full) throws IOException, ParseException {
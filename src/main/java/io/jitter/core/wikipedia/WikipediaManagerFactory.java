@@ -2,9 +2,13 @@
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import io.dropwizard.core.setup.Environment;
+import io.dropwizard.util.Duration;
+import io.jitter.core.search.SearchExecutorFactory;
+import jakarta.validation.Valid;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
 
 import java.io.IOException;
 
@@ -23,6 +27,13 @@ public class WikipediaManagerFactory {
     @NotBlank
     private String cat2topic;
 
+    @NotNull
+    private Duration maxStaleness = Duration.seconds(1);
+
+    @Valid
+    @NotNull
+    private SearchExecutorFactory searchExecutor = new SearchExecutorFactory();
+
     @JsonProperty
     public String getIndex() {
         return index;
@@ -53,9 +64,31 @@ public void setMu(float mu) {
         this.mu = mu;
     }
 
+    @JsonProperty
+    public Duration getMaxStaleness() {
+        return maxStaleness;
+    }
+
+    @JsonProperty
+    public void setMaxStaleness(Duration maxStaleness) {
+        this.maxStaleness = maxStaleness;
+    }
+
+    @JsonProperty
+    public SearchExecutorFactory getSearchExecutor() {
+        return searchExecutor;
+    }
+
+    @JsonProperty
+    public void setSearchExecutor(SearchExecutorFactory searchExecutor) {
+        this.searchExecutor = searchExecutor;
+    }
+
     public WikipediaManager build(Environment environment) throws IOException {
-        final WikipediaManager wikipediaManager = new WikipediaManager(index, false, stopwords, mu);
+        final WikipediaManager wikipediaManager = new WikipediaManager(index, false, stopwords, mu, maxStaleness.toMilliseconds());
         environment.lifecycle().manage(wikipediaManager);
+        searchExecutor.configure(wikipediaManager.getSearcherManager(), environment, "wikipedia");
+        wikipediaManager.getSearcherManager().registerMetrics(environment.metrics(), WikipediaManager.class);
         return wikipediaManager;
     }
 }
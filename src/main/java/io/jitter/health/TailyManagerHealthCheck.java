@@ -18,6 +18,8 @@ public TailyManagerHealthCheck(TailyManager tailyManager) {
     protected Result check() throws Exception {
         if (tailyManager == null)
             return Result.unhealthy("TailyManager is null.");
+        if (tailyManager.getGeneration() == null)
+            return Result.unhealthy("Taily stores are not open.");
         return Result.healthy();
     }
 }
@@ -5,9 +5,12 @@
 import io.jitter.core.analysis.TweetAnalyzer;
 import io.jitter.core.document.FeatureVector;
 import io.jitter.core.feedback.TweetFeedbackRelevanceModel;
+import io.jitter.core.search.RequestExecutor;
 import io.jitter.core.search.TopDocuments;
 import io.jitter.core.utils.AnalyzerUtils;
 import io.jitter.core.utils.Stopper;
+import jakarta.ws.rs.ServiceUnavailableException;
+import jakarta.ws.rs.container.AsyncResponse;
 import org.apache.commons.math3.distribution.EnumeratedDistribution;
 import org.apache.commons.math3.util.FastMath;
 import org.apache.commons.math3.util.Pair;
@@ -20,10 +23,48 @@
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class AbstractFeedbackResource {
     private static final Logger logger = LoggerFactory.getLogger(AbstractFeedbackResource.class);
 
+    /**
+     * Runs {@code request} on the request pool and resumes {@code asyncResponse} with its result. Responds 503 if
+     * the pool or the stage pool is full, or if the request is not answered within the grace period after its
+     * deadline, in which case the request is cancelled. Running requests are not interrupted, their stages stop on
+     * their own deadlines and the request then answers with what it has in the grace period.
+     */
+    void submit(AsyncResponse asyncResponse, RequestExecutor requestExecutor, Callable<?> request) {
+        AtomicReference<Future<?>> future = new AtomicReference<>();
+        asyncResponse.setTimeoutHandler(response -> {
+            Future<?> running = future.get();
+            if (running != null) {
+                running.cancel(false);
+            }
+            response.resume(new ServiceUnavailableException("Request timed out", (Long) null));
+        });
+        asyncResponse.setTimeout(requestExecutor.getHardTimeoutMillis(), TimeUnit.MILLISECONDS);
+        try {
+            future.set(requestExecutor.submit(() -> {
+                try {
+                    asyncResponse.resume(request.call());
+                } catch (RejectedExecutionException e) {
+                    logger.warn("Request rejected, the stage pool is full");
+                    asyncResponse.resume(new ServiceUnavailableException("Too many requests", (Long) null));
+                } catch (Throwable t) {
+                    asyncResponse.resume(t);
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            logger.warn("Request rejected, the request pool is full");
+            asyncResponse.resume(new ServiceUnavailableException("Too many requests", (Long) null));
+        }
+    }
+
     FeatureVector buildBootstrapFeedbackFV(int fbDocs, int fbTerms, TopDocuments results, Stopper stopper, CollectionStats collectionStats) throws IOException {
         TweetFeedbackRelevanceModel fb = new TweetFeedbackRelevanceModel(stopper);
         fb.setCollectionStats(collectionStats);
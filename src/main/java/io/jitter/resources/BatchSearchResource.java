@@ -0,0 +1,201 @@
+package io.jitter.resources;
+
+import com.codahale.metrics.annotation.Timed;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
+import io.jitter.api.search.AbstractDocument;
+import io.jitter.api.search.BatchTopic;
+import io.jitter.api.search.BatchTopicResponse;
+import io.jitter.api.search.DocumentsResponse;
+import io.jitter.api.search.FeedbackDocumentsResponse;
+import io.jitter.core.document.FeatureVector;
+import io.jitter.core.search.SearchManager;
+import io.jitter.core.search.SearchSnapshot;
+import io.jitter.core.search.TopDocuments;
+import io.jitter.core.utils.Epochs;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs many {@code /search} or {@code /fb} topics in one request, e.g. the topics of a TREC run.
+ * <p>
+ * The topics run in parallel on a bounded pool and all search the same reader, sharing its term statistics. Their
+ * results are streamed back in request order as they complete, one JSON line per topic or in TREC run format.
+ */
+@Path("/batch")
+@Tag(name = "/batch", description = "Batch search endpoint")
+public class BatchSearchResource extends AbstractFeedbackResource {
+    private static final Logger logger = LoggerFactory.getLogger(BatchSearchResource.class);
+
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    private final AtomicLong counter;
+    private final SearchManager searchManager;
+    private final ExecutorService executor;
+    private final int maxTopics;
+    private final ObjectMapper objectMapper;
+
+    public BatchSearchResource(SearchManager searchManager, ExecutorService executor, int maxTopics, ObjectMapper objectMapper) throws IOException {
+        Preconditions.checkNotNull(searchManager);
+        Preconditions.checkNotNull(executor);
+        Preconditions.checkNotNull(objectMapper);
+
+        counter = new AtomicLong();
+        this.searchManager = searchManager;
+        this.executor = executor;
+        this.maxTopics = maxTopics;
+        this.objectMapper = objectMapper;
+    }
+
+    @POST
+    @Timed
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces({APPLICATION_NDJSON + "; charset=utf-8", MediaType.TEXT_PLAIN + "; charset=utf-8"})
+    @Operation(
+            summary = "Searches a batch of topics",
+            description = "Streams a search response per topic, as JSON lines or in TREC run format"
+    )
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "400", description = "Invalid topics"),
+            @ApiResponse(responseCode = "500", description = "Internal Server Error")
+    })
+    public Response search(@Parameter(name = "Topics", required = true) @NotEmpty List<@Valid BatchTopic> topics,
+                           @Parameter(name = "Output format", schema = @Schema(allowableValues = {"json", "trec"})) @QueryParam("format") @DefaultValue("json") String format,
+                           @Parameter(name = "Run tag of the TREC run") @QueryParam("runTag") @DefaultValue("jitter") String runTag) {
+        if (topics.size() > maxTopics) {
+            throw new BadRequestException("At most " + maxTopics + " topics");
+        }
+        for (BatchTopic topic : topics) {
+            // NaN included
+            if (!(topic.getFbWeight() >= 0 && topic.getFbWeight() <= 1)) {
+                throw new BadRequestException("Invalid fbWeight of topic " + topic.getId() + ": " + topic.getFbWeight());
+            }
+        }
+        boolean trec = "trec".equalsIgnoreCase(format);
+        if (!trec && !"json".equalsIgnoreCase(format)) {
+            throw new BadRequestException("Unknown format " + format);
+        }
+
+        long id = counter.incrementAndGet();
+        long startTime = System.currentTimeMillis();
+
+        // the reader is acquired once the response is written, so it is released even if the entity never is
+        StreamingOutput output = out -> {
+            try (SearchSnapshot snapshot = searchManager.snapshot()) {
+                List<Future<BatchTopicResponse>> futures = new ArrayList<>(topics.size());
+                try {
+                    for (BatchTopic topic : topics) {
+                        futures.add(executor.submit(() -> run(snapshot, topic)));
+                    }
+                    Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+                    for (int i = 0; i < topics.size(); i++) {
+                        BatchTopicResponse response = futures.get(i).get();
+                        if (!trec) {
+                            writer.write(objectMapper.writeValueAsString(response));
+                            writer.write('\n');
+                        } else if (response.getResponse() != null) {
+                            writeRun(writer, response, runTag);
+                        }
+                        writer.flush();
+                    }
+                    long endTime = System.currentTimeMillis();
+                    logger.info(String.format(Locale.ENGLISH, "%4dms %4dtopics batch %d", (endTime - startTime), topics.size(), id));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                } catch (ExecutionException e) {
+                    throw new IOException(e.getCause());
+                } finally {
+                    // topics that did not start yet are dropped, those running hold their own reference to the reader
+                    for (Future<BatchTopicResponse> future : futures) {
+                        future.cancel(false);
+                    }
+                }
+            }
+        };
+        return Response.ok(output, trec ? MediaType.TEXT_PLAIN : APPLICATION_NDJSON).build();
+    }
+
+    private BatchTopicResponse run(SearchSnapshot snapshot, BatchTopic topic) {
+        IndexReader reader = snapshot.getIndexSearcher().getIndexReader();
+        if (!reader.tryIncRef()) {
+            return new BatchTopicResponse(topic.getId(), Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), 0, "Batch closed", null);
+        }
+        long startTime = System.currentTimeMillis();
+        try {
+            DocumentsResponse response = search(snapshot, topic);
+            long endTime = System.currentTimeMillis();
+            return new BatchTopicResponse(topic.getId(), Response.Status.OK.getStatusCode(), (endTime - startTime), null, response);
+        } catch (ParseException | IllegalArgumentException e) {
+            long endTime = System.currentTimeMillis();
+            return new BatchTopicResponse(topic.getId(), Response.Status.BAD_REQUEST.getStatusCode(), (endTime - startTime), e.getClass().getSimpleName(), null);
+        } catch (IOException | RuntimeException e) {
+            logger.error("{}: {}", topic.getId(), e.getMessage());
+            long endTime = System.currentTimeMillis();
+            return new BatchTopicResponse(topic.getId(), Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(), (endTime - startTime), e.getClass().getSimpleName(), null);
+        } finally {
+            try {
+                reader.decRef();
+            } catch (IOException e) {
+                logger.error("{}", e.getMessage());
+            }
+        }
+    }
+
+    private DocumentsResponse search(SearchSnapshot snapshot, BatchTopic topic) throws IOException, ParseException {
+        String query = topic.getQ();
+        String filterQuery = Optional.ofNullable(topic.getFq()).orElse("");
+        Optional<Long> maxId = Optional.ofNullable(topic.getMaxId());
+        long[] epochs = Epochs.parseEpoch(Optional.ofNullable(topic.getEpoch()));
+
+        if (!"fb".equals(topic.getMode())) {
+            TopDocuments results = searchManager.search(snapshot, query, filterQuery, maxId, topic.getLimit(), topic.isRetweets(), epochs, false, false, null);
+            return new DocumentsResponse(results.totalHits, 0, results);
+        }
+
+        TopDocuments selectResults = searchManager.search(snapshot, query, filterQuery, maxId, topic.getLimit(), topic.isSRetweets(), epochs, false, false, null);
+        FeatureVector queryFV = buildQueryFV(query, searchManager.getStopper());
+        FeatureVector feedbackFV = buildFeedbackFV(topic.getFbDocs(), topic.getFbTerms(), selectResults.scoreDocs, searchManager.getStopper(), snapshot.getCollectionStats());
+        FeatureVector fbVector = interpruneFV(topic.getFbTerms(), (float) topic.getFbWeight(), queryFV, feedbackFV);
+        String finalQuery = buildQuery(fbVector);
+
+        TopDocuments results = searchManager.search(snapshot, finalQuery, filterQuery, maxId, topic.getLimit(), topic.isRetweets(), epochs, false, false, null);
+        return new FeedbackDocumentsResponse(selectResults.scoreDocs.size(), topic.getFbTerms(), fbVector.getMap(), 0, results);
+    }
+
+    private static void writeRun(Writer writer, BatchTopicResponse response, String runTag) throws IOException {
+        List<?> docs = response.getResponse().getDocs();
+        for (int i = 0; i < docs.size(); i++) {
+            AbstractDocument doc = (AbstractDocument) docs.get(i);
+            writer.write(String.format(Locale.ENGLISH, "%s Q0 %s %d %f %s%n", response.getTopic(), doc.getId(), i + 1, doc.getRsv(), runTag));
+        }
+    }
+}
@@ -9,8 +9,10 @@
 import io.jitter.api.search.FeedbackDocumentsResponse;
 import io.jitter.api.search.SearchResponse;
 import io.jitter.api.search.StatusDocument;
+import io.jitter.core.cache.ResultCache;
 import io.jitter.core.document.FeatureVector;
 import io.jitter.core.search.SearchManager;
+import io.jitter.core.search.SearchSnapshot;
 import io.jitter.core.search.TopDocuments;
 import io.jitter.core.utils.Epochs;
 import io.jitter.core.utils.SearchUtils;
@@ -44,12 +46,15 @@ public class FeedbackResource extends AbstractFeedbackResource {
 
     private final AtomicLong counter;
     private final SearchManager searchManager;
+    private final ResultCache resultCache;
 
-    public FeedbackResource(SearchManager searchManager) throws IOException {
+    public FeedbackResource(SearchManager searchManager, ResultCache resultCache) throws IOException {
         Preconditions.checkNotNull(searchManager);
+        Preconditions.checkNotNull(resultCache);
 
         counter = new AtomicLong();
         this.searchManager = searchManager;
+        this.resultCache = resultCache;
     }
 
     @GET
@@ -81,8 +86,19 @@ public SearchResponse search(@Parameter(name = "Search query", required = true)
                                  @Parameter(hidden = true) @Context UriInfo uriInfo) {
         MultivaluedMap<String, String> params = uriInfo.getQueryParameters();
 
-        try {
+        // the searches and the feedback from their hits read the same reader
+        try (SearchSnapshot snapshot = searchManager.snapshot()) {
             long startTime = System.currentTimeMillis();
+            ResultCache.Key key = resultCache.key("fb", params);
+            ResultCache.Generation generation = resultCache.generation(snapshot);
+            FeedbackDocumentsResponse cached = resultCache.get(key, generation, FeedbackDocumentsResponse.class);
+            if (cached != null) {
+                long endTime = System.currentTimeMillis();
+                logger.info(String.format(Locale.ENGLISH, "%4dms cached %s", (endTime - startTime), q));
+                ResponseHeader responseHeader = new ResponseHeader(counter.incrementAndGet(), 0, (endTime - startTime), params);
+                return new SearchResponse(responseHeader, cached);
+            }
+
             String query = URLDecoder.decode(q, StandardCharsets.UTF_8);
             String filterQuery = URLDecoder.decode(fq.orElse(""), StandardCharsets.UTF_8);
             long[] epochs = Epochs.parseEpoch(epoch);
@@ -92,13 +108,13 @@ public SearchResponse search(@Parameter(name = "Search query", required = true)
                 epochs = Epochs.parseDay(dateTimeParam.get());
             }
 
-            TopDocuments selectResults = searchManager.search(query, filterQuery, maxId, limit, sRetweets, epochs, sFuture);
+            TopDocuments selectResults = searchManager.search(snapshot, query, filterQuery, maxId, limit, sRetweets, epochs, sFuture, false, null);
 
             String finalQuery = query;
             FeatureVector fbVector = null;
             if (fbDocs > 0 && fbTerms > 0) {
                 FeatureVector queryFV = buildQueryFV(query, searchManager.getStopper());
-                FeatureVector feedbackFV = buildFeedbackFV(fbDocs, fbTerms, selectResults.scoreDocs, searchManager.getStopper(), searchManager.getCollectionStats());
+                FeatureVector feedbackFV = buildFeedbackFV(fbDocs, fbTerms, selectResults.scoreDocs, searchManager.getStopper(), snapshot.getCollectionStats());
                 fbVector = interpruneFV(fbTerms, fbWeight.floatValue(), queryFV, feedbackFV);
                 finalQuery = buildQuery(fbVector);
             }
@@ -106,10 +122,10 @@ public SearchResponse search(@Parameter(name = "Search query", required = true)
             TopDocuments results;
             if (fbRerankOnly) {
                 QueryLikelihoodModel qlModel = new QueryLikelihoodModel(searchManager.getMu());
-                List<StatusDocument> docs = SearchUtils.computeQLScores(searchManager.getAnalyzer(), searchManager.getCollectionStats(), qlModel, (List<StatusDocument>) selectResults.scoreDocs, finalQuery, limit);
+                List<StatusDocument> docs = SearchUtils.computeQLScores(searchManager.getAnalyzer(), snapshot.getCollectionStats(), qlModel, (List<StatusDocument>) selectResults.scoreDocs, finalQuery, limit);
                 results = new TopDocuments(docs);
             } else {
-                results = searchManager.search(finalQuery, filterQuery, maxId, limit, retweets, epochs);
+                results = searchManager.search(snapshot, finalQuery, filterQuery, maxId, limit, retweets, epochs, false, false, null);
             }
 
             int totalFbDocs = selectResults != null ? selectResults.scoreDocs.size() : 0;
@@ -123,6 +139,7 @@ public SearchResponse search(@Parameter(name = "Search query", required = true)
 
             ResponseHeader responseHeader = new ResponseHeader(counter.incrementAndGet(), 0, (endTime - startTime), params);
             FeedbackDocumentsResponse documentsResponse = new FeedbackDocumentsResponse(totalFbDocs, fbTerms, fbVector.getMap(), 0, results);
+            resultCache.put(key, generation, documentsResponse, documentsResponse.getDocs().size());
             return new SearchResponse(responseHeader, documentsResponse);
         } catch (ParseException pe) {
             throw new BadRequestException(pe.getClass().getSimpleName());
@@ -12,10 +12,15 @@
 import io.jitter.api.search.SelectionFeedbackDocumentsResponse;
 import io.jitter.api.search.SelectionSearchResponse;
 import io.jitter.api.search.StatusDocument;
+import io.jitter.core.cache.ResultCache;
 import io.jitter.core.document.FeatureVector;
 import io.jitter.core.probabilitydistributions.KDE;
 import io.jitter.core.rerank.*;
+import io.jitter.core.search.Deadline;
+import io.jitter.core.search.Pipeline;
+import io.jitter.core.search.RequestExecutor;
 import io.jitter.core.search.SearchManager;
+import io.jitter.core.search.SearchSnapshot;
 import io.jitter.core.search.TopDocuments;
 import io.jitter.core.selection.Selection;
 import io.jitter.core.selection.SelectionManager;
@@ -31,6 +36,8 @@
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.Suspended;
 import jakarta.ws.rs.core.*;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.slf4j.Logger;
@@ -43,8 +50,11 @@
 import java.util.Locale;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
 
 @Path("/mf")
 @Tag(name = "/mf", description = "Multi Feedback search endpoint")
@@ -57,18 +67,24 @@ public class MultiFeedbackResource extends AbstractFeedbackResource {
     private final SelectionManager selectionManager;
     private final ShardsManager shardsManager;
     private final TailyManager tailyManager;
+    private final ResultCache resultCache;
+    private final RequestExecutor requestExecutor;
 
-    public MultiFeedbackResource(SearchManager searchManager, SelectionManager selectionManager, ShardsManager shardsManager, TailyManager tailyManager) throws IOException {
+    public MultiFeedbackResource(SearchManager searchManager, SelectionManager selectionManager, ShardsManager shardsManager, TailyManager tailyManager, ResultCache resultCache, RequestExecutor requestExecutor) throws IOException {
         Preconditions.checkNotNull(searchManager);
         Preconditions.checkNotNull(selectionManager);
         Preconditions.checkNotNull(shardsManager);
         Preconditions.checkNotNull(tailyManager);
+        Preconditions.checkNotNull(resultCache);
+        Preconditions.checkNotNull(requestExecutor);
 
         counter = new AtomicLong();
         this.searchManager = searchManager;
         this.selectionManager = selectionManager;
         this.shardsManager = shardsManager;
         this.tailyManager = tailyManager;
+        this.resultCache = resultCache;
+        this.requestExecutor = requestExecutor;
     }
 
     @GET
@@ -83,72 +99,125 @@ public MultiFeedbackResource(SearchManager searchManager, SelectionManager selec
             @ApiResponse(responseCode = "404", description = "No results found"),
             @ApiResponse(responseCode = "500", description = "Internal Server Error")
     })
-    public SelectionSearchResponse search(@Parameter(name = "Search query", required = true) @QueryParam("q") @NotBlank String q,
-                                          @Parameter(hidden = true) @QueryParam("fq") Optional<String> fq,
-                                          @Parameter(name = "Limit results", schema = @Schema(minimum = "1", maximum = "10000")) @QueryParam("limit") @DefaultValue("1000") Integer limit,
-                                          @Parameter(name = "Include retweets") @QueryParam("retweets") @DefaultValue("false") Boolean retweets,
-                                          @Parameter(name = "Maximum document id") @QueryParam("maxId") Optional<Long> maxId,
-                                          @Parameter(name = "Epoch filter") @QueryParam("epoch") Optional<String> epoch,
-                                          @Parameter(name = "Day filter") @QueryParam("day") Optional<LocalDateTimeParam> day,
-                                          @Parameter(name = "Limit feedback results", schema = @Schema(minimum = "1", maximum = "10000")) @QueryParam("sLimit") @DefaultValue("1000") Integer sLimit,
-                                          @Parameter(name = "Include retweets for feedback") @QueryParam("sRetweets") @DefaultValue("true") Boolean sRetweets,
-                                          @Parameter(hidden = true) @QueryParam("sFuture") @DefaultValue("false") Boolean sFuture,
-                                          @Parameter(name = "Resource selection method", schema = @Schema(allowableValues = {"taily", "ranks", "crcsexp", "crcslin", "votes", "sizes"})) @QueryParam("method") @DefaultValue("ranks") String method,                                          @Parameter(name = "Maximum number of collections", schema = @Schema(minimum = "1", maximum = "100")) @QueryParam("maxCol") @DefaultValue("3") Integer maxCol,
-                                          @Parameter(name = "Rank-S parameter", schema = @Schema(minimum = "1", maximum = "1")) @QueryParam("minRanks") @DefaultValue("1e-5") Double minRanks,
-                                          @Parameter(name = "Use collection size normalization") @QueryParam("normalize") @DefaultValue("true") Boolean normalize,
-                                          @Parameter(name = "Taily parameter", schema = @Schema(minimum = "1", maximum = "100")) @QueryParam("v") @DefaultValue("10") Integer v,
-                                          @Parameter(name = "Force topic") @QueryParam("topic") Optional<String> topic,
-                                          @Parameter(name = "Number of feedback documents", schema = @Schema(minimum = "1", maximum = "1000")) @QueryParam("fbDocs") @DefaultValue("50") Integer fbDocs,
-                                          @Parameter(name = "Number of feedback terms", schema = @Schema(minimum = "1", maximum = "1000")) @QueryParam("fbTerms") @DefaultValue("20") Integer fbTerms,
-                                          @Parameter(name = "Original query weight", schema = @Schema(minimum = "1", maximum = "1")) @QueryParam("fbWeight") @DefaultValue("0.5") Double fbWeight,
-                                          @Parameter(name = "Number of feedback collections") @QueryParam("fbCols") @DefaultValue("3") Integer fbCols,
-                                          @Parameter(hidden = true) @QueryParam("fbMerge") @DefaultValue("false") Boolean fbMerge,
-                                          @Parameter(name = "Use topics") @QueryParam("topics") @DefaultValue("true") Boolean topics,
-                                          @Parameter(name = "Use temporal reranking") @QueryParam("temporal") @DefaultValue("false") Boolean temporal,
-                                          @Parameter(hidden = true) @QueryParam("rerank") @DefaultValue("true") Boolean rerank,
-                                          @Parameter(name = "Number of documents to rerank", schema = @Schema(minimum = "1", maximum = "1000")) @QueryParam("numRerank") @DefaultValue("1000") Integer numRerank,
-                                          @Parameter(hidden = true) @Context UriInfo uriInfo) {
+    public void search(@Suspended AsyncResponse asyncResponse,
+                       @Parameter(name = "Search query", required = true) @QueryParam("q") @NotBlank String q,
+                       @Parameter(hidden = true) @QueryParam("fq") Optional<String> fq,
+                       @Parameter(name = "Limit results", schema = @Schema(minimum = "1", maximum = "10000")) @QueryParam("limit") @DefaultValue("1000") Integer limit,
+                       @Parameter(name = "Include retweets") @QueryParam("retweets") @DefaultValue("false") Boolean retweets,
+                       @Parameter(name = "Maximum document id") @QueryParam("maxId") Optional<Long> maxId,
+                       @Parameter(name = "Epoch filter") @QueryParam("epoch") Optional<String> epoch,
+                       @Parameter(name = "Day filter") @QueryParam("day") Optional<LocalDateTimeParam> day,
+                       @Parameter(name = "Limit feedback results", schema = @Schema(minimum = "1", maximum = "10000")) @QueryParam("sLimit") @DefaultValue("1000") Integer sLimit,
+                       @Parameter(name = "Include retweets for feedback") @QueryParam("sRetweets") @DefaultValue("true") Boolean sRetweets,
+                       @Parameter(hidden = true) @QueryParam("sFuture") @DefaultValue("false") Boolean sFuture,
+                       @Parameter(name = "Resource selection method", schema = @Schema(allowableValues = {"taily", "ranks", "crcsexp", "crcslin", "votes", "sizes"})) @QueryParam("method") @DefaultValue("ranks") String method,
+                       @Parameter(name = "Maximum number of collections", schema = @Schema(minimum = "1", maximum = "100")) @QueryParam("maxCol") @DefaultValue("3") Integer maxCol,
+                       @Parameter(name = "Rank-S parameter", schema = @Schema(minimum = "1", maximum = "1")) @QueryParam("minRanks") @DefaultValue("1e-5") Double minRanks,
+                       @Parameter(name = "Use collection size normalization") @QueryParam("normalize") @DefaultValue("true") Boolean normalize,
+                       @Parameter(name = "Taily parameter", schema = @Schema(minimum = "1", maximum = "100")) @QueryParam("v") @DefaultValue("10") Integer v,
+                       @Parameter(name = "Force topic") @QueryParam("topic") Optional<String> topic,
+                       @Parameter(name = "Number of feedback documents", schema = @Schema(minimum = "1", maximum = "1000")) @QueryParam("fbDocs") @DefaultValue("50") Integer fbDocs,
+                       @Parameter(name = "Number of feedback terms", schema = @Schema(minimum = "1", maximum = "1000")) @QueryParam("fbTerms") @DefaultValue("20") Integer fbTerms,
+                       @Parameter(name = "Original query weight", schema = @Schema(minimum = "1", maximum = "1")) @QueryParam("fbWeight") @DefaultValue("0.5") Double fbWeight,
+                       @Parameter(name = "Number of feedback collections") @QueryParam("fbCols") @DefaultValue("3") Integer fbCols,
+                       @Parameter(hidden = true) @QueryParam("fbMerge") @DefaultValue("false") Boolean fbMerge,
+                       @Parameter(name = "Use topics") @QueryParam("topics") @DefaultValue("true") Boolean topics,
+                       @Parameter(name = "Use temporal reranking") @QueryParam("temporal") @DefaultValue("false") Boolean temporal,
+                       @Parameter(hidden = true) @QueryParam("rerank") @DefaultValue("true") Boolean rerank,
+                       @Parameter(name = "Number of documents to rerank", schema = @Schema(minimum = "1", maximum = "1000")) @QueryParam("numRerank") @DefaultValue("1000") Integer numRerank,
+                       @Parameter(hidden = true) @Context UriInfo uriInfo) {
+        Deadline deadline = requestExecutor.deadline();
         MultivaluedMap<String, String> params = uriInfo.getQueryParameters();
+        submit(asyncResponse, requestExecutor, () -> search(deadline, q, fq, limit, retweets, maxId, epoch, day, sLimit, sRetweets, sFuture, method, maxCol, minRanks, normalize, v, topic, fbDocs, fbTerms, fbWeight, fbCols, fbMerge, topics, temporal, rerank, numRerank, params));
+    }
 
-        try {
+    private SelectionSearchResponse search(Deadline deadline, String q, Optional<String> fq, Integer limit, Boolean retweets, Optional<Long> maxId, Optional<String> epoch, Optional<LocalDateTimeParam> day, Integer sLimit, Boolean sRetweets, Boolean sFuture, String method, Integer maxCol, Double minRanks, Boolean normalize, Integer v, Optional<String> topic, Integer fbDocs, Integer fbTerms, Double fbWeight, Integer fbCols, Boolean fbMerge, Boolean topics, Boolean temporal, Boolean rerank, Integer numRerank, MultivaluedMap<String, String> params) {
+        // the searches and the feedback and reranking of their hits read the same reader
+        try (SearchSnapshot snapshot = searchManager.snapshot()) {
             long startTime = System.currentTimeMillis();
+            ResultCache.Key key = resultCache.key("mf", params);
+            // the shards are selected by Taily or by a search of the selection index
+            LongSupplier selectionVersion = "taily".equalsIgnoreCase(method) ? tailyManager::getVersion : selectionManager.getSearcherManager()::getVersion;
+            ResultCache.Generation generation = resultCache.generation(snapshot, selectionVersion, shardsManager.getSearcherManager()::getVersion);
+            SelectionFeedbackDocumentsResponse cached = resultCache.get(key, generation, SelectionFeedbackDocumentsResponse.class);
+            if (cached != null) {
+                long endTime = System.currentTimeMillis();
+                logger.info(String.format(Locale.ENGLISH, "%4dms cached %s", (endTime - startTime), q));
+                ResponseHeader responseHeader = new ResponseHeader(counter.incrementAndGet(), 0, (endTime - startTime), params);
+                return new SelectionSearchResponse(responseHeader, cached);
+            }
+
             String query = URLDecoder.decode(q, StandardCharsets.UTF_8);
             String filterQuery = URLDecoder.decode(fq.orElse(""), StandardCharsets.UTF_8);
-            long[] epochs = Epochs.parseEpoch(epoch);
-
-            if (day.isPresent()) {
-                LocalDateTimeParam dateTimeParam = day.get();
-                epochs = Epochs.parseDay(dateTimeParam.get());
-            }
+            long[] epochs = day.isPresent() ? Epochs.parseDay(day.get().get()) : Epochs.parseEpoch(epoch);
 
             // get the query epoch
             double currentEpoch = System.currentTimeMillis() / 1000L;
             double queryEpoch = epoch.isPresent() ? epochs[1] : currentEpoch;
 
-            int c_sel = 0;
-            Selection selection;
+            // the feedback search of the merged feedback does not depend on the selection and runs alongside it,
+            // each stage gets a share of the request deadline and results cut short are not cached
+            Pipeline pipeline = requestExecutor.pipeline("mf");
+            AtomicBoolean partial = new AtomicBoolean();
+            CompletableFuture<Selection> selectionStage = pipeline.stage("selection", () -> {
+                if ("taily".equalsIgnoreCase(method)) {
+                    return tailyManager.selection(query, v, topics);
+                }
+                Deadline selectionDeadline = deadline.stage(requestExecutor.getSelectionTimeoutMillis());
+                Selection csiSelection = selectionManager.selection(query, filterQuery, maxId, epochs, sLimit, sRetweets, sFuture,
+                        method, maxCol, minRanks, normalize, topics, selectionDeadline);
+                if (selectionDeadline.isExpired()) {
+                    partial.set(true);
+                }
+                return csiSelection;
+            });
+
+            CompletableFuture<SelectionTopDocuments> shardsStage = pipeline.stage("shards", selectionStage, selection -> {
+                Set<String> selected;
+                if (topic.isPresent()) {
+                    selected = Sets.newHashSet(topic.get());
+                } else {
+                    selected = Sets.newHashSet(Iterables.limit(selection.getCollections().keySet(), fbCols));
+                }
+
+                Deadline feedbackDeadline = deadline.stage(requestExecutor.getFeedbackTimeoutMillis());
+                SelectionTopDocuments shardResults = shardsManager.search(maxId, epochs, sRetweets, sFuture, limit, topics, query, filterQuery, selected, null, feedbackDeadline);
+                if (feedbackDeadline.isExpired()) {
+                    partial.set(true);
+                }
+                return shardResults;
+            });
+
+            CompletableFuture<FeatureVector> mergeStage = null;
+            if (fbMerge) {
+                mergeStage = pipeline.stage("merge", () -> {
+                    if (deadline.isExpired()) {
+                        partial.set(true);
+                        return null;
+                    }
+                    Deadline mergeDeadline = deadline.stage(requestExecutor.getFeedbackTimeoutMillis());
+                    TopDocuments selectResults = searchManager.search(snapshot.withTimeout(mergeDeadline), query, filterQuery, maxId, limit, retweets, epochs, false, false, null);
+                    if (mergeDeadline.isExpired()) {
+                        partial.set(true);
+                    }
+                    return buildFeedbackFV(fbDocs, fbTerms, selectResults.scoreDocs, searchManager.getStopper(), snapshot.getCollectionStats());
+                });
+            }
+
+            Selection selection = Pipeline.await(selectionStage);
+            int c_sel;
             if ("taily".equalsIgnoreCase(method)) {
-                selection = tailyManager.selection(query, v, topics);
                 if (topics) {
                     c_sel = tailyManager.getTopics().size();
                 } else {
                     c_sel = tailyManager.getUsers().size();
                 }
             } else {
-                selection = selectionManager.selection(query, filterQuery, maxId, epochs, sLimit, sRetweets, sFuture,
-                        method, maxCol, minRanks, normalize, topics);
                 SelectionTopDocuments selectionTopDocuments = selection.getResults();
                 c_sel = selectionTopDocuments.getC_sel();
             }
 
-            Set<String> selected;
-            if (topic.isPresent()) {
-                selected = Sets.newHashSet(topic.get());
-            } else {
-                selected = Sets.newHashSet(Iterables.limit(selection.getCollections().keySet(), fbCols));
-            }
-
-            SelectionTopDocuments shardResults = shardsManager.search(maxId, epochs, sRetweets, sFuture, limit, topics, query, filterQuery, selected);
+            SelectionTopDocuments shardResults = Pipeline.await(shardsStage);
             shardResults.scoreDocs = shardResults.scoreDocs.subList(0, Math.min(fbDocs, shardResults.scoreDocs.size()));
 
             RerankerContext shardContext = new RerankerContext(null, null, "MB000", query,
@@ -160,14 +229,20 @@ public SelectionSearchResponse search(@Parameter(name = "Search query", required
 
             FeatureVector shardsFV = null;
             if (shardResults.totalHits > 0) {
-                shardsFV = buildFeedbackFV(fbDocs, fbTerms, shardResults.scoreDocs, shardsManager.getStopper(), searchManager.getCollectionStats());
+                shardsFV = buildFeedbackFV(fbDocs, fbTerms, shardResults.scoreDocs, shardsManager.getStopper(), snapshot.getCollectionStats());
             }
 
             FeatureVector feedbackFV = null;
             FeatureVector fbVector;
-            if (fbMerge) {
-                TopDocuments selectResults = searchManager.search(query, filterQuery, maxId, limit, retweets, epochs);
-                feedbackFV = buildFeedbackFV(fbDocs, fbTerms, selectResults.scoreDocs, searchManager.getStopper(), searchManager.getCollectionStats());
+            if (mergeStage != null && deadline.isExpired() && !mergeStage.isDone()) {
+                // past the deadline the merged feedback is not waited for, nor run if it has not started yet
+                logger.warn("Deadline reached, skipping merged feedback: {}", query);
+                mergeStage.cancel(false);
+                partial.set(true);
+            } else if (mergeStage != null) {
+                feedbackFV = Pipeline.await(mergeStage);
+            }
+            if (feedbackFV != null) {
                 fbVector = interpruneFV(fbTerms, fbWeight.floatValue(), shardsFV, feedbackFV);
             } else {
                 fbVector = shardsFV;
@@ -177,11 +252,24 @@ public SelectionSearchResponse search(@Parameter(name = "Search query", required
             fbVector = interpruneFV(fbTerms, fbWeight.floatValue(), queryFV, fbVector);
             String finalQuery = buildQuery(fbVector);
 
-            TopDocuments results = searchManager.search(finalQuery, filterQuery, maxId, limit, retweets, epochs);
+            TopDocuments results = Pipeline.await(pipeline.stage("search", () -> {
+                Deadline searchDeadline = deadline.stage(requestExecutor.getSearchTimeoutMillis());
+                TopDocuments finalResults = searchManager.search(snapshot.withTimeout(searchDeadline), finalQuery, filterQuery, maxId, limit, retweets, epochs, false, false, null);
+                if (searchDeadline.isExpired()) {
+                    partial.set(true);
+                }
+                return finalResults;
+            }));
+            logger.debug("Stages {} {}", pipeline, query);
 
             RerankerCascade cascade = new RerankerCascade();
             if (temporal) {
-                cascade.add(new RMTSReranker("mf.model", query, queryEpoch, (List<StatusDocument>) shardResults.scoreDocs, searchManager.getAnalyzer(), searchManager.getCollectionStats(), limit, numRerank, rerank));
+                if (deadline.isExpired()) {
+                    logger.warn("Deadline reached, skipping reranking: {}", query);
+                    partial.set(true);
+                } else {
+                    cascade.add(new RMTSReranker("mf.model", query, queryEpoch, (List<StatusDocument>) shardResults.scoreDocs, searchManager.getAnalyzer(), snapshot.getCollectionStats(), limit, numRerank, rerank));
+                }
             }
             cascade.add(new MeanTFFilter(3));
 
@@ -200,6 +288,9 @@ public SelectionSearchResponse search(@Parameter(name = "Search query", required
 
             ResponseHeader responseHeader = new ResponseHeader(counter.incrementAndGet(), 0, (endTime - startTime), params);
             SelectionFeedbackDocumentsResponse documentsResponse = new SelectionFeedbackDocumentsResponse(selection.getCollections().entrySet(), method, c_sel, totalFbDocs, fbTerms, shardsFV.getMap().entrySet(), feedbackFV != null ? feedbackFV.getMap().entrySet() : null, fbVector.getMap().entrySet(), 0, selection.getResults() != null ? selection.getResults().scoreDocs : null, shardResults, results);
+            if (!partial.get()) {
+                resultCache.put(key, generation, documentsResponse, documentsResponse.getDocs().size());
+            }
             return new SelectionSearchResponse(responseHeader, documentsResponse);
         } catch (ParseException pe) {
             throw new BadRequestException(pe.getClass().getSimpleName());
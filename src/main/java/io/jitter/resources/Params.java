@@ -0,0 +1,60 @@
+package io.jitter.resources;
+
+import io.jitter.core.search.SearchCursor;
+import io.jitter.core.utils.Epochs;
+import jakarta.ws.rs.BadRequestException;
+import org.apache.lucene.search.Sort;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+/**
+ * Checks of the query parameters of the search resources, done before searching so that a bad parameter answers
+ * 400 with what is wrong with it, and an {@link IllegalArgumentException} of the search itself stays a 500.
+ */
+final class Params {
+
+    private Params() {
+    }
+
+    /**
+     * @throws BadRequestException if {@code value} has a malformed escape
+     */
+    static String decode(String name, String value) {
+        try {
+            return URLDecoder.decode(value, StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Invalid " + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * @throws BadRequestException if {@code epoch} is not a range of epochs, see {@link Epochs#checkEpochRange(String)}
+     */
+    static long[] epochs(Optional<String> epoch) {
+        if (epoch.isEmpty()) {
+            return new long[2];
+        }
+        try {
+            return Epochs.checkEpochRange(epoch.get());
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Invalid epoch: " + epoch.get());
+        }
+    }
+
+    /**
+     * @param sort the sort of the search, or null if it is ranked by score
+     * @throws BadRequestException if {@code cursor} was not returned by a search with {@code sort}
+     */
+    static SearchCursor cursor(Optional<String> cursor, Sort sort) {
+        if (cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            return SearchCursor.parse(cursor.get(), sort);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(e.getMessage());
+        }
+    }
+}
@@ -12,11 +12,16 @@
 import io.jitter.api.search.RMTSDocumentsResponse;
 import io.jitter.api.search.SelectionSearchResponse;
 import io.jitter.api.search.StatusDocument;
+import io.jitter.core.cache.ResultCache;
 import io.jitter.core.rerank.MeanTFFilter;
 import io.jitter.core.rerank.RMTSReranker;
 import io.jitter.core.rerank.RerankerCascade;
 import io.jitter.core.rerank.RerankerContext;
+import io.jitter.core.search.Deadline;
+import io.jitter.core.search.Pipeline;
+import io.jitter.core.search.RequestExecutor;
 import io.jitter.core.search.SearchManager;
+import io.jitter.core.search.SearchSnapshot;
 import io.jitter.core.search.TopDocuments;
 import io.jitter.core.selection.Selection;
 import io.jitter.core.selection.SelectionManager;
@@ -30,8 +35,12 @@
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.container.AsyncResponse;
+import jakarta.ws.rs.container.Suspended;
 import jakarta.ws.rs.core.*;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.slf4j.Logger;
@@ -44,8 +53,11 @@
 import java.util.Locale;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
 
 @Path("/rmts")
 @Tag(name = "/rmts", description = "Enhanced temporal search endpoint")
@@ -58,18 +70,24 @@ public class RMTSResource extends AbstractFeedbackResource {
     private final SelectionManager selectionManager;
     private final ShardsManager shardsManager;
     private final TailyManager tailyManager;
+    private final ResultCache resultCache;
+    private final RequestExecutor requestExecutor;
 
-    public RMTSResource(SearchManager searchManager, SelectionManager selectionManager, ShardsManager shardsManager, TailyManager tailyManager) throws IOException {
+    public RMTSResource(SearchManager searchManager, SelectionManager selectionManager, ShardsManager shardsManager, TailyManager tailyManager, ResultCache resultCache, RequestExecutor requestExecutor) throws IOException {
         Preconditions.checkNotNull(searchManager);
         Preconditions.checkNotNull(selectionManager);
         Preconditions.checkNotNull(shardsManager);
         Preconditions.checkNotNull(tailyManager);
+        Preconditions.checkNotNull(resultCache);
+        Preconditions.checkNotNull(requestExecutor);
 
         counter = new AtomicLong();
         this.searchManager = searchManager;
         this.selectionManager = selectionManager;
         this.shardsManager = shardsManager;
         this.tailyManager = tailyManager;
+        this.resultCache = resultCache;
+        this.requestExecutor = requestExecutor;
     }
 
     @GET
@@ -84,68 +102,114 @@ public RMTSResource(SearchManager searchManager, SelectionManager selectionManag
             @ApiResponse(responseCode = "404", description = "No results found"),
             @ApiResponse(responseCode = "500", description = "Internal Server Error")
     })
-    public SelectionSearchResponse search(@Parameter(name = "Search query", required = true) @QueryParam("q") @NotBlank String q,
-                                          @Parameter(hidden = true) @QueryParam("fq") Optional<String> fq,
-                                          @Parameter(name = "Limit results", schema = @Schema(minimum = "1", maximum = "10000")) @QueryParam("limit") @DefaultValue("1000") Integer limit,
-                                          @Parameter(name = "Include retweets") @QueryParam("retweets") @DefaultValue("false") Boolean retweets,
-                                          @Parameter(name = "Maximum document id") @QueryParam("maxId") Optional<Long> maxId,
-                                          @Parameter(name = "Epoch filter") @QueryParam("epoch") Optional<String> epoch,
-                                          @Parameter(name = "Day filter") @QueryParam("day") Optional<LocalDateTimeParam> day,
-                                          @Parameter(name = "Limit feedback results", schema = @Schema(minimum = "1", maximum = "10000")) @QueryParam("sLimit") @DefaultValue("1000") Integer sLimit,
-                                          @Parameter(name = "Include retweets for feedback") @QueryParam("sRetweets") @DefaultValue("true") Boolean sRetweets,
-                                          @Parameter(hidden = true) @QueryParam("sFuture") @DefaultValue("false") Boolean sFuture,
-                                          @Parameter(name = "Resource selection method", schema = @Schema(allowableValues = {"taily", "ranks", "crcsexp", "crcslin", "votes", "sizes"})) @QueryParam("method") @DefaultValue("ranks") String method,
-                                          @Parameter(name = "Maximum number of collections", schema = @Schema(minimum = "1", maximum = "100")) @QueryParam("maxCol") @DefaultValue("3") Integer maxCol,
-                                          @Parameter(name = "Rank-S parameter", schema = @Schema(minimum = "1", maximum = "1")) @QueryParam("minRanks") @DefaultValue("1e-5") Double minRanks,
-                                          @Parameter(name = "Use collection size normalization") @QueryParam("normalize") @DefaultValue("true") Boolean normalize,
-                                          @Parameter(name = "Taily parameter", schema = @Schema(minimum = "1", maximum = "100")) @QueryParam("v") @DefaultValue("10") Integer v,
-                                          @Parameter(name = "Force topic") @QueryParam("topic") Optional<String> topic,
-                                          @Parameter(name = "Number of feedback documents", schema = @Schema(minimum = "1", maximum = "1000")) @QueryParam("fbDocs") @DefaultValue("50") Integer fbDocs,
-                                          @Parameter(name = "Number of feedback terms", schema = @Schema(minimum = "1", maximum = "1000")) @QueryParam("fbTerms") @DefaultValue("20") Integer fbTerms,
-                                          @Parameter(name = "Original query weight", schema = @Schema(minimum = "1", maximum = "1")) @QueryParam("fbWeight") @DefaultValue("0.5") Double fbWeight,
-                                          @Parameter(name = "Number of feedback collections") @QueryParam("fbCols") @DefaultValue("3") Integer fbCols,
-                                          @Parameter(name = "Use topics") @QueryParam("topics") @DefaultValue("true") Boolean topics,
-                                          @Parameter(hidden = true) @QueryParam("rerank") @DefaultValue("true") Boolean rerank,
-                                          @Parameter(name = "Number of documents to rerank", schema = @Schema(minimum = "1", maximum = "1000")) @QueryParam("numRerank") @DefaultValue("1000") Integer numRerank,
-                                          @Parameter(hidden = true) @Context UriInfo uriInfo) {
+    public void search(@Suspended AsyncResponse asyncResponse,
+                       @Parameter(name = "Search query", required = true) @QueryParam("q") @NotBlank String q,
+                       @Parameter(hidden = true) @QueryParam("fq") Optional<String> fq,
+                       @Parameter(name = "Limit results", schema = @Schema(minimum = "1", maximum = "10000")) @QueryParam("limit") @DefaultValue("1000") Integer limit,
+                       @Parameter(name = "Include retweets") @QueryParam("retweets") @DefaultValue("false") Boolean retweets,
+                       @Parameter(name = "Maximum document id") @QueryParam("maxId") Optional<Long> maxId,
+                       @Parameter(name = "Epoch filter") @QueryParam("epoch") Optional<String> epoch,
+                       @Parameter(name = "Day filter") @QueryParam("day") Optional<LocalDateTimeParam> day,
+                       @Parameter(name = "Limit feedback results", schema = @Schema(minimum = "1", maximum = "10000")) @QueryParam("sLimit") @DefaultValue("1000") Integer sLimit,
+                       @Parameter(name = "Include retweets for feedback") @QueryParam("sRetweets") @DefaultValue("true") Boolean sRetweets,
+                       @Parameter(hidden = true) @QueryParam("sFuture") @DefaultValue("false") Boolean sFuture,
+                       @Parameter(name = "Resource selection method", schema = @Schema(allowableValues = {"taily", "ranks", "crcsexp", "crcslin", "votes", "sizes"})) @QueryParam("method") @DefaultValue("ranks") String method,
+                       @Parameter(name = "Maximum number of collections", schema = @Schema(minimum = "1", maximum = "100")) @QueryParam("maxCol") @DefaultValue("3") Integer maxCol,
+                       @Parameter(name = "Rank-S parameter", schema = @Schema(minimum = "1", maximum = "1")) @QueryParam("minRanks") @DefaultValue("1e-5") Double minRanks,
+                       @Parameter(name = "Use collection size normalization") @QueryParam("normalize") @DefaultValue("true") Boolean normalize,
+                       @Parameter(name = "Taily parameter", schema = @Schema(minimum = "1", maximum = "100")) @QueryParam("v") @DefaultValue("10") Integer v,
+                       @Parameter(name = "Force topic") @QueryParam("topic") Optional<String> topic,
+                       @Parameter(name = "Number of feedback documents", schema = @Schema(minimum = "1", maximum = "1000")) @QueryParam("fbDocs") @DefaultValue("50") Integer fbDocs,
+                       @Parameter(name = "Number of feedback terms", schema = @Schema(minimum = "1", maximum = "1000")) @QueryParam("fbTerms") @DefaultValue("20") Integer fbTerms,
+                       @Parameter(name = "Original query weight", schema = @Schema(minimum = "0", maximum = "1")) @QueryParam("fbWeight") @DefaultValue("0.5") @DecimalMin("0") @DecimalMax("1") Double fbWeight,
+                       @Parameter(name = "Number of feedback collections") @QueryParam("fbCols") @DefaultValue("3") Integer fbCols,
+                       @Parameter(name = "Use topics") @QueryParam("topics") @DefaultValue("true") Boolean topics,
+                       @Parameter(hidden = true) @QueryParam("rerank") @DefaultValue("true") Boolean rerank,
+                       @Parameter(name = "Number of documents to rerank", schema = @Schema(minimum = "1", maximum = "1000")) @QueryParam("numRerank") @DefaultValue("1000") Integer numRerank,
+                       @Parameter(hidden = true) @Context UriInfo uriInfo) {
+        Deadline deadline = requestExecutor.deadline();
         MultivaluedMap<String, String> params = uriInfo.getQueryParameters();
+        submit(asyncResponse, requestExecutor, () -> search(deadline, q, fq, limit, retweets, maxId, epoch, day, sLimit, sRetweets, sFuture, method, maxCol, minRanks, normalize, v, topic, fbDocs, fbTerms, fbWeight, fbCols, topics, rerank, numRerank, params));
+    }
 
-        try {
+    private SelectionSearchResponse search(Deadline deadline, String q, Optional<String> fq, Integer limit, Boolean retweets, Optional<Long> maxId, Optional<String> epoch, Optional<LocalDateTimeParam> day, Integer sLimit, Boolean sRetweets, Boolean sFuture, String method, Integer maxCol, Double minRanks, Boolean normalize, Integer v, Optional<String> topic, Integer fbDocs, Integer fbTerms, Double fbWeight, Integer fbCols, Boolean topics, Boolean rerank, Integer numRerank, MultivaluedMap<String, String> params) {
+        // the search and the reranking of its hits read the same reader
+        try (SearchSnapshot snapshot = searchManager.snapshot()) {
             long startTime = System.currentTimeMillis();
-            String query = URLDecoder.decode(q, StandardCharsets.UTF_8);
-            String filterQuery = URLDecoder.decode(fq.orElse(""), StandardCharsets.UTF_8);
-            long[] epochs = Epochs.parseEpoch(epoch);
-
-            if (day.isPresent()) {
-                LocalDateTimeParam dateTimeParam = day.get();
-                epochs = Epochs.parseDay(dateTimeParam.get());
+            ResultCache.Key key = resultCache.key("rmts", params);
+            // the shards are selected by Taily or by a search of the selection index
+            LongSupplier selectionVersion = "taily".equalsIgnoreCase(method) ? tailyManager::getVersion : selectionManager.getSearcherManager()::getVersion;
+            ResultCache.Generation generation = resultCache.generation(snapshot, selectionVersion, shardsManager.getSearcherManager()::getVersion);
+            RMTSDocumentsResponse cached = resultCache.get(key, generation, RMTSDocumentsResponse.class);
+            if (cached != null) {
+                long endTime = System.currentTimeMillis();
+                logger.info(String.format(Locale.ENGLISH, "%4dms cached %s", (endTime - startTime), q));
+                ResponseHeader responseHeader = new ResponseHeader(counter.incrementAndGet(), 0, (endTime - startTime), params);
+                return new SelectionSearchResponse(responseHeader, cached);
             }
 
-            Selection selection;
-            if ("taily".equalsIgnoreCase(method)) {
-                selection = tailyManager.selection(query, v, topics);
-            } else {
-                selection = selectionManager.selection(query, filterQuery, maxId, epochs, sLimit, sRetweets, sFuture,
-                        method, maxCol, minRanks, normalize, topics);
-            }
-
-            Set<String> selected;
-            if (topic.isPresent()) {
-                selected = Sets.newHashSet(topic.get());
-            } else {
-                selected = Sets.newHashSet(Iterables.limit(selection.getCollections().keySet(), fbCols));
-            }
-
-            SelectionTopDocuments shardResults = shardsManager.search(maxId, epochs, sRetweets, sFuture, fbDocs, topics, query, filterQuery, selected);
+            String query = URLDecoder.decode(q, StandardCharsets.UTF_8);
+            String filterQuery = URLDecoder.decode(fq.orElse(""), StandardCharsets.UTF_8);
+            long[] epochs = day.isPresent() ? Epochs.parseDay(day.get().get()) : Epochs.parseEpoch(epoch);
 
             // get the query epoch
             double currentEpoch = System.currentTimeMillis() / 1000L;
             double queryEpoch = epoch.isPresent() ? epochs[1] : currentEpoch;
 
-            TopDocuments results = searchManager.search(query, filterQuery, maxId, limit, retweets, epochs);
+            // the search does not depend on the selection and runs alongside it, each stage gets a share of the
+            // request deadline and results cut short are not cached
+            Pipeline pipeline = requestExecutor.pipeline("rmts");
+            AtomicBoolean partial = new AtomicBoolean();
+            CompletableFuture<Selection> selectionStage = pipeline.stage("selection", () -> {
+                if ("taily".equalsIgnoreCase(method)) {
+                    return tailyManager.selection(query, v, topics);
+                }
+                Deadline selectionDeadline = deadline.stage(requestExecutor.getSelectionTimeoutMillis());
+                Selection csiSelection = selectionManager.selection(query, filterQuery, maxId, epochs, sLimit, sRetweets, sFuture,
+                        method, maxCol, minRanks, normalize, topics, selectionDeadline);
+                if (selectionDeadline.isExpired()) {
+                    partial.set(true);
+                }
+                return csiSelection;
+            });
+
+            CompletableFuture<SelectionTopDocuments> shardsStage = pipeline.stage("shards", selectionStage, selection -> {
+                Set<String> selected;
+                if (topic.isPresent()) {
+                    selected = Sets.newHashSet(topic.get());
+                } else {
+                    selected = Sets.newHashSet(Iterables.limit(selection.getCollections().keySet(), fbCols));
+                }
+
+                Deadline feedbackDeadline = deadline.stage(requestExecutor.getFeedbackTimeoutMillis());
+                SelectionTopDocuments shardResults = shardsManager.search(maxId, epochs, sRetweets, sFuture, fbDocs, topics, query, filterQuery, selected, null, feedbackDeadline);
+                if (feedbackDeadline.isExpired()) {
+                    partial.set(true);
+                }
+                return shardResults;
+            });
+
+            CompletableFuture<TopDocuments> searchStage = pipeline.stage("search", () -> {
+                Deadline searchDeadline = deadline.stage(requestExecutor.getSearchTimeoutMillis());
+                TopDocuments results = searchManager.search(snapshot.withTimeout(searchDeadline), query, filterQuery, maxId, limit, retweets, epochs, false, false, null);
+                if (searchDeadline.isExpired()) {
+                    partial.set(true);
+                }
+                return results;
+            });
+
+            Selection selection = Pipeline.await(selectionStage);
+            SelectionTopDocuments shardResults = Pipeline.await(shardsStage);
+            TopDocuments results = Pipeline.await(searchStage);
+            logger.debug("Stages {} {}", pipeline, query);
 
             RerankerCascade cascade = new RerankerCascade();
-            cascade.add(new RMTSReranker("rmts.model", query, queryEpoch, (List<StatusDocument>) shardResults.scoreDocs, searchManager.getAnalyzer(), searchManager.getCollectionStats(), limit, numRerank, rerank));
+            if (deadline.isExpired()) {
+                logger.warn("Deadline reached, skipping reranking: {}", query);
+                partial.set(true);
+            } else {
+                cascade.add(new RMTSReranker("rmts.model", query, queryEpoch, (List<StatusDocument>) shardResults.scoreDocs, searchManager.getAnalyzer(), snapshot.getCollectionStats(), limit, numRerank, rerank));
+            }
             cascade.add(new MeanTFFilter(3));
 
             RerankerContext context = new RerankerContext(null, null, "MB000", query,
@@ -162,6 +226,9 @@ public SelectionSearchResponse search(@Parameter(name = "Search query", required
 
             ResponseHeader responseHeader = new ResponseHeader(counter.incrementAndGet(), 0, (endTime - startTime), params);
             RMTSDocumentsResponse documentsResponse = new RMTSDocumentsResponse(selection.getCollections().entrySet(), method, 0, selection.getResults(), shardResults, results);
+            if (!partial.get()) {
+                resultCache.put(key, generation, documentsResponse, documentsResponse.getDocs().size());
+            }
             return new SelectionSearchResponse(responseHeader, documentsResponse);
         } catch (ParseException pe) {
             throw new BadRequestException(pe.getClass().getSimpleName());
@@ -7,7 +7,11 @@
 import io.jitter.api.ResponseHeader;
 import io.jitter.api.search.DocumentsResponse;
 import io.jitter.api.search.SearchResponse;
+import io.jitter.core.cache.ResultCache;
+import io.jitter.core.search.SearchCursor;
 import io.jitter.core.search.SearchManager;
+import io.jitter.core.search.SearchSnapshot;
+import io.jitter.core.search.StatusColumns;
 import io.jitter.core.search.TopDocuments;
 import io.jitter.core.utils.Epochs;
 import io.swagger.v3.oas.annotations.Operation;
@@ -16,6 +20,8 @@
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.*;
@@ -24,8 +30,6 @@
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.net.URLDecoder;
-import java.nio.charset.StandardCharsets;
 import java.util.Locale;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
@@ -39,12 +43,15 @@ public class SearchResource {
 
     private final AtomicLong counter;
     private final SearchManager searchManager;
+    private final ResultCache resultCache;
 
-    public SearchResource(SearchManager searchManager) throws IOException {
+    public SearchResource(SearchManager searchManager, ResultCache resultCache) throws IOException {
         Preconditions.checkNotNull(searchManager);
+        Preconditions.checkNotNull(resultCache);
 
         counter = new AtomicLong();
         this.searchManager = searchManager;
+        this.resultCache = resultCache;
     }
 
     @GET
@@ -57,42 +64,60 @@ public SearchResource(SearchManager searchManager) throws IOException {
     @ApiResponses(value = {
             @ApiResponse(responseCode = "400", description = "Invalid query"),
             @ApiResponse(responseCode = "404", description = "No results found"),
+            @ApiResponse(responseCode = "410", description = "Cursor expired"),
             @ApiResponse(responseCode = "500", description = "Internal Server Error")
     })
     public SearchResponse search(@Parameter(name = "Search query", required = true) @QueryParam("q") @NotBlank String q,
                                  @Parameter(hidden = true) @QueryParam("fq") Optional<String> fq,
-                                 @Parameter(name = "Limit results", schema = @Schema(minimum = "1", maximum = "10000")) @QueryParam("limit") @DefaultValue("1000") Integer limit, @Parameter(name = "Include retweets") @QueryParam("retweets") @DefaultValue("false") Boolean retweets,
+                                 @Parameter(name = "Limit results", schema = @Schema(minimum = "1", maximum = "10000")) @QueryParam("limit") @DefaultValue("1000") @Min(1) @Max(10000) Integer limit, @Parameter(name = "Include retweets") @QueryParam("retweets") @DefaultValue("false") Boolean retweets,
                                  @Parameter(name = "Maximum document id") @QueryParam("maxId") Optional<Long> maxId,
                                  @Parameter(name = "Epoch filter") @QueryParam("epoch") Optional<String> epoch,
                                  @Parameter(name = "Day filter") @QueryParam("day") Optional<LocalDateTimeParam> day,
+                                 @Parameter(name = "Latest results first") @QueryParam("latest") @DefaultValue("false") Boolean latest,
+                                 @Parameter(name = "Page cursor, * for the first page") @QueryParam("cursor") Optional<String> cursor,
                                  @Parameter(hidden = true) @Context UriInfo uriInfo) {
         MultivaluedMap<String, String> params = uriInfo.getQueryParameters();
+        String query = Params.decode("q", q);
+        String filterQuery = Params.decode("fq", fq.orElse(""));
+        long[] epochs = Params.epochs(epoch);
+        if (day.isPresent()) {
+            LocalDateTimeParam dateTimeParam = day.get();
+            epochs = Epochs.parseDay(dateTimeParam.get());
+        }
+        SearchCursor searchCursor = Params.cursor(cursor, latest ? StatusColumns.TIME_SORT : null);
 
         try {
-            long startTime = System.currentTimeMillis();
-            String query = URLDecoder.decode(q, StandardCharsets.UTF_8);
-            String filterQuery = URLDecoder.decode(fq.orElse(""), StandardCharsets.UTF_8);
-            long[] epochs = Epochs.parseEpoch(epoch);
+            // the page of the cursor is collected from the reader it was taken on
+            try (SearchSnapshot snapshot = searchManager.snapshot(searchCursor)) {
+                long startTime = System.currentTimeMillis();
+                ResultCache.Key key = resultCache.key("search", params);
+                ResultCache.Generation generation = resultCache.generation(snapshot);
+                DocumentsResponse cached = resultCache.get(key, generation, DocumentsResponse.class);
+                if (cached != null) {
+                    long endTime = System.currentTimeMillis();
+                    logger.info(String.format(Locale.ENGLISH, "%4dms cached %s", (endTime - startTime), q));
+                    ResponseHeader responseHeader = new ResponseHeader(counter.incrementAndGet(), 0, (endTime - startTime), params);
+                    return new SearchResponse(responseHeader, cached);
+                }
 
-            if (day.isPresent()) {
-                LocalDateTimeParam dateTimeParam = day.get();
-                epochs = Epochs.parseDay(dateTimeParam.get());
-            }
+                TopDocuments results = searchManager.search(snapshot, query, filterQuery, maxId, limit, retweets, epochs, false, latest, searchCursor);
+                int totalHits = results != null ? results.totalHits : 0;
+                if (totalHits == 0) {
+                    throw new NotFoundException("No results found");
+                }
 
-            TopDocuments results = searchManager.search(query, filterQuery, maxId, limit, retweets, epochs);
-            int totalHits = results != null ? results.totalHits : 0;
-            if (totalHits == 0) {
-                throw new NotFoundException("No results found");
-            }
+                long endTime = System.currentTimeMillis();
+                logger.info(String.format(Locale.ENGLISH, "%4dms %4dhits %s", (endTime - startTime), totalHits, query));
 
-            long endTime = System.currentTimeMillis();
-            logger.info(String.format(Locale.ENGLISH, "%4dms %4dhits %s", (endTime - startTime), totalHits, query));
-
-            ResponseHeader responseHeader = new ResponseHeader(counter.incrementAndGet(), 0, (endTime - startTime), params);
-            DocumentsResponse documentsResponse = new DocumentsResponse(totalHits, 0, results);
-            return new SearchResponse(responseHeader, documentsResponse);
+                ResponseHeader responseHeader = new ResponseHeader(counter.incrementAndGet(), 0, (endTime - startTime), params);
+                DocumentsResponse documentsResponse = new DocumentsResponse(totalHits, 0, results);
+                resultCache.put(key, generation, documentsResponse, documentsResponse.getDocs().size());
+                return new SearchResponse(responseHeader, documentsResponse);
+            }
         } catch (ParseException pe) {
             throw new BadRequestException(pe.getClass().getSimpleName());
+        } catch (SearchCursor.StaleCursorException sce) {
+            throw new ClientErrorException(sce.getMessage(), Response.Status.GONE);
         } catch (IOException ioe) {
             throw new ServerErrorException(Response.Status.INTERNAL_SERVER_ERROR);
         }
@@ -6,25 +6,28 @@
 import io.jitter.api.ResponseHeader;
 import io.jitter.api.search.SelectionSearchDocumentsResponse;
 import io.jitter.api.search.SelectionSearchResponse;
+import io.jitter.core.search.Pipeline;
+import io.jitter.core.search.RequestExecutor;
+import io.jitter.core.search.SearchCursor;
 import io.jitter.core.selection.Selection;
 import io.jitter.core.selection.SelectionManager;
 import io.jitter.core.selection.SelectionTopDocuments;
 import io.jitter.core.shards.ShardsManager;
 import io.jitter.core.taily.TailyManager;
-import io.jitter.core.utils.Epochs;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.MultivaluedMap;
+import jakarta.ws.rs.core.Response;
 import jakarta.ws.rs.core.UriInfo;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.net.URLDecoder;
-import java.nio.charset.StandardCharsets;
 import java.util.Locale;
 import java.util.Optional;
 import java.util.Set;
@@ -40,16 +43,19 @@ public class SelectSearchResource extends AbstractFeedbackResource {
     private final SelectionManager selectionManager;
     private final ShardsManager shardsManager;
     private final TailyManager tailyManager;
+    private final RequestExecutor requestExecutor;
 
-    public SelectSearchResource(SelectionManager selectionManager, ShardsManager shardsManager, TailyManager tailyManager) throws IOException {
+    public SelectSearchResource(SelectionManager selectionManager, ShardsManager shardsManager, TailyManager tailyManager, RequestExecutor requestExecutor) throws IOException {
         Preconditions.checkNotNull(selectionManager);
         Preconditions.checkNotNull(shardsManager);
         Preconditions.checkNotNull(tailyManager);
+        Preconditions.checkNotNull(requestExecutor);
 
         counter = new AtomicLong();
         this.selectionManager = selectionManager;
         this.shardsManager = shardsManager;
         this.tailyManager = tailyManager;
+        this.requestExecutor = requestExecutor;
     }
 
     @GET
@@ -57,11 +63,11 @@ public SelectSearchResource(SelectionManager selectionManager, ShardsManager sha
     @CacheControl(maxAge = 1, maxAgeUnit = TimeUnit.HOURS)
     public SelectionSearchResponse search(@QueryParam("q") @NotBlank String q,
                                           @QueryParam("fq") Optional<String> fq,
-                                          @QueryParam("limit") @DefaultValue("1000") Integer limit,
+                                          @QueryParam("limit") @DefaultValue("1000") @Min(1) @Max(10000) Integer limit,
                                           @QueryParam("retweets") @DefaultValue("false") Boolean retweets,
                                           @QueryParam("maxId") Optional<Long> maxId,
                                           @QueryParam("epoch") Optional<String> epoch,
-                                          @QueryParam("sLimit") @DefaultValue("50") Integer sLimit,
+                                          @QueryParam("sLimit") @DefaultValue("50") @Min(1) @Max(10000) Integer sLimit,
                                           @QueryParam("sRetweets") @DefaultValue("true") Boolean sRetweets,
                                           @QueryParam("sFuture") @DefaultValue("false") Boolean sFuture,
                                           @QueryParam("method") @DefaultValue("ranks") String method,
@@ -70,26 +76,37 @@ public SelectionSearchResponse search(@QueryParam("q") @NotBlank String q,
                                           @QueryParam("minRanks") @DefaultValue("1e-5") Double minRanks,
                                           @QueryParam("normalize") @DefaultValue("true") Boolean normalize,
                                           @QueryParam("v") @DefaultValue("10") Integer v,
+                                          @QueryParam("cursor") Optional<String> cursor,
                                           @Context UriInfo uriInfo)
             throws IOException, ParseException {
         MultivaluedMap<String, String> params = uriInfo.getQueryParameters();
-        String query = URLDecoder.decode(q, StandardCharsets.UTF_8);
-        String filterQuery = URLDecoder.decode(fq.orElse(""), StandardCharsets.UTF_8);
-        long[] epochs = Epochs.parseEpoch(epoch);
+        String query = Params.decode("q", q);
+        String filterQuery = Params.decode("fq", fq.orElse(""));
+        long[] epochs = Params.epochs(epoch);
+        // the shards are searched by score
+        SearchCursor searchCursor = Params.cursor(cursor, null);
 
         long startTime = System.currentTimeMillis();
 
-        Selection selection;
-        if ("taily".equalsIgnoreCase(method)) {
-            selection = tailyManager.selection(query, v, topics);
-        } else {
-            selection = selectionManager.selection(query, filterQuery, maxId, epochs, sLimit, sRetweets, sFuture,
+        // the shard search needs the selected collections, so the stages run in turn in the request thread
+        Pipeline pipeline = requestExecutor.pipeline("ss");
+        Selection selection = pipeline.call("selection", () -> {
+            if ("taily".equalsIgnoreCase(method)) {
+                return tailyManager.selection(query, v, topics);
+            }
+            return selectionManager.selection(query, filterQuery, maxId, epochs, sLimit, sRetweets, sFuture,
                     method, maxCol, minRanks, normalize, topics);
-        }
+        });
 
         Set<String> selected = selection.getCollections().keySet();
 
-        SelectionTopDocuments shardResults = shardsManager.search(maxId, epochs, retweets, sFuture, limit, topics, query, filterQuery, selected);
+        SelectionTopDocuments shardResults;
+        try {
+            shardResults = pipeline.call("shards", () -> shardsManager.search(maxId, epochs, retweets, sFuture, limit, topics, query, filterQuery, selected, searchCursor));
+        } catch (SearchCursor.StaleCursorException sce) {
+            throw new ClientErrorException(sce.getMessage(), Response.Status.GONE);
+        }
+        logger.debug("Stages {} {}", pipeline, query);
 
         long endTime = System.currentTimeMillis();
 
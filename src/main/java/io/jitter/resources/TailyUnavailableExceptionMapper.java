@@ -0,0 +1,24 @@
+package io.jitter.resources;
+
+import io.dropwizard.jersey.errors.ErrorMessage;
+import io.jitter.core.taily.TailyUnavailableException;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.ext.ExceptionMapper;
+import jakarta.ws.rs.ext.Provider;
+
+/**
+ * Answers 503 to requests that need Taily while its stores are not open.
+ */
+@Provider
+public class TailyUnavailableExceptionMapper implements ExceptionMapper<TailyUnavailableException> {
+
+    @Override
+    public Response toResponse(TailyUnavailableException e) {
+        int status = Response.Status.SERVICE_UNAVAILABLE.getStatusCode();
+        return Response.status(status)
+                .type(MediaType.APPLICATION_JSON_TYPE)
+                .entity(new ErrorMessage(status, e.getMessage()))
+                .build();
+    }
+}
@@ -17,6 +17,9 @@
 import io.jitter.core.rerank.RMTSReranker;
 import io.jitter.core.rerank.RerankerCascade;
 import io.jitter.core.rerank.RerankerContext;
+import io.jitter.core.search.Deadline;
+import io.jitter.core.search.Pipeline;
+import io.jitter.core.search.RequestExecutor;
 import io.jitter.core.search.TopDocuments;
 import io.jitter.core.selection.Selection;
 import io.jitter.core.selection.SelectionManager;
@@ -46,6 +49,8 @@
 import java.util.Locale;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -60,18 +65,21 @@ public class TrecMultiFeedbackResource extends AbstractFeedbackResource {
     private final SelectionManager selectionManager;
     private final ShardsManager shardsManager;
     private final TailyManager tailyManager;
+    private final RequestExecutor requestExecutor;
 
-    public TrecMultiFeedbackResource(TrecMicroblogAPIWrapper trecMicroblogAPIWrapper, SelectionManager selectionManager, ShardsManager shardsManager, TailyManager tailyManager) throws IOException {
+    public TrecMultiFeedbackResource(TrecMicroblogAPIWrapper trecMicroblogAPIWrapper, SelectionManager selectionManager, ShardsManager shardsManager, TailyManager tailyManager, RequestExecutor requestExecutor) throws IOException {
         Preconditions.checkNotNull(trecMicroblogAPIWrapper);
         Preconditions.checkNotNull(selectionManager);
         Preconditions.checkNotNull(shardsManager);
         Preconditions.checkNotNull(tailyManager);
+        Preconditions.checkNotNull(requestExecutor);
 
         counter = new AtomicLong();
         this.trecMicroblogAPIWrapper = trecMicroblogAPIWrapper;
         this.selectionManager = selectionManager;
         this.shardsManager = shardsManager;
         this.tailyManager = tailyManager;
+        this.requestExecutor = requestExecutor;
     }
 
     @GET
@@ -113,6 +121,7 @@ public SelectionSearchResponse search(@Parameter(name = "Search query", required
                                           @Parameter(hidden = true) @Context UriInfo uriInfo) {
         MultivaluedMap<String, String> params = uriInfo.getQueryParameters();
 
+        Deadline deadline = requestExecutor.deadline();
         try {
             long startTime = System.currentTimeMillis();
             String query = URLDecoder.decode(q, StandardCharsets.UTF_8);
@@ -123,30 +132,51 @@ public SelectionSearchResponse search(@Parameter(name = "Search query", required
             double currentEpoch = System.currentTimeMillis() / 1000L;
             double queryEpoch = epoch.isPresent() ? epochs[1] : currentEpoch;
 
-            int c_sel = 0;
-            Selection selection;
+            // the feedback search of the merged feedback does not depend on the selection and runs alongside it
+            Pipeline pipeline = requestExecutor.pipeline("trec.mf");
+            CompletableFuture<Selection> selectionStage = pipeline.stage("selection", () -> {
+                if ("taily".equalsIgnoreCase(method)) {
+                    return tailyManager.selection(query, v, topics);
+                }
+                return selectionManager.selection(query, filterQuery, maxId, epochs, sLimit, sRetweets, sFuture,
+                        method, maxCol, minRanks, normalize, topics);
+            });
+
+            CompletableFuture<SelectionTopDocuments> shardsStage = pipeline.stage("shards", selectionStage, selection -> {
+                Set<String> selected;
+                if (topic.isPresent()) {
+                    selected = Sets.newHashSet(topic.get());
+                } else {
+                    selected = Sets.newHashSet(Iterables.limit(selection.getCollections().keySet(), fbCols));
+                }
+                return shardsManager.search(maxId, epochs, sRetweets, sFuture, limit, topics, query, filterQuery, selected);
+            });
+
+            CompletableFuture<FeatureVector> mergeStage = null;
+            if (fbMerge) {
+                mergeStage = pipeline.stage("merge", () -> {
+                    if (deadline.isExpired()) {
+                        return null;
+                    }
+                    TopDocuments selectResults = trecMicroblogAPIWrapper.search(query, maxId, limit, retweets);
+                    return buildFeedbackFV(fbDocs, fbTerms, selectResults.scoreDocs, trecMicroblogAPIWrapper.getStopper(), trecMicroblogAPIWrapper.getCollectionStats());
+                });
+            }
+
+            Selection selection = Pipeline.await(selectionStage);
+            int c_sel;
             if ("taily".equalsIgnoreCase(method)) {
-                selection = tailyManager.selection(query, v, topics);
                 if (topics) {
                     c_sel = tailyManager.getTopics().size();
                 } else {
                     c_sel = tailyManager.getUsers().size();
                 }
             } else {
-                selection = selectionManager.selection(query, filterQuery, maxId, epochs, sLimit, sRetweets, sFuture,
-                        method, maxCol, minRanks, normalize, topics);
                 SelectionTopDocuments selectionTopDocuments = selection.getResults();
                 c_sel = selectionTopDocuments.getC_sel();
             }
 
-            Set<String> selected;
-            if (topic.isPresent()) {
-                selected = Sets.newHashSet(topic.get());
-            } else {
-                selected = Sets.newHashSet(Iterables.limit(selection.getCollections().keySet(), fbCols));
-            }
-
-            SelectionTopDocuments shardResults = shardsManager.search(maxId, epochs, sRetweets, sFuture, limit, topics, query, filterQuery, selected);
+            SelectionTopDocuments shardResults = Pipeline.await(shardsStage);
             shardResults.scoreDocs = shardResults.scoreDocs.subList(0, Math.min(fbDocs, shardResults.scoreDocs.size()));
 
             RerankerContext shardContext = new RerankerContext(null, null, "MB000", query,
@@ -163,9 +193,14 @@ public SelectionSearchResponse search(@Parameter(name = "Search query", required
 
             FeatureVector feedbackFV = null;
             FeatureVector fbVector;
-            if (fbMerge) {
-                TopDocuments selectResults = trecMicroblogAPIWrapper.search(query, maxId, limit, retweets);
-                feedbackFV = buildFeedbackFV(fbDocs, fbTerms, selectResults.scoreDocs, trecMicroblogAPIWrapper.getStopper(), trecMicroblogAPIWrapper.getCollectionStats());
+            if (mergeStage != null && deadline.isExpired() && !mergeStage.isDone()) {
+                // past the deadline the merged feedback is not waited for, nor run if it has not started yet
+                logger.warn("Deadline reached, skipping merged feedback: {}", query);
+                mergeStage.cancel(false);
+            } else if (mergeStage != null) {
+                feedbackFV = Pipeline.await(mergeStage);
+            }
+            if (feedbackFV != null) {
                 fbVector = interpruneFV(fbTerms, fbWeight.floatValue(), shardsFV, feedbackFV);
             } else {
                 fbVector = shardsFV;
@@ -176,6 +211,7 @@ public SelectionSearchResponse search(@Parameter(name = "Search query", required
             String finalQuery = buildQuery(fbVector);
 
             TopDocuments results = trecMicroblogAPIWrapper.search(finalQuery, maxId, limit, retweets);
+            logger.debug("Stages {} {}", pipeline, query);
 
             RerankerCascade cascade = new RerankerCascade();
             if (temporal) {
@@ -199,6 +235,9 @@ public SelectionSearchResponse search(@Parameter(name = "Search query", required
             ResponseHeader responseHeader = new ResponseHeader(counter.incrementAndGet(), 0, (endTime - startTime), params);
             SelectionFeedbackDocumentsResponse documentsResponse = new SelectionFeedbackDocumentsResponse(selection.getCollections().entrySet(), method, c_sel, totalFbDocs, fbTerms, shardsFV.getMap().entrySet(), feedbackFV != null ? feedbackFV.getMap().entrySet() : null, fbVector.getMap().entrySet(), 0, selection.getResults() != null ? selection.getResults().scoreDocs : null, shardResults, results);
             return new SelectionSearchResponse(responseHeader, documentsResponse);
+        } catch (RejectedExecutionException e) {
+            logger.warn("Request rejected, the stage pool is full");
+            throw new ServiceUnavailableException("Too many requests", (Long) null);
         } catch (ParseException pe) {
             throw new BadRequestException(pe.getClass().getSimpleName());
         } catch (IOException | TException | ClassNotFoundException ioe) {
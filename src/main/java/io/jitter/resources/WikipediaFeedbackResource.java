@@ -9,6 +9,7 @@
 import io.jitter.api.search.SearchResponse;
 import io.jitter.core.document.FeatureVector;
 import io.jitter.core.search.SearchManager;
+import io.jitter.core.search.SearchSnapshot;
 import io.jitter.core.search.TopDocuments;
 import io.jitter.core.utils.Epochs;
 import io.jitter.core.wikipedia.WikipediaManager;
@@ -81,7 +82,8 @@ public SearchResponse search(@Parameter(name = "Search query", required = true)
                                  @Parameter(hidden = true) @Context UriInfo uriInfo) {
         MultivaluedMap<String, String> params = uriInfo.getQueryParameters();
 
-        try {
+        // the searches and the feedback from their hits read the same reader
+        try (SearchSnapshot snapshot = searchManager.snapshot()) {
             long startTime = System.currentTimeMillis();
             String query = URLDecoder.decode(q, StandardCharsets.UTF_8);
             String filterQuery = URLDecoder.decode(fq.orElse(""), StandardCharsets.UTF_8);
@@ -98,12 +100,12 @@ public SearchResponse search(@Parameter(name = "Search query", required = true)
             FeatureVector fbVector = null;
             if (fbDocs > 0 && fbTerms > 0) {
                 FeatureVector queryFV = buildQueryFV(query, wikipediaManager.getStopper());
-                FeatureVector feedbackFV = buildFeedbackFV(fbDocs, fbTerms, selectResults.scoreDocs, searchManager.getStopper(), searchManager.getCollectionStats());
+                FeatureVector feedbackFV = buildFeedbackFV(fbDocs, fbTerms, selectResults.scoreDocs, searchManager.getStopper(), snapshot.getCollectionStats());
                 fbVector = interpruneFV(fbTerms, fbWeight.floatValue(), queryFV, feedbackFV);
                 finalQuery = buildQuery(fbVector);
             }
 
-            TopDocuments results = searchManager.search(finalQuery, filterQuery, maxId, limit, retweets, epochs);
+            TopDocuments results = searchManager.search(snapshot, finalQuery, filterQuery, maxId, limit, retweets, epochs, false, false, null);
 
             int totalFbDocs = selectResults != null ? selectResults.scoreDocs.size() : 0;
             int totalHits = results != null ? results.totalHits : 0;
@@ -0,0 +1,23 @@
+package io.jitter.tasks;
+
+import io.dropwizard.servlets.tasks.Task;
+import io.jitter.core.cache.ResultCache;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+
+public class ResultCacheClearTask extends Task {
+
+    private final ResultCache resultCache;
+
+    public ResultCacheClearTask(ResultCache resultCache) {
+        super("cache-clear");
+        this.resultCache = resultCache;
+    }
+
+    @Override
+    public void execute(Map<String, List<String>> map, PrintWriter printWriter) throws Exception {
+        resultCache.clear();
+    }
+}
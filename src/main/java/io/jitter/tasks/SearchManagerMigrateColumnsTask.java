@@ -0,0 +1,23 @@
+package io.jitter.tasks;
+
+import io.dropwizard.servlets.tasks.Task;
+import io.jitter.core.search.SearchManager;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+
+public class SearchManagerMigrateColumnsTask extends Task {
+
+    private final SearchManager searchManager;
+
+    public SearchManagerMigrateColumnsTask(SearchManager searchManager) {
+        super("search-migrate-columns");
+        this.searchManager = searchManager;
+    }
+
+    @Override
+    public void execute(Map<String, List<String>> map, PrintWriter printWriter) throws Exception {
+        searchManager.migrateColumns();
+    }
+}
@@ -0,0 +1,26 @@
+package io.jitter.tasks;
+
+import io.dropwizard.servlets.tasks.Task;
+import io.jitter.core.shards.ShardsManager;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+
+public class ShardsManagerMigrateColumnsTask extends Task {
+
+    private final ShardsManager shardsManager;
+
+    public ShardsManagerMigrateColumnsTask(ShardsManager shardsManager) {
+        super("shards-migrate-columns");
+        this.shardsManager = shardsManager;
+    }
+
+    @Override
+    public void execute(Map<String, List<String>> map, PrintWriter printWriter) throws Exception {
+        if (shardsManager.isIndexing())
+            throw new TaskIsAlreadyRunningException(getName() + " is already running.");
+
+        shardsManager.migrateColumns();
+    }
+}
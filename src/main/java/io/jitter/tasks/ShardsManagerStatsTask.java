@@ -16,8 +16,16 @@ public ShardsManagerStatsTask(ShardsManager shardsManager) {
         this.shardsManager = shardsManager;
     }
 
+    /**
+     * Scans the index to verify the shard sizes counted while indexing and prints those that drifted. With the
+     * {@code reset} parameter the counted sizes are replaced with the scanned ones.
+     */
     @Override
     public void execute(Map<String, List<String>> map, PrintWriter printWriter) throws Exception {
-        shardsManager.collectStats();
+        Map<String, Integer> drift = shardsManager.verifyStats(map.containsKey("reset"));
+        for (Map.Entry<String, Integer> entry : drift.entrySet()) {
+            printWriter.println(entry.getKey() + "\t" + entry.getValue());
+        }
+        printWriter.flush();
     }
 }
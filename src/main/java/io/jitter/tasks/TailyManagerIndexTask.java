@@ -18,13 +18,26 @@ public TailyManagerIndexTask(TailyManager tailyManager) {
         this.tailyManager = tailyManager;
     }
 
+    /**
+     * Builds a new generation of the Taily stores and swaps it in, or with the {@code progress} parameter prints the
+     * progress of the running build.
+     */
     @Timed
     @ExceptionMetered
     @Override
     public void execute(Map<String, List<String>> map, PrintWriter printWriter) throws Exception {
+        if (map.containsKey("progress")) {
+            String progress = tailyManager.getBuildProgress();
+            printWriter.println(progress != null ? progress : "not running");
+            printWriter.flush();
+            return;
+        }
+
         if (tailyManager.isIndexing())
-            throw new TaskIsAlreadyRunningException(getName() + " is already running.");
+            throw new TaskIsAlreadyRunningException(getName() + " is already running: " + tailyManager.getBuildProgress());
 
         tailyManager.index();
+        printWriter.println("serving " + tailyManager.getGeneration());
+        printWriter.flush();
     }
 }
@@ -0,0 +1,30 @@
+package io.jitter.tasks;
+
+import com.codahale.metrics.annotation.ExceptionMetered;
+import com.codahale.metrics.annotation.Timed;
+import io.dropwizard.servlets.tasks.Task;
+import io.jitter.core.taily.TailyManager;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+
+public class TailyManagerMigrateStoresTask extends Task {
+
+    private final TailyManager tailyManager;
+
+    public TailyManagerMigrateStoresTask(TailyManager tailyManager) {
+        super("taily-migrate-stores");
+        this.tailyManager = tailyManager;
+    }
+
+    @Timed
+    @ExceptionMetered
+    @Override
+    public void execute(Map<String, List<String>> map, PrintWriter printWriter) throws Exception {
+        if (tailyManager.isIndexing())
+            throw new TaskIsAlreadyRunningException(getName() + " is already running.");
+
+        tailyManager.migrateStores();
+    }
+}
@@ -0,0 +1,109 @@
+package io.jitter.core.search;
+
+import cc.twittertools.index.IndexStatuses;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Random status index and timing helpers shared by the main-method benchmarks. Statuses have the id and epoch
+ * fields and columns of the live index, and a text of approximately zipfian terms from a fixed vocabulary.
+ */
+public class BenchmarkFixture {
+
+    public static final String FIELD = IndexStatuses.StatusField.TEXT.name;
+    public static final long FIRST_EPOCH = 1_300_000_000L;
+
+    private final String[] vocabulary;
+
+    public BenchmarkFixture(int vocabularySize) {
+        vocabulary = new String[vocabularySize];
+        for (int i = 0; i < vocabularySize; i++) {
+            vocabulary[i] = "term" + i;
+        }
+    }
+
+    public String zipfTerm(Random random) {
+        // approximately zipfian: low ranks are much more frequent
+        double u = random.nextDouble();
+        int rank = (int) Math.floor(Math.pow(vocabulary.length, u)) - 1;
+        return vocabulary[Math.max(0, Math.min(vocabulary.length - 1, rank))];
+    }
+
+    /**
+     * Writes {@code numDocs} statuses without merging, so the index has a segment per {@code maxBufferedDocs}, like a
+     * live index between merges.
+     *
+     * @param indexSort sort of the index, or null for arrival order
+     */
+    public void buildIndex(Path indexPath, Analyzer analyzer, int numDocs, int maxBufferedDocs, Sort indexSort) throws IOException {
+        Random random = new Random(0);
+        IndexWriterConfig config = new IndexWriterConfig(analyzer);
+        if (indexSort != null) {
+            config.setIndexSort(indexSort);
+        }
+        config.setMergePolicy(NoMergePolicy.INSTANCE);
+        config.setMaxBufferedDocs(maxBufferedDocs);
+        try (IndexWriter writer = new IndexWriter(FSDirectory.open(indexPath), config)) {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < numDocs; i++) {
+                text.setLength(0);
+                int length = 5 + random.nextInt(15);
+                for (int j = 0; j < length; j++) {
+                    text.append(zipfTerm(random)).append(' ');
+                }
+                // statuses arrive roughly in time order, about one per second
+                long epoch = FIRST_EPOCH + i + random.nextInt(60);
+                Document doc = new Document();
+                doc.add(new LongPoint(IndexStatuses.StatusField.ID.name, i));
+                doc.add(new StoredField(IndexStatuses.StatusField.ID.name, (long) i));
+                doc.add(new LongPoint(IndexStatuses.StatusField.EPOCH.name, epoch));
+                doc.add(new StoredField(IndexStatuses.StatusField.EPOCH.name, epoch));
+                doc.add(new TextField(FIELD, text.toString(), Field.Store.NO));
+                StatusColumns.addColumns(doc);
+                writer.addDocument(doc);
+            }
+            writer.commit();
+        }
+    }
+
+    public interface Run {
+        void run(int i) throws IOException;
+    }
+
+    /**
+     * Runs {@code run} for {@code 0..runs-1} once to warm up, then once more timing each run.
+     *
+     * @return the sorted nanoseconds of the timed runs
+     */
+    public static long[] latencies(int runs, Run run) throws IOException {
+        for (int i = 0; i < runs; i++) {
+            run.run(i);
+        }
+        long[] latencies = new long[runs];
+        for (int i = 0; i < runs; i++) {
+            long startTime = System.nanoTime();
+            run.run(i);
+            latencies[i] = System.nanoTime() - startTime;
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    public static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+}
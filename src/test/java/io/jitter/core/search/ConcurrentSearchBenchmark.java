@@ -0,0 +1,83 @@
+package io.jitter.core.search;
+
+import io.jitter.core.analysis.TweetAnalyzer;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopScoreDocCollectorManager;
+import org.apache.lucene.search.similarities.LMDirichletSimilarity;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures single query latency (p50/p99) over a multi-segment index while varying the number of threads
+ * used for intra-query segment search.
+ * <p>
+ * Run with: {@code java -cp <test classpath> io.jitter.core.search.ConcurrentSearchBenchmark [numDocs] [numQueries]}
+ */
+public class ConcurrentSearchBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int numQueries = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+        BenchmarkFixture fixture = new BenchmarkFixture(2000);
+        Path indexPath = Files.createTempDirectory("jitter-bench");
+        Analyzer analyzer = new TweetAnalyzer();
+        fixture.buildIndex(indexPath, analyzer, numDocs, Math.max(1000, numDocs / 32), null);
+
+        Random random = new Random(42);
+        Query[] queries = new Query[numQueries];
+        QueryParser parser = new QueryParser(BenchmarkFixture.FIELD, analyzer);
+        for (int i = 0; i < numQueries; i++) {
+            queries[i] = parser.parse(fixture.zipfTerm(random) + " " + fixture.zipfTerm(random) + " " + fixture.zipfTerm(random));
+        }
+
+        try {
+            System.out.println(String.format(Locale.ENGLISH, "%8s %10s %10s", "threads", "p50 (ms)", "p99 (ms)"));
+            report(indexPath, queries, null, 0);
+            for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors(); threads *= 2) {
+                ExecutorService executor = Executors.newFixedThreadPool(threads);
+                try {
+                    report(indexPath, queries, executor, threads);
+                } finally {
+                    executor.shutdown();
+                }
+            }
+        } finally {
+            IOUtils.rm(indexPath);
+        }
+    }
+
+    private static void report(Path indexPath, Query[] queries, ExecutorService executor, int threads) throws IOException {
+        RefreshingSearcherManager searcherManager = new RefreshingSearcherManager(indexPath, new LMDirichletSimilarity(2500), false, 1000);
+        if (executor != null) {
+            searcherManager.setExecutor(executor, 250_000, 5);
+        }
+        searcherManager.start();
+        try {
+            long[] latencies = BenchmarkFixture.latencies(queries.length, i -> search(searcherManager, queries[i]));
+            System.out.println(String.format(Locale.ENGLISH, "%8s %10.2f %10.2f", executor == null ? "none" : String.valueOf(threads),
+                    BenchmarkFixture.percentile(latencies, 0.50) / 1e6, BenchmarkFixture.percentile(latencies, 0.99) / 1e6));
+        } finally {
+            searcherManager.close();
+        }
+    }
+
+    private static void search(RefreshingSearcherManager searcherManager, Query query) throws IOException {
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            searcher.search(query, new TopScoreDocCollectorManager(1000, 1000));
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package io.jitter.core.search;
+
+import cc.twittertools.index.IndexStatuses;
+import cc.twittertools.util.QueryLikelihoodModel;
+import io.jitter.api.collectionstatistics.CollectionStats;
+import io.jitter.api.collectionstatistics.IndexCollectionStats;
+import io.jitter.core.analysis.TweetAnalyzer;
+import io.jitter.core.document.DocVector;
+import io.jitter.core.utils.SearchUtils;
+import junit.framework.TestCase;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.SmallFloat;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class QueryLikelihoodRescorerTest extends TestCase {
+
+    private static final String FIELD = IndexStatuses.StatusField.TEXT.name;
+    private static final float MU = 2500;
+
+    private final Analyzer analyzer = new TweetAnalyzer();
+    private final Directory directory = new ByteBuffersDirectory();
+    private DirectoryReader reader;
+    private String[] texts;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (reader != null) {
+            reader.close();
+        }
+        directory.close();
+    }
+
+    private void index(boolean termVectors) throws IOException {
+        index(termVectors, 3, 15);
+    }
+
+    // texts of minLength to maxLength - 1 terms
+    private void index(boolean termVectors, int minLength, int maxLength) throws IOException {
+        FieldType fieldType = new FieldType(TextField.TYPE_STORED);
+        fieldType.setStoreTermVectors(termVectors);
+        fieldType.freeze();
+
+        Random random = new Random(42);
+        IndexWriterConfig config = new IndexWriterConfig(analyzer);
+        config.setMaxBufferedDocs(100);
+        texts = new String[500];
+        try (IndexWriter writer = new IndexWriter(directory, config)) {
+            for (int i = 0; i < texts.length; i++) {
+                StringBuilder text = new StringBuilder();
+                int length = minLength + random.nextInt(maxLength - minLength);
+                for (int j = 0; j < length; j++) {
+                    text.append("word").append((char) ('a' + random.nextInt(20))).append(' ');
+                }
+                texts[i] = text.toString();
+                Document doc = new Document();
+                doc.add(new Field(FIELD, texts[i], fieldType));
+                writer.addDocument(doc);
+            }
+        }
+        reader = DirectoryReader.open(directory);
+        assertTrue(reader.leaves().size() > 1);
+    }
+
+    public void testSameScoresAsComputeQLScore() throws IOException {
+        index(true);
+        assertSameScores();
+    }
+
+    public void testSameScoresFromTextWithoutTermVectors() throws IOException {
+        index(false);
+        assertSameScores();
+    }
+
+    public void testSameScoresWithLengthsNormsEncodeLossily() throws IOException {
+        index(true, QueryLikelihoodRescorer.EXACT_NORM_LENGTH - 10, QueryLikelihoodRescorer.EXACT_NORM_LENGTH + 30);
+        assertSameScores();
+    }
+
+    public void testSameScoresWithLengthsNormsEncodeLossilyWithoutTermVectors() throws IOException {
+        index(false, QueryLikelihoodRescorer.EXACT_NORM_LENGTH - 10, QueryLikelihoodRescorer.EXACT_NORM_LENGTH + 30);
+        assertSameScores();
+    }
+
+    public void testExactNormLengths() {
+        for (int length = 0; length < QueryLikelihoodRescorer.EXACT_NORM_LENGTH; length++) {
+            assertEquals(length, SmallFloat.byte4ToInt(SmallFloat.intToByte4(length)));
+        }
+        assertEquals(SmallFloat.intToByte4(QueryLikelihoodRescorer.EXACT_NORM_LENGTH),
+                SmallFloat.intToByte4(QueryLikelihoodRescorer.EXACT_NORM_LENGTH + 1));
+    }
+
+    private void assertSameScores() throws IOException {
+        CollectionStats collectionStats = new IndexCollectionStats(reader, FIELD);
+        QueryLikelihoodModel qlModel = new QueryLikelihoodModel(MU);
+        QueryLikelihoodRescorer rescorer = new QueryLikelihoodRescorer(FIELD, MU);
+
+        Random random = new Random(7);
+        for (int q = 0; q < 50; q++) {
+            String query = "worda wordb word" + (char) ('a' + random.nextInt(22)) + " word" + (char) ('a' + random.nextInt(20));
+
+            // candidates in score order, not doc id order
+            int[] docIds = new int[100];
+            String[] candidateTexts = new String[docIds.length];
+            for (int i = 0; i < docIds.length; i++) {
+                docIds[i] = random.nextInt(texts.length);
+                candidateTexts[i] = texts[docIds[i]];
+            }
+            double[] scores = rescorer.rescore(reader, analyzer, collectionStats, query, docIds, candidateTexts);
+
+            Map<String, Float> weights = qlModel.parseQuery(analyzer, query);
+            HashMap<String, Long> ctfs = new HashMap<>();
+            for (String term : weights.keySet()) {
+                ctfs.put(term, collectionStats.totalTermFreq(term));
+            }
+            for (int i = 0; i < docIds.length; i++) {
+                DocVector docVector = docVector(docIds[i]);
+                double expected = qlModel.computeQLScore(weights, ctfs, docVector.vector, collectionStats.getSumTotalTermFreq());
+                assertEquals(query + " doc " + docIds[i], expected, scores[i], 0.0);
+            }
+        }
+    }
+
+    public void testNaNWithoutTermVectorOrText() throws IOException {
+        // lengths the norms do not tell exactly
+        index(false, QueryLikelihoodRescorer.EXACT_NORM_LENGTH, QueryLikelihoodRescorer.EXACT_NORM_LENGTH + 30);
+        QueryLikelihoodRescorer rescorer = new QueryLikelihoodRescorer(FIELD, MU);
+        double[] scores = rescorer.rescore(reader, analyzer, new IndexCollectionStats(reader, FIELD), "worda", new int[]{0, 1}, null);
+        assertTrue(Double.isNaN(scores[0]));
+        assertTrue(Double.isNaN(scores[1]));
+    }
+
+    private DocVector docVector(int doc) throws IOException {
+        Terms termVector = reader.termVectors().get(doc, FIELD);
+        if (termVector == null) {
+            return SearchUtils.buildDocVector(analyzer, texts[doc]);
+        }
+        DocVector docVector = new DocVector();
+        TermsEnum termsEnum = termVector.iterator();
+        BytesRef bytesRef;
+        while ((bytesRef = termsEnum.next()) != null) {
+            docVector.setTermFreq(bytesRef.utf8ToString(), (int) termsEnum.totalTermFreq());
+        }
+        return docVector;
+    }
+}
@@ -0,0 +1,89 @@
+package io.jitter.core.search;
+
+import junit.framework.TestCase;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.ScoreDoc;
+
+public class SearchCursorTest extends TestCase {
+
+    public void testStart() {
+        SearchCursor cursor = SearchCursor.parse(SearchCursor.START);
+        assertNull(cursor.after(7, null));
+        assertNull(cursor.after(7, StatusColumns.TIME_SORT));
+        assertEquals(-1, cursor.getGeneration());
+    }
+
+    public void testScoreRanked() {
+        SearchCursor cursor = SearchCursor.parse(SearchCursor.next(7, new ScoreDoc(42, 1.5f)));
+        assertEquals(7, cursor.getGeneration());
+        ScoreDoc after = cursor.after(7, null);
+        assertFalse(after instanceof FieldDoc);
+        assertEquals(42, after.doc);
+        assertEquals(1.5f, after.score);
+
+        try {
+            cursor.after(8, null);
+            fail();
+        } catch (SearchCursor.StaleCursorException e) {
+            // refreshed reader
+        }
+        try {
+            cursor.after(7, StatusColumns.TIME_SORT);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // another sort
+        }
+    }
+
+    public void testTimeSorted() {
+        FieldDoc last = new FieldDoc(42, Float.NaN, new Object[]{1_300_000_000L, 1000L});
+        SearchCursor cursor = SearchCursor.parse(SearchCursor.next(7, last));
+        // any reader will do
+        assertEquals(-1, cursor.getGeneration());
+        FieldDoc after = (FieldDoc) cursor.after(8, StatusColumns.TIME_SORT);
+        assertEquals(42, after.doc);
+        assertTrue(Float.isNaN(after.score));
+        assertEquals(1_300_000_000L, after.fields[0]);
+        assertEquals(1000L, after.fields[1]);
+
+        try {
+            cursor.after(8, null);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // another sort
+        }
+    }
+
+    public void testParseChecksSort() {
+        String scoreRanked = SearchCursor.next(7, new ScoreDoc(42, 1.5f));
+        String timeSorted = SearchCursor.next(7, new FieldDoc(42, Float.NaN, new Object[]{1_300_000_000L, 1000L}));
+        assertEquals(7, SearchCursor.parse(scoreRanked, null).getGeneration());
+        assertEquals(-1, SearchCursor.parse(timeSorted, StatusColumns.TIME_SORT).getGeneration());
+        SearchCursor.parse(SearchCursor.START, null);
+        SearchCursor.parse(SearchCursor.START, StatusColumns.TIME_SORT);
+
+        try {
+            SearchCursor.parse(scoreRanked, StatusColumns.TIME_SORT);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // another sort, before any search
+        }
+        try {
+            SearchCursor.parse(timeSorted, null);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // another sort, before any search
+        }
+    }
+
+    public void testInvalid() {
+        for (String invalid : new String[]{"", "abc", "MTox", "YTpiOmM"}) {
+            try {
+                SearchCursor.parse(invalid);
+                fail(invalid);
+            } catch (IllegalArgumentException e) {
+                // not returned by next
+            }
+        }
+    }
+}
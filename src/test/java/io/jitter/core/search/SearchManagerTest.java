@@ -0,0 +1,179 @@
+package io.jitter.core.search;
+
+import cc.twittertools.index.IndexStatuses.StatusField;
+import io.jitter.api.search.StatusDocument;
+import io.jitter.core.analysis.TweetAnalyzer;
+import junit.framework.TestCase;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.IOUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+
+public class SearchManagerTest extends TestCase {
+
+    private static final int NUM_DOCS = 300;
+    // every tenth status is indexed twice, as after a stream reconnect
+    private static final int NUM_DUPLICATES = NUM_DOCS / 10;
+
+    private Path indexPath;
+    private SearchManager searchManager;
+
+    @Override
+    protected void setUp() throws Exception {
+        indexPath = Files.createTempDirectory("search-manager-test");
+        FieldType textOptions = new FieldType(TextField.TYPE_STORED);
+        textOptions.setStoreTermVectors(true);
+
+        Random random = new Random(42);
+        IndexWriterConfig config = new IndexWriterConfig(new TweetAnalyzer());
+        config.setMaxBufferedDocs(50);
+        try (IndexWriter writer = new IndexWriter(FSDirectory.open(indexPath), config)) {
+            for (int i = 0; i < NUM_DOCS; i++) {
+                // out of time order, and some statuses in the same second
+                long id = 1000 + i;
+                long epoch = 1_300_000_000L + random.nextInt(NUM_DOCS / 3);
+                Document doc = new Document();
+                doc.add(new LongPoint(StatusField.ID.name, id));
+                doc.add(new StoredField(StatusField.ID.name, id));
+                doc.add(new LongPoint(StatusField.EPOCH.name, epoch));
+                doc.add(new StoredField(StatusField.EPOCH.name, epoch));
+                doc.add(new StoredField(StatusField.SCREEN_NAME.name, "user" + (i % 5)));
+                String text = random.nextBoolean() ? "search engines rank search results" : "time sorted search";
+                doc.add(new Field(StatusField.TEXT.name, text, textOptions));
+                StatusColumns.addColumns(doc);
+                writer.addDocument(doc);
+                if (i % 10 == 0) {
+                    writer.addDocument(doc);
+                }
+            }
+        }
+
+        searchManager = new SearchManager(indexPath.toString(), "", 2500, false, 1000);
+        searchManager.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        searchManager.stop();
+        IOUtils.rm(indexPath);
+    }
+
+    public void testLatestReturnsNewestFirst() throws Exception {
+        TopDocuments results = searchManager.search("search", "", Optional.empty(), 100, true, new long[]{0, 0}, false, true);
+        List<StatusDocument> docs = (List<StatusDocument>) results.scoreDocs;
+        assertEquals(100, docs.size());
+        for (int i = 1; i < docs.size(); i++) {
+            StatusDocument previous = docs.get(i - 1);
+            StatusDocument doc = docs.get(i);
+            assertTrue("epoch " + previous.epoch + " before " + doc.epoch, previous.epoch >= doc.epoch);
+            if (previous.epoch == doc.epoch) {
+                assertTrue("id " + previous.id + " before " + doc.id, previous.id > doc.id);
+            }
+            assertFalse(Double.isNaN(doc.getRsv()));
+        }
+    }
+
+    public void testRankedByRsvByDefault() throws Exception {
+        TopDocuments results = searchManager.search("search engines", "", Optional.empty(), 100, true, new long[]{0, 0}, false, false);
+        List<StatusDocument> docs = (List<StatusDocument>) results.scoreDocs;
+        assertFalse(docs.isEmpty());
+        for (int i = 1; i < docs.size(); i++) {
+            assertTrue(docs.get(i - 1).getRsv() >= docs.get(i).getRsv());
+        }
+    }
+
+    public void testExactTotalHits() throws Exception {
+        TopDocuments counted = searchManager.search("search", "", Optional.empty(), 10, true, new long[]{0, 0}, false, false);
+        // counting may stop once the collected hits are known
+        assertTrue(counted.totalHits >= 10 && counted.totalHits <= NUM_DOCS + NUM_DUPLICATES);
+
+        searchManager.setExactTotalHits(true);
+        TopDocuments exact = searchManager.search("search", "", Optional.empty(), 10, true, new long[]{0, 0}, false, false);
+        assertEquals(NUM_DOCS + NUM_DUPLICATES, exact.totalHits);
+        assertEquals(10, exact.scoreDocs.size());
+    }
+
+    public void testFullResultsWithoutDuplicatesOrRetweets() throws Exception {
+        TopDocuments results = searchManager.search("search", "", Optional.empty(), 100, false, new long[]{0, 0}, false, false);
+        List<StatusDocument> docs = (List<StatusDocument>) results.scoreDocs;
+        assertEquals(100, docs.size());
+        Set<Long> ids = new HashSet<>();
+        for (StatusDocument doc : docs) {
+            assertTrue("duplicate " + doc.id, ids.add(doc.id));
+        }
+    }
+
+    public void testCursorPagesOutliveRefresh() throws Exception {
+        searchManager.getSearcherManager().setCursorLease(60_000);
+        TopDocuments single = searchManager.search("search", "", Optional.empty(), 150, true, new long[]{0, 0}, false, false, SearchCursor.parse(SearchCursor.START));
+
+        SearchCursor cursor = SearchCursor.parse(SearchCursor.START);
+        // a duplicate can end one page and start the next
+        Set<Long> paged = new LinkedHashSet<>();
+        for (int page = 0; page < 3; page++) {
+            TopDocuments results = searchManager.search("search", "", Optional.empty(), 50, true, new long[]{0, 0}, false, false, cursor);
+            for (StatusDocument doc : (List<StatusDocument>) results.scoreDocs) {
+                paged.add(doc.id);
+            }
+            cursor = SearchCursor.parse(results.nextCursor);
+            if (page == 0) {
+                addStatus(5000, "search search search");
+                searchManager.getSearcherManager().refresh();
+            }
+        }
+        // the pages of the first reader, in the order they were collected
+        assertEquals(1, searchManager.getSearcherManager().getLeasedReaders());
+        List<Long> singleIds = new ArrayList<>();
+        for (StatusDocument doc : (List<StatusDocument>) single.scoreDocs) {
+            singleIds.add(doc.id);
+        }
+        assertEquals(singleIds, new ArrayList<>(paged));
+
+        TopDocuments current = searchManager.search("search", "", Optional.empty(), 50, true, new long[]{0, 0}, false, false);
+        assertEquals(5000L, ((List<StatusDocument>) current.scoreDocs).get(0).id);
+    }
+
+    public void testStaleCursorWithoutLease() throws Exception {
+        TopDocuments first = searchManager.search("search", "", Optional.empty(), 50, true, new long[]{0, 0}, false, false, SearchCursor.parse(SearchCursor.START));
+        addStatus(5000, "search search search");
+        searchManager.getSearcherManager().refresh();
+        try {
+            searchManager.search("search", "", Optional.empty(), 50, true, new long[]{0, 0}, false, false, SearchCursor.parse(first.nextCursor));
+            fail();
+        } catch (SearchCursor.StaleCursorException e) {
+            // the reader of the cursor was not leased
+        }
+    }
+
+    private void addStatus(long id, String text) throws Exception {
+        try (IndexWriter writer = new IndexWriter(FSDirectory.open(indexPath), new IndexWriterConfig(new TweetAnalyzer()))) {
+            FieldType textOptions = new FieldType(TextField.TYPE_STORED);
+            textOptions.setStoreTermVectors(true);
+            Document doc = new Document();
+            doc.add(new LongPoint(StatusField.ID.name, id));
+            doc.add(new StoredField(StatusField.ID.name, id));
+            doc.add(new LongPoint(StatusField.EPOCH.name, 1_400_000_000L));
+            doc.add(new StoredField(StatusField.EPOCH.name, 1_400_000_000L));
+            doc.add(new StoredField(StatusField.SCREEN_NAME.name, "user0"));
+            doc.add(new Field(StatusField.TEXT.name, text, textOptions));
+            StatusColumns.addColumns(doc);
+            writer.addDocument(doc);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package io.jitter.core.search;
+
+import cc.twittertools.index.IndexStatuses;
+import io.jitter.core.analysis.TweetAnalyzer;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldCollectorManager;
+import org.apache.lucene.search.TopScoreDocCollectorManager;
+import org.apache.lucene.search.similarities.LMDirichletSimilarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Measures query latency (p50/p99) of "latest matching tweets" queries, unfiltered and within a narrow epoch
+ * window, comparing the current layout (score ranked, unsorted index) with time ordered collection on an
+ * unsorted and on a {@link StatusColumns#TIME_SORT} sorted index.
+ * <p>
+ * Run with: {@code java -cp <test classpath> io.jitter.core.search.TimeSortedSearchBenchmark [numDocs] [numQueries] [n]}
+ */
+public class TimeSortedSearchBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int numQueries = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int n = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int len = 3 * n;
+
+        BenchmarkFixture fixture = new BenchmarkFixture(2000);
+        Path unsortedPath = Files.createTempDirectory("jitter-bench");
+        Path sortedPath = Files.createTempDirectory("jitter-bench");
+        Analyzer analyzer = new TweetAnalyzer();
+        int maxBufferedDocs = Math.max(1000, numDocs / 32);
+        fixture.buildIndex(unsortedPath, analyzer, numDocs, maxBufferedDocs, null);
+        fixture.buildIndex(sortedPath, analyzer, numDocs, maxBufferedDocs, StatusColumns.TIME_SORT);
+
+        Random random = new Random(42);
+        Query[] queries = new Query[numQueries];
+        Query[] windowQueries = new Query[numQueries];
+        QueryParser parser = new QueryParser(BenchmarkFixture.FIELD, analyzer);
+        for (int i = 0; i < numQueries; i++) {
+            queries[i] = parser.parse(fixture.zipfTerm(random) + " " + fixture.zipfTerm(random));
+            // one hour window somewhere in the collection
+            long firstEpoch = BenchmarkFixture.FIRST_EPOCH + random.nextInt(Math.max(1, numDocs - 3600));
+            windowQueries[i] = new BooleanQuery.Builder()
+                    .add(queries[i], BooleanClause.Occur.MUST)
+                    .add(LongPoint.newRangeQuery(IndexStatuses.StatusField.EPOCH.name, firstEpoch, firstEpoch + 3600), BooleanClause.Occur.FILTER)
+                    .build();
+        }
+
+        Supplier<CollectorManager<?, ? extends TopDocs>> byScore = () -> new TopScoreDocCollectorManager(len, len);
+        Supplier<CollectorManager<?, ? extends TopDocs>> byTime = () -> new TopFieldCollectorManager(StatusColumns.TIME_SORT, len, null, len);
+
+        try (Directory unsortedDir = FSDirectory.open(unsortedPath);
+             Directory sortedDir = FSDirectory.open(sortedPath);
+             DirectoryReader unsorted = DirectoryReader.open(unsortedDir);
+             DirectoryReader sorted = DirectoryReader.open(sortedDir)) {
+            System.out.println(String.format(Locale.ENGLISH, "%-8s %-24s %10s %10s", "queries", "layout", "p50 (ms)", "p99 (ms)"));
+            for (int k = 0; k < 2; k++) {
+                Query[] q = k == 0 ? queries : windowQueries;
+                String name = k == 0 ? "latest" : "window";
+                report(name, "score, unsorted", unsorted, q, byScore);
+                report(name, "time, unsorted", unsorted, q, byTime);
+                report(name, "time, time sorted", sorted, q, byTime);
+            }
+        } finally {
+            IOUtils.rm(unsortedPath, sortedPath);
+        }
+    }
+
+    private static void report(String name, String layout, DirectoryReader reader, Query[] queries,
+                               Supplier<CollectorManager<?, ? extends TopDocs>> collectorManager) throws IOException {
+        IndexSearcher searcher = new IndexSearcher(reader);
+        searcher.setSimilarity(new LMDirichletSimilarity(2500));
+        long[] latencies = BenchmarkFixture.latencies(queries.length, i -> searcher.search(queries[i], collectorManager.get()));
+        System.out.println(String.format(Locale.ENGLISH, "%-8s %-24s %10.2f %10.2f", name, layout,
+                BenchmarkFixture.percentile(latencies, 0.50) / 1e6, BenchmarkFixture.percentile(latencies, 0.99) / 1e6));
+    }
+}
@@ -0,0 +1,82 @@
+package io.jitter.core.search;
+
+import io.jitter.core.analysis.TweetAnalyzer;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopScoreDocCollectorManager;
+import org.apache.lucene.search.similarities.LMDirichletSimilarity;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures Dirichlet query likelihood latency (p50/p99) of short queries and of expanded feedback queries (boosted
+ * terms, as built by the feedback endpoints) when counting all hits exactly, and when counting stops after the
+ * {@code 3n} collected hits (the managers' default) or after {@code n}, which lets the collector skip
+ * non-competitive blocks of postings.
+ * <p>
+ * Run with: {@code java -cp <test classpath> io.jitter.core.search.TotalHitsBenchmark [numDocs] [numQueries]}
+ */
+public class TotalHitsBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numDocs = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int numQueries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        BenchmarkFixture fixture = new BenchmarkFixture(5000);
+        Path indexPath = Files.createTempDirectory("jitter-bench");
+        Analyzer analyzer = new TweetAnalyzer();
+        fixture.buildIndex(indexPath, analyzer, numDocs, Math.max(1000, numDocs / 8), null);
+
+        Random random = new Random(42);
+        QueryParser parser = new QueryParser(BenchmarkFixture.FIELD, analyzer);
+        int[] numTerms = {3, 20, 50};
+        Query[][] queries = new Query[numTerms.length][numQueries];
+        for (int k = 0; k < numTerms.length; k++) {
+            for (int i = 0; i < numQueries; i++) {
+                StringBuilder query = new StringBuilder();
+                for (int j = 0; j < numTerms[k]; j++) {
+                    query.append(fixture.zipfTerm(random)).append('^').append(String.format(Locale.ENGLISH, "%.4f", random.nextFloat() / numTerms[k])).append(' ');
+                }
+                queries[k][i] = parser.parse(query.toString().trim());
+            }
+        }
+
+        try (Directory dir = FSDirectory.open(indexPath);
+             DirectoryReader reader = DirectoryReader.open(dir)) {
+            System.out.println(String.format(Locale.ENGLISH, "%6s %6s %-12s %10s %10s", "terms", "n", "total hits", "p50 (ms)", "p99 (ms)"));
+            Similarity similarity = new LMDirichletSimilarity(2500);
+            for (int k = 0; k < numTerms.length; k++) {
+                // 50 is the default number of feedback documents, 1000 the default limit
+                for (int n : new int[]{50, 1000}) {
+                    int len = 3 * n;
+                    report(numTerms[k], n, "exact", reader, similarity, queries[k], len, Integer.MAX_VALUE);
+                    report(numTerms[k], n, "3n", reader, similarity, queries[k], len, len);
+                    report(numTerms[k], n, "n", reader, similarity, queries[k], len, n);
+                }
+            }
+        } finally {
+            IOUtils.rm(indexPath);
+        }
+    }
+
+    private static void report(int numTerms, int n, String totalHits, DirectoryReader reader, Similarity similarity,
+                               Query[] queries, int numHits, int totalHitsThreshold) throws IOException {
+        IndexSearcher searcher = new IndexSearcher(reader);
+        searcher.setSimilarity(similarity);
+        long[] latencies = BenchmarkFixture.latencies(queries.length,
+                i -> searcher.search(queries[i], new TopScoreDocCollectorManager(numHits, totalHitsThreshold)));
+        System.out.println(String.format(Locale.ENGLISH, "%6d %6d %-12s %10.2f %10.2f", numTerms, n, totalHits,
+                BenchmarkFixture.percentile(latencies, 0.50) / 1e6, BenchmarkFixture.percentile(latencies, 0.99) / 1e6));
+    }
+}
@@ -0,0 +1,168 @@
+package io.jitter.core.selection.methods;
+
+import cc.twittertools.thrift.gen.TResult;
+import io.jitter.api.search.ShardedDocument;
+import io.jitter.api.search.StatusDocument;
+import io.jitter.core.shards.ShardStats;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares the selection methods over shard ordinals with the shard id maps they used to be scored in.
+ */
+public class SelectionMethodTest extends TestCase {
+
+    private static final String[] METHODS = {"Votes", "Sizes", "CRCSLIN", "CRCSEXP", "CRCSLOGEXP", "RankS"};
+
+    public void testSameScoresAsShardIdMaps() {
+        Random random = new Random(42);
+        for (int iter = 0; iter < 200; iter++) {
+            int numShards = 1 + random.nextInt(200);
+            Map<String, Integer> sizes = new HashMap<>();
+            Map<String, Integer> csiSizes = new HashMap<>();
+            List<String> names = new ArrayList<>();
+            for (int i = 0; i < numShards; i++) {
+                String name = "user" + random.nextInt(100000);
+                names.add(name);
+                sizes.put(name, 1 + random.nextInt(5000));
+                csiSizes.put(name, 1 + random.nextInt(5000));
+            }
+            // sources indexed since the stats were collected
+            names.add("unknown1");
+            names.add("unknown2");
+            ShardStats csiStats = new ShardStats(csiSizes);
+            ShardStats shardStats = new ShardStats(sizes);
+
+            int numDocs = random.nextInt(1000);
+            List<StatusDocument> results = new ArrayList<>();
+            for (int i = 0; i < numDocs; i++) {
+                // skewed towards the first shards, and some negative scores
+                String name = names.get(random.nextInt(1 + random.nextInt(names.size())));
+                StatusDocument doc = new StatusDocument(new TResult());
+                doc.setScreen_name(name);
+                doc.setRsv(random.nextInt(3) == 0 ? -random.nextInt(5) : random.nextInt(10) / 3.0);
+                results.add(doc);
+            }
+            DocShards shards = new DocShards(csiStats, numDocs);
+            for (int i = 0; i < numDocs; i++) {
+                StatusDocument doc = results.get(i);
+                doc.setShardIds(shards.set(i, doc.getScreen_name()));
+                assertTrue(Arrays.equals(new String[]{doc.getScreen_name()}, doc.getShardIds()));
+            }
+
+            for (String name : METHODS) {
+                SelectionMethod<StatusDocument> method = SelectionMethodFactory.getMethod(name);
+                Map<String, Double> expected = rank(method, results, csiStats);
+                Map<String, Double> actual = method.rank(results, shards);
+                // same scores, built in the same order so that ties are broken the same way
+                assertEquals(name, new ArrayList<>(expected.entrySet()), new ArrayList<>(actual.entrySet()));
+                assertEquals(name, method.normalize(expected, csiStats, shardStats), method.normalize(actual, csiStats, shardStats));
+            }
+        }
+    }
+
+    public void testNormalizeSkipsShardsOnlyInLiveStats() {
+        Map<String, Integer> csiSizes = new HashMap<>();
+        csiSizes.put("alice", 10);
+        Map<String, Integer> sizes = new HashMap<>(csiSizes);
+        // indexed since the selection index was built, counted live in the shard stats
+        sizes.put("bob", 20);
+        ShardStats csiStats = new ShardStats(csiSizes);
+        ShardStats shardStats = new ShardStats(sizes);
+
+        Map<String, Double> rank = new HashMap<>();
+        rank.put("alice", 1.0);
+        rank.put("bob", 2.0);
+        for (String name : METHODS) {
+            Map<String, Double> normalized = SelectionMethodFactory.getMethod(name).normalize(rank, csiStats, shardStats);
+            assertEquals(name, List.of("alice"), new ArrayList<>(normalized.keySet()));
+        }
+    }
+
+    private static Map<String, Double> rank(SelectionMethod<StatusDocument> method, List<StatusDocument> results, ShardStats csiStats) {
+        if (method instanceof Sizes) {
+            Map<String, Double> sizes = new HashMap<>();
+            for (Map.Entry<String, Integer> entry : csiStats.getSizes().entrySet()) {
+                sizes.put(entry.getKey(), (double) entry.getValue());
+            }
+            return sizes;
+        } else if (method instanceof CRCSLOGEXP) {
+            HashMap<String, Double> scores = scores((CRCS<StatusDocument>) method, results);
+            Map<String, Double> counts = counts(results);
+            for (Map.Entry<String, Double> entry : scores.entrySet()) {
+                scores.put(entry.getKey(), Math.log(1.0 + counts.get(entry.getKey())) * entry.getValue());
+            }
+            return scores;
+        } else if (method instanceof CRCS) {
+            return scores((CRCS<StatusDocument>) method, results);
+        } else if (method instanceof RankS) {
+            return rankS(results);
+        }
+        return counts(results);
+    }
+
+    private static Map<String, Double> counts(List<? extends ShardedDocument> results) {
+        Map<String, Double> counts = new HashMap<>();
+        for (ShardedDocument result : results) {
+            for (String shardId : result.getShardIds()) {
+                add(counts, shardId, 1d);
+            }
+        }
+        return counts;
+    }
+
+    private static HashMap<String, Double> scores(CRCS<StatusDocument> method, List<StatusDocument> results) {
+        HashMap<String, Double> scores = new HashMap<>();
+        int j = 1;
+        for (StatusDocument result : results) {
+            double r = method.weight(j, results.size());
+            for (String shardId : result.getShardIds()) {
+                add(scores, shardId, r);
+            }
+            j++;
+        }
+        return scores;
+    }
+
+    private static Map<String, Double> rankS(List<StatusDocument> results) {
+        Map<String, Double> counts = counts(results);
+        double minRsv = Double.MAX_VALUE;
+        for (StatusDocument result : results) {
+            minRsv = Math.min(minRsv, result.getRsv());
+        }
+
+        HashMap<String, Double> map = new HashMap<>();
+        int step = 1;
+        for (int j = 1; j <= results.size(); j++) {
+            StatusDocument result = results.get(j - 1);
+            double r = Math.pow(50, -step);
+            r *= minRsv < 0 ? result.getRsv() + Math.abs(minRsv) : result.getRsv();
+            for (String shardId : result.getShardIds()) {
+                add(map, shardId, r);
+            }
+            if (j > 1) {
+                step++;
+            }
+        }
+        if (!results.isEmpty()) {
+            for (String topShard : results.get(0).getShardIds()) {
+                if (counts.get(topShard) == 1) {
+                    map.remove(topShard);
+                }
+            }
+        }
+        return map;
+    }
+
+    private static void add(Map<String, Double> scores, String shardId, double score) {
+        // put, not merge, which links new keys first in their bucket and so changes the iteration order
+        Double cur = scores.get(shardId);
+        scores.put(shardId, cur == null ? score : cur + score);
+    }
+}
@@ -0,0 +1,50 @@
+package io.jitter.core.shards;
+
+import com.google.common.collect.ImmutableSortedSet;
+import junit.framework.TestCase;
+
+import java.util.Map;
+
+public class ShardStatsCounterTest extends TestCase {
+
+    private ShardStatsCounter counter;
+
+    @Override
+    protected void setUp() {
+        counter = new ShardStatsCounter(Map.of(
+                "friends", ImmutableSortedSet.of("Alice", "bob"),
+                "others", ImmutableSortedSet.of("alice", "carol")));
+        counter.reset(new ShardStats(Map.of("alice", 10, "bob", 5)), new ShardStats(Map.of("friends", 15, "others", 10)));
+    }
+
+    public void testScannedSizesAtOnce() {
+        assertEquals(Map.of("alice", 10, "bob", 5), counter.getCollectionsShardStats().getSizes());
+        assertEquals(Map.of("friends", 15, "others", 10), counter.getTopicsShardStats().getSizes());
+
+        counter.reset(new ShardStats(Map.of("carol", 3)), null);
+        assertEquals(Map.of("carol", 3), counter.getCollectionsShardStats().getSizes());
+        assertEquals(Map.of("friends", 0, "others", 0), counter.getTopicsShardStats().getSizes());
+    }
+
+    public void testAddedSizesShareSnapshots() throws Exception {
+        ShardStats collections = counter.getCollectionsShardStats();
+        for (int i = 0; i < 100; i++) {
+            counter.add("ALICE");
+            counter.add("carol");
+            // the snapshot of the requests while statuses are indexed
+            assertSame(collections, counter.getCollectionsShardStats());
+        }
+        counter.add("stranger");
+
+        Thread.sleep(ShardStatsCounter.SNAPSHOT_MILLIS);
+        assertEquals(Map.of("alice", 110, "bob", 5, "carol", 100), counter.getCollectionsShardStats().getSizes());
+        assertEquals(Map.of("friends", 115, "others", 210), counter.getTopicsShardStats().getSizes());
+        assertEquals(Map.of("alice", -100, "carol", -100), counter.drift(new ShardStats(Map.of("alice", 10, "bob", 5))));
+    }
+
+    public void testUnchangedSnapshotKept() throws Exception {
+        ShardStats collections = counter.getCollectionsShardStats();
+        Thread.sleep(ShardStatsCounter.SNAPSHOT_MILLIS);
+        assertSame(collections, counter.getCollectionsShardStats());
+    }
+}
@@ -0,0 +1,103 @@
+package io.jitter.core.taily;
+
+import junit.framework.TestCase;
+import org.apache.lucene.util.IOUtils;
+import org.rocksdb.RocksDB;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+public class ShardDataTest extends TestCase {
+
+    public void testBytesRoundTrip() {
+        Random random = new Random(42);
+        List<ShardData> records = new ArrayList<>();
+        // the min of a shard the term was not seen in
+        records.add(new ShardData());
+        records.add(new ShardData(-0.0, 0, Double.MIN_VALUE, Double.MAX_VALUE));
+        records.add(new ShardData(Double.NEGATIVE_INFINITY, 1, Double.NaN, Double.POSITIVE_INFINITY));
+        for (int i = 0; i < 1000; i++) {
+            records.add(new ShardData(-random.nextDouble() * 20, random.nextInt(100000), -random.nextDouble() * 1e6,
+                    random.nextDouble() * 1e8));
+        }
+        for (ShardData data : records) {
+            byte[] bytes = data.toBytes();
+            assertEquals(ShardData.BYTES, bytes.length);
+            assertSame(data, ShardData.fromBytes(bytes));
+        }
+    }
+
+    public void testPackedAndFeatureRecordsReadAlike() throws Exception {
+        RocksDB.loadLibrary();
+        Path dbPath = Files.createTempDirectory("shard-data-test");
+        try {
+            Random random = new Random(7);
+            List<byte[]> terms = new ArrayList<>();
+            List<ShardData> records = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                terms.add(("t" + i).getBytes(UTF_8));
+                records.add(new ShardData(-random.nextDouble() * 20, 1 + random.nextInt(100), -random.nextDouble() * 1e3,
+                        random.nextDouble() * 1e5));
+            }
+            // a term of neither store
+            terms.add("missing".getBytes(UTF_8));
+
+            RocksDbShardStores packed = new RocksDbShardStores(dbPath + "/packed", false);
+            try (RocksDbShardStores.Batch batch = packed.batch()) {
+                for (int i = 0; i < records.size(); i++) {
+                    batch.putTermStats(Taily.SOURCES_DBENV, "alice", terms.get(i), records.get(i));
+                }
+                batch.write();
+            }
+            packed.close();
+
+            // the per-shard layout, a feature per statistic, migrated as it is
+            FeatureStore alice = new RocksDbFeatureStore(dbPath + "/" + Taily.SOURCES_DBENV + "/alice", false);
+            for (int i = 0; i < records.size(); i++) {
+                String term = new String(terms.get(i), UTF_8);
+                ShardData data = records.get(i);
+                alice.putFeature(term + FeatureStore.MIN_FEAT_SUFFIX, data.min, 1);
+                alice.putFeature(term + FeatureStore.SIZE_FEAT_SUFFIX, data.df, 1);
+                alice.putFeature(term + FeatureStore.FEAT_SUFFIX, data.f, 1);
+                alice.putFeature(term + FeatureStore.SQUARED_FEAT_SUFFIX, data.f2, 1);
+            }
+            alice.close();
+            RocksDbShardStores.migrate(dbPath.toString());
+
+            RocksDbShardStores packedStores = new RocksDbShardStores(dbPath + "/packed", true);
+            RocksDbShardStores featureStores = new RocksDbShardStores(dbPath + "/" + RocksDbShardStores.SHARDS_DBENV, true);
+            try {
+                ShardData[] packedStats = packedStores.store(Taily.SOURCES_DBENV, "alice").getTermStats(terms);
+                ShardData[] featureStats = featureStores.store(Taily.SOURCES_DBENV, "alice").getTermStats(terms);
+                for (int i = 0; i < records.size(); i++) {
+                    assertSame(records.get(i), packedStats[i]);
+                    assertSame(records.get(i), featureStats[i]);
+                }
+                assertNull(packedStats[records.size()]);
+                assertNull(featureStats[records.size()]);
+                // shards without the terms
+                assertNull(packedStores.store(Taily.SOURCES_DBENV, "bob").getTermStats(terms.get(0)));
+                assertNull(packedStores.store(Taily.TOPICS_DBENV, "alice").getTermStats(terms.get(0)));
+            } finally {
+                featureStores.close();
+                packedStores.close();
+            }
+        } finally {
+            IOUtils.rm(dbPath);
+        }
+    }
+
+    private static void assertSame(ShardData expected, ShardData actual) {
+        assertNotNull(actual);
+        // bit for bit, NaN and -0.0 included
+        assertEquals(Double.doubleToRawLongBits(expected.min), Double.doubleToRawLongBits(actual.min));
+        assertEquals(Double.doubleToRawLongBits(expected.df), Double.doubleToRawLongBits(actual.df));
+        assertEquals(Double.doubleToRawLongBits(expected.f), Double.doubleToRawLongBits(actual.f));
+        assertEquals(Double.doubleToRawLongBits(expected.f2), Double.doubleToRawLongBits(actual.f2));
+    }
+}
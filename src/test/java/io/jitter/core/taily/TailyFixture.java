@@ -0,0 +1,161 @@
+package io.jitter.core.taily;
+
+import cc.twittertools.index.IndexStatuses.StatusField;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MultiTerms;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Random status index of a few sources and topics, and the term statistics Taily builds of it.
+ */
+class TailyFixture {
+
+    // mixed case, as in the configuration, and a source of no topic
+    static final List<String> SOURCES = List.of("Alice", "bob", "CAROL", "dave", "eve", "gina");
+    // a source of two topics, and a source of a topic only
+    static final Map<String, List<String>> TOPICS = Map.of(
+            "Friends", List.of("alice", "Bob", "Eve"),
+            "others", List.of("carol", "Dave", "eve", "frank"));
+    // statuses of all of these
+    static final List<String> SCREEN_NAMES = List.of("alice", "bob", "carol", "dave", "eve", "gina", "frank", "stranger");
+
+    /**
+     * Writes {@code numDocs} statuses of more than {@code Taily.RANGE_TERMS} distinct terms, so that builds have
+     * several term ranges.
+     *
+     * @param sharded write the statuses of each source to their own index, in a subdirectory named by the source
+     */
+    static void buildIndex(Path indexPath, int numDocs, boolean sharded) throws IOException {
+        addStatuses(indexPath, statuses(numDocs, 7, "w"), sharded);
+    }
+
+    /**
+     * @param rarePrefix prefix of the rarer terms, the frequent ones are those of every call
+     * @return the screen name and text of {@code numDocs} random statuses
+     */
+    static List<String[]> statuses(int numDocs, long seed, String rarePrefix) {
+        List<String[]> statuses = new ArrayList<>(numDocs);
+        Random random = new Random(seed);
+        for (int i = 0; i < numDocs; i++) {
+            String screenName = SCREEN_NAMES.get(random.nextInt(SCREEN_NAMES.size()));
+            StringBuilder text = new StringBuilder();
+            int length = 3 + random.nextInt(15);
+            for (int j = 0; j < length; j++) {
+                if (random.nextBoolean()) {
+                    text.append('w').append(random.nextInt(200)).append(' ');
+                } else {
+                    text.append(rarePrefix).append(random.nextInt(40000)).append(' ');
+                }
+            }
+            statuses.add(new String[]{screenName, text.toString()});
+        }
+        return statuses;
+    }
+
+    /**
+     * Adds {@code statuses} to the index at {@code indexPath}, creating it if needed.
+     *
+     * @param sharded write the statuses of each source to their own index, in a subdirectory named by the source
+     */
+    static void addStatuses(Path indexPath, List<String[]> statuses, boolean sharded) throws IOException {
+        Map<String, IndexWriter> writers = new HashMap<>();
+        try {
+            for (String[] status : statuses) {
+                Document doc = new Document();
+                doc.add(new StringField(StatusField.SCREEN_NAME.name, status[0], Field.Store.YES));
+                doc.add(new TextField(StatusField.TEXT.name, status[1], Field.Store.YES));
+
+                String key = sharded ? status[0] : "";
+                IndexWriter writer = writers.get(key);
+                if (writer == null) {
+                    IndexWriterConfig config = new IndexWriterConfig(new WhitespaceAnalyzer());
+                    config.setMaxBufferedDocs(1000);
+                    writer = new IndexWriter(FSDirectory.open(sharded ? indexPath.resolve(status[0]) : indexPath), config);
+                    writers.put(key, writer);
+                }
+                writer.addDocument(doc);
+            }
+        } finally {
+            IOUtils.close(writers.values());
+        }
+    }
+
+    /**
+     * @return the corpus and shard sizes, and the statistics of every term of {@code reader} in the corpus and every
+     * shard
+     */
+    static Map<String, double[]> stats(FeatureStore corpus, ShardStores shardStores, IndexReader reader) throws IOException {
+        Map<String, double[]> stats = new TreeMap<>();
+        stats.put("corpus " + FeatureStore.SIZE_FEAT_SUFFIX, new double[]{corpus.getFeature(FeatureStore.SIZE_FEAT_SUFFIX)});
+        stats.put("corpus " + FeatureStore.TERM_SIZE_FEAT_SUFFIX, new double[]{corpus.getFeature(FeatureStore.TERM_SIZE_FEAT_SUFFIX)});
+
+        List<byte[]> terms = new ArrayList<>();
+        Terms textTerms = MultiTerms.getTerms(reader, StatusField.TEXT.name);
+        TermsEnum termsEnum = textTerms.iterator();
+        BytesRef bytesRef;
+        while ((bytesRef = termsEnum.next()) != null) {
+            terms.add(BytesRef.deepCopyOf(bytesRef).bytes);
+        }
+
+        for (byte[] term : terms) {
+            String termStr = new String(term, UTF_8);
+            stats.put("corpus " + termStr, new double[]{corpus.getFeature(termStr + FeatureStore.SIZE_FEAT_SUFFIX),
+                    corpus.getFeature(termStr + FeatureStore.TERM_SIZE_FEAT_SUFFIX)});
+        }
+
+        Map<String, List<String>> families = new HashMap<>();
+        List<String> sources = new ArrayList<>();
+        for (String source : SOURCES) {
+            sources.add(source.toLowerCase(Locale.ROOT));
+        }
+        families.put(Taily.SOURCES_DBENV, sources);
+        List<String> topics = new ArrayList<>();
+        for (String topic : TOPICS.keySet()) {
+            topics.add(topic.toLowerCase(Locale.ROOT));
+        }
+        families.put(Taily.TOPICS_DBENV, topics);
+
+        for (Map.Entry<String, List<String>> family : families.entrySet()) {
+            for (String shardId : family.getValue()) {
+                FeatureStore store = shardStores.store(family.getKey(), shardId);
+                String shard = family.getKey() + " " + shardId + " ";
+                stats.put(shard + FeatureStore.SIZE_FEAT_SUFFIX, new double[]{store.getFeature(FeatureStore.SIZE_FEAT_SUFFIX)});
+                ShardData[] termStats = store.getTermStats(terms);
+                for (int i = 0; i < terms.size(); i++) {
+                    ShardData data = termStats[i];
+                    if (data != null) {
+                        stats.put(shard + new String(terms.get(i), UTF_8), new double[]{data.min, data.df, data.f, data.f2});
+                    }
+                }
+            }
+        }
+        return stats;
+    }
+
+    interface ShardStores {
+        FeatureStore store(String family, String shardId);
+    }
+}
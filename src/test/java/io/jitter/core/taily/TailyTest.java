@@ -0,0 +1,102 @@
+package io.jitter.core.taily;
+
+import com.codahale.metrics.MetricRegistry;
+import junit.framework.TestCase;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.util.IOUtils;
+import org.rocksdb.RocksDB;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+
+public class TailyTest extends TestCase {
+
+    private static final int NUM_DOCS = 4000;
+
+    private Path dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        RocksDB.loadLibrary();
+        dir = Files.createTempDirectory("taily-test");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        IOUtils.rm(dir);
+    }
+
+    public void testShardedIndexSameStatsAsSingleIndex() throws Exception {
+        Map<String, double[]> single = build("single", false, 2, false);
+        Map<String, double[]> sharded = build("sharded", true, 2, false);
+        // the shard indexes add up the postings of a term in another order
+        assertStats(single, sharded, 1e-9);
+    }
+
+    public void testSameStatsOnAnyNumberOfThreads() throws Exception {
+        Map<String, double[]> oneThread = build("one-thread", false, 1, false);
+        Map<String, double[]> threads = build("threads", false, 4, false);
+        assertStats(oneThread, threads, 0.0);
+    }
+
+    public void testMappedStatsSameAsStores() throws Exception {
+        Map<String, double[]> stores = build("mapped", false, 2, true);
+
+        Path dbPath = dir.resolve("mapped-db");
+        try (MappedTailyStats mapped = new MappedTailyStats(dbPath.toString());
+             IndexReader reader = Taily.openIndex(dir.resolve("mapped-index"))) {
+            Map<String, double[]> stats = TailyFixture.stats(mapped.corpus(), mapped::store, reader);
+            assertStats(stores, stats, 0.0);
+
+            // the features of the statistics, as read by shard stores without the packed records
+            FeatureStore alice = mapped.store(Taily.SOURCES_DBENV, "alice");
+            for (Map.Entry<String, double[]> entry : stats.entrySet()) {
+                String prefix = Taily.SOURCES_DBENV + " alice ";
+                if (!entry.getKey().startsWith(prefix) || entry.getValue().length != 4) {
+                    continue;
+                }
+                String term = entry.getKey().substring(prefix.length());
+                double[] expected = entry.getValue();
+                assertEquals(expected[0], alice.getFeature(term + FeatureStore.MIN_FEAT_SUFFIX));
+                assertEquals(expected[1], alice.getFeature(term + FeatureStore.SIZE_FEAT_SUFFIX));
+                assertEquals(expected[2], alice.getFeature(term + FeatureStore.FEAT_SUFFIX));
+                assertEquals(expected[3], alice.getFeature(term + FeatureStore.SQUARED_FEAT_SUFFIX));
+            }
+            assertEquals(-1.0, alice.getFeature("missing" + FeatureStore.FEAT_SUFFIX));
+            assertEquals(-1.0, mapped.store(Taily.SOURCES_DBENV, "stranger").getFeature(FeatureStore.SIZE_FEAT_SUFFIX));
+        }
+    }
+
+    private Map<String, double[]> build(String name, boolean sharded, int threads, boolean mapped) throws Exception {
+        Path indexPath = dir.resolve(name + "-index");
+        Path dbPath = dir.resolve(name + "-db");
+        TailyFixture.buildIndex(indexPath, NUM_DOCS, sharded);
+        new Taily(dbPath.toString(), indexPath.toString(), 2500, threads, mapped, new MetricRegistry())
+                .build(TailyFixture.SOURCES, TailyFixture.TOPICS);
+
+        RocksDbFeatureStore corpus = new RocksDbFeatureStore(dbPath + "/" + Taily.CORPUS_DBENV, true);
+        RocksDbShardStores shardStores = new RocksDbShardStores(dbPath + "/" + RocksDbShardStores.SHARDS_DBENV, true);
+        try (IndexReader reader = Taily.openIndex(indexPath)) {
+            return TailyFixture.stats(corpus, shardStores::store, reader);
+        } finally {
+            shardStores.close();
+            corpus.close();
+        }
+    }
+
+    static void assertStats(Map<String, double[]> expected, Map<String, double[]> actual, double tolerance) {
+        assertEquals(expected.keySet(), actual.keySet());
+        // terms of several ranges, in sources and topics
+        assertTrue(expected.size() > 10000);
+        for (Map.Entry<String, double[]> entry : expected.entrySet()) {
+            double[] e = entry.getValue();
+            double[] a = actual.get(entry.getKey());
+            for (int i = 0; i < e.length; i++) {
+                assertEquals(entry.getKey() + " " + Arrays.toString(e) + " " + Arrays.toString(a),
+                        e[i], a[i], tolerance * Math.max(1, Math.abs(e[i])));
+            }
+        }
+    }
+}
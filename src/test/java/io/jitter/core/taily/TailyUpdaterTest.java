@@ -0,0 +1,265 @@
+package io.jitter.core.taily;
+
+import cc.twittertools.index.IndexStatuses.StatusField;
+import com.codahale.metrics.MetricRegistry;
+import junit.framework.TestCase;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiTerms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+import org.rocksdb.RocksDB;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+public class TailyUpdaterTest extends TestCase {
+
+    private static final float MU = 2500;
+
+    private Path dir;
+
+    @Override
+    protected void setUp() throws Exception {
+        RocksDB.loadLibrary();
+        dir = Files.createTempDirectory("taily-updater-test");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        IOUtils.rm(dir);
+    }
+
+    public void testDeltasAddUpToRebuild() throws Exception {
+        Path indexPath = dir.resolve("index");
+        TailyFixture.buildIndex(indexPath, 1000, false);
+        build(indexPath, "base");
+
+        // one batch, scored with the corpus statistics of all of the added statuses as a rebuild is
+        List<String[]> added = TailyFixture.statuses(TailyUpdater.BATCH_SIZE - 1, 11, "n");
+        TailyUpdater updater = new TailyUpdater(new WhitespaceAnalyzer(), MU, TailyFixture.SOURCES, TailyFixture.TOPICS);
+        RocksDbFeatureStore baseCorpus = new RocksDbFeatureStore(dir.resolve("base") + "/" + Taily.CORPUS_DBENV, true);
+        RocksDbShardStores baseStores = new RocksDbShardStores(dir.resolve("base") + "/" + RocksDbShardStores.SHARDS_DBENV, true);
+        updater.reset(baseCorpus);
+        for (String[] status : added) {
+            updater.add(status[0].toUpperCase(Locale.ROOT), status[1]);
+        }
+        updater.flush();
+
+        TailyFixture.addStatuses(indexPath, added, false);
+        build(indexPath, "rebuilt");
+        RocksDbFeatureStore corpus = new RocksDbFeatureStore(dir.resolve("rebuilt") + "/" + Taily.CORPUS_DBENV, true);
+        RocksDbShardStores stores = new RocksDbShardStores(dir.resolve("rebuilt") + "/" + RocksDbShardStores.SHARDS_DBENV, true);
+        try (IndexReader reader = Taily.openIndex(indexPath)) {
+            assertEquals(corpus.getFeature(FeatureStore.SIZE_FEAT_SUFFIX),
+                    baseCorpus.getFeature(FeatureStore.SIZE_FEAT_SUFFIX) + updater.getTotalDocs());
+
+            List<String> sources = new ArrayList<>(Taily.sourceTopicMap(TailyFixture.TOPICS).keySet());
+            for (String source : TailyFixture.SOURCES) {
+                sources.add(source.toLowerCase(Locale.ROOT));
+            }
+            List<String> topics = new ArrayList<>();
+            for (String topic : TailyFixture.TOPICS.keySet()) {
+                topics.add(topic.toLowerCase(Locale.ROOT));
+            }
+            for (String source : sources) {
+                assertSize(Taily.SOURCES_DBENV, source, baseStores, updater, stores);
+            }
+            for (String topic : topics) {
+                assertSize(Taily.TOPICS_DBENV, topic, baseStores, updater, stores);
+            }
+
+            int newTerms = 0;
+            TermsEnum termsEnum = MultiTerms.getTerms(reader, StatusField.TEXT.name).iterator();
+            BytesRef bytesRef;
+            while ((bytesRef = termsEnum.next()) != null) {
+                String term = bytesRef.utf8ToString();
+                double baseDf = Math.max(0, baseCorpus.getFeature(term + FeatureStore.SIZE_FEAT_SUFFIX));
+                assertEquals(term, corpus.getFeature(term + FeatureStore.SIZE_FEAT_SUFFIX), baseDf + updater.getCorpusDF(term));
+
+                for (String source : TailyFixture.SOURCES) {
+                    newTerms += assertTermStats(Taily.SOURCES_DBENV, source.toLowerCase(Locale.ROOT), term, baseStores, updater, stores);
+                }
+                for (String topic : topics) {
+                    newTerms += assertTermStats(Taily.TOPICS_DBENV, topic, term, baseStores, updater, stores);
+                }
+            }
+            assertTrue(newTerms > 100);
+        } finally {
+            stores.close();
+            corpus.close();
+            baseStores.close();
+            baseCorpus.close();
+        }
+    }
+
+    public void testResetKeepsStatusesSinceMark() throws Exception {
+        Path indexPath = dir.resolve("index");
+        TailyFixture.buildIndex(indexPath, 1000, false);
+        build(indexPath, "base");
+
+        TailyUpdater updater = new TailyUpdater(new WhitespaceAnalyzer(), MU, TailyFixture.SOURCES, TailyFixture.TOPICS);
+        RocksDbFeatureStore corpus = new RocksDbFeatureStore(dir.resolve("base") + "/" + Taily.CORPUS_DBENV, true);
+        try {
+            updater.reset(corpus);
+            // in the build, applied and pending
+            for (String[] status : TailyFixture.statuses(TailyUpdater.BATCH_SIZE + 10, 11, "m")) {
+                updater.add(status[0], status[1]);
+            }
+            updater.mark();
+            List<String[]> sinceMark = TailyFixture.statuses(2 * TailyUpdater.BATCH_SIZE + 10, 13, "n");
+            for (String[] status : sinceMark) {
+                updater.add(status[0], status[1]);
+            }
+
+            updater.reset(corpus, true);
+            assertEquals(sinceMark.size(), updater.getTotalDocs());
+            long eve = 0;
+            for (String[] status : sinceMark) {
+                eve += status[0].equals("eve") ? 1 : 0;
+                for (String term : status[1].split(" ")) {
+                    assertTrue(term, updater.getCorpusDF(term) > 0);
+                }
+            }
+            assertEquals(eve, updater.getShardSize(Taily.SOURCES_DBENV, "eve"));
+            for (String[] status : TailyFixture.statuses(TailyUpdater.BATCH_SIZE + 10, 11, "m")) {
+                for (String term : status[1].split(" ")) {
+                    if (term.startsWith("m")) {
+                        assertEquals(term, 0, updater.getCorpusDF(term));
+                    }
+                }
+            }
+
+            // a failed build keeps none
+            updater.mark();
+            updater.add("eve", "n1 n2");
+            updater.unmark();
+            updater.reset(corpus, true);
+            assertEquals(0, updater.getTotalDocs());
+        } finally {
+            corpus.close();
+        }
+    }
+
+    public void testBatchTakenBeforeResetNotAppliedTwice() throws Exception {
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // an empty corpus whose first lookup waits
+        FeatureStore corpus = new FeatureStore() {
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public double getFeature(String keyStr) {
+                return -1;
+            }
+
+            @Override
+            public double[] getFeatures(List<String> keyStrs) {
+                if (reading.getCount() > 0) {
+                    reading.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return FeatureStore.super.getFeatures(keyStrs);
+            }
+
+            @Override
+            public void putFeature(String keyStr, double val, long frequency) {
+            }
+
+            @Override
+            public void addValFeature(String keyStr, double val, long frequency) {
+            }
+        };
+
+        TailyUpdater updater = new TailyUpdater(new WhitespaceAnalyzer(), MU, TailyFixture.SOURCES, TailyFixture.TOPICS);
+        updater.reset(corpus);
+        updater.mark();
+        List<String[]> statuses = TailyFixture.statuses(TailyUpdater.BATCH_SIZE, 11, "n");
+        Thread adding = new Thread(() -> {
+            for (String[] status : statuses) {
+                updater.add(status[0], status[1]);
+            }
+        });
+        adding.start();
+        reading.await();
+
+        // the build is swapped in while the batch is being applied
+        Thread resetting = new Thread(() -> updater.reset(corpus, true));
+        resetting.start();
+        while (resetting.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        adding.join();
+        resetting.join();
+
+        assertEquals(statuses.size(), updater.getTotalDocs());
+    }
+
+    public void testStatusesSinceMarkBounded() throws Exception {
+        TailyUpdater updater = new TailyUpdater(new WhitespaceAnalyzer(), MU, TailyFixture.SOURCES, TailyFixture.TOPICS);
+        updater.mark();
+        for (int i = 0; i < TailyUpdater.MAX_SINCE_MARK + 10; i++) {
+            updater.add("eve", "w1");
+        }
+        RocksDbFeatureStore corpus = new RocksDbFeatureStore(dir.resolve("empty").toString(), false);
+        try {
+            updater.reset(corpus, true);
+            assertEquals(TailyUpdater.MAX_SINCE_MARK, updater.getTotalDocs());
+        } finally {
+            corpus.close();
+        }
+    }
+
+    private void build(Path indexPath, String name) throws Exception {
+        new Taily(dir.resolve(name).toString(), indexPath.toString(), MU, 2, false, new MetricRegistry())
+                .build(TailyFixture.SOURCES, TailyFixture.TOPICS);
+    }
+
+    private static void assertSize(String family, String shardId, RocksDbShardStores base, TailyUpdater updater,
+                                   RocksDbShardStores rebuilt) {
+        double baseSize = Math.max(0, base.store(family, shardId).getFeature(FeatureStore.SIZE_FEAT_SUFFIX));
+        assertEquals(family + " " + shardId, rebuilt.store(family, shardId).getFeature(FeatureStore.SIZE_FEAT_SUFFIX),
+                baseSize + updater.getShardSize(family, shardId));
+    }
+
+    /**
+     * Checks the df of a term in a shard, and all of its statistics where it is new to the shard, as those of the
+     * base build were scored with older corpus statistics.
+     *
+     * @return 1 if the term is new to the shard, otherwise 0
+     */
+    private static int assertTermStats(String family, String shardId, String term, RocksDbShardStores base,
+                                       TailyUpdater updater, RocksDbShardStores rebuilt) {
+        byte[] termBytes = term.getBytes(UTF_8);
+        ShardData baseStats = base.store(family, shardId).getTermStats(termBytes);
+        Map<String, ShardData> deltas = updater.getTermStats(family, term);
+        ShardData delta = deltas != null ? deltas.get(shardId) : null;
+        ShardData expected = rebuilt.store(family, shardId).getTermStats(termBytes);
+
+        String message = family + " " + shardId + " " + term;
+        double df = (baseStats != null ? baseStats.df : 0) + (delta != null ? delta.df : 0);
+        assertEquals(message, expected != null ? expected.df : 0, df);
+        if (baseStats != null || delta == null) {
+            return 0;
+        }
+        assertEquals(message, expected.min, delta.min, 1e-9 * Math.abs(expected.min));
+        assertEquals(message, expected.f, delta.f, 1e-9 * Math.abs(expected.f));
+        assertEquals(message, expected.f2, delta.f2, 1e-9 * Math.abs(expected.f2));
+        return 1;
+    }
+}
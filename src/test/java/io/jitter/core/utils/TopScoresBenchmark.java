@@ -0,0 +1,84 @@
+package io.jitter.core.utils;
+
+import io.jitter.core.search.BenchmarkFixture;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Compares picking the best shards of a ranking with {@link TopScores} against sorting the whole ranking into a
+ * {@link TreeMap} with a value comparator and walking it, as the selection paths used to do, for the {@code maxCol}
+ * best shards and for the shards above a threshold. {@link TopScoresTest} checks that they pick the same shards.
+ * <p>
+ * Run with: {@code java -cp <test classpath> io.jitter.core.utils.TopScoresBenchmark [iterations]}
+ */
+public class TopScoresBenchmark {
+
+    private static volatile int sink;
+
+    public static void main(String[] args) throws IOException {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        Random random = new Random(42);
+
+        System.out.println(String.format(Locale.ENGLISH, "%8s %6s %14s %14s %14s %14s", "shards", "k",
+                "treemap top-k", "heap top-k", "treemap min", "filter min"));
+        for (int numShards : new int[]{1_000, 10_000, 100_000}) {
+            Map<String, Double> ranking = new HashMap<>();
+            for (int i = 0; i < numShards; i++) {
+                // mostly low scores, as few shards match most of the query
+                ranking.put("shard" + i, Math.pow(random.nextDouble(), 8));
+            }
+            for (int k : new int[]{3, 10, 100}) {
+                // keep about k shards above the threshold
+                double min = Math.pow(1.0 - (double) k / numShards, 8);
+
+                long treeMapTop = time(iterations, () -> sink += treeMapTop(ranking, k).size());
+                long heapTop = time(iterations, () -> sink += TopScores.top(ranking, k).size());
+                long treeMapMin = time(iterations, () -> sink += treeMapAtLeast(ranking, min).size());
+                long filterMin = time(iterations, () -> sink += TopScores.atLeast(ranking, min).size());
+                System.out.println(String.format(Locale.ENGLISH, "%8d %6d %12.1fus %12.1fus %12.1fus %12.1fus",
+                        numShards, k, treeMapTop / 1000.0, heapTop / 1000.0, treeMapMin / 1000.0, filterMin / 1000.0));
+            }
+        }
+    }
+
+    /**
+     * @return the median nanoseconds of a run, after as many warmup runs
+     */
+    private static long time(int iterations, Runnable run) throws IOException {
+        return BenchmarkFixture.percentile(BenchmarkFixture.latencies(iterations, i -> run.run()), 0.5);
+    }
+
+    private static TreeMap<String, Double> treeMapSorted(Map<String, Double> ranking) {
+        TreeMap<String, Double> sortedMap = new TreeMap<>((a, b) -> ranking.get(a) >= ranking.get(b) ? -1 : 1);
+        sortedMap.putAll(ranking);
+        return sortedMap;
+    }
+
+    private static Map<String, Double> treeMapTop(Map<String, Double> ranking, int k) {
+        Map<String, Double> map = new LinkedHashMap<>();
+        int i = 0;
+        for (Map.Entry<String, Double> entry : treeMapSorted(ranking).entrySet()) {
+            i++;
+            if (i > k)
+                break;
+            map.put(entry.getKey(), entry.getValue());
+        }
+        return map;
+    }
+
+    private static Map<String, Double> treeMapAtLeast(Map<String, Double> ranking, double min) {
+        Map<String, Double> map = new LinkedHashMap<>();
+        for (Map.Entry<String, Double> entry : treeMapSorted(ranking).entrySet()) {
+            if (entry.getValue() < min)
+                break;
+            map.put(entry.getKey(), entry.getValue());
+        }
+        return map;
+    }
+}
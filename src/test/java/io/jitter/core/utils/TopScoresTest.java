@@ -0,0 +1,60 @@
+package io.jitter.core.utils;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class TopScoresTest extends TestCase {
+
+    public void testSameSelectionsAsSortingTheRanking() {
+        Random random = new Random(42);
+        for (int numShards : new int[]{0, 1, 10, 1_000, 10_000}) {
+            Map<String, Double> ranking = new HashMap<>();
+            for (int i = 0; i < numShards; i++) {
+                // mostly low scores, and ties
+                ranking.put("shard" + i, random.nextInt(10) == 0 ? 0.5 : Math.pow(random.nextDouble(), 8));
+            }
+            List<Map.Entry<String, Double>> sorted = sorted(ranking);
+            for (int k : new int[]{0, 1, 3, 10, 100, numShards, numShards + 1}) {
+                assertEquals(sorted.subList(0, Math.min(k, sorted.size())), entries(TopScores.top(ranking, k)));
+
+                double min = Math.pow(1.0 - (double) k / Math.max(1, numShards), 8);
+                List<Map.Entry<String, Double>> atLeast = new ArrayList<>();
+                for (Map.Entry<String, Double> entry : sorted) {
+                    if (entry.getValue() >= min) {
+                        atLeast.add(entry);
+                    }
+                }
+                assertEquals(atLeast, entries(TopScores.atLeast(ranking, min)));
+            }
+            assertEquals(sorted, entries(TopScores.sorted(ranking)));
+        }
+    }
+
+    public void testNaNLast() {
+        Map<String, Double> ranking = new HashMap<>();
+        ranking.put("a", Double.NaN);
+        ranking.put("b", 1.0);
+        ranking.put("c", -1.0);
+        assertEquals(List.of("b", "c", "a"), new ArrayList<>(TopScores.sorted(ranking).keySet()));
+        assertEquals(List.of("b", "c"), new ArrayList<>(TopScores.top(ranking, 2).keySet()));
+    }
+
+    private static List<Map.Entry<String, Double>> sorted(Map<String, Double> ranking) {
+        List<Map.Entry<String, Double>> sorted = new ArrayList<>(ranking.entrySet());
+        // best first, ties by shard
+        sorted.sort((a, b) -> {
+            int c = Double.compare(b.getValue(), a.getValue());
+            return c != 0 ? c : a.getKey().compareTo(b.getKey());
+        });
+        return sorted;
+    }
+
+    private static List<Map.Entry<String, Double>> entries(Map<String, Double> map) {
+        return new ArrayList<>(map.entrySet());
+    }
+}